@@ -0,0 +1,319 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.store.json.metrics.OperationType;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Manifest of the PKs of the objects of a class in cloud storage, so that a query can read the keys of its candidates from a few
+ * objects, read in parallel, rather than paging through a listing of the class. The manifest of a class is under "_manifest/{class}/"
+ * and is made up of
+ * <ul>
+ * <li>log segments "log/{time}-{uuid}", each written by a flush, with a line "+{pk}" for each object inserted and "-{pk}" for each
+ * object deleted</li>
+ * <li>snapshots "snapshot/{segment}", with a line for each PK of the class as of all segments up to the segment it is named after</li>
+ * </ul>
+ * A read takes the latest snapshot and applies the later segments in order. When a read applies more segments than the compaction
+ * threshold it writes a new snapshot, and deletes the segments that it covers. Only segments older than a grace period are compacted,
+ * so that a segment written by a client with a skewed clock is not missed. When a class has no snapshot the first read lists the class
+ * and writes one, so deleting the manifest of a class makes it be rebuilt. All clients writing to the bucket have to maintain the manifest.
+ * A PK is added before its object is stored and removed after its object is deleted, so the manifest may list PKs of objects that
+ * don't exist (which queries ignore), but never misses an object.
+ */
+class CloudStorageManifest
+{
+    /** Key prefix of all manifests in the bucket. */
+    static final String MANIFEST_PREFIX = "_manifest/";
+
+    /** Age of the segments that can be compacted, bounding the clock skew between clients. */
+    private static final long COMPACTION_GRACE_MILLIS = 5 * 60 * 1000;
+
+    private static final int MAX_CONCURRENT_READS = 16;
+
+    /** Number of attempts at reading a manifest that is compacted concurrently. */
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    private final CloudStoragePersistenceHandler handler;
+
+    private final int compactionSegments;
+
+    /** Time of the last segment written, so that the segments of this client are in the order they were written. */
+    private final AtomicLong lastSegmentTime = new AtomicLong();
+
+    CloudStorageManifest(CloudStoragePersistenceHandler handler, int compactionSegments)
+    {
+        this.handler = handler;
+        this.compactionSegments = compactionSegments;
+    }
+
+    /**
+     * Record the PKs of objects inserted into, and deleted from, a class, as a new log segment of its manifest.
+     * @param mconn Connection for the bucket
+     * @param className Name of the class
+     * @param classPath URL path of the class ("{class}/")
+     * @param added PKs of objects inserted
+     * @param removed PKs of objects deleted
+     */
+    void recordKeys(ConnectionFactoryImpl.ManagedConnectionImpl mconn, String className, String classPath, Collection<String> added, Collection<String> removed)
+    {
+        StringBuilder str = new StringBuilder();
+        for (String key : added)
+        {
+            str.append('+').append(key).append('\n');
+        }
+        for (String key : removed)
+        {
+            str.append('-').append(key).append('\n');
+        }
+        if (str.length() == 0)
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long time = lastSegmentTime.updateAndGet(last -> Math.max(now, last + 1));
+        String segment = String.format("%015d-%s", time, UUID.randomUUID());
+        HttpResponse response = handler.executeForPath(OperationType.INSERT, className, mconn, MANIFEST_PREFIX + classPath + "log/" + segment, "PUT",
+            "text/plain", str.toString().getBytes(StandardCharsets.UTF_8));
+        handler.handleHTTPErrorCode(response);
+    }
+
+    /**
+     * Read the PKs of the objects of a class from its manifest.
+     * @param mconn Connection for the bucket
+     * @param className Name of the class
+     * @param classPath URL path of the class ("{class}/")
+     * @param lister Lister of the PKs of the class from the bucket, for when the class has no manifest yet
+     * @return The PKs (in order), or null if the manifest cannot be read (so the class has to be listed)
+     */
+    List<String> readKeys(ConnectionFactoryImpl.ManagedConnectionImpl mconn, String className, String classPath, Supplier<List<String>> lister)
+    {
+        String prefix = MANIFEST_PREFIX + classPath;
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++)
+        {
+            List<String> snapshots = new ArrayList<>();
+            List<String> segments = new ArrayList<>();
+            String urlPath = "?prefix=" + CloudStoragePersistenceHandler.encodeQueryValue(prefix);
+            Map<String, String> options = new HashMap<String, String>();
+            options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+            HttpResponse response = handler.listKeys(className, mconn.forURLPath(urlPath), options, null, key ->
+            {
+                if (key.startsWith(prefix + "snapshot/"))
+                {
+                    snapshots.add(key.substring(prefix.length() + 9));
+                }
+                else if (key.startsWith(prefix + "log/"))
+                {
+                    segments.add(key.substring(prefix.length() + 4));
+                }
+                return true;
+            });
+            if (response != null)
+            {
+                // Not a bucket listing so no manifest
+                return null;
+            }
+
+            if (snapshots.isEmpty())
+            {
+                // No manifest yet, so list the class and snapshot it as of before the listing
+                String cutoff = String.format("%015d-", System.currentTimeMillis() - COMPACTION_GRACE_MILLIS);
+                List<String> keys = lister.get();
+                try
+                {
+                    writeSnapshot(mconn, className, prefix, cutoff, keys);
+                }
+                catch (RuntimeException e)
+                {
+                    NucleusLogger.DATASTORE.warn("Exception writing manifest of " + className, e);
+                }
+                return keys;
+            }
+
+            Collections.sort(snapshots);
+            String snapshot = snapshots.get(snapshots.size() - 1);
+            Collections.sort(segments);
+            segments.removeIf(segment -> segment.compareTo(snapshot) <= 0);
+
+            // Read the snapshot and the later segments concurrently
+            byte[][] bodies = new byte[segments.size() + 1][];
+            List<Runnable> requests = new ArrayList<>(bodies.length);
+            for (int i = 0; i < bodies.length; i++)
+            {
+                int index = i;
+                String key = i == 0 ? prefix + "snapshot/" + snapshot : prefix + "log/" + segments.get(i - 1);
+                requests.add(() ->
+                {
+                    HttpResponse objResponse = handler.executeForPath(OperationType.QUERY, className, mconn, key, "GET", null, null);
+                    if (objResponse.getCode() == 404)
+                    {
+                        throw new NucleusObjectNotFoundException("Manifest object " + key + " not found");
+                    }
+                    handler.handleHTTPErrorCode(objResponse);
+                    bodies[index] = objResponse.getBody();
+                });
+            }
+            List<Throwable> failures = handler.executeConcurrently(requests, MAX_CONCURRENT_READS);
+            if (failures.stream().allMatch(NucleusObjectNotFoundException.class::isInstance) && !failures.isEmpty())
+            {
+                // Compacted since listed, so read the new snapshot
+                continue;
+            }
+            else if (!failures.isEmpty())
+            {
+                throw new NucleusDataStoreException("Failed to read " + failures.size() + " objects of manifest of " + className,
+                    failures.toArray(new Throwable[failures.size()]));
+            }
+
+            // Segments to compact are the oldest, once there are too many
+            int compactCount = 0;
+            if (segments.size() > compactionSegments)
+            {
+                long compactBefore = System.currentTimeMillis() - COMPACTION_GRACE_MILLIS;
+                while (compactCount < segments.size() && getSegmentTime(segments.get(compactCount)) < compactBefore)
+                {
+                    compactCount++;
+                }
+            }
+
+            Set<String> keys = new TreeSet<>(getLines(bodies[0]));
+            Set<String> compactedKeys = null;
+            for (int i = 0; i < segments.size(); i++)
+            {
+                for (String line : getLines(bodies[i + 1]))
+                {
+                    if (line.charAt(0) == '+')
+                    {
+                        keys.add(line.substring(1));
+                    }
+                    else if (line.charAt(0) == '-')
+                    {
+                        keys.remove(line.substring(1));
+                    }
+                }
+                if (i == compactCount - 1)
+                {
+                    compactedKeys = new TreeSet<>(keys);
+                }
+            }
+
+            if (compactedKeys != null)
+            {
+                compact(mconn, className, prefix, snapshots, segments.subList(0, compactCount), compactedKeys);
+            }
+            return new ArrayList<>(keys);
+        }
+        NucleusLogger.DATASTORE.warn("Manifest of " + className + " kept changing while being read, so listing the class");
+        return null;
+    }
+
+    /**
+     * Compact the oldest segments of a manifest into a new snapshot, then delete the segments and the previous snapshots.
+     * Failures are logged, since the manifest is still complete without compaction.
+     */
+    private void compact(ConnectionFactoryImpl.ManagedConnectionImpl mconn, String className, String prefix, List<String> snapshots, List<String> segments,
+            Collection<String> keys)
+    {
+        String snapshot = segments.get(segments.size() - 1);
+        try
+        {
+            writeSnapshot(mconn, className, prefix, snapshot, keys);
+        }
+        catch (RuntimeException e)
+        {
+            NucleusLogger.DATASTORE.warn("Exception compacting manifest of " + className, e);
+            return;
+        }
+
+        // Readers ignore segments up to the new snapshot, so deleting them (and older snapshots) is only cleanup
+        List<Runnable> requests = new ArrayList<>(segments.size() + snapshots.size());
+        List<String> obsolete = new ArrayList<>(segments.size() + snapshots.size());
+        segments.forEach(segment -> obsolete.add(prefix + "log/" + segment));
+        snapshots.forEach(oldSnapshot -> obsolete.add(prefix + "snapshot/" + oldSnapshot));
+        for (String key : obsolete)
+        {
+            requests.add(() -> handler.executeForPath(OperationType.DELETE, className, mconn, key, "DELETE", null, null));
+        }
+        List<Throwable> failures = handler.executeConcurrently(requests, MAX_CONCURRENT_READS);
+        if (!failures.isEmpty())
+        {
+            NucleusLogger.DATASTORE.warn("Failed to delete " + failures.size() + " of " + obsolete.size() + " compacted objects of manifest of " + className,
+                failures.get(0));
+        }
+        if (NucleusLogger.DATASTORE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE.debug("Compacted " + segments.size() + " segments of manifest of " + className + " into snapshot " + snapshot +
+                " of " + keys.size() + " keys");
+        }
+    }
+
+    private void writeSnapshot(ConnectionFactoryImpl.ManagedConnectionImpl mconn, String className, String prefix, String name, Collection<String> keys)
+    {
+        StringBuilder str = new StringBuilder();
+        for (String key : keys)
+        {
+            str.append(key).append('\n');
+        }
+        HttpResponse response = handler.executeForPath(OperationType.INSERT, className, mconn, prefix + "snapshot/" + name, "PUT", "text/plain",
+            str.toString().getBytes(StandardCharsets.UTF_8));
+        handler.handleHTTPErrorCode(response);
+    }
+
+    private static List<String> getLines(byte[] body)
+    {
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(body, StandardCharsets.UTF_8).split("\n"))
+        {
+            if (!line.isEmpty())
+            {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static long getSegmentTime(String segment)
+    {
+        int sep = segment.indexOf('-');
+        try
+        {
+            return Long.parseLong(sep > 0 ? segment.substring(0, sep) : segment);
+        }
+        catch (NumberFormatException e)
+        {
+            // Not a segment written by this class, so never compact it
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -18,411 +18,2327 @@ Contributors:
 package org.datanucleus.store.json;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.datanucleus.ClassLoaderResolver;
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.PropertyNames;
 import org.datanucleus.FetchPlan;
 import org.datanucleus.Configuration;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.exceptions.NucleusOptimisticException;
+import org.datanucleus.exceptions.NucleusUserException;
 import org.datanucleus.identity.IdentityUtils;
 import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
 import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.metadata.VersionMetaData;
+import org.datanucleus.metadata.VersionStrategy;
 import org.datanucleus.state.DNStateManager;
 import org.datanucleus.store.FieldValues;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.fieldmanager.FieldManager;
+import org.datanucleus.store.json.cache.DiskCache;
+import org.datanucleus.store.json.cache.KeyBloomFilter;
 import org.datanucleus.store.json.fieldmanager.FetchFieldManager;
 import org.datanucleus.store.json.fieldmanager.StoreFieldManager;
+import org.datanucleus.store.json.jfr.FieldHydrationEvent;
+import org.datanucleus.store.json.jfr.JsonParseEvent;
+import org.datanucleus.store.json.jfr.JsonSerializeEvent;
+import org.datanucleus.store.json.metrics.OperationMetrics;
+import org.datanucleus.store.json.metrics.OperationType;
 import org.datanucleus.store.json.orgjson.JSONArray;
 import org.datanucleus.store.json.orgjson.JSONException;
 import org.datanucleus.store.json.orgjson.JSONObject;
+import org.datanucleus.store.json.resilience.AdaptiveLimiter;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.tracing.Span;
 import org.datanucleus.store.schema.table.SurrogateColumnType;
 import org.datanucleus.store.schema.table.Table;
 import org.datanucleus.util.NucleusLogger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 public abstract class CloudStoragePersistenceHandler extends JsonPersistenceHandler
 {
+    /** Whether to limit the concurrent requests per key prefix using an adaptive (AIMD) limit. */
+    public static final String PROPERTY_ADAPTIVE_CONCURRENCY = "datanucleus.cloud.storage.adaptiveconcurrency";
+
+    /** Initial concurrent requests per key prefix when adaptive (default 16). */
+    public static final String PROPERTY_ADAPTIVE_CONCURRENCY_INITIAL = "datanucleus.cloud.storage.adaptiveconcurrency.initial";
+
+    /** Maximum concurrent requests per key prefix when adaptive (default 512). */
+    public static final String PROPERTY_ADAPTIVE_CONCURRENCY_MAX = "datanucleus.cloud.storage.adaptiveconcurrency.max";
+
+    /**
+     * Number of hash shards to spread the keys of each class over (default 0, meaning keys are "{class}/{pk}").
+     * When specified keys are "{class}/{shard}/{pk}" where the shard is a hex hash of the pk, so that writes are not limited by the
+     * request rate of a single key prefix. All objects must be stored with the same layout.
+     */
+    public static final String PROPERTY_KEY_SHARDS = "datanucleus.cloud.storage.keyshards";
+
+    /** Maximum number of key shards to list concurrently, over all queries (default 16). */
+    public static final String PROPERTY_LIST_PARALLELISM = "datanucleus.cloud.storage.listparallelism";
+
+    /** Size of JSON document (bytes) above which it is sent as a multipart upload (default 0, meaning never). */
+    public static final String PROPERTY_MULTIPART_THRESHOLD = "datanucleus.cloud.storage.multipartthreshold";
+
+    /** Size of each part of a multipart upload in bytes (default 8MB, minimum 5MB). */
+    public static final String PROPERTY_MULTIPART_PART_SIZE = "datanucleus.cloud.storage.multipartpartsize";
+
+    /** Maximum number of parts of a multipart upload sent concurrently (default 4). */
+    public static final String PROPERTY_MULTIPART_PARALLELISM = "datanucleus.cloud.storage.multipartparallelism";
+
+    /** Whether to maintain a manifest of the PKs of each class, for queries to read rather than listing the class. */
+    public static final String PROPERTY_MANIFEST = "datanucleus.cloud.storage.manifest";
+
+    /** Number of log segments of a manifest above which a read compacts them into a snapshot. */
+    public static final String PROPERTY_MANIFEST_COMPACTION_SEGMENTS = "datanucleus.cloud.storage.manifest.compactionsegments";
+
+    /** Whether to mirror the version, and members with the "metadata-header" extension, into metadata headers of each object. */
+    public static final String PROPERTY_METADATA_HEADERS = "datanucleus.cloud.storage.metadataheaders";
+
+    /** Member extension for a member to be mirrored into a metadata header of its object. */
+    public static final String EXTENSION_METADATA_HEADER = "metadata-header";
+
+    /** Whether inserts only create an object when there is none with its key, failing with a DuplicateKeyException otherwise (default false). */
+    public static final String PROPERTY_CONDITIONAL_CREATE = "datanucleus.cloud.storage.conditionalcreate";
+
+    /**
+     * Time (millis) for which lookups use a Bloom filter of the keys of a class from a listing of it. Objects inserted by other clients
+     * within this time are not found. Disabled unless specified.
+     */
+    public static final String PROPERTY_BLOOM_FILTER_TTL = "datanucleus.cloud.storage.bloomfilter.ttl";
+
+    /** Maximum length of a mirrored value, since all metadata of an object is limited to 2KB. */
+    private static final int MAX_METADATA_VALUE_LENGTH = 256;
+
+    /** Minimum size of a part (other than the last) of a multipart upload. */
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    /** Factory for parsers of XML responses, without DTDs or external entities (thread-safe once configured). */
+    protected static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    static
+    {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    /** Option for listing candidates, with a KeyRange of the PKs that a query needs. */
+    public static final String OPTION_KEY_RANGE = "org.datanucleus.store.json.cloud.keyRange";
+
+    /** Query parameters that are sub-resources, so part of the signed resource (sorted by name). */
+    private static final String[] SIGNED_SUBRESOURCES = {"delete", "partNumber", "uploadId", "uploads"};
+
+    /** Maximum number of requests for index entries in flight at once. */
+    private static final int MAX_INDEX_REQUESTS = 16;
+
+    /** Maximum number of objects whose stored headers are remembered. */
+    private static final int MAX_STORED_HEADERS = 10000;
+
+    /** Adaptive concurrency limiters, keyed by key prefix, or null if not enabled. */
+    protected final Map<String, AdaptiveLimiter> limiters;
+
+    private final int limiterInitial;
+
+    private final int limiterMax;
+
+    /** Number of hash shards of keys, or 0 if not sharded. */
+    protected final int keyShards;
+
+    /** Number of hex digits of a shard. */
+    private final int keyShardDigits;
+
+    /** Executor for listing key shards concurrently, or null if not sharded. */
+    protected final ExecutorService listExecutor;
+
+    /** Size of JSON document above which it is sent as a multipart upload, or 0 if not enabled. */
+    protected final int multipartThreshold;
+
+    private final int multipartPartSize;
+
+    private final int multipartParallelism;
+
+    /** Manifest of the PKs of each class, or null if not enabled. */
+    private final CloudStorageManifest manifest;
+
+    /** Whether the version, and flagged members, are mirrored into metadata headers. */
+    protected final boolean metadataHeaders;
+
+    /** Whether inserts are conditional on there being no object with the key. */
+    protected final boolean conditionalCreate;
+
+    /** Time (millis) for which a Bloom filter of the keys of a class is used after listing the class, or 0 if not enabled. */
+    private final long bloomFilterTtl;
+
+    /** Cache of objects on local disk, or null if not enabled. */
+    protected final DiskCache diskCache;
+
+    /** Bloom filters of the keys of classes, keyed by class name. */
+    private final Map<String, KeyBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    /** Time (millis) of the last insert of each class, so that a filter from a listing made before it is not used. */
+    private final Map<String, Long> lastInsertTimes = new ConcurrentHashMap<>();
+
+    /** Keys of the markers of the indexes known to be built. */
+    private final Set<String> builtIndexes = ConcurrentHashMap.newKeySet();
+
+    /** Headers of the objects last read or written, keyed by URL path, when metadata headers are enabled. */
+    private final Map<String, StoredHeaders> storedHeaders = Collections.synchronizedMap(new LinkedHashMap<String, StoredHeaders>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = -6213508467419436162L;
+
+        protected boolean removeEldestEntry(Map.Entry<String, StoredHeaders> eldest)
+        {
+            return size() > MAX_STORED_HEADERS;
+        }
+    });
+
     public CloudStoragePersistenceHandler(StoreManager storeMgr)
     {
-        super(storeMgr);
+        super(storeMgr);
+
+        Configuration conf = storeMgr.getNucleusContext().getConfiguration();
+        limiters = conf.getBooleanProperty(PROPERTY_ADAPTIVE_CONCURRENCY) ? new ConcurrentHashMap<>() : null;
+        limiterInitial = conf.getIntProperty(PROPERTY_ADAPTIVE_CONCURRENCY_INITIAL) > 0 ? conf.getIntProperty(PROPERTY_ADAPTIVE_CONCURRENCY_INITIAL) : 16;
+        limiterMax = conf.getIntProperty(PROPERTY_ADAPTIVE_CONCURRENCY_MAX) > 0 ? conf.getIntProperty(PROPERTY_ADAPTIVE_CONCURRENCY_MAX) : 512;
+        int shards = conf.getIntProperty(PROPERTY_KEY_SHARDS);
+        if (shards < 0 || shards > 4096)
+        {
+            throw new NucleusUserException("Persistence property " + PROPERTY_KEY_SHARDS + " must be between 0 and 4096 but is " + shards);
+        }
+        keyShards = shards > 1 ? shards : 0;
+        keyShardDigits = keyShards > 0 ? Integer.toHexString(keyShards - 1).length() : 0;
+        if (keyShards > 0)
+        {
+            int parallelism = conf.getIntProperty(PROPERTY_LIST_PARALLELISM) > 0 ? conf.getIntProperty(PROPERTY_LIST_PARALLELISM) : 16;
+            listExecutor = Executors.newFixedThreadPool(Math.min(parallelism, keyShards), r ->
+            {
+                Thread thread = new Thread(r, "DataNucleus-CloudStorage-List");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        else
+        {
+            listExecutor = null;
+        }
+        multipartThreshold = Math.max(0, conf.getIntProperty(PROPERTY_MULTIPART_THRESHOLD));
+        multipartPartSize = conf.getIntProperty(PROPERTY_MULTIPART_PART_SIZE) > 0 ? Math.max(MIN_PART_SIZE, conf.getIntProperty(PROPERTY_MULTIPART_PART_SIZE)) :
+            8 * 1024 * 1024;
+        multipartParallelism = conf.getIntProperty(PROPERTY_MULTIPART_PARALLELISM) > 0 ? conf.getIntProperty(PROPERTY_MULTIPART_PARALLELISM) : 4;
+        manifest = conf.getBooleanProperty(PROPERTY_MANIFEST) ?
+            new CloudStorageManifest(this, conf.getIntProperty(PROPERTY_MANIFEST_COMPACTION_SEGMENTS) > 0 ? conf.getIntProperty(PROPERTY_MANIFEST_COMPACTION_SEGMENTS) : 100) :
+            null;
+        metadataHeaders = conf.getBooleanProperty(PROPERTY_METADATA_HEADERS);
+        conditionalCreate = conf.getBooleanProperty(PROPERTY_CONDITIONAL_CREATE, false);
+        bloomFilterTtl = Math.max(0, conf.getIntProperty(PROPERTY_BLOOM_FILTER_TTL));
+        diskCache = DiskCache.getDiskCache(conf);
+        if (diskCache != null)
+        {
+            metrics.registerGauge("diskCache.objects", diskCache::getNumberOfObjects);
+            metrics.registerGauge("diskCache.hits", diskCache::getHitCount);
+            metrics.registerGauge("diskCache.misses", diskCache::getMissCount);
+        }
+    }
+
+    public void close()
+    {
+        if (listExecutor != null)
+        {
+            listExecutor.shutdownNow();
+        }
+        if (diskCache != null)
+        {
+            diskCache.close();
+        }
+        super.close();
+    }
+
+    /**
+     * Perform a single attempt of a request, within the adaptive concurrency limit of its key prefix when enabled.
+     * Throttle responses (503 SlowDown, 429) and requests without a response reduce the limit, and successful requests raise it.
+     */
+    protected HttpResponse executeAttempt(OperationType op, String className, OperationMetrics opMetrics, ManagedConnection mconn, String method,
+            Map<String, String> headers, byte[] body, int timeoutMillis, Span span)
+    throws IOException
+    {
+        if (limiters == null || !(mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl))
+        {
+            return super.executeAttempt(op, className, opMetrics, mconn, method, headers, body, timeoutMillis, span);
+        }
+
+        String prefix = getKeyPrefix(((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).getURLPath());
+        AdaptiveLimiter limiter = limiters.computeIfAbsent(prefix, k ->
+        {
+            AdaptiveLimiter newLimiter = new AdaptiveLimiter(k, limiterInitial, limiterMax);
+            metrics.registerGauge("concurrencyLimit." + k, newLimiter::getLimit);
+            return newLimiter;
+        });
+        if (!limiter.tryAcquire(timeoutMillis))
+        {
+            throw new NucleusDataStoreException("Request " + method + " for " + className + " timed out waiting for the concurrency limit (" + limiter.getLimit() +
+                ") of key prefix " + prefix);
+        }
+
+        long startTime = System.nanoTime();
+        try
+        {
+            HttpResponse response = super.executeAttempt(op, className, opMetrics, mconn, method, headers, body, timeoutMillis, span);
+            if (response.getCode() == 503 || response.getCode() == 429)
+            {
+                limiter.onThrottle();
+            }
+            else
+            {
+                limiter.onSuccess(System.nanoTime() - startTime);
+            }
+            return response;
+        }
+        catch (IOException e)
+        {
+            limiter.onDropped();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            // Not a response from the backend (e.g rejected by circuit breaker) so no signal
+            limiter.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Accessor for the key prefix that a request is for, being the path of the key up to its last "/" (so the class, or
+     * "url" extension, of an object), or the "prefix" parameter of a listing.
+     * @param urlPath The URL path of the request (relative to the bucket)
+     * @return The key prefix
+     */
+    protected String getKeyPrefix(String urlPath)
+    {
+        if (urlPath == null)
+        {
+            return "/";
+        }
+        int paramPos = urlPath.indexOf("prefix=");
+        if (urlPath.startsWith("?") && paramPos > 0)
+        {
+            int paramEnd = urlPath.indexOf('&', paramPos);
+            return urlPath.substring(paramPos + 7, paramEnd > 0 ? paramEnd : urlPath.length());
+        }
+        int sep = urlPath.lastIndexOf('/');
+        return sep > 0 ? urlPath.substring(0, sep + 1) : "/";
+    }
+
+    public void insertObject(DNStateManager sm)
+    {
+        // Check if read-only so update not permitted
+        assertReadOnlyForUpdateOfObject(sm);
+
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        if (!storeMgr.managesClass(cmd.getFullClassName()))
+        {
+            // Make sure schema exists, using this connection
+            storeMgr.manageClasses(sm.getExecutionContext().getClassLoaderResolver(), new String[] {cmd.getFullClassName()});
+        }
+        Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+
+        Span span = startSpan("json.insert", cmd.getFullClassName());
+        Deadline deadline = Deadline.enter(sm.getExecutionContext().getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
+        try
+        {
+            try
+            {
+                insertObject(sm, cmd, table);
+            }
+            catch (RuntimeException e)
+            {
+                if (!HttpErrorException.isRejected(e))
+                {
+                    // A failed insert may still have created the object (e.g an IO error after it was stored)
+                    recordPresent(sm, getURLPath(sm));
+                }
+                else
+                {
+                    retractManifestKeys(sm.getExecutionContext(), new DNStateManager[] {sm});
+                }
+                throw e;
+            }
+            recordPresent(sm, getURLPath(sm));
+        }
+        finally
+        {
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    private void insertObject(DNStateManager sm, AbstractClassMetaData cmd, Table table)
+    {
+        Map<String,String> options = new HashMap<String,String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, "/");
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(sm.getExecutionContext(), options);
+        try
+        {
+            createBucket(mconn, getHeaderForBucket());
+        }
+        finally
+        {
+            mconn.release();
+        }
+
+        List<AbstractMemberMetaData> indexedMmds = SecondaryIndex.getIndexedMembers(cmd);
+        if (!indexedMmds.isEmpty())
+        {
+            // Add the index entries before the object, so a failure leaves entries without an object rather than an object missing from an index
+            writeIndexEntries(sm.getExecutionContext(), cmd.getFullClassName(), getIndexEntries(sm, indexedMmds), "PUT");
+        }
+        // Likewise add the key to the manifest before the object
+        recordManifestKeys(sm.getExecutionContext(), new DNStateManager[] {sm}, Collections.emptyList(), true);
+
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPath(sm));
+        options.put("Content-Type", "application/json");
+        String jsonString = getJSONForObject(sm, table);
+        addObjectOptions(sm, options);
+        if (conditionalCreate)
+        {
+            addCreateOnlyOptions(options);
+        }
+        mconn = storeMgr.getConnectionManager().getConnection(sm.getExecutionContext(), options);
+        try
+        {
+            write(OperationType.INSERT, cmd, mconn, "PUT", jsonString, getHeaders("PUT",options));
+        }
+        catch (DuplicateKeyException e)
+        {
+            throw new DuplicateKeyException(e.getMessage(), sm.getObject());
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    public void updateObject(DNStateManager sm, int[] fieldNumbers)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        List<AbstractMemberMetaData> indexedMmds = new ArrayList<>();
+        for (AbstractMemberMetaData mmd : SecondaryIndex.getIndexedMembers(cmd))
+        {
+            if (Arrays.stream(fieldNumbers).anyMatch(n -> n == mmd.getAbsoluteFieldNumber()))
+            {
+                indexedMmds.add(mmd);
+            }
+        }
+        if (indexedMmds.isEmpty())
+        {
+            updateStoredObject(sm, fieldNumbers);
+            return;
+        }
+
+        // Entries for the stored values are only removed once the object is updated, and entries for the new values added before
+        Span span = startSpan("json.index", cmd.getFullClassName());
+        Deadline deadline = Deadline.enter(sm.getExecutionContext().getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
+        try
+        {
+            List<String> storedEntries = getStoredIndexEntries(sm);
+            storedEntries.removeIf(entry -> indexedMmds.stream().noneMatch(mmd -> entry.startsWith(SecondaryIndex.getIndexPath(getURLPath(cmd), mmd.getName()))));
+            List<String> entries = getIndexEntries(sm, indexedMmds);
+            List<String> addedEntries = new ArrayList<>(entries);
+            addedEntries.removeAll(storedEntries);
+            storedEntries.removeAll(entries);
+
+            writeIndexEntries(sm.getExecutionContext(), cmd.getFullClassName(), addedEntries, "PUT");
+            updateStoredObject(sm, fieldNumbers);
+            writeIndexEntries(sm.getExecutionContext(), cmd.getFullClassName(), storedEntries, "DELETE");
+        }
+        finally
+        {
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Update the stored object, where a failed precondition of a conditional update means it was changed by another transaction.
+     * @param sm StateManager of the object
+     * @param fieldNumbers Absolute numbers of the fields to update
+     */
+    private void updateStoredObject(DNStateManager sm, int[] fieldNumbers)
+    {
+        try
+        {
+            super.updateObject(sm, fieldNumbers);
+        }
+        catch (DuplicateKeyException e)
+        {
+            storedHeaders.remove(getURLPath(sm));
+            throw new NucleusOptimisticException("Object " + sm.getObjectAsPrintable() + " has been updated or deleted by another transaction", sm.getObject());
+        }
+    }
+
+    public void deleteObject(DNStateManager sm)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        boolean indexed = !SecondaryIndex.getIndexedMembers(cmd).isEmpty();
+        if (!indexed && manifest == null)
+        {
+            super.deleteObject(sm);
+            return;
+        }
+
+        Span span = startSpan(indexed ? "json.index" : "json.manifest", cmd.getFullClassName());
+        Deadline deadline = Deadline.enter(sm.getExecutionContext().getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
+        try
+        {
+            List<String> storedEntries = indexed ? getStoredIndexEntries(sm) : Collections.emptyList();
+            super.deleteObject(sm);
+            writeIndexEntries(sm.getExecutionContext(), cmd.getFullClassName(), storedEntries, "DELETE");
+            recordManifestKeys(sm.getExecutionContext(), new DNStateManager[] {sm}, Collections.emptyList(), false);
+        }
+        finally
+        {
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Accessor for the keys of the index entries of the current values of the specified indexed members of an object.
+     * @param sm StateManager of the object
+     * @param mmds The indexed members
+     * @return Keys of the index entries
+     */
+    protected List<String> getIndexEntries(DNStateManager sm, List<AbstractMemberMetaData> mmds)
+    {
+        String classPath = getURLPath(sm.getClassMetaData());
+        String pk = getPrimaryKeyString(sm);
+        List<String> entries = new ArrayList<>(mmds.size());
+        for (AbstractMemberMetaData mmd : mmds)
+        {
+            String value = SecondaryIndex.encode(mmd, sm.provideField(mmd.getAbsoluteFieldNumber()));
+            if (value != null)
+            {
+                entries.add(SecondaryIndex.getIndexPath(classPath, mmd.getName()) + value + "/" + pk);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Accessor for the keys of the index entries of the stored values of the indexed members of the specified objects, reading
+     * the stored objects concurrently. Objects that are not stored (or whose class has no indexed members) have no entries.
+     * @param sms StateManagers of the objects
+     * @return Keys of the index entries
+     */
+    protected List<String> getStoredIndexEntries(DNStateManager... sms)
+    {
+        List<String> entries = Collections.synchronizedList(new ArrayList<>());
+        List<ManagedConnection> mconns = new ArrayList<>();
+        try
+        {
+            List<Runnable> requests = new ArrayList<>();
+            for (DNStateManager sm : sms)
+            {
+                AbstractClassMetaData cmd = sm.getClassMetaData();
+                List<AbstractMemberMetaData> mmds = SecondaryIndex.getIndexedMembers(cmd);
+                if (mmds.isEmpty())
+                {
+                    continue;
+                }
+                Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+                String classPath = getURLPath(cmd);
+                String pk = getPrimaryKeyString(sm);
+                Map<String, String> options = new HashMap<String, String>();
+                options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPath(sm));
+                ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(sm.getExecutionContext(), options);
+                mconns.add(mconn);
+                Map<String, String> headers = getHeaders("GET", options);
+                requests.add(() ->
+                {
+                    JSONObject json;
+                    try
+                    {
+                        json = read(OperationType.FETCH, cmd, mconn, "GET", headers);
+                    }
+                    catch (NucleusObjectNotFoundException e)
+                    {
+                        // Not stored, so no entries
+                        return;
+                    }
+                    for (AbstractMemberMetaData mmd : mmds)
+                    {
+                        Object value = json.opt(table.getMemberColumnMappingForMember(mmd).getColumn(0).getName());
+                        String encoded = value != JSONObject.NULL ? SecondaryIndex.encode(mmd, value) : null;
+                        if (encoded != null)
+                        {
+                            entries.add(SecondaryIndex.getIndexPath(classPath, mmd.getName()) + encoded + "/" + pk);
+                        }
+                    }
+                });
+            }
+
+            List<Throwable> failures = executeConcurrently(requests, MAX_INDEX_REQUESTS);
+            if (!failures.isEmpty())
+            {
+                throw new NucleusDataStoreException("Failed to read " + failures.size() + " of " + requests.size() + " objects for their index entries",
+                    failures.toArray(new Throwable[failures.size()]));
+            }
+        }
+        finally
+        {
+            for (ManagedConnection mconn : mconns)
+            {
+                mconn.release();
+            }
+        }
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Remove the keys of objects whose insert was rejected from the manifest, having been added before the insert.
+     * A failure is only logged, so as not to hide the failure of the insert.
+     * @param ec ExecutionContext
+     * @param sms StateManagers of the objects
+     */
+    protected void retractManifestKeys(ExecutionContext ec, DNStateManager[] sms)
+    {
+        try
+        {
+            recordManifestKeys(ec, sms, Collections.emptyList(), false);
+        }
+        catch (RuntimeException e)
+        {
+            // Key is left in the manifest, and ignored by queries since there is no object
+            NucleusLogger.DATASTORE_PERSIST.warn("Exception removing keys of " + sms.length + " objects that were not inserted from the manifest", e);
+        }
+    }
+
+    /**
+     * Record the objects inserted, or deleted, in the manifest of their class(es), if manifests are enabled.
+     * @param ec ExecutionContext
+     * @param sms StateManagers of the objects
+     * @param failures Exceptions of the objects that failed to be inserted/deleted, so are not recorded
+     * @param inserted Whether the objects were inserted, otherwise deleted
+     */
+    protected void recordManifestKeys(ExecutionContext ec, DNStateManager[] sms, List<Throwable> failures, boolean inserted)
+    {
+        if (manifest == null)
+        {
+            return;
+        }
+        Set<Object> failedObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Throwable failure : failures)
+        {
+            if (failure instanceof NucleusException && ((NucleusException) failure).getFailedObject() != null)
+            {
+                failedObjects.add(((NucleusException) failure).getFailedObject());
+            }
+        }
+        Map<AbstractClassMetaData, List<String>> keysByClass = new HashMap<>();
+        for (DNStateManager sm : sms)
+        {
+            if (!failedObjects.contains(sm.getObject()))
+            {
+                keysByClass.computeIfAbsent(sm.getClassMetaData(), cmd -> new ArrayList<>()).add(getPrimaryKeyString(sm));
+            }
+        }
+        if (keysByClass.isEmpty())
+        {
+            return;
+        }
+
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, "/");
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+        try
+        {
+            for (Map.Entry<AbstractClassMetaData, List<String>> entry : keysByClass.entrySet())
+            {
+                AbstractClassMetaData cmd = entry.getKey();
+                List<String> keys = entry.getValue();
+                manifest.recordKeys((ConnectionFactoryImpl.ManagedConnectionImpl) mconn, cmd.getFullClassName(), getURLPath(cmd),
+                    inserted ? keys : Collections.emptyList(), inserted ? Collections.emptyList() : keys);
+            }
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    /**
+     * Whether the object is known not to exist, either from a recent lookup of it or because it is not in the Bloom filter of its class.
+     * @param sm StateManager of the object
+     * @param urlPath URL path of the object
+     * @return Whether it is known not to exist
+     */
+    protected boolean isKnownAbsent(DNStateManager sm, String urlPath)
+    {
+        if (super.isKnownAbsent(sm, urlPath))
+        {
+            return true;
+        }
+        KeyBloomFilter filter = getBloomFilter(sm.getClassMetaData());
+        return filter != null && !filter.mightContain(getPrimaryKeyString(sm));
+    }
+
+    protected void recordPresent(DNStateManager sm, String urlPath)
+    {
+        super.recordPresent(sm, urlPath);
+        if (bloomFilterTtl > 0)
+        {
+            String className = sm.getClassMetaData().getFullClassName();
+            lastInsertTimes.put(className, System.currentTimeMillis());
+            KeyBloomFilter filter = bloomFilters.get(className);
+            if (filter != null)
+            {
+                filter.add(getPrimaryKeyString(sm));
+            }
+        }
+    }
+
+    /**
+     * Accessor for the Bloom filter of the keys of a class, if one was built from a listing within the TTL.
+     * @param cmd Metadata for the class
+     * @return The filter, or null if none
+     */
+    private KeyBloomFilter getBloomFilter(AbstractClassMetaData cmd)
+    {
+        if (bloomFilterTtl == 0)
+        {
+            return null;
+        }
+        KeyBloomFilter filter = bloomFilters.get(cmd.getFullClassName());
+        if (filter != null && System.currentTimeMillis() - filter.getCreatedAt() > bloomFilterTtl)
+        {
+            bloomFilters.remove(cmd.getFullClassName(), filter);
+            return null;
+        }
+        return filter;
+    }
+
+    /**
+     * Build the Bloom filter of the keys of a class from a complete listing of it, unless an object of the class was inserted since
+     * the listing started (since the listing may not include it).
+     * @param cmd Metadata for the class
+     * @param keys PKs of all objects of the class
+     * @param listedAt Time (millis) at which the listing started
+     */
+    private void buildBloomFilter(AbstractClassMetaData cmd, Collection<String> keys, long listedAt)
+    {
+        if (bloomFilterTtl == 0 || cmd.getIdentityType() != IdentityType.APPLICATION || cmd.getPKMemberPositions().length != 1)
+        {
+            return;
+        }
+        Long lastInsert = lastInsertTimes.get(cmd.getFullClassName());
+        if (lastInsert != null && lastInsert >= listedAt)
+        {
+            return;
+        }
+        bloomFilters.put(cmd.getFullClassName(), new KeyBloomFilter(keys, listedAt));
+        if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE_RETRIEVE.debug("Built Bloom filter of " + keys.size() + " keys of " + cmd.getFullClassName());
+        }
+    }
+
+    /**
+     * Accessor for the string form of the PK of an object, as used in its key.
+     * @param sm StateManager of the object
+     * @return The PK
+     */
+    protected String getPrimaryKeyString(DNStateManager sm)
+    {
+        return super.getURLPath(sm).substring(getURLPath(sm.getClassMetaData()).length());
+    }
+
+    /**
+     * Add (PUT) or remove (DELETE) index entries, sending the requests concurrently. Removing an entry that does not exist is not an error.
+     * @param ec ExecutionContext
+     * @param className Name of the class of the entries, for metrics
+     * @param entries Keys of the entries
+     * @param method PUT or DELETE
+     * @throws NucleusDataStoreException if any entry could not be added/removed
+     */
+    protected void writeIndexEntries(ExecutionContext ec, String className, Collection<String> entries, String method)
+    {
+        if (entries.isEmpty())
+        {
+            return;
+        }
+        OperationType op = "PUT".equals(method) ? OperationType.INSERT : OperationType.DELETE;
+        byte[] body = "PUT".equals(method) ? new byte[0] : null;
+        List<ManagedConnection> mconns = new ArrayList<>(entries.size());
+        try
+        {
+            List<Runnable> requests = new ArrayList<>(entries.size());
+            for (String entry : entries)
+            {
+                Map<String, String> options = new HashMap<String, String>();
+                options.put(ConnectionFactoryImpl.STORE_JSON_URL, entry);
+                ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+                mconns.add(mconn);
+                Map<String, String> headers = getHeaders(method, options);
+                requests.add(() ->
+                {
+                    HttpResponse response = execute(op, className, mconn, method, headers, body);
+                    if (body != null || response.getCode() != 404)
+                    {
+                        handleHTTPErrorCode(response);
+                    }
+                });
+            }
+            if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_NATIVE.debug(method + " of " + entries.size() + " index entries of " + className);
+            }
+
+            List<Throwable> failures = executeConcurrently(requests, MAX_INDEX_REQUESTS);
+            if (!failures.isEmpty())
+            {
+                throw new NucleusDataStoreException("Failed to " + (body != null ? "add " : "remove ") + failures.size() + " of " + entries.size() +
+                    " index entries of " + className, failures.toArray(new Throwable[failures.size()]));
+            }
+        }
+        finally
+        {
+            for (ManagedConnection mconn : mconns)
+            {
+                mconn.release();
+            }
+        }
+    }
+
+    /**
+     * Convenience method to serialise all fields of an object being inserted to its JSON document, with its initial version
+     * when its class is versioned.
+     * @param sm StateManager of the object
+     * @param table Table of the class of the object
+     * @return The JSON document
+     */
+    protected String getJSONForObject(DNStateManager sm, Table table)
+    {
+        JsonSerializeEvent serializeEvent = new JsonSerializeEvent();
+        serializeEvent.begin();
+        JSONObject jsonobj = new JSONObject();
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        if (cmd.isVersioned())
+        {
+            // Initial version, set in the object (and its version field) before it is provided
+            VersionMetaData vermd = cmd.getVersionMetaDataForClass();
+            Object version = sm.getExecutionContext().getLockManager().getNextVersion(vermd, null);
+            sm.setTransactionalVersion(version);
+            if (vermd.getMemberName() != null)
+            {
+                AbstractMemberMetaData verMmd = cmd.getMetaDataForMember(vermd.getMemberName());
+                sm.replaceField(verMmd.getAbsoluteFieldNumber(),
+                    verMmd.getType() == Integer.class || verMmd.getType() == int.class ? Integer.valueOf(((Number) version).intValue()) : version);
+            }
+            else
+            {
+                try
+                {
+                    jsonobj.put(table.getSurrogateColumn(SurrogateColumnType.VERSION).getName(), version instanceof Date ? ((Date) version).getTime() : version);
+                }
+                catch (JSONException e)
+                {
+                    throw new NucleusException("Exception setting version in JSON object", e);
+                }
+            }
+        }
+        sm.provideFields(cmd.getAllMemberPositions(), new StoreFieldManager(sm, jsonobj, true, table));
+        String jsonString = jsonobj.toString();
+        serializeEvent.commit(sm.getClassMetaData().getFullClassName(), jsonString.length());
+        return jsonString;
+    }
+
+    /**
+     * Send a JSON document to the datastore, as a multipart upload when it is a PUT larger than the multipart threshold.
+     */
+    protected HttpResponse write(OperationType op, AbstractClassMetaData cmd, ManagedConnection mconn, String method, String jsonString, Map<String, String> headers)
+    {
+        HttpResponse response = null;
+        if (multipartThreshold > 0 && "PUT".equals(method) && mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl)
+        {
+            byte[] body = jsonString.getBytes(StandardCharsets.UTF_8);
+            if (body.length > multipartThreshold)
+            {
+                Map<String, String> objectHeaders = new HashMap<>();
+                headers.forEach((name, value) ->
+                {
+                    if (name.startsWith(getMetadataHeaderPrefix()) || name.startsWith("x-goog-if-") || name.equals("If-None-Match") || name.equals("If-Match"))
+                    {
+                        objectHeaders.put(name, value);
+                    }
+                });
+                response = uploadMultipart(op, cmd.getFullClassName(), (ConnectionFactoryImpl.ManagedConnectionImpl) mconn, body, objectHeaders);
+            }
+        }
+        if (response == null)
+        {
+            response = super.write(op, cmd, mconn, method, jsonString, headers);
+        }
+        if (metadataHeaders && "PUT".equals(method) && mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl)
+        {
+            recordStoredHeaders(((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).getURLPath(), headers.keySet(), headers.get(getMetadataHeaderName(null)),
+                getEntityTag(response));
+        }
+        return response;
+    }
+
+    /**
+     * Upload a document using the multipart upload API ("POST ?uploads", "PUT ?partNumber&amp;uploadId", "POST ?uploadId"), which is
+     * supported by both AmazonS3 and the GoogleStorage XML API. Parts are sent concurrently, and each part is retried on its own
+     * by the retry policy. The upload is aborted if any part fails.
+     * @param op Type of operation
+     * @param className Name of the class of the object
+     * @param mconn Managed Connection for the URL of the object
+     * @param body The document
+     * @param objectHeaders Metadata and precondition headers of the object. "If-None-Match" and "If-Match" are sent when completing the
+     *     upload, as AmazonS3 requires, and the others when initiating it
+     * @return The response completing the upload
+     */
+    protected HttpResponse uploadMultipart(OperationType op, String className, ConnectionFactoryImpl.ManagedConnectionImpl mconn, byte[] body,
+            Map<String, String> objectHeaders)
+    {
+        String urlPath = mconn.getURLPath();
+        Map<String, String> initiateHeaders = new HashMap<>(objectHeaders);
+        Map<String, String> completeHeaders = new HashMap<>();
+        for (String name : new String[] {"If-None-Match", "If-Match"})
+        {
+            if (initiateHeaders.containsKey(name))
+            {
+                completeHeaders.put(name, initiateHeaders.remove(name));
+            }
+        }
+        HttpResponse response = executeForPath(op, className, mconn, urlPath + "?uploads", "POST", "application/json", new byte[0], initiateHeaders);
+        handleHTTPErrorCode(response);
+        String uploadId = getXMLElementText(response.getBody(), "UploadId");
+        if (uploadId == null)
+        {
+            throw new NucleusDataStoreException("No UploadId in response to initiating multipart upload of " + urlPath + " : " + response.getBodyAsString());
+        }
+
+        boolean completed = false;
+        try
+        {
+            int numParts = (body.length + multipartPartSize - 1) / multipartPartSize;
+            String[] etags = new String[numParts];
+            List<Runnable> requests = new ArrayList<>(numParts);
+            for (int i = 0; i < numParts; i++)
+            {
+                final int partIndex = i;
+                final byte[] part = Arrays.copyOfRange(body, i * multipartPartSize, Math.min(body.length, (i + 1) * multipartPartSize));
+                final String partPath = urlPath + "?partNumber=" + (i + 1) + "&uploadId=" + uploadId;
+                final Map<String, String> options = new HashMap<>();
+                options.put(ConnectionFactoryImpl.STORE_JSON_URL, partPath);
+                options.put("Content-Type", "application/octet-stream");
+                final Map<String, String> headers = getHeaders("PUT", options);
+                requests.add(() ->
+                {
+                    HttpResponse partResponse = execute(op, className, mconn.forURLPath(partPath), "PUT", headers, part);
+                    handleHTTPErrorCode(partResponse);
+                    etags[partIndex] = partResponse.getHeaderField("ETag");
+                    if (etags[partIndex] == null)
+                    {
+                        // Completion has to list the ETag of each part
+                        throw new NucleusDataStoreException("No ETag in response to upload of part " + (partIndex + 1) + " of " + urlPath);
+                    }
+                });
+            }
+            List<Throwable> failures = executeConcurrently(requests, multipartParallelism);
+            if (!failures.isEmpty())
+            {
+                throw new NucleusDataStoreException("Failed to upload " + failures.size() + " of " + numParts + " parts of " + urlPath,
+                    failures.toArray(new Throwable[failures.size()]));
+            }
+
+            StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < numParts; i++)
+            {
+                xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>").append(etags[i]).append("</ETag></Part>");
+            }
+            xml.append("</CompleteMultipartUpload>");
+            response = executeForPath(op, className, mconn, urlPath + "?uploadId=" + uploadId, "POST", "application/xml",
+                xml.toString().getBytes(StandardCharsets.UTF_8), completeHeaders);
+            handleHTTPErrorCode(response);
+            if (getXMLElementText(response.getBody(), "Code") != null)
+            {
+                // Completion can fail after a 200 response has started
+                throw new NucleusDataStoreException("Error completing multipart upload of " + urlPath + " : " + response.getBodyAsString());
+            }
+            completed = true;
+
+            if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_NATIVE.debug("Uploaded " + body.length + " bytes to " + urlPath + " in " + numParts + " parts");
+            }
+            return response;
+        }
+        finally
+        {
+            if (!completed)
+            {
+                try
+                {
+                    executeForPath(op, className, mconn, urlPath + "?uploadId=" + uploadId, "DELETE", null, null);
+                }
+                catch (RuntimeException e)
+                {
+                    NucleusLogger.DATASTORE.warn("Exception aborting multipart upload " + uploadId + " of " + urlPath, e);
+                }
+            }
+        }
+    }
+
+    protected HttpResponse executeForPath(OperationType op, String className, ConnectionFactoryImpl.ManagedConnectionImpl mconn, String urlPath, String method,
+            String contentType, byte[] body)
+    {
+        return executeForPath(op, className, mconn, urlPath, method, contentType, body, Collections.emptyMap());
+    }
+
+    private HttpResponse executeForPath(OperationType op, String className, ConnectionFactoryImpl.ManagedConnectionImpl mconn, String urlPath, String method,
+            String contentType, byte[] body, Map<String, String> extraOptions)
+    {
+        Map<String, String> options = new HashMap<>(extraOptions);
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+        if (contentType != null)
+        {
+            options.put("Content-Type", contentType);
+        }
+        return execute(op, className, mconn.forURLPath(urlPath), method, getHeaders(method, options), body);
+    }
+
+    /**
+     * Accessor for the text of the first element with the specified name in an XML response.
+     * @param xml The XML
+     * @param name Name of the element
+     * @return The text, or null if there is no such element (or the response is not XML)
+     */
+    protected static String getXMLElementText(byte[] xml, String name)
+    {
+        try
+        {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(xml));
+            try
+            {
+                while (reader.hasNext())
+                {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && name.equals(reader.getLocalName()))
+                    {
+                        return reader.getElementText();
+                    }
+                }
+                return null;
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            return null;
+        }
+    }
+
+    protected void createBucket(ManagedConnection mconn, Map<String, String> headers)
+    {
+        //TODO this should be optional, based on a property
+        if (NucleusLogger.DATASTORE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE.debug("Creating bucket. ");
+        }
+
+        HttpResponse response = execute(OperationType.CREATE_BUCKET, null, mconn, "PUT", headers, new byte[0]);
+        if (response.getCode() == 409)
+        {
+            // HTTP Error code: 409 Conflict error: <?xml version='1.0' encoding='UTF-8'?><Error><Code>BucketAlreadyOwnedByYou</Code><Message>Your previous request to create the named bucket succeeded and you already own it.</Message></Error>
+            return;
+        }
+        handleHTTPErrorCode(response);
+    }
+    
+    protected Map<String, String> getHeaders(String httpVerb, Map<String,String> options)
+    {
+        Map<String, String> headers = super.getHeaders(httpVerb, options);
+        String contentMD5 = "";
+        String contentType = "";
+        if (options.containsKey("Content-Type"))
+        {
+            contentType = options.get("Content-Type");
+        }
+        if (options.containsKey("Content-MD5"))
+        {
+            contentMD5 = options.get("Content-MD5");
+            headers.put("Content-MD5", contentMD5);
+        }
+        if (options.containsKey("If-None-Match"))
+        {
+            headers.put("If-None-Match", options.get("If-None-Match"));
+        }
+        if (options.containsKey("If-Match"))
+        {
+            headers.put("If-Match", options.get("If-Match"));
+        }
+        String urlStr = storeMgr.getConnectionURL();
+        String authenticationKey = storeMgr.getConnectionUserName();
+        String authenticationSecretKey = storeMgr.getConnectionPassword();
+
+        try
+        {
+            urlStr = urlStr.substring(urlStr.indexOf(storeMgr.getStoreManagerKey()+":")+storeMgr.getStoreManagerKey().length()+1);
+            headers.put("Host", getBucket()+"."+new URL(urlStr).getHost());
+            String path = "/"+getBucket();
+            if (options.containsKey(ConnectionFactoryImpl.STORE_JSON_URL))
+            {
+                if (!options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString().startsWith("/"))
+                {
+                    path += "/";
+                }
+                if (options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString().indexOf("?")>-1)
+                {
+                    String urlPath = options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString();
+                    path += urlPath.substring(0,urlPath.indexOf("?"));
+                    path += getSubresources(urlPath.substring(urlPath.indexOf("?")+1));
+                }
+                else
+                {
+                    path += options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString();
+                }
+            }
+            else
+            {
+                path += new URL(urlStr).getPath();
+            }
+            // Provider headers (e.g metadata) are sent, and signed in order of their (lowercase) names
+            StringBuilder canonicalHeaders = new StringBuilder();
+            for (String name : new TreeSet<>(options.keySet()))
+            {
+                if (name.startsWith("x-amz-") || name.startsWith("x-goog-"))
+                {
+                    headers.put(name, options.get(name));
+                    canonicalHeaders.append(name).append(':').append(options.get(name).trim()).append('\n');
+                }
+            }
+            String stringToSign = httpVerb + "\n" + contentMD5 + "\n" + contentType + "\n" + headers.get("Date") + "\n" + canonicalHeaders + path;
+            headers.put("Authorization", getRealmName()+" "+authenticationKey+":"+CloudStorageUtils.hmac(authenticationSecretKey,stringToSign));
+        }
+        catch (MalformedURLException e)
+        {
+            throw new NucleusException(e.getMessage(), e);
+        }
+        return headers;
+    }
+    
+    /**
+     * Method to add the options making a PUT only create the object when there is no object with its key.
+     * @param options Options of the request
+     */
+    protected void addCreateOnlyOptions(Map<String, String> options)
+    {
+        options.put("If-None-Match", "*");
+    }
+
+    /**
+     * Method to add the options making a PUT only replace the object when it is unchanged since it had the specified entity tag.
+     * @param options Options of the request
+     * @param entityTag Entity tag of the object
+     */
+    protected void addIfMatchOptions(Map<String, String> options, String entityTag)
+    {
+        options.put("If-Match", entityTag);
+    }
+
+    /**
+     * Accessor for the entity tag identifying the content of an object, from a response reading or writing it.
+     * @param response The response
+     * @return The entity tag, or null if not present
+     */
+    protected String getEntityTag(HttpResponse response)
+    {
+        return response.getHeaderField("ETag");
+    }
+
+    /**
+     * Precondition failures of writes mean that the object already exists for a conditional create, or has changed for a conditional
+     * update (which is reported as an optimistic failure by updateObject).
+     * @param response The response
+     */
+    @Override
+    protected void handleHTTPErrorCode(HttpResponse response)
+    {
+        if (response.getCode() == 412 && ("PUT".equals(response.getMethod()) || "POST".equals(response.getMethod())))
+        {
+            throw new DuplicateKeyException("Object with URL '" + response.getURL() + "' already exists", null);
+        }
+        super.handleHTTPErrorCode(response);
+    }
+
+    /**
+     * Accessor for the prefix of the names of the user metadata headers of an object.
+     * @return The prefix
+     */
+    protected String getMetadataHeaderPrefix()
+    {
+        return "x-amz-meta-";
+    }
+
+    private String getMetadataHeaderName(AbstractMemberMetaData mmd)
+    {
+        return getMetadataHeaderPrefix() + (mmd == null ? "dn-version" : "dn-field-" + mmd.getName().toLowerCase(Locale.ROOT));
+    }
+
+    private static boolean isMetadataMember(AbstractMemberMetaData mmd)
+    {
+        return "true".equalsIgnoreCase(mmd.getValueForExtension(EXTENSION_METADATA_HEADER));
+    }
+
+    /**
+     * Mirror the version of the object, and its members with the "metadata-header" extension, into metadata headers of the request
+     * writing it, when enabled. A member is only mirrored when it is loaded (so a partial update has no header for a member it
+     * doesn't load, rather than a default value) and its value is stored as a simple JSON value of at most 256 characters.
+     * @param sm StateManager of the object being written
+     * @param options Options of the request
+     */
+    protected void addObjectOptions(DNStateManager sm, Map<String, String> options)
+    {
+        if (!metadataHeaders)
+        {
+            return;
+        }
+
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        Object version = sm.getTransactionalVersion();
+        if (cmd.isVersioned() && version != null)
+        {
+            options.put(getMetadataHeaderName(null), encodeVersion(version));
+        }
+
+        List<Integer> positions = new ArrayList<>();
+        for (int position : cmd.getAllMemberPositions())
+        {
+            if (isMetadataMember(cmd.getMetaDataForManagedMemberAtAbsolutePosition(position)) && sm.isFieldLoaded(position))
+            {
+                positions.add(position);
+            }
+        }
+        if (positions.isEmpty())
+        {
+            return;
+        }
+        Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+        JSONObject values = new JSONObject();
+        sm.provideFields(positions.stream().mapToInt(Integer::intValue).toArray(), new StoreFieldManager(sm, values, true, table));
+        for (int position : positions)
+        {
+            AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(position);
+            Object value = values.opt(table.getMemberColumnMappingForMember(mmd).getColumn(0).getName());
+            String encoded = value instanceof JSONObject || value instanceof JSONArray ? null : encodeMetadataValue(value != null ? value : JSONObject.NULL);
+            if (encoded != null && encoded.length() <= MAX_METADATA_VALUE_LENGTH)
+            {
+                options.put(getMetadataHeaderName(mmd), encoded);
+            }
+            else if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_PERSIST.debug("Value of " + mmd.getFullFieldName() + " is not mirrored into a metadata header since it is not a short simple value");
+            }
+        }
+    }
+
+    private static String encodeVersion(Object version)
+    {
+        return encodeMetadataValue(version instanceof Date ? Long.valueOf(((Date) version).getTime()) : version);
+    }
+
+    private static String encodeMetadataValue(Object value)
+    {
+        String json = new JSONArray().put(value).toString();
+        return encodeQueryValue(json.substring(1, json.length() - 1));
+    }
+
+    private static Object decodeMetadataValue(String header)
+    {
+        try
+        {
+            return new JSONArray("[" + URLDecoder.decode(header, "UTF-8") + "]").get(0);
+        }
+        catch (JSONException | UnsupportedEncodingException | IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Remember the headers of an object from a response reading it.
+     * @param urlPath URL path of the object
+     * @param response The response
+     */
+    private void recordStoredHeaders(String urlPath, HttpResponse response)
+    {
+        Collection<String> names = response.getHeaders() != null ? response.getHeaders().keySet() : Collections.emptySet();
+        recordStoredHeaders(urlPath, names, response.getHeaderField(getMetadataHeaderName(null)), getEntityTag(response));
+    }
+
+    /**
+     * Remember the headers of an object, so that a conditional update of the version read or written doesn't need a HEAD of the object,
+     * and members that are not mirrored are fetched without one.
+     * @param urlPath URL path of the object
+     * @param names Names of the headers of the object
+     * @param version Value of the version header, or null
+     * @param entityTag Entity tag of the object, or null
+     */
+    private void recordStoredHeaders(String urlPath, Collection<String> names, String version, String entityTag)
+    {
+        Set<String> metadataNames = new HashSet<>();
+        for (String name : names)
+        {
+            if (name != null && name.toLowerCase(Locale.ROOT).startsWith(getMetadataHeaderPrefix()))
+            {
+                metadataNames.add(name.toLowerCase(Locale.ROOT));
+            }
+        }
+        storedHeaders.put(urlPath, new StoredHeaders(metadataNames, version, entityTag));
+    }
+
+    /**
+     * Read the JSON document of an object, using the disk cache (when enabled) for a GET. The cached version is validated with
+     * "If-None-Match" so is only used if the object is unchanged, and otherwise the object is downloaded and cached.
+     * The headers of the object are remembered when metadata headers are enabled.
+     */
+    protected JSONObject read(OperationType op, AbstractClassMetaData cmd, ManagedConnection mconn, String method, Map<String, String> headers)
+    {
+        if ((diskCache == null && !metadataHeaders) || !"GET".equals(method) || !(mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl))
+        {
+            return super.read(op, cmd, mconn, method, headers);
+        }
+
+        String urlPath = ((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).getURLPath();
+        String key = getBucket() + "/" + urlPath;
+        DiskCache.CachedObject cached = diskCache != null ? diskCache.get(key) : null;
+        Map<String, String> requestHeaders = headers;
+        if (cached != null)
+        {
+            requestHeaders = new HashMap<>(headers);
+            requestHeaders.put("If-None-Match", cached.getETag());
+        }
+        HttpResponse response = execute(op, cmd.getFullClassName(), mconn, method, requestHeaders, null);
+        if (response.getCode() == 404)
+        {
+            if (diskCache != null)
+            {
+                diskCache.remove(key);
+            }
+            throw new NucleusObjectNotFoundException();
+        }
+        handleHTTPErrorCode(response);
+
+        byte[] body;
+        if (response.getCode() == 304 && cached != null)
+        {
+            body = cached.getData();
+        }
+        else
+        {
+            body = response.getBody();
+            String etag = response.getHeaderField("ETag");
+            if (etag != null && diskCache != null)
+            {
+                diskCache.put(key, etag, body);
+            }
+            if (metadataHeaders)
+            {
+                recordStoredHeaders(urlPath, response);
+            }
+        }
+        return parseDocument(cmd, body);
+    }
+
+    public void fetchObject(DNStateManager sm, int[] fieldNumbers)
+    {
+        if (metadataHeaders && !isKnownAbsent(sm, getURLPath(sm)) && fetchObjectFromHeaders(sm, fieldNumbers))
+        {
+            return;
+        }
+        super.fetchObject(sm, fieldNumbers);
+    }
+
+    /**
+     * Fetch the specified fields of an object from the metadata headers of a HEAD of the object, when all of them are mirrored
+     * (the version member, for a numeric version, or members with the "metadata-header" extension).
+     * @param sm StateManager of the object
+     * @param fieldNumbers Absolute numbers of the fields to fetch
+     * @return Whether the fields were fetched, otherwise they need a GET of the object (e.g it was written before mirroring was enabled)
+     * @throws NucleusObjectNotFoundException if the object doesn't exist
+     */
+    protected boolean fetchObjectFromHeaders(DNStateManager sm, int[] fieldNumbers)
+    {
+        AbstractClassMetaData cmd = sm.getClassMetaData();
+        VersionMetaData vermd = cmd.isVersioned() ? cmd.getVersionMetaDataForClass() : null;
+        String versionMemberName = vermd != null && vermd.getStrategy() == VersionStrategy.VERSION_NUMBER ? vermd.getMemberName() : null;
+        Map<Integer, String> headerNames = new HashMap<>();
+        for (int fieldNumber : fieldNumbers)
+        {
+            AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(fieldNumber);
+            if (mmd.getName().equals(versionMemberName))
+            {
+                headerNames.put(fieldNumber, getMetadataHeaderName(null));
+            }
+            else if (isMetadataMember(mmd))
+            {
+                headerNames.put(fieldNumber, getMetadataHeaderName(mmd));
+            }
+            else
+            {
+                return false;
+            }
+        }
+
+        String urlPath = getURLPath(sm);
+        StoredHeaders stored = storedHeaders.get(urlPath);
+        if (stored != null && !stored.names.containsAll(headerNames.values()))
+        {
+            // Not all mirrored when last read or written (e.g not loaded when updated), so needs the document
+            return false;
+        }
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+        ExecutionContext ec = sm.getExecutionContext();
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+        Span span = startSpan("json.fetch", cmd.getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_READ_TIMEOUT));
+        try
+        {
+            HttpResponse response = execute(OperationType.FETCH, cmd.getFullClassName(), mconn, "HEAD", getHeaders("HEAD", options), null);
+            if (response.getCode() == 404)
+            {
+                recordAbsent(urlPath);
+                throw new NucleusObjectNotFoundException();
+            }
+            handleHTTPErrorCode(response);
+            recordStoredHeaders(urlPath, response);
+
+            Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+            JSONObject values = new JSONObject();
+            if (cmd.getIdentityType() == IdentityType.APPLICATION)
+            {
+                sm.provideFields(cmd.getPKMemberPositions(), new StoreFieldManager(sm, values, true, table));
+            }
+            for (Map.Entry<Integer, String> entry : headerNames.entrySet())
+            {
+                String header = response.getHeaderField(entry.getValue());
+                Object value = header != null ? decodeMetadataValue(header) : null;
+                if (value == null)
+                {
+                    // Not mirrored when written, so needs the document
+                    return false;
+                }
+                AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(entry.getKey());
+                values.put(table.getMemberColumnMappingForMember(mmd).getColumn(0).getName(), value);
+            }
+
+            if (ec.getStatistics() != null)
+            {
+                ec.getStatistics().incrementNumReads();
+                ec.getStatistics().incrementFetchCount();
+            }
+            FieldHydrationEvent hydrationEvent = new FieldHydrationEvent();
+            hydrationEvent.begin();
+            sm.replaceFields(fieldNumbers, new FetchFieldManager(sm, values, table));
+            hydrationEvent.commit(cmd.getFullClassName(), 1, fieldNumbers.length);
+            Object version = getVersion(cmd, table, values);
+            if (version != null && sm.getTransactionalVersion() == null)
+            {
+                sm.setVersion(version);
+            }
+            if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_RETRIEVE.debug("Fetched " + fieldNumbers.length + " fields of " + sm.getObjectAsPrintable() + " from metadata headers");
+            }
+            return true;
+        }
+        catch (JSONException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        finally
+        {
+            mconn.release();
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Make the update of a versioned object, in an optimistic transaction, conditional on the stored object being unchanged since it
+     * had the version being updated from, when the version is mirrored into a metadata header. The entity tag of that version is
+     * known without a request when this handler last read or wrote that version of the object.
+     * @param sm StateManager of the object being updated
+     * @param currentVersion Version of the object being updated from
+     * @param options Options of the request
+     * @throws NucleusOptimisticException if the object is known to have been updated, or deleted, by another transaction
+     */
+    protected void addUpdateOptions(DNStateManager sm, Object currentVersion, Map<String, String> options)
+    {
+        if (!metadataHeaders || !sm.getClassMetaData().isVersioned() || !sm.getExecutionContext().getTransaction().getOptimistic() ||
+            !(currentVersion instanceof Number || currentVersion instanceof Date))
+        {
+            return;
+        }
+
+        StoredHeaders stored = storedHeaders.get(getURLPath(sm));
+        String entityTag = stored != null && stored.entityTag != null && encodeVersion(currentVersion).equals(stored.version) ? stored.entityTag :
+            verifyVersion(sm, currentVersion);
+        if (entityTag != null)
+        {
+            addIfMatchOptions(options, entityTag);
+        }
+    }
+
+    /**
+     * Check the version of an object in the datastore, from the metadata header of a HEAD of the object, against the version it is
+     * being updated from. Nothing is checked if the object has no version header (e.g written before mirroring was enabled).
+     * @param sm StateManager of the object
+     * @param current Version of the object being updated from
+     * @return Entity tag of the object, or null if it has no version header
+     * @throws NucleusOptimisticException if the object was updated, or deleted, by another transaction
+     */
+    protected String verifyVersion(DNStateManager sm, Object current)
+    {
+        String urlPath = getURLPath(sm);
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+        ExecutionContext ec = sm.getExecutionContext();
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+        Span span = startSpan("json.verifyVersion", sm.getClassMetaData().getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_READ_TIMEOUT));
+        try
+        {
+            HttpResponse response = execute(OperationType.LOCATE, sm.getClassMetaData().getFullClassName(), mconn, "HEAD", getHeaders("HEAD", options), null);
+            if (ec.getStatistics() != null)
+            {
+                ec.getStatistics().incrementNumReads();
+            }
+            if (response.getCode() == 404)
+            {
+                throw new NucleusOptimisticException("Object " + sm.getObjectAsPrintable() + " has been deleted by another transaction", sm.getObject());
+            }
+            handleHTTPErrorCode(response);
+            recordStoredHeaders(urlPath, response);
+
+            String header = response.getHeaderField(getMetadataHeaderName(null));
+            Object stored = header != null ? decodeMetadataValue(header) : null;
+            if (!(stored instanceof Number))
+            {
+                return null;
+            }
+            if (!encodeVersion(stored).equals(encodeVersion(current)))
+            {
+                throw new NucleusOptimisticException("Object " + sm.getObjectAsPrintable() + " has version " + stored + " in the datastore but " + current +
+                    " was expected, so has been updated by another transaction", sm.getObject());
+            }
+            return getEntityTag(response);
+        }
+        finally
+        {
+            mconn.release();
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Accessor for the sub-resources of a request query string that are part of the signed resource, in the order they are signed.
+     * @param query The query string (without leading "?")
+     * @return The sub-resources, with leading "?", or "" if there are none
+     */
+    protected String getSubresources(String query)
+    {
+        Map<String, String> params = new HashMap<>();
+        for (String param : query.split("&"))
+        {
+            int eq = param.indexOf('=');
+            params.put(eq < 0 ? param : param.substring(0, eq), eq < 0 ? null : param.substring(eq + 1));
+        }
+        StringBuilder str = new StringBuilder();
+        for (String name : SIGNED_SUBRESOURCES)
+        {
+            if (params.containsKey(name))
+            {
+                str.append(str.length() == 0 ? "?" : "&").append(name);
+                if (params.get(name) != null)
+                {
+                    str.append("=").append(params.get(name));
+                }
+            }
+        }
+        return str.toString();
+    }
+
+    protected abstract String getRealmName();
+    
+    protected Map<String, String> getHeaderForBucket()
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Date", CloudStorageUtils.getHTTPDate());
+        String contentMD5 = "";
+        String contentType = "";
+        String httpVerb = "PUT";
+        String urlStr = storeMgr.getConnectionURL();
+        String awsKey = storeMgr.getConnectionUserName();
+        String awsSecretKey = storeMgr.getConnectionPassword();
+        try
+        {
+            urlStr = urlStr.substring(urlStr.indexOf(storeMgr.getStoreManagerKey()+":")+storeMgr.getStoreManagerKey().length()+1);
+            headers.put("Host", getBucket()+"."+new URL(urlStr).getHost());
+            String stringToSign = httpVerb + "\n" + contentMD5 + "\n" + contentType + "\n" + headers.get("Date") + "\n" + "/"+getBucket() +"/";
+            headers.put("Authorization", getRealmName()+" "+awsKey+":"+CloudStorageUtils.hmac(awsSecretKey,stringToSign));
+            String traceParent = tracer.getCurrentSpan().getTraceParent();
+            if (traceParent != null)
+            {
+                headers.put("traceparent", traceParent);
+            }
+        }
+        catch (MalformedURLException e)
+        {
+            NucleusLogger.DATASTORE.error("Exception thrown getting header : ", e);
+        }
+        return headers;
+    }    
+
+    /**
+     * Convenience method to get all objects of the candidate type from the specified connection.
+     * @param ec ExecutionContext
+     * @param mconn Managed Connection
+     * @param candidateClass Candidate
+     * @param subclasses Whether to include subclasses
+     * @param ignoreCache Whether to ignore the cache
+     * @return List of objects of the candidate type
+     */
+    public List getObjectsOfCandidateType(final ExecutionContext ec, ManagedConnection mconn, 
+            Class candidateClass, boolean subclasses, boolean ignoreCache, Map options)
+    {
+        List results = new ArrayList();
+
+        // TODO Support subclasses
+        try
+        {
+            ClassLoaderResolver clr = ec.getClassLoaderResolver();
+            final AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(candidateClass, clr);
+            Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+
+            JSONArray jsonarray = listObjectsOfCandidateType(cmd, mconn, options);
+            results = getObjectsForListing(ec, cmd, table, jsonarray, ignoreCache);
+            if (manifest != null)
+            {
+                // Keys are added to the manifest before their object is stored, so drop those of objects that aren't (yet) stored
+                results = loadObjects(ec, results, "manifest of " + cmd.getFullClassName());
+            }
+        }
+        catch (JSONException je)
+        {
+            // TODO Throw this
+            NucleusLogger.DATASTORE.error("Exception thrown getting objects of type : ", je);
+        }
+
+        return results;
+    }
+
+    /**
+     * Load the objects of a listing (those not already loaded), dropping those that don't exist. Their documents are fetched
+     * concurrently rather than one object at a time.
+     * @param ec ExecutionContext
+     * @param objects The (hollow) objects
+     * @param source Description of where the objects were listed from, for logging
+     * @return The objects that exist, loaded
+     */
+    private List loadObjects(ExecutionContext ec, List objects, String source)
+    {
+        Object[] ids = new Object[objects.size()];
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = ec.findStateManager(objects.get(i)).getInternalObjectId();
+        }
+        Object[] found = findObjects(ec, ids);
+        List loaded = new ArrayList(objects.size());
+        for (int i = 0; i < found.length; i++)
+        {
+            if (found[i] != null)
+            {
+                loaded.add(found[i]);
+            }
+            else
+            {
+                // Hollow object of the listing, so not otherwise in use
+                NucleusLogger.DATASTORE_RETRIEVE.debug("Ignoring object " + ids[i] + " of " + source + " that doesn't exist");
+                ec.removeObjectFromLevel1Cache(ids[i]);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Build the index of a member, unless its marker shows it is built, by writing the entries of all stored objects of the class
+     * (e.g stored before the member was indexed) and then the marker. Objects stored without entries after the marker was written
+     * (e.g by a client that doesn't index the member) are not found via the index.
+     * @param ec ExecutionContext
+     * @param mconn Managed Connection for the query
+     * @param cmd Metadata for the candidate class
+     * @param mmd Metadata for the indexed member
+     */
+    protected void buildIndex(ExecutionContext ec, ConnectionFactoryImpl.ManagedConnectionImpl mconn, AbstractClassMetaData cmd, AbstractMemberMetaData mmd)
+    {
+        String markerPath = SecondaryIndex.getBuiltMarkerPath(getURLPath(cmd), mmd.getName());
+        if (builtIndexes.contains(markerPath))
+        {
+            return;
+        }
+        String className = cmd.getFullClassName();
+        HttpResponse response = executeForPath(OperationType.LOCATE, className, mconn, markerPath, "HEAD", null, null);
+        if (response.getCode() != 404)
+        {
+            handleHTTPErrorCode(response);
+            builtIndexes.add(markerPath);
+            return;
+        }
+
+        // Entries are written concurrently by writeIndexEntries, and rewriting an existing entry is harmless
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPathForQuery(cmd));
+        JSONArray jsonarray = listObjectsOfCandidateType(cmd, mconn.forURLPath(getURLPathForQuery(cmd)), options);
+        List listed;
+        try
+        {
+            listed = getObjectsForListing(ec, cmd, storeMgr.getStoreDataForClass(className).getTable(), jsonarray, false);
+        }
+        catch (JSONException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        List<String> entries = new ArrayList<>();
+        for (Object obj : loadObjects(ec, listed, "class " + className))
+        {
+            entries.addAll(getIndexEntries(ec.findStateManager(obj), Collections.singletonList(mmd)));
+        }
+        writeIndexEntries(ec, className, entries, "PUT");
+
+        response = executeForPath(OperationType.INSERT, className, mconn, markerPath, "PUT", "application/octet-stream", new byte[0]);
+        handleHTTPErrorCode(response);
+        builtIndexes.add(markerPath);
+        if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE_PERSIST.debug("Built index of " + mmd.getFullFieldName() + " with " + entries.size() + " entries");
+        }
+    }
+
+    /**
+     * Convenience method to get the objects of the candidate type whose indexed member has a value in the specified range, using the
+     * entries of the index of the member rather than listing all objects. Entries whose object no longer exists are ignored.
+     * @param ec ExecutionContext
+     * @param mconn Managed Connection for the query
+     * @param cmd Metadata for the candidate class
+     * @param memberName Name of the indexed member
+     * @param entryRange Range of the index entries (see {@link SecondaryIndex#getEntryRange})
+     * @param ignoreCache Whether to ignore the cache
+     * @return The objects (loaded), or null if the index cannot be listed with this connection
+     */
+    public List getObjectsOfCandidateTypeForIndex(ExecutionContext ec, ManagedConnection mconn, AbstractClassMetaData cmd, String memberName,
+            KeyRange entryRange, boolean ignoreCache)
+    {
+        if (!(mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl))
+        {
+            return null;
+        }
+        buildIndex(ec, (ConnectionFactoryImpl.ManagedConnectionImpl) mconn, cmd, cmd.getMetaDataForMember(memberName));
+
+        String indexPath = SecondaryIndex.getIndexPath(getURLPath(cmd), memberName);
+        String urlPath = "?prefix=" + encodeQueryValue(indexPath + (entryRange.getPrefix() != null ? entryRange.getPrefix() : ""));
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+        String startAfter = entryRange.getStartAfter() != null ? indexPath + entryRange.getStartAfter() : null;
+        Set<String> keys = new LinkedHashSet<>();
+        HttpResponse response = listKeys(cmd.getFullClassName(), ((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).forURLPath(urlPath), options,
+            startAfter, keyText ->
+        {
+            String entry = keyText.substring(indexPath.length());
+            if (entryRange.isAfter(entry))
+            {
+                // Listing is in key order so no later entry is in range
+                return false;
+            }
+            int sep = entry.indexOf('/');
+            if (sep >= 0 && sep < entry.length() - 1)
+            {
+                keys.add(entry.substring(sep + 1));
+            }
+            return true;
+        });
+        if (response != null)
+        {
+            throw new NucleusDataStoreException("Listing of index " + indexPath + " is not a bucket listing");
+        }
+
+        List results;
+        try
+        {
+            String pkMemberName = cmd.getPrimaryKeyMemberNames()[0];
+            JSONArray jsonarray = new JSONArray();
+            for (String key : keys)
+            {
+                JSONObject object = new JSONObject();
+                object.put("class", cmd.getFullClassName());
+                object.put(pkMemberName, key);
+                jsonarray.put(object);
+            }
+            results = getObjectsForListing(ec, cmd, storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable(), jsonarray, ignoreCache);
+        }
+        catch (JSONException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+
+        // Load the objects now (those not loaded from the cache), so that entries of objects that no longer exist (if their removal failed)
+        // can be dropped
+        results = loadObjects(ec, results, "index " + indexPath);
+        if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE_RETRIEVE.debug("Found " + results.size() + " objects of " + cmd.getFullClassName() + " from " + keys.size() +
+                " entries of index " + indexPath + " in " + entryRange);
+        }
+        return results;
+    }
+
+    /**
+     * Convenience method to get (hollow) objects for the objects of a listing, each with its class and PK.
+     * @param ec ExecutionContext
+     * @param cmd Metadata for the candidate class
+     * @param table Table of the candidate class
+     * @param jsonarray The objects listed
+     * @param ignoreCache Whether to ignore the cache
+     * @return The objects
+     * @throws JSONException if an object listed has no PK
+     */
+    protected List getObjectsForListing(final ExecutionContext ec, final AbstractClassMetaData cmd, Table table, JSONArray jsonarray, boolean ignoreCache)
+            throws JSONException
+    {
+        List results = new ArrayList(jsonarray.length());
+        FieldHydrationEvent hydrationEvent = new FieldHydrationEvent();
+        hydrationEvent.begin();
+        for (int i = 0; i < jsonarray.length(); i++)
+        {
+            final JSONObject json = jsonarray.getJSONObject(i);
+
+            Object id = null;
+            final FieldManager fm = new FetchFieldManager(ec, cmd, json, table);
+            if (cmd.getIdentityType() == IdentityType.DATASTORE)
+            {
+                String memberName = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getName();
+                Object key = json.get(memberName);
+                if (key instanceof String)
+                {
+                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId((String)key);
+                }
+                else
+                {
+                    id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), key);
+                }
+            }
+            else if (cmd.getIdentityType() == IdentityType.APPLICATION)
+            {
+                id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, null, true, fm);
+            }
+
+            Object pc = ec.findObject(id, new FieldValues()
+            {
+                public FetchPlan getFetchPlanForLoading()
+                {
+                    return null;
+                }
+                public void fetchNonLoadedFields(DNStateManager sm)
+                {
+                    sm.replaceNonLoadedFields(cmd.getPKMemberPositions(), fm);
+                }
+                public void fetchFields(DNStateManager sm)
+                {
+                    sm.replaceFields(cmd.getPKMemberPositions(), fm);
+                }
+            }, null, ignoreCache, false);
+
+            DNStateManager sm = ec.findStateManager(pc);
+            byte[] cached = documentCache != null ? documentCache.get(getURLPath(sm)) : null;
+            if (cached != null)
+            {
+                // Load the other fields from the cached document, rather than fetching them when accessed
+                JSONObject document = parseDocument(cmd, cached);
+                sm.replaceNonLoadedFields(cmd.getAllMemberPositions(), new FetchFieldManager(sm, document, table));
+                Object version = getVersion(cmd, table, document);
+                if (version != null)
+                {
+                    sm.setVersion(version);
+                }
+            }
+
+            // Any fields loaded above will not be wrapped since we did not have StateManager at the point of creating the FetchFieldManager, so wrap them now
+            sm.replaceAllLoadedSCOFieldsWithWrappers();
+
+            results.add(pc);
+        }
+        hydrationEvent.commit(cmd.getFullClassName(), results.size(), cmd.getPKMemberPositions().length);
+        return results;
+    }
+
+    /**
+     * Convenience method to get the PKs (in string form) of all objects of the candidate type from the bucket listing,
+     * without instantiating or fetching any object.
+     * @param mconn Managed Connection for the query
+     * @param cmd Metadata for the candidate class
+     * @param options Options of the connection
+     * @return The PKs of the objects
+     */
+    public List<String> getPrimaryKeysOfCandidateType(ManagedConnection mconn, AbstractClassMetaData cmd, Map options)
+    {
+        return getPrimaryKeys(cmd, listObjectsOfCandidateType(cmd, mconn, options));
+    }
+
+    /**
+     * Convenience method to list the objects of the candidate type, from the manifest of the class if enabled, otherwise from
+     * a listing of the class (or of its key shards).
+     * @param cmd Metadata for the candidate class
+     * @param mconn Managed Connection for the query
+     * @param options Options of the connection, with any KeyRange that the query needs
+     * @return The objects listed, each with its class and PK
+     */
+    protected JSONArray listObjectsOfCandidateType(AbstractClassMetaData cmd, ManagedConnection mconn, Map options)
+    {
+        long listedAt = System.currentTimeMillis();
+        if (manifest != null && mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl)
+        {
+            // Whole class is listed for a class without a manifest, since the listing becomes its first snapshot
+            Map listOptions = new HashMap(options);
+            listOptions.remove(OPTION_KEY_RANGE);
+            List<String> keys = manifest.readKeys((ConnectionFactoryImpl.ManagedConnectionImpl) mconn, cmd.getFullClassName(), getURLPath(cmd),
+                () -> getPrimaryKeys(cmd, listObjectsOfClass(cmd, mconn, listOptions)));
+            if (keys != null)
+            {
+                buildBloomFilter(cmd, keys, listedAt);
+                KeyRange range = (KeyRange) options.get(OPTION_KEY_RANGE);
+                String pkMemberName = cmd.getPrimaryKeyMemberNames()[0];
+                JSONArray jsonarray = new JSONArray();
+                try
+                {
+                    for (String key : keys)
+                    {
+                        if (range == null || range.contains(key))
+                        {
+                            JSONObject object = new JSONObject();
+                            object.put("class", cmd.getFullClassName());
+                            object.put(pkMemberName, key);
+                            jsonarray.put(object);
+                        }
+                    }
+                }
+                catch (JSONException e)
+                {
+                    throw new NucleusDataStoreException(e.getMessage(), e);
+                }
+                return jsonarray;
+            }
+        }
+        JSONArray jsonarray = listObjectsOfClass(cmd, mconn, options);
+        if (bloomFilterTtl > 0 && options.get(OPTION_KEY_RANGE) == null)
+        {
+            buildBloomFilter(cmd, getPrimaryKeys(cmd, jsonarray), listedAt);
+        }
+        return jsonarray;
     }
 
-    public void insertObject(DNStateManager sm)
+    private JSONArray listObjectsOfClass(AbstractClassMetaData cmd, ManagedConnection mconn, Map options)
     {
-        // Check if read-only so update not permitted
-        assertReadOnlyForUpdateOfObject(sm);
-
-        AbstractClassMetaData cmd = sm.getClassMetaData();
-        if (!storeMgr.managesClass(cmd.getFullClassName()))
+        if (keyShards > 0 && mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl)
         {
-            // Make sure schema exists, using this connection
-            storeMgr.manageClasses(sm.getExecutionContext().getClassLoaderResolver(), new String[] {cmd.getFullClassName()});
+            return listObjectsOfShards(cmd, (ConnectionFactoryImpl.ManagedConnectionImpl) mconn, options);
         }
-        Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
-
-        Map<String,String> options = new HashMap<String,String>();
-        options.put(ConnectionFactoryImpl.STORE_JSON_URL, "/");
-        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(sm.getExecutionContext(), options);
-        URLConnection conn = (URLConnection) mconn.getConnection();
-        createBucket(conn, getHeaderForBucket());
-
-        options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPath(sm));
-        options.put("Content-Type", "application/json");
-        mconn = storeMgr.getConnectionManager().getConnection(sm.getExecutionContext(), options);
-        conn = (URLConnection) mconn.getConnection();
-
-        JSONObject jsonobj = new JSONObject();
-        sm.provideFields(sm.getClassMetaData().getAllMemberPositions(), new StoreFieldManager(sm, jsonobj, true, table));
-        write("PUT", conn.getURL().getPath(), conn, jsonobj.toString(), getHeaders("PUT",options));
+        return listObjects(cmd, mconn, options, getURLPath(cmd));
     }
 
-    protected void createBucket(URLConnection conn, Map headers)
+    private List<String> getPrimaryKeys(AbstractClassMetaData cmd, JSONArray jsonarray)
     {
-        //TODO this should be optional, based on a property
+        String pkMemberName = cmd.getPrimaryKeyMemberNames()[0];
+        List<String> keys = new ArrayList<>(jsonarray.length());
         try
         {
-            if (NucleusLogger.DATASTORE.isDebugEnabled())
+            for (int i = 0; i < jsonarray.length(); i++)
             {
-                NucleusLogger.DATASTORE.debug("Creating bucket. ");
+                keys.add(jsonarray.getJSONObject(i).get(pkMemberName).toString());
             }
-            HttpURLConnection http = (HttpURLConnection)conn;
+        }
+        catch (JSONException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        return keys;
+    }
+
+    /**
+     * Convenience method to list the objects under the key prefix of the specified connection.
+     * When the options have a KeyRange (under {@link #OPTION_KEY_RANGE}) the listing is limited to the PKs in that range,
+     * narrowing the listed prefix, starting after its lower bound and stopping once past its upper bound.
+     * @param cmd Metadata for the candidate class
+     * @param mconn Managed Connection for the listing
+     * @param options Options of the connection
+     * @param keyPrefix Prefix of the keys of the objects ("{class}/", or "{class}/{shard}/"), before the PK
+     * @return The objects listed, each with its class and PK
+     */
+    protected JSONArray listObjects(AbstractClassMetaData cmd, ManagedConnection mconn, Map options, String keyPrefix)
+    {
+        final KeyRange range = (KeyRange) options.get(OPTION_KEY_RANGE);
+        String startAfter = null;
+        if (range != null && mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl)
+        {
+            String urlPath = "?prefix=" + encodeQueryValue(keyPrefix + (range.getPrefix() != null ? range.getPrefix() : ""));
+            options = new HashMap(options);
+            options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+            mconn = ((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).forURLPath(urlPath);
+            startAfter = range.getStartAfter() != null ? keyPrefix + range.getStartAfter() : null;
+        }
 
-            Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-            while (iterator.hasNext())
+        final JSONArray jsonarray = new JSONArray();
+        final String pkMemberName = cmd.getPrimaryKeyMemberNames()[0];
+        // PK follows the prefix, which may have several segments (a "url" extension with "/", or a key shard)
+        final int keyStart = keyPrefix.length();
+        HttpResponse response = listKeys(cmd.getFullClassName(), mconn, options, startAfter, keyText ->
+        {
+            if (keyStart >= keyText.length() || !keyText.startsWith(keyPrefix))
             {
-                Map.Entry<String, String> entry = iterator.next();
-                String key = entry.getKey();
-                String value = entry.getValue();
-                http.setRequestProperty(key, value);
+                // Not the key of an object of this class, so ignore it
+                return true;
             }
-
-            http.setRequestProperty("Content-Length", "0");
-            http.setDoOutput(true);
-            http.setRequestMethod("PUT");
-            http.setReadTimeout(10000);
-            http.setConnectTimeout(10000);
-            http.connect();
-
-            int code = http.getResponseCode();
-            if (code == 409)
+            if (range != null && range.isAfter(keyText.substring(keyStart)))
             {
-                // HTTP Error code: 409 Conflict error: <?xml version='1.0' encoding='UTF-8'?><Error><Code>BucketAlreadyOwnedByYou</Code><Message>Your previous request to create the named bucket succeeded and you already own it.</Message></Error>
-            }            
-            else if (code >= 400)
+                // Listing is in key order so no later key is in range
+                return false;
+            }
+            try
             {
-                StringBuilder sb = new StringBuilder();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] buffer = new byte[1024];
-                int r;
-                while ((r = http.getErrorStream().read(buffer)) != -1)
-                {
-                    baos.write(buffer, 0, r);
-                }
-
-                sb.append(new String(baos.toByteArray()));        
-                http.getErrorStream().close();
-                throw new NucleusDataStoreException("HTTP Error code: "+code+" "+http.getResponseMessage()+" error: "+sb.toString());
+                JSONObject object = new JSONObject();
+                object.put("class", cmd.getFullClassName());
+                object.put(pkMemberName, keyText.substring(keyStart));
+                jsonarray.put(object);
             }
-            else if (code >= 300)
+            catch (JSONException e)
             {
-                throw new NucleusDataStoreException("Redirect not supported. HTTP Error code: "+code+" "+http.getResponseMessage());
+                throw new NucleusDataStoreException(e.getMessage(), e);
             }
+            return true;
+        });
+        if (response == null)
+        {
+            return jsonarray;
         }
-        catch (IOException e)
+
+        // Not a bucket listing, so should be a JSON array of the objects
+        try
         {
-            throw new NucleusDataStoreException(e.getMessage(),e);
+            JsonParseEvent parseEvent = new JsonParseEvent();
+            parseEvent.begin();
+            JSONArray array = new JSONArray(response.getBodyAsString());
+            parseEvent.commit(cmd.getFullClassName(), response.getBody().length);
+            return array;
         }
-    }
-    
-    protected Map<String, String> getHeaders(String httpVerb, Map<String,String> options)
-    {
-        Map<String, String> headers = super.getHeaders(httpVerb, options);
-        String contentMD5 = "";
-        String contentType = "";
-        if (options.containsKey("Content-Type"))
+        catch (JSONException e)
         {
-            contentType = options.get("Content-Type");
+            throw new NucleusDataStoreException(e.getMessage(), e);
         }
-        String urlStr = storeMgr.getConnectionURL();
-        String authenticationKey = storeMgr.getConnectionUserName();
-        String authenticationSecretKey = storeMgr.getConnectionPassword();
+    }
 
-        try
+    /**
+     * Convenience method to list the keys under the key prefix of the specified connection, following the pages of a truncated listing.
+     * Each page is parsed with StAX and its keys are passed to the consumer as they are read, so memory use does not depend on
+     * the size of the listing.
+     * @param className Name of the class being listed
+     * @param mconn Managed Connection for the listing
+     * @param options Options of the connection
+     * @param startAfter Key to start the listing after (or null to list from the start)
+     * @param keyConsumer Consumer of the keys, in listing (lexicographic) order, returning false when it needs no more keys
+     * @return null if the response was a bucket listing, otherwise the response (e.g a JSON array rather than XML)
+     */
+    protected HttpResponse listKeys(String className, ManagedConnection mconn, Map options, String startAfter, Predicate<String> keyConsumer)
+    {
+        String urlPath = mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl ? ((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).getURLPath() : null;
+        ManagedConnection pageConn = mconn;
+        Map<String, String> pageOptions = options;
+        String marker = urlPath != null ? startAfter : null;
+        int pages = 0;
+        while (true)
         {
-            urlStr = urlStr.substring(urlStr.indexOf(storeMgr.getStoreManagerKey()+":")+storeMgr.getStoreManagerKey().length()+1);
-            headers.put("Host", getBucket()+"."+new URL(urlStr).getHost());
-            String path = "/"+getBucket();
-            if (options.containsKey(ConnectionFactoryImpl.STORE_JSON_URL))
+            if (marker != null)
             {
-                if (!options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString().startsWith("/"))
-                {
-                    path += "/";
-                }
-                if (options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString().indexOf("?")>-1)
-                {
-                    path += options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString().substring(0,options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString().indexOf("?"));
-                }
-                else
-                {
-                    path += options.get(ConnectionFactoryImpl.STORE_JSON_URL).toString();
-                }
+                String nextPath = urlPath + (urlPath.indexOf('?') >= 0 ? "&" : "?") + "marker=" + encodeQueryValue(marker);
+                pageOptions = new HashMap<String, String>(options);
+                pageOptions.put(ConnectionFactoryImpl.STORE_JSON_URL, nextPath);
+                pageConn = ((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).forURLPath(nextPath);
             }
-            else
+            HttpResponse response = execute(OperationType.QUERY, className, pageConn, "GET", getHeaders("GET", pageOptions), null);
+            if (response.getCode() == 404)
             {
-                path += new URL(urlStr).getPath();
+                return null;
+            }
+            handleHTTPErrorCode(response);
+
+            String contentType = response.getHeaderField("content-type");
+            //content-type = application/xml; charset=UTF-8  (charset is optional)
+            if (contentType == null ||
+                !(contentType.split(";")[0].trim().equalsIgnoreCase("application/xml") || contentType.split(";")[0].trim().equalsIgnoreCase("text/xml")))
+            {
+                return response;
+            }
+
+            JsonParseEvent parseEvent = new JsonParseEvent();
+            parseEvent.begin();
+            marker = parseListing(response.getBody(), keyConsumer);
+            parseEvent.commit(className, response.getBody().length);
+            pages++;
+            if (marker == null)
+            {
+                break;
+            }
+            if (urlPath == null)
+            {
+                NucleusLogger.DATASTORE.warn("Listing of " + className + " is truncated but cannot be continued for connection " + mconn);
+                break;
             }
-            String stringToSign = httpVerb + "\n" + contentMD5 + "\n" + contentType + "\n" + headers.get("Date") + "\n" + path;
-            headers.put("Authorization", getRealmName()+" "+authenticationKey+":"+CloudStorageUtils.hmac(authenticationSecretKey,stringToSign));
         }
-        catch (MalformedURLException e)
+        if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled() && pages > 1)
         {
-            throw new NucleusException(e.getMessage(), e);
+            NucleusLogger.DATASTORE_NATIVE.debug("Listed " + className + " in " + pages + " pages");
         }
-        return headers;
+        return null;
     }
-    
-    protected abstract String getRealmName();
-    
-    protected Map getHeaderForBucket()
-    {
-        Map headers = new HashMap();
-        headers.put("Date", CloudStorageUtils.getHTTPDate());
-        String contentMD5 = "";
-        String contentType = "";
-        String httpVerb = "PUT";
-        String urlStr = storeMgr.getConnectionURL();
-        String awsKey = storeMgr.getConnectionUserName();
-        String awsSecretKey = storeMgr.getConnectionPassword();
-        try
-        {
-            urlStr = urlStr.substring(urlStr.indexOf(storeMgr.getStoreManagerKey()+":")+storeMgr.getStoreManagerKey().length()+1);
-            headers.put("Host", getBucket()+"."+new URL(urlStr).getHost());
-            String stringToSign = httpVerb + "\n" + contentMD5 + "\n" + contentType + "\n" + headers.get("Date") + "\n" + "/"+getBucket() +"/";
-            headers.put("Authorization", "AWS "+awsKey+":"+CloudStorageUtils.hmac(awsSecretKey,stringToSign)); // TODO This is AWS specific, no?
-        }
-        catch (MalformedURLException e)
-        {
-            NucleusLogger.DATASTORE.error("Exception thrown getting header : ", e);
-        }
-        return headers;
-    }    
 
     /**
-     * Convenience method to get all objects of the candidate type from the specified connection.
-     * @param ec ExecutionContext
-     * @param mconn Managed Connection
-     * @param candidateClass Candidate
-     * @param subclasses Whether to include subclasses
-     * @param ignoreCache Whether to ignore the cache
-     * @return List of objects of the candidate type
+     * Parse a page of a bucket listing (ListBucketResult), passing the key of each entry to the consumer.
+     * @param xml The listing
+     * @param keyConsumer Consumer of the keys, returning false when it needs no more keys
+     * @return The marker to continue the listing from, or null if the listing is complete or the consumer needs no more keys
      */
-    public List getObjectsOfCandidateType(final ExecutionContext ec, ManagedConnection mconn, 
-            Class candidateClass, boolean subclasses, boolean ignoreCache, Map options)
+    protected String parseListing(byte[] xml, Predicate<String> keyConsumer)
     {
-        List results = new ArrayList();
-
-        // TODO Support subclasses
         try
         {
-            URLConnection conn = (URLConnection) mconn.getConnection();
-            ClassLoaderResolver clr = ec.getClassLoaderResolver();
-            final AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(candidateClass, clr);
-            Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
-
-            JSONArray jsonarray;
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(xml));
             try
-            {                
-                HttpURLConnection http = (HttpURLConnection) conn;
-
-                Iterator<Map.Entry<String, String>> iterator = getHeaders("GET", options).entrySet().iterator();
-                while (iterator.hasNext())
-                {
-                    Map.Entry<String, String> entry = iterator.next();
-                    String key = entry.getKey();
-                    String value = entry.getValue();
-                    http.setRequestProperty(key, value);
-                }
-
-                http.setDoInput(true);
-                http.setRequestMethod("GET");
-                http.setReadTimeout(10000);
-                http.setConnectTimeout(10000);
-                http.connect();
-                int code = http.getResponseCode();
-                if (code == 404)
-                {
-                    return Collections.EMPTY_LIST;
-                }
-                handleHTTPErrorCode(http);
-
-                StringBuilder sb = new StringBuilder();
-                if (http.getContentLength() > 0)
-                {
-                    for (int i = 0; i < http.getContentLength(); i++)
-                    {
-                        sb.append((char) http.getInputStream().read());
-                    }
-                }
-                else
-                {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[1024];
-                    int r;
-                    while ((r = http.getInputStream().read(buffer)) != -1)
-                    {
-                        baos.write(buffer, 0, r);
-                    }
-                    sb.append(new String(baos.toByteArray()));
-                }
-                http.getInputStream().close();
-
-                String contentType = http.getHeaderField("content-type");
-                //content-type = application/xml; charset=UTF-8  (charset is optional)
-                if (contentType != null && 
-                    (contentType.split(";")[0].equalsIgnoreCase("application/xml") || contentType.split(";")[0].equalsIgnoreCase("text/xml")) )
+            {
+                boolean truncated = false;
+                String nextMarker = null;
+                String lastKey = null;
+                boolean inContents = false;
+                while (reader.hasNext())
                 {
-                    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(sb.toString().getBytes()));
-                    NodeList list = doc.getElementsByTagName("Contents");
-                    Set set = new HashSet();
-                    for (int i=0; i<list.getLength(); i++)
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT)
                     {
-                        Element el = (Element) list.item(i);
-                        JSONObject object = new JSONObject();
-                        String keyText = el.getElementsByTagName("Key").item(0).getTextContent();
-                        if (keyText.indexOf("/") < 1)
+                        String name = reader.getLocalName();
+                        if ("Contents".equals(name))
                         {
-                            //log ignoring this element
+                            inContents = true;
                         }
-                        else
+                        else if (inContents && "Key".equals(name))
                         {
-                            String key = keyText.substring(keyText.indexOf("/",1)+1);
-                            if (key.length()<1)
+                            lastKey = reader.getElementText();
+                            if (!keyConsumer.test(lastKey))
                             {
-                                //log ignoring this element
-                            }
-                            else
-                            {
-                                String className = keyText.substring(0,keyText.indexOf("/"));
-                                object.put("class", className);
-                                object.put(cmd.getPrimaryKeyMemberNames()[0], key);
-                                set.add(object);
+                                return null;
                             }
                         }
+                        else if ("IsTruncated".equals(name))
+                        {
+                            truncated = Boolean.parseBoolean(reader.getElementText().trim());
+                        }
+                        else if ("NextMarker".equals(name))
+                        {
+                            nextMarker = reader.getElementText();
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT && "Contents".equals(reader.getLocalName()))
+                    {
+                        inContents = false;
                     }
-                    jsonarray = new JSONArray(set);
                 }
-                else
+                if (!truncated)
                 {
-                    jsonarray = new JSONArray(sb.toString());
+                    return null;
                 }
+                // NextMarker is only returned when listing with a delimiter, otherwise continue from the last key
+                return nextMarker != null ? nextMarker : lastKey;
             }
-            catch (IOException e)
-            {
-                throw new NucleusDataStoreException(e.getMessage(), e);
-            }
-            catch (JSONException e)
-            {
-                throw new NucleusDataStoreException(e.getMessage(), e);
-            }
-            catch (SAXException e)
+            finally
             {
-                throw new NucleusDataStoreException(e.getMessage(), e);
-            }
-            catch (ParserConfigurationException e)
-            {
-                throw new NucleusDataStoreException(e.getMessage(), e);
+                reader.close();
             }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new NucleusDataStoreException("Exception parsing bucket listing : " + e.getMessage(), e);
+        }
+    }
 
-            for (int i = 0; i < jsonarray.length(); i++)
-            {
-                final JSONObject json = jsonarray.getJSONObject(i);
+    static String encodeQueryValue(String value)
+    {
+        try
+        {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new NucleusException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Convenience method to list the objects of all key shards of the candidate class, listing the shards concurrently.
+     * @param cmd Metadata for the candidate class
+     * @param mconn Managed Connection for the query
+     * @param options Options of the connection
+     * @return The objects listed, each with its class and PK
+     */
+    protected JSONArray listObjectsOfShards(final AbstractClassMetaData cmd, ConnectionFactoryImpl.ManagedConnectionImpl mconn, Map options)
+    {
+        // Requests are made on the executor so propagate the deadline of this thread, each shard having the time remaining when it starts
+        final Deadline deadline = Deadline.getCurrent();
 
-                Object id = null;
-                final FieldManager fm = new FetchFieldManager(ec, cmd, json, table);
-                if (cmd.getIdentityType() == IdentityType.DATASTORE)
+        String classPrefix = getURLPath(cmd);
+        List<Future<JSONArray>> futures = new ArrayList<>(keyShards);
+        for (int i = 0; i < keyShards; i++)
+        {
+            final String shardPrefix = classPrefix + getKeyShard(i) + "/";
+            final Map shardOptions = new HashMap(options);
+            shardOptions.put(ConnectionFactoryImpl.STORE_JSON_URL, "?prefix=" + encodeQueryValue(shardPrefix));
+            final ManagedConnection shardConn = mconn.forURLPath((String) shardOptions.get(ConnectionFactoryImpl.STORE_JSON_URL));
+            futures.add(listExecutor.submit(() ->
+            {
+                Deadline shardDeadline = Deadline.enter(deadline);
+                try
                 {
-                    String memberName = table.getSurrogateColumn(SurrogateColumnType.DATASTORE_ID).getName();
-                    Object key = json.get(memberName);
-                    if (key instanceof String)
-                    {
-                        id = ec.getNucleusContext().getIdentityManager().getDatastoreId((String)key);
-                    }
-                    else
-                    {
-                        id = ec.getNucleusContext().getIdentityManager().getDatastoreId(cmd.getFullClassName(), key);
-                    }
+                    return listObjects(cmd, shardConn, shardOptions, shardPrefix);
                 }
-                else if (cmd.getIdentityType() == IdentityType.APPLICATION)
+                finally
                 {
-                    id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, null, true, fm);
+                    shardDeadline.exit();
                 }
+            }));
+        }
 
-                Object pc = ec.findObject(id, new FieldValues()
+        JSONArray jsonarray = new JSONArray();
+        try
+        {
+            for (Future<JSONArray> future : futures)
+            {
+                JSONArray shardArray = future.get();
+                for (int i = 0; i < shardArray.length(); i++)
                 {
-                    public FetchPlan getFetchPlanForLoading()
-                    {
-                        return null;
-                    }
-                    public void fetchNonLoadedFields(DNStateManager sm)
-                    {
-                        sm.replaceNonLoadedFields(cmd.getPKMemberPositions(), fm);
-                    }
-                    public void fetchFields(DNStateManager sm)
-                    {
-                        sm.replaceFields(cmd.getPKMemberPositions(), fm);
-                    }
-                }, null, ignoreCache, false);
-
-                // Any fields loaded above will not be wrapped since we did not have StateManager at the point of creating the FetchFieldManager, so wrap them now
-                ec.findStateManager(pc).replaceAllLoadedSCOFieldsWithWrappers();
-
-                results.add(pc);
+                    jsonarray.put(shardArray.get(i));
+                }
             }
         }
-        catch (JSONException je)
+        catch (InterruptedException e)
         {
-            // TODO Throw this
-            NucleusLogger.DATASTORE.error("Exception thrown getting objects of type : ", je);
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new NucleusDataStoreException("Interrupted listing objects of " + cmd.getFullClassName(), e);
         }
+        catch (ExecutionException e)
+        {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new NucleusDataStoreException(e.getCause().getMessage(), e.getCause());
+        }
+        catch (JSONException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        return jsonarray;
+    }
 
-        return results;
+    protected String getURLPath(DNStateManager sm)
+    {
+        String path = super.getURLPath(sm);
+        if (keyShards == 0)
+        {
+            return path;
+        }
+        String classPrefix = getURLPath(sm.getClassMetaData());
+        String id = path.substring(classPrefix.length());
+        return classPrefix + getKeyShard(id) + "/" + id;
     }
 
     /**
-     * URL path for querying in the cloud storage. it lists all entries for the bucket+a prefix
+     * Accessor for the key shard of an object.
+     * @param id String form of the PK of the object
+     * @return The shard, as fixed-width hex
      */
-    public String getURLPathForQuery(AbstractClassMetaData acmd)
+    protected String getKeyShard(String id)
     {
-        String url = acmd.getValueForExtension("url");
-        if (url == null)
+        CRC32 crc = new CRC32();
+        crc.update(id.getBytes(StandardCharsets.UTF_8));
+        return getKeyShard((int) (crc.getValue() % keyShards));
+    }
+
+    private String getKeyShard(int shard)
+    {
+        String hex = Integer.toHexString(shard);
+        while (hex.length() < keyShardDigits)
         {
-            url = acmd.getFullClassName();
-        }        
-        url = "?prefix="+url;
-        return url;
+            hex = "0" + hex;
+        }
+        return hex;
+    }
+
+    /**
+     * URL path for querying in the cloud storage. it lists all entries for the bucket+a prefix, the prefix ending with the
+     * separator so that the keys of a class whose name starts with that of the candidate (e.g "com.FooBar" for "com.Foo") are not listed.
+     */
+    public String getURLPathForQuery(AbstractClassMetaData acmd)
+    {
+        return "?prefix=" + encodeQueryValue(getURLPath(acmd));
     }
     
     private String getBucket()
@@ -430,4 +2346,26 @@ public abstract class CloudStoragePersistenceHandler extends JsonPersistenceHand
         Configuration conf = storeMgr.getNucleusContext().getConfiguration();
         return conf.getStringProperty("datanucleus.cloud.storage.bucket");
     }
+
+    /**
+     * Headers of an object when last read or written.
+     */
+    private static class StoredHeaders
+    {
+        /** Names (lowercase) of the metadata headers of the object. */
+        final Set<String> names;
+
+        /** Value of the version header, or null if not mirrored. */
+        final String version;
+
+        /** Entity tag of the object, or null if not known. */
+        final String entityTag;
+
+        StoredHeaders(Set<String> names, String version, String entityTag)
+        {
+            this.names = names;
+            this.version = version;
+            this.entityTag = entityTag;
+        }
+    }
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ package org.datanucleus.store.json;
 
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -81,6 +82,23 @@ public class CloudStorageUtils
         }
     }
 
+    /**
+     * Compute the Content-MD5 header value (base64 of the MD5 digest) for a request body
+     * @param data The request body
+     * @return The Content-MD5 value
+     */
+    public static String contentMD5(byte[] data)
+    {
+        try
+        {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(data));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new NucleusException(e.getMessage(), e);
+        }
+    }
+
     /**
      * get the date according to the HTTP standard
      * @return the current date
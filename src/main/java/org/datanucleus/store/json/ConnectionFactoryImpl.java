@@ -20,6 +20,7 @@ package org.datanucleus.store.json;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.transaction.xa.XAResource;
@@ -115,6 +116,29 @@ public class ConnectionFactoryImpl extends AbstractConnectionFactory
             }
         }
 
+        /**
+         * Accessor for the URL path (relative to the connection URL) that this connection is for.
+         * @return The path, or null if for the connection URL itself
+         */
+        public String getURLPath()
+        {
+            Object path = options.get(STORE_JSON_URL);
+            return path != null ? path.toString() : null;
+        }
+
+        /**
+         * Create a connection for another URL path with the same options. The connection is not registered with the ConnectionManager
+         * so is only for making requests, for example when fanning out concurrent requests over several paths.
+         * @param urlPath The URL path (relative to the connection URL)
+         * @return The connection
+         */
+        public ManagedConnectionImpl forURLPath(String urlPath)
+        {
+            Map newOptions = new HashMap(options);
+            newOptions.put(STORE_JSON_URL, urlPath);
+            return new ManagedConnectionImpl(newOptions);
+        }
+
         public XAResource getXAResource()
         {
             return null;
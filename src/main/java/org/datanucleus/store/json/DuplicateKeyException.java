@@ -0,0 +1,34 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+
+/**
+ * Exception thrown when an object is inserted with the key of an object that already exists in the datastore.
+ */
+public class DuplicateKeyException extends NucleusDataStoreException
+{
+    private static final long serialVersionUID = -3571820365237412589L;
+
+    public DuplicateKeyException(String msg, Object failedObject)
+    {
+        super(msg, failedObject);
+        setFatal();
+    }
+}
@@ -0,0 +1,63 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+
+/**
+ * Exception thrown when the datastore responds to a request with an HTTP error status.
+ */
+public class HttpErrorException extends NucleusDataStoreException
+{
+    private static final long serialVersionUID = 6142385702619743918L;
+
+    private final int statusCode;
+
+    public HttpErrorException(String msg, int statusCode)
+    {
+        super(msg);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Accessor for the HTTP status of the response.
+     * @return The status code
+     */
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    /**
+     * Whether a request failed because the datastore rejected it (a 4xx response), so could not have been applied. Other failures (e.g an IO error, or a 5xx response) may have been applied before failing.
+     * @param e Exception of the request, possibly wrapping the exception of its response
+     * @return Whether the request was rejected
+     */
+    public static boolean isRejected(Throwable e)
+    {
+        for (Throwable t = e; t != null; t = t.getCause())
+        {
+            if (t instanceof HttpErrorException)
+            {
+                int code = ((HttpErrorException) t).getStatusCode();
+                return code >= 400 && code < 500;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response to a request made to the datastore, with the body (or error body) fully read.
+ */
+public class HttpResponse
+{
+    protected final String method;
+
+    protected final String url;
+
+    protected final int code;
+
+    protected final String message;
+
+    protected final Map<String, List<String>> headers;
+
+    protected final byte[] body;
+
+    public HttpResponse(String method, String url, int code, String message, Map<String, List<String>> headers, byte[] body)
+    {
+        this.method = method;
+        this.url = url;
+        this.code = code;
+        this.message = message;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public String getMethod()
+    {
+        return method;
+    }
+
+    public String getURL()
+    {
+        return url;
+    }
+
+    public int getCode()
+    {
+        return code;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Accessor for the (first) value of the specified response header, matching the name case-insensitively.
+     * @param name Name of the header
+     * @return The value, or null if not present
+     */
+    public String getHeaderField(String name)
+    {
+        if (headers == null)
+        {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet())
+        {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name) && entry.getValue() != null && !entry.getValue().isEmpty())
+            {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    public Map<String, List<String>> getHeaders()
+    {
+        return headers;
+    }
+
+    public byte[] getBody()
+    {
+        return body;
+    }
+
+    public String getBodyAsString()
+    {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    public String toString()
+    {
+        return method + " " + url + " : " + code + " " + message;
+    }
+}
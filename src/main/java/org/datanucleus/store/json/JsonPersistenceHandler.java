@@ -19,21 +19,32 @@ package org.datanucleus.store.json;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.SocketTimeoutException;
-import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.datanucleus.ClassLoaderResolver;
+import org.datanucleus.Configuration;
 import org.datanucleus.ExecutionContext;
+import org.datanucleus.PropertyNames;
 import org.datanucleus.FetchPlan;
 import org.datanucleus.exceptions.NucleusDataStoreException;
 import org.datanucleus.exceptions.NucleusException;
@@ -45,16 +56,38 @@ import org.datanucleus.metadata.IdentityType;
 import org.datanucleus.metadata.VersionMetaData;
 import org.datanucleus.metadata.VersionStrategy;
 import org.datanucleus.state.DNStateManager;
+import org.datanucleus.state.LifeCycleState;
 import org.datanucleus.store.AbstractPersistenceHandler;
 import org.datanucleus.store.FieldValues;
 import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.fieldmanager.FieldManager;
+import org.datanucleus.store.json.cache.NegativeCache;
+import org.datanucleus.store.json.cache.OffHeapCache;
+import org.datanucleus.store.json.cache.SingleFlight;
 import org.datanucleus.store.json.fieldmanager.FetchFieldManager;
 import org.datanucleus.store.json.fieldmanager.StoreFieldManager;
+import org.datanucleus.store.json.jfr.DatastoreRequestEvent;
+import org.datanucleus.store.json.jfr.FieldHydrationEvent;
+import org.datanucleus.store.json.jfr.JsonParseEvent;
+import org.datanucleus.store.json.jfr.JsonSerializeEvent;
+import org.datanucleus.store.json.metrics.MetricsExporter;
+import org.datanucleus.store.json.metrics.MetricsRegistry;
+import org.datanucleus.store.json.metrics.OperationMetrics;
+import org.datanucleus.store.json.metrics.OperationType;
 import org.datanucleus.store.json.orgjson.JSONArray;
 import org.datanucleus.store.json.orgjson.JSONException;
 import org.datanucleus.store.json.orgjson.JSONObject;
+import org.datanucleus.store.json.resilience.Bulkhead;
+import org.datanucleus.store.json.resilience.CircuitBreaker;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.resilience.DeadlineExceededException;
+import org.datanucleus.store.json.resilience.EndpointRegistry;
+import org.datanucleus.store.json.resilience.HedgePolicy;
+import org.datanucleus.store.json.resilience.RetryPolicy;
+import org.datanucleus.store.json.tracing.NoopTracer;
+import org.datanucleus.store.json.tracing.Span;
+import org.datanucleus.store.json.tracing.Tracer;
 import org.datanucleus.store.schema.table.SurrogateColumnType;
 import org.datanucleus.store.schema.table.Table;
 import org.datanucleus.util.Localiser;
@@ -63,14 +96,179 @@ import org.datanucleus.util.StringUtils;
 
 public class JsonPersistenceHandler extends AbstractPersistenceHandler
 {
+    /** Whether to register the metrics of the store with the platform MBeanServer. */
+    public static final String PROPERTY_METRICS_JMX = "datanucleus.json.metrics.jmx";
+
+    /** Comma-separated names of MetricsExporter classes to export the metrics of the store with. */
+    public static final String PROPERTY_METRICS_EXPORTER = "datanucleus.json.metrics.exporter";
+
+    /** Timeout (millis) for connecting, and for reading, of each request (default 10000). Bounded by the deadline of the operation. */
+    public static final String PROPERTY_REQUEST_TIMEOUT = "datanucleus.json.requesttimeout";
+
+    /** Name of the Tracer class to trace the operations of the store with. */
+    public static final String PROPERTY_TRACER = "datanucleus.json.tracer";
+
+    /** Whether concurrent fetches of the same object share one request (default true). */
+    public static final String PROPERTY_SINGLE_FLIGHT = "datanucleus.json.singleflight";
+
+    /** Maximum number of requests of a bulk locate or find in flight at once. */
+    protected static final int MAX_BULK_REQUESTS = 32;
+
+    /** Timeout (millis) for connecting, and for reading, of each request. */
+    protected final int requestTimeout;
+
+    /** Metrics for all requests made by this handler. */
+    protected final MetricsRegistry metrics = new MetricsRegistry();
+
+    /** Number of requests currently in progress. */
+    protected final AtomicInteger inflightRequests = new AtomicInteger();
+
+    /** Tracer for the operations of this handler. */
+    protected final Tracer tracer;
+
+    /** Policy for retrying requests that fail transiently. */
+    protected final RetryPolicy retryPolicy;
+
+    /** Endpoints that requests are made to, with their circuit breakers and bulkheads. */
+    protected final EndpointRegistry endpoints;
+
+    /** Policy for hedging idempotent reads, or null if not enabled. */
+    protected final HedgePolicy hedgePolicy;
+
+    /** Cache of the URLs of objects recently found not to exist, or null if not enabled. */
+    protected final NegativeCache negativeCache;
+
+    /** Coalescing of concurrent fetches of the same object (keyed by URL path), or null if not enabled. */
+    protected final SingleFlight<JSONObject> fetchFlights;
+
+    /** Cache of documents in off-heap memory (keyed by URL path), or null if not enabled. */
+    protected final OffHeapCache documentCache;
+
+    /** Executor for requests that are made concurrently with the calling thread (e.g hedged reads). Threads are created on demand. */
+    protected final ExecutorService requestExecutor = Executors.newCachedThreadPool(r ->
+    {
+        Thread thread = new Thread(r, "DataNucleus-JSON-Request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     JsonPersistenceHandler(StoreManager storeMgr)
     {
         super(storeMgr);
+
+        metrics.registerGauge("requests.inflight", inflightRequests::get);
+        Configuration conf = storeMgr.getNucleusContext().getConfiguration();
+        requestTimeout = conf.getIntProperty(PROPERTY_REQUEST_TIMEOUT) > 0 ? conf.getIntProperty(PROPERTY_REQUEST_TIMEOUT) : 10000;
+        if (conf.getBooleanProperty(PROPERTY_METRICS_JMX))
+        {
+            metrics.registerWithJmx(storeMgr.getStoreManagerKey() + "@" + Integer.toHexString(System.identityHashCode(storeMgr)));
+        }
+        String exporterNames = conf.getStringProperty(PROPERTY_METRICS_EXPORTER);
+        if (!StringUtils.isWhitespace(exporterNames))
+        {
+            ClassLoaderResolver clr = storeMgr.getNucleusContext().getClassLoaderResolver(null);
+            for (String exporterName : exporterNames.split(","))
+            {
+                try
+                {
+                    Class exporterCls = clr.classForName(exporterName.trim());
+                    metrics.addExporter((MetricsExporter) exporterCls.getDeclaredConstructor().newInstance(), conf);
+                }
+                catch (Exception e)
+                {
+                    NucleusLogger.DATASTORE.error("Unable to create metrics exporter " + exporterName, e);
+                }
+            }
+        }
+
+        tracer = createTracer(conf);
+
+        retryPolicy = new RetryPolicy(conf);
+        metrics.registerGauge("retry.budget", retryPolicy::getAvailableRetries);
+
+        endpoints = new EndpointRegistry(conf);
+        metrics.registerGauge("circuitBreaker.open", endpoints::getNumberOfOpenCircuitBreakers);
+        metrics.registerGauge("bulkhead.inUse", endpoints::getBulkheadInUse);
+        metrics.registerGauge("requests.rejected", endpoints::getRejectedCount);
+
+        hedgePolicy = HedgePolicy.getHedgePolicy(conf);
+
+        negativeCache = NegativeCache.getNegativeCache(conf);
+        if (negativeCache != null)
+        {
+            metrics.registerGauge("negativeCache.size", negativeCache::size);
+        }
+
+        fetchFlights = conf.getBooleanProperty(PROPERTY_SINGLE_FLIGHT, true) ? new SingleFlight<>() : null;
+        if (fetchFlights != null)
+        {
+            metrics.registerGauge("fetch.coalesced", fetchFlights::getCoalescedCount);
+        }
+
+        documentCache = OffHeapCache.getOffHeapCache(conf);
+        if (documentCache != null)
+        {
+            metrics.registerGauge("offHeapCache.documents", documentCache::getNumberOfDocuments);
+            metrics.registerGauge("offHeapCache.hits", documentCache::getHitCount);
+            metrics.registerGauge("offHeapCache.misses", documentCache::getMissCount);
+        }
+    }
+
+    private Tracer createTracer(Configuration conf)
+    {
+        String tracerName = conf.getStringProperty(PROPERTY_TRACER);
+        if (!StringUtils.isWhitespace(tracerName))
+        {
+            try
+            {
+                Class tracerCls = storeMgr.getNucleusContext().getClassLoaderResolver(null).classForName(tracerName.trim());
+                return (Tracer) tracerCls.getDeclaredConstructor().newInstance();
+            }
+            catch (Exception e)
+            {
+                NucleusLogger.DATASTORE.error("Unable to create tracer " + tracerName + " so tracing is disabled", e);
+            }
+        }
+        return new NoopTracer();
     }
 
     public void close()
     {
-        // nothing to do
+        requestExecutor.shutdownNow();
+        metrics.close();
+        tracer.close();
+    }
+
+    /**
+     * Accessor for the metrics of the requests made by this handler.
+     * @return The metrics registry
+     */
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metrics;
+    }
+
+    /**
+     * Accessor for the tracer of the operations of this handler.
+     * @return The tracer
+     */
+    public Tracer getTracer()
+    {
+        return tracer;
+    }
+
+    /**
+     * Start a span for an operation of this handler.
+     * @param name Name of the span
+     * @param className Name of the class that the operation is for
+     * @return The span
+     */
+    protected Span startSpan(String name, String className)
+    {
+        Span span = tracer.startSpan(name);
+        span.setAttribute("db.system", storeMgr.getStoreManagerKey());
+        span.setAttribute("dn.class", className);
+        return span;
     }
 
     public void insertObject(DNStateManager sm)
@@ -92,7 +290,8 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         options.put("Content-Type", "application/json");
 
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
-        URLConnection conn = (URLConnection) mconn.getConnection();
+        Span span = startSpan("json.insert", cmd.getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
         try
         {
             long startTime = System.currentTimeMillis();
@@ -182,15 +381,32 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
                 }
             }
 
+            JsonSerializeEvent serializeEvent = new JsonSerializeEvent();
+            serializeEvent.begin();
             int[] fieldNumbers = cmd.getAllMemberPositions();
             sm.provideFields(fieldNumbers, new StoreFieldManager(sm, jsonobj, true, table));
 
             String jsonString = jsonobj.toString();
+            serializeEvent.commit(cmd.getFullClassName(), jsonString.length());
             if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_NATIVE.debug("POST " + jsonString);
             }
-            write("POST", conn.getURL().toExternalForm(), conn, jsonString, getHeaders("POST", options));
+            addObjectOptions(sm, options);
+            try
+            {
+                write(OperationType.INSERT, cmd, mconn, "POST", jsonString, getHeaders("POST", options));
+            }
+            catch (RuntimeException e)
+            {
+                if (!HttpErrorException.isRejected(e))
+                {
+                    // A failed insert may still have created the object (e.g an IO error after it was stored)
+                    recordPresent(sm, options.get(ConnectionFactoryImpl.STORE_JSON_URL));
+                }
+                throw e;
+            }
+            recordPresent(sm, options.get(ConnectionFactoryImpl.STORE_JSON_URL));
 
             if (ec.getStatistics() != null)
             {
@@ -207,6 +423,8 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         finally
         {
             mconn.release();
+            span.end();
+            deadline.exit();
         }
     }
 
@@ -229,7 +447,8 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         options.put("Content-Type", "application/json");
 
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
-        URLConnection conn = (URLConnection) mconn.getConnection();
+        Span span = startSpan("json.update", cmd.getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
         try
         {
             int[] updatedFieldNums = fieldNumbers;
@@ -350,16 +569,21 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
                 }
             }
 
+            JsonSerializeEvent serializeEvent = new JsonSerializeEvent();
+            serializeEvent.begin();
             FieldManager storeFM = new StoreFieldManager(sm, jsonobj, false, table);
             sm.provideFields(updatedFieldNums, storeFM);
             sm.provideFields(sm.getClassMetaData().getPKMemberPositions(), storeFM);
 
             String jsonString = jsonobj.toString();
+            serializeEvent.commit(cmd.getFullClassName(), jsonString.length());
             if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_NATIVE.debug("PUT " + jsonString);
             }
-            write("PUT", conn.getURL().toExternalForm(), conn, jsonString, getHeaders("PUT", options));
+            addObjectOptions(sm, options);
+            addUpdateOptions(sm, currentVersion, options);
+            write(OperationType.UPDATE, cmd, mconn, "PUT", jsonString, getHeaders("PUT", options));
 
             if (ec.getStatistics() != null)
             {
@@ -376,6 +600,8 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         finally
         {
             mconn.release();
+            span.end();
+            deadline.exit();
         }
     }
 
@@ -388,7 +614,8 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPath(sm));
         ExecutionContext ec = sm.getExecutionContext();
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
-        URLConnection conn = (URLConnection) mconn.getConnection();
+        Span span = startSpan("json.delete", sm.getClassMetaData().getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
         try
         {
             long startTime = System.currentTimeMillis();
@@ -397,24 +624,11 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
                 NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("JSON.Delete.Start", sm.getObjectAsPrintable(), sm.getInternalObjectId()));
             }
 
-            HttpURLConnection http = (HttpURLConnection) conn;
-            Map<String, String> headers = getHeaders("DELETE", options);
-            Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-            while (iterator.hasNext())
-            {
-                Map.Entry<String, String> entry = iterator.next();
-                String key = entry.getKey();
-                String value = entry.getValue();
-                http.setRequestProperty(key, value);
-            }
-            http.setRequestMethod("DELETE");
-            http.setReadTimeout(10000);
-            http.setConnectTimeout(10000);
             if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_NATIVE.debug("DELETE " + sm.getInternalObjectId());
             }
-            http.connect();
+            HttpResponse response = execute(OperationType.DELETE, sm.getClassMetaData().getFullClassName(), mconn, "DELETE", getHeaders("DELETE", options), null);
 
             if (ec.getStatistics() != null)
             {
@@ -422,34 +636,38 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
                 ec.getStatistics().incrementDeleteCount();
             }
 
-            if (http.getResponseCode() == 404)
+            if (response.getCode() == 404)
             {
                 throw new NucleusObjectNotFoundException();
             }
-            handleHTTPErrorCode(http);
+            handleHTTPErrorCode(response);
 
             if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
             {
                 NucleusLogger.DATASTORE_PERSIST.debug(Localiser.msg("JSON.ExecutionTime", (System.currentTimeMillis() - startTime)));
             }
         }
-        catch (IOException e)
-        {
-            throw new NucleusDataStoreException(e.getMessage(), e);
-        }
         finally
         {
             mconn.release();
+            span.end();
+            deadline.exit();
         }
     }
 
     public void fetchObject(DNStateManager sm, int[] fieldNumbers)
     {
+        String urlPath = getURLPath(sm);
+        if (isKnownAbsent(sm, urlPath))
+        {
+            throw new NucleusObjectNotFoundException("Object with key " + urlPath + " is known not to exist", sm.getObject());
+        }
         Map<String, String> options = new HashMap<String, String>();
-        options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPath(sm));
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
         ExecutionContext ec = sm.getExecutionContext();
         ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
-        URLConnection conn = (URLConnection) mconn.getConnection();
+        Span span = startSpan("json.fetch", sm.getClassMetaData().getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_READ_TIMEOUT));
         try
         {
             AbstractClassMetaData cmd = sm.getClassMetaData();
@@ -497,20 +715,61 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
             {
                 sm.provideFields(sm.getClassMetaData().getPKMemberPositions(), new StoreFieldManager(sm, jsonobj, true, table));
             }
-            JSONObject result = read("GET", conn.getURL().toExternalForm(), conn, getHeaders("GET", options));
-
-            if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+            byte[] cached = documentCache != null ? documentCache.get(urlPath) : null;
+            JSONObject result;
+            if (cached != null)
             {
-                NucleusLogger.DATASTORE_NATIVE.debug("GET " + result.toString());
+                result = parseDocument(cmd, cached);
             }
-            if (ec.getStatistics() != null)
+            else
             {
-                // Add to statistics
-                ec.getStatistics().incrementNumReads();
-                ec.getStatistics().incrementFetchCount();
+                long cacheStamp = documentCache != null ? documentCache.getStamp(urlPath) : 0;
+                try
+                {
+                    // The document is shared with concurrent fetches of the object, and only read by each. Only the fetch that sends the
+                    // request counts the read
+                    Supplier<JSONObject> loader = () ->
+                    {
+                        JSONObject document = read(OperationType.FETCH, cmd, mconn, "GET", getHeaders("GET", options));
+                        if (ec.getStatistics() != null)
+                        {
+                            ec.getStatistics().incrementNumReads();
+                        }
+                        return document;
+                    };
+                    result = fetchFlights != null ? fetchFlights.load(urlPath, loader) : loader.get();
+                }
+                catch (NucleusObjectNotFoundException e)
+                {
+                    recordAbsent(urlPath);
+                    throw e;
+                }
+                if (documentCache != null)
+                {
+                    documentCache.put(urlPath, result.toString().getBytes(StandardCharsets.UTF_8), cacheStamp);
+                }
+
+                if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE_NATIVE.debug("GET " + result.toString());
+                }
+                if (ec.getStatistics() != null)
+                {
+                    // Add to statistics
+                    ec.getStatistics().incrementFetchCount();
+                }
             }
 
+            FieldHydrationEvent hydrationEvent = new FieldHydrationEvent();
+            hydrationEvent.begin();
             sm.replaceFields(fieldNumbers, new FetchFieldManager(sm, result, table));
+            hydrationEvent.commit(cmd.getFullClassName(), 1, fieldNumbers.length);
+            Object version = getVersion(cmd, table, result);
+            if (version != null && sm.getTransactionalVersion() == null)
+            {
+                // Version of the object as read, for it to be updated from
+                sm.setVersion(version);
+            }
 
             if (NucleusLogger.DATASTORE_RETRIEVE.isDebugEnabled())
             {
@@ -520,6 +779,8 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         finally
         {
             mconn.release();
+            span.end();
+            deadline.exit();
         }
     }
 
@@ -528,253 +789,976 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         return null;
     }
 
-    public void locateObject(DNStateManager sm)
+    /**
+     * Find the objects with the specified identities, sending the GETs of their documents concurrently and loading all fields of each
+     * from its document (from the off-heap cache when enabled and it has the document). Objects already loaded in the L1 cache (or new,
+     * dirty or deleted in the transaction) are returned as they are, without a request. Objects that aren't found are returned as null,
+     * leaving any validation of them to the caller.
+     * @param ec ExecutionContext
+     * @param ids Identities of the objects
+     * @return The objects, with null for those not found
+     */
+    public Object[] findObjects(ExecutionContext ec, Object[] ids)
     {
-        Map<String, String> options = new HashMap<String, String>();
-        options.put(ConnectionFactoryImpl.STORE_JSON_URL, getURLPath(sm));
-        ExecutionContext ec = sm.getExecutionContext();
-        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
-        URLConnection conn = (URLConnection) mconn.getConnection();
+        Object[] objects = new Object[ids.length];
+        DNStateManager[] sms = new DNStateManager[ids.length];
+        boolean[] instantiated = new boolean[ids.length];
+        DNStateManager firstSM = null;
+        for (int i = 0; i < ids.length; i++)
+        {
+            DNStateManager cachedSM = ec.getLevel1Cache().get(ids[i]);
+            if (cachedSM != null && isLoadedInCache(cachedSM))
+            {
+                objects[i] = cachedSM.getObject();
+                continue;
+            }
 
-        try
+            // Hollow object, with the identity to generate the URL from
+            instantiated[i] = cachedSM == null;
+            objects[i] = ec.findObject(ids[i], false);
+            sms[i] = ec.findStateManager(objects[i]);
+            firstSM = firstSM != null ? firstSM : sms[i];
+        }
+        if (firstSM == null)
         {
-            HttpURLConnection http = (HttpURLConnection) conn;
-            Map<String, String> headers = getHeaders("HEAD", options);
-            Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-            while (iterator.hasNext())
-            {
-                Map.Entry<String, String> entry = iterator.next();
-                String key = entry.getKey();
-                String value = entry.getValue();
-                http.setRequestProperty(key, value);
-            }
-            http.setDoOutput(true);
-            http.setRequestMethod("HEAD");
-            http.setReadTimeout(10000);
-            http.setConnectTimeout(10000);
-            http.connect();
-            int code = http.getResponseCode();
+            return objects;
+        }
 
+        Span span = startSpan("json.findBatch", firstSM.getClassMetaData().getFullClassName());
+        span.setAttribute("dn.batch.size", sms.length);
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_READ_TIMEOUT));
+        List<ManagedConnection> mconns = new ArrayList<>(sms.length);
+        try
+        {
+            JSONObject[] results = new JSONObject[sms.length];
+            boolean[] requested = new boolean[sms.length];
+            List<Runnable> requests = new ArrayList<>(sms.length);
+            for (int i = 0; i < sms.length; i++)
+            {
+                if (sms[i] == null)
+                {
+                    continue;
+                }
+                final int index = i;
+                AbstractClassMetaData cmd = sms[i].getClassMetaData();
+                String urlPath = getURLPath(sms[i]);
+                if (isKnownAbsent(sms[i], urlPath))
+                {
+                    continue;
+                }
+                byte[] cached = documentCache != null ? documentCache.get(urlPath) : null;
+                if (cached != null)
+                {
+                    results[i] = parseDocument(cmd, cached);
+                    continue;
+                }
+                long cacheStamp = documentCache != null ? documentCache.getStamp(urlPath) : 0;
+                Map<String, String> options = new HashMap<String, String>();
+                options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+                ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+                mconns.add(mconn);
+                Map<String, String> headers = getHeaders("GET", options);
+                requested[i] = true;
+                requests.add(() ->
+                {
+                    try
+                    {
+                        results[index] = read(OperationType.FETCH, cmd, mconn, "GET", headers);
+                        if (documentCache != null)
+                        {
+                            documentCache.put(urlPath, results[index].toString().getBytes(StandardCharsets.UTF_8), cacheStamp);
+                        }
+                    }
+                    catch (NucleusObjectNotFoundException e)
+                    {
+                        // Not found, so left null
+                        recordAbsent(urlPath);
+                    }
+                });
+            }
+            List<Throwable> failures = executeConcurrently(requests, MAX_BULK_REQUESTS);
             if (ec.getStatistics() != null)
             {
-                // Add to statistics
-                ec.getStatistics().incrementNumReads();
+                // Only the responses that loaded an object are counted
+                for (int i = 0; i < sms.length; i++)
+                {
+                    if (requested[i] && results[i] != null)
+                    {
+                        ec.getStatistics().incrementNumReads();
+                        ec.getStatistics().incrementFetchCount();
+                    }
+                }
+            }
+            if (!failures.isEmpty())
+            {
+                throw new NucleusDataStoreException("Failed to find " + failures.size() + " of " + requests.size() + " objects",
+                    failures.toArray(new Throwable[failures.size()]));
             }
 
-            if (code == 404)
+            // StateManagers are only used on this thread
+            for (int i = 0; i < sms.length; i++)
             {
-                throw new NucleusObjectNotFoundException();
+                if (sms[i] == null)
+                {
+                    continue;
+                }
+                if (results[i] == null)
+                {
+                    if (instantiated[i])
+                    {
+                        // Only the hollow object instantiated above is removed, leaving any object that was already cached
+                        ec.removeObjectFromLevel1Cache(ids[i]);
+                    }
+                    objects[i] = null;
+                    continue;
+                }
+                AbstractClassMetaData cmd = sms[i].getClassMetaData();
+                Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+                FieldHydrationEvent hydrationEvent = new FieldHydrationEvent();
+                hydrationEvent.begin();
+                sms[i].replaceNonLoadedFields(cmd.getAllMemberPositions(), new FetchFieldManager(sms[i], results[i], table));
+                hydrationEvent.commit(cmd.getFullClassName(), 1, cmd.getAllMemberPositions().length);
+                Object version = getVersion(cmd, table, results[i]);
+                if (version != null)
+                {
+                    sms[i].setVersion(version);
+                }
             }
-            handleHTTPErrorCode(http);
+            return objects;
         }
-        catch (IOException e)
+        finally
         {
-            throw new NucleusObjectNotFoundException(e.getMessage(), e);
+            for (ManagedConnection mconn : mconns)
+            {
+                mconn.release();
+            }
+            span.end();
+            deadline.exit();
         }
     }
 
-    protected void write(String method, String requestUri, URLConnection conn, String jsonString, Map<String, String> headers)
+    /**
+     * Whether the object of a StateManager in the L1 cache needs no fetch, since it is new, dirty or deleted in the transaction,
+     * or has all fields of the fetch plan loaded.
+     * @param sm StateManager of the object
+     * @return Whether the object can be returned without a request
+     */
+    private static boolean isLoadedInCache(DNStateManager sm)
     {
-        try
+        LifeCycleState state = sm.getLifecycleState();
+        if (state != null && (state.isNew() || state.isDirty() || state.isDeleted()))
         {
-            if (NucleusLogger.DATASTORE.isDebugEnabled())
-            {
-                NucleusLogger.DATASTORE.debug("Writing to URL " + requestUri + " content " + jsonString);
-            }
-
-            int length = jsonString.length();
-            HttpURLConnection http = (HttpURLConnection) conn;
-            Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-            while (iterator.hasNext())
-            {
-                Map.Entry<String, String> entry = iterator.next();
-                String key = entry.getKey();
-                String value = entry.getValue();
-                http.setRequestProperty(key, value);
-            }
-            http.setRequestProperty("Content-Length", "" + length);
-            http.setDoOutput(true);
-            http.setRequestMethod(method);
-            http.setReadTimeout(10000);
-            http.setConnectTimeout(10000);
-            http.connect();
-            OutputStream os = conn.getOutputStream();
-            os.write(jsonString.getBytes());
-            os.flush();
-            os.close();
-            handleHTTPErrorCode(http);
+            return true;
         }
-        catch (IOException e)
+        for (int fieldNumber : sm.getFetchPlanForClass().getMemberNumbers())
         {
-            throw new NucleusDataStoreException(e.getMessage(), e);
+            if (!sm.isFieldLoaded(fieldNumber))
+            {
+                return false;
+            }
         }
+        return true;
     }
 
-    protected JSONObject read(String method, String requestUri, URLConnection conn, Map headers)
+    public void locateObject(DNStateManager sm)
     {
+        String urlPath = getURLPath(sm);
+        if (isKnownAbsent(sm, urlPath))
+        {
+            throw new NucleusObjectNotFoundException("Object with key " + urlPath + " is known not to exist", sm.getObject());
+        }
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+        ExecutionContext ec = sm.getExecutionContext();
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+        Span span = startSpan("json.locate", sm.getClassMetaData().getFullClassName());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_READ_TIMEOUT));
         try
         {
-            HttpURLConnection http = (HttpURLConnection) conn;
-            Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-            while (iterator.hasNext())
+            HttpResponse response = execute(OperationType.LOCATE, sm.getClassMetaData().getFullClassName(), mconn, "HEAD", getHeaders("HEAD", options), null);
+
+            if (ec.getStatistics() != null)
             {
-                Map.Entry<String, String> entry = iterator.next();
-                String key = entry.getKey();
-                String value = entry.getValue();
-                http.setRequestProperty(key, value);
+                // Add to statistics
+                ec.getStatistics().incrementNumReads();
             }
-            // http.setDoOutput(true);
-            http.setDoInput(true);
-            http.setRequestMethod(method);
-            http.setReadTimeout(10000);
-            http.setConnectTimeout(10000);
-            http.connect();
 
-            int code = http.getResponseCode();
-            if (code == 404)
+            if (response.getCode() == 404)
             {
+                recordAbsent(urlPath);
                 throw new NucleusObjectNotFoundException();
             }
-            /* String msg = */http.getResponseMessage();
-            StringBuilder sb = new StringBuilder();
-            if (http.getContentLength() > 0)
+            handleHTTPErrorCode(response);
+        }
+        finally
+        {
+            mconn.release();
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Locate the objects, sending their HEADs concurrently. Objects that aren't found are reported in one exception.
+     * @param sms StateManagers of the objects
+     * @throws NucleusObjectNotFoundException if any of the objects are not found, nesting an exception for each of them
+     */
+    public void locateObjects(DNStateManager[] sms)
+    {
+        if (sms.length == 1)
+        {
+            locateObject(sms[0]);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        Span span = startSpan("json.locateBatch", sms[0].getClassMetaData().getFullClassName());
+        span.setAttribute("dn.batch.size", sms.length);
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_READ_TIMEOUT));
+        List<ManagedConnection> mconns = new ArrayList<>(sms.length);
+        try
+        {
+            List<Throwable> knownAbsent = new ArrayList<>();
+            List<Runnable> requests = new ArrayList<>(sms.length);
+            for (DNStateManager sm : sms)
             {
-                for (int i = 0; i < http.getContentLength(); i++)
+                String className = sm.getClassMetaData().getFullClassName();
+                String urlPath = getURLPath(sm);
+                Object failedObject = sm.getObject();
+                if (isKnownAbsent(sm, urlPath))
                 {
-                    sb.append((char) http.getInputStream().read());
+                    knownAbsent.add(new NucleusObjectNotFoundException("Object with key " + urlPath + " is known not to exist", failedObject));
+                    continue;
                 }
+                Map<String, String> options = new HashMap<String, String>();
+                options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+                ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+                mconns.add(mconn);
+                Map<String, String> headers = getHeaders("HEAD", options);
+                requests.add(() ->
+                {
+                    HttpResponse response = execute(OperationType.LOCATE, className, mconn, "HEAD", headers, null);
+                    if (response.getCode() == 404)
+                    {
+                        recordAbsent(urlPath);
+                        throw new NucleusObjectNotFoundException("Object with key " + urlPath + " not found", failedObject);
+                    }
+                    try
+                    {
+                        handleHTTPErrorCode(response);
+                    }
+                    catch (NucleusException e)
+                    {
+                        throw new NucleusDataStoreException(e.getMessage(), e, failedObject);
+                    }
+                });
             }
-            else
+            List<Throwable> failures = executeConcurrently(requests, MAX_BULK_REQUESTS);
+            if (ec.getStatistics() != null)
             {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] buffer = new byte[1024];
-                int r;
-                while ((r = http.getInputStream().read(buffer)) != -1)
+                for (int i = 0; i < requests.size(); i++)
                 {
-                    baos.write(buffer, 0, r);
+                    ec.getStatistics().incrementNumReads();
                 }
-                sb.append(new String(baos.toByteArray()));
             }
-            http.getInputStream().close();
-            return new JSONObject(sb.toString());
+            failures.addAll(knownAbsent);
+            throwFailures("locate", failures, sms.length);
         }
-        catch (SocketTimeoutException e)
-        {
-            throw new NucleusDataStoreException(e.getMessage(), e);
-        }
-        catch (IOException e)
+        finally
         {
-            throw new NucleusDataStoreException(e.getMessage(), e);
+            for (ManagedConnection mconn : mconns)
+            {
+                mconn.release();
+            }
+            span.end();
+            deadline.exit();
         }
-        catch (JSONException e)
+    }
+
+    /**
+     * Whether the object is known not to exist, so that a lookup of it can fail without a request.
+     * @param sm StateManager of the object
+     * @param urlPath URL path of the object
+     * @return Whether it is known not to exist
+     */
+    protected boolean isKnownAbsent(DNStateManager sm, String urlPath)
+    {
+        return negativeCache != null && negativeCache.isAbsent(urlPath);
+    }
+
+    /**
+     * Record that a lookup of an object found that it doesn't exist. May be called on a request thread.
+     * @param urlPath URL path of the object
+     */
+    protected void recordAbsent(String urlPath)
+    {
+        if (negativeCache != null)
         {
-            throw new NucleusDataStoreException(e.getMessage(), e);
+            negativeCache.recordAbsent(urlPath);
         }
     }
 
-    protected Map<String, String> getHeaders(String httpVerb, Map<String, String> options)
+    /**
+     * Record that an object was inserted, so is no longer known not to exist.
+     * @param sm StateManager of the object
+     * @param urlPath URL path of the object
+     */
+    protected void recordPresent(DNStateManager sm, String urlPath)
     {
-        Map<String, String> headers = new HashMap<String, String>();
-        headers.put("Date", CloudStorageUtils.getHTTPDate());
-        String contentType = "";
-        if (options.containsKey("Content-Type"))
+        if (negativeCache != null)
         {
-            contentType = options.get("Content-Type");
-            headers.put("Content-Type", contentType);
+            negativeCache.invalidate(urlPath);
         }
-        return headers;
     }
 
     /**
-     * Convenience method to get all objects of the candidate type from the specified connection.
-     * @param ec ExecutionContext
-     * @param mconn Managed Connection
-     * @param candidateClass Candidate
-     * @param subclasses Whether to include subclasses
-     * @param ignoreCache Whether to ignore the cache
-     * @param options Map of options
-     * @return List of objects of the candidate type
+     * Throw an exception for the failures of a batch of requests, if any, nesting the exception of each failed object.
+     * @param operation Name of the operation, for the message
+     * @param failures Exceptions of the failed requests
+     * @param numObjects Number of objects in the batch
+     * @throws NucleusObjectNotFoundException if all failures are because objects were not found
+     * @throws NucleusDataStoreException if any failure is for another reason
      */
-    public List getObjectsOfCandidateType(final ExecutionContext ec, ManagedConnection mconn, Class candidateClass, boolean subclasses, boolean ignoreCache,
-            Map options)
+    protected static void throwFailures(String operation, List<Throwable> failures, int numObjects)
     {
-        List results = new ArrayList();
+        if (failures.isEmpty())
+        {
+            return;
+        }
+        String msg = "Failed to " + operation + " " + failures.size() + " of " + numObjects + " objects";
+        Throwable[] nested = failures.toArray(new Throwable[failures.size()]);
+        for (Throwable failure : failures)
+        {
+            if (!(failure instanceof NucleusObjectNotFoundException))
+            {
+                throw new NucleusDataStoreException(msg, nested);
+            }
+        }
+        throw new NucleusObjectNotFoundException(msg, nested);
+    }
 
-        // TODO Support subclasses
+    /**
+     * Hook to add options to the request writing an object, for example headers to send with it. Does nothing by default.
+     * @param sm StateManager of the object being written
+     * @param options Options of the request
+     */
+    protected void addObjectOptions(DNStateManager sm, Map<String, String> options)
+    {
+    }
+
+    /**
+     * Hook to add options to the request updating an object, for example preconditions on the stored object. Does nothing by default.
+     * @param sm StateManager of the object being updated
+     * @param currentVersion Version of the object being updated from
+     * @param options Options of the request
+     */
+    protected void addUpdateOptions(DNStateManager sm, Object currentVersion, Map<String, String> options)
+    {
+    }
+
+    /**
+     * Convenience method to send a JSON document to the datastore.
+     * @param op Type of operation
+     * @param cmd Metadata for the class of the object being written
+     * @param mconn ManagedConnection for the URL of the object
+     * @param method HTTP verb
+     * @param jsonString The JSON document
+     * @param headers Request headers
+     * @return The (successful) response
+     */
+    protected HttpResponse write(OperationType op, AbstractClassMetaData cmd, ManagedConnection mconn, String method, String jsonString, Map<String, String> headers)
+    {
+        HttpResponse response = execute(op, cmd.getFullClassName(), mconn, method, headers, jsonString.getBytes(StandardCharsets.UTF_8));
+        if (NucleusLogger.DATASTORE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE.debug("Written to URL " + response.getURL() + " content " + jsonString);
+        }
+        handleHTTPErrorCode(response);
+        return response;
+    }
+
+    /**
+     * Convenience method to retrieve a JSON document from the datastore.
+     * @param op Type of operation
+     * @param cmd Metadata for the class of the object being read
+     * @param mconn ManagedConnection for the URL of the object
+     * @param method HTTP verb
+     * @param headers Request headers
+     * @return The JSON document
+     * @throws NucleusObjectNotFoundException if the object doesn't exist
+     */
+    protected JSONObject read(OperationType op, AbstractClassMetaData cmd, ManagedConnection mconn, String method, Map<String, String> headers)
+    {
+        HttpResponse response = execute(op, cmd.getFullClassName(), mconn, method, headers, null);
+        if (response.getCode() == 404)
+        {
+            throw new NucleusObjectNotFoundException();
+        }
+        handleHTTPErrorCode(response);
+        return parseDocument(cmd, response.getBody());
+    }
+
+    /**
+     * Parse the JSON document of an object.
+     * @param cmd Metadata for the class of the object
+     * @param body The document (UTF-8)
+     * @return The JSON document
+     */
+    protected JSONObject parseDocument(AbstractClassMetaData cmd, byte[] body)
+    {
         try
         {
-            URLConnection conn = (URLConnection) mconn.getConnection();
-            ClassLoaderResolver clr = ec.getClassLoaderResolver();
-            final AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(candidateClass, clr);
-            final Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+            JsonParseEvent parseEvent = new JsonParseEvent();
+            parseEvent.begin();
+            JSONObject jsonobj = new JSONObject(new String(body, StandardCharsets.UTF_8));
+            parseEvent.commit(cmd.getFullClassName(), body.length);
+            return jsonobj;
+        }
+        catch (JSONException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+    }
 
-            JSONArray jsonarray;
-            try
+    /**
+     * Perform a request against the datastore, recording its metrics, and its outcome on the current span.
+     * The response body (or error body) is read fully. Each attempt obtains a new URLConnection from the ManagedConnection.
+     * Requests of idempotent operations that fail transiently are retried as per the RetryPolicy, and the response of the
+     * last attempt returned. Attempts of idempotent reads are hedged when a HedgePolicy is enabled.
+     * If the thread has a Deadline then the timeouts of each attempt are bounded by the time remaining, and no attempt or retry is
+     * made after it expires.
+     * @param op Type of operation that the request is for
+     * @param className Name of the class that the request is for (or null if not for a class)
+     * @param mconn ManagedConnection for the URL of the request
+     * @param method HTTP verb
+     * @param headers Request headers
+     * @param body Request body (or null if none)
+     * @return The response
+     * @throws NucleusDataStoreException if the request fails without a response
+     * @throws DeadlineExceededException if the deadline of the operation expires before a response
+     */
+    protected HttpResponse execute(OperationType op, String className, ManagedConnection mconn, String method, Map<String, String> headers, byte[] body)
+    {
+        try
+        {
+            return executeWithRetries(op, className, mconn, method, headers, body);
+        }
+        finally
+        {
+            if (!"GET".equals(method) && !"HEAD".equals(method))
             {
-                HttpURLConnection http = (HttpURLConnection) conn;
-                Map headers = getHeaders("GET", options);
-                Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-                while (iterator.hasNext())
+                if (mconn instanceof ConnectionFactoryImpl.ManagedConnectionImpl)
                 {
-                    Map.Entry<String, String> entry = iterator.next();
-                    String key = entry.getKey();
-                    String value = entry.getValue();
-                    http.setRequestProperty(key, value);
+                    String urlPath = ((ConnectionFactoryImpl.ManagedConnectionImpl) mconn).getURLPath();
+                    invalidateDocument(urlPath.indexOf('?') >= 0 ? urlPath.substring(0, urlPath.indexOf('?')) : urlPath);
                 }
-                http.setDoInput(true);
-                http.setRequestMethod("GET");
-                http.setReadTimeout(10000);
-                http.setConnectTimeout(10000);
-                if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+            }
+        }
+    }
+
+    /**
+     * Invalidate any cached document of an object, since it was written. A fetch of the object in flight is no longer shared, so
+     * that fetches after the write don't share a fetch started before it.
+     * @param urlPath URL path of the object
+     */
+    protected void invalidateDocument(String urlPath)
+    {
+        if (fetchFlights != null)
+        {
+            fetchFlights.invalidate(urlPath);
+        }
+        if (documentCache != null)
+        {
+            documentCache.invalidate(urlPath);
+        }
+    }
+
+    /**
+     * Whether a request is a conditional write (e.g a create-only PUT with "If-None-Match: *"). These are not retried after an IOException
+     * since the write may have been applied, and a retry would then fail its precondition.
+     * @param method HTTP method
+     * @param headers Headers of the request
+     * @return Whether the request is a conditional write
+     */
+    protected boolean isConditionalWrite(String method, Map<String, String> headers)
+    {
+        if ("GET".equals(method) || "HEAD".equals(method))
+        {
+            return false;
+        }
+        for (String name : headers.keySet())
+        {
+            if (name.regionMatches(true, 0, "If-", 0, 3) || name.regionMatches(true, 0, "x-goog-if-", 0, 10))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HttpResponse executeWithRetries(OperationType op, String className, ManagedConnection mconn, String method, Map<String, String> headers,
+            byte[] body)
+    {
+        OperationMetrics opMetrics = metrics.getOperationMetrics(className, op);
+        Span span = tracer.getCurrentSpan();
+        boolean hedgeable = hedgePolicy != null && hedgePolicy.isHedgeableMethod(method);
+        boolean retryable = retryPolicy.isRetryableMethod(method);
+        Deadline deadline = Deadline.getCurrent();
+        retryPolicy.recordRequest();
+        int attempt = 1;
+        while (true)
+        {
+            int timeout = requestTimeout;
+            if (deadline != null)
+            {
+                long remaining = deadline.getRemainingMillis();
+                if (remaining <= 0)
                 {
-                    NucleusLogger.DATASTORE_NATIVE.debug("GET " + candidateClass.getName());
+                    throw new DeadlineExceededException("Deadline expired before request " + method + " for " + className + " (attempt " + attempt + ")");
                 }
-                http.connect();
+                timeout = (int) Math.min(requestTimeout, remaining);
+            }
 
-                if (ec.getStatistics() != null)
+            long delay;
+            try
+            {
+                HttpResponse response = hedgeable ? executeHedged(op, className, opMetrics, mconn, method, headers, timeout, span) :
+                    executeAttempt(op, className, opMetrics, mconn, method, headers, body, timeout, span);
+                if (!retryable || !retryPolicy.isRetryableStatus(response.getCode()))
                 {
-                    // Add to statistics
-                    ec.getStatistics().incrementNumReads();
+                    return response;
+                }
+                delay = retryPolicy.getRetryDelay(attempt, response.getHeaderField("Retry-After"));
+                if (delay < 0 || (deadline != null && delay >= deadline.getRemainingMillis()))
+                {
+                    return response;
+                }
+                if (NucleusLogger.DATASTORE.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE.debug("Request " + method + " " + response.getURL() + " failed with HTTP " + response.getCode() + " so retrying in " + delay + "ms");
+                }
+            }
+            catch (IOException e)
+            {
+                if (deadline != null && deadline.getRemainingMillis() <= 0)
+                {
+                    throw new DeadlineExceededException("Deadline expired during request " + method + " for " + className, e);
+                }
+                delay = retryable && !isConditionalWrite(method, headers) ? retryPolicy.getRetryDelay(attempt, null) : -1;
+                if (delay < 0)
+                {
+                    throw new NucleusDataStoreException(e.getMessage(), e);
                 }
+                if (deadline != null && delay >= deadline.getRemainingMillis())
+                {
+                    throw new DeadlineExceededException("Deadline would expire before retry of request " + method + " for " + className, e);
+                }
+                if (NucleusLogger.DATASTORE.isDebugEnabled())
+                {
+                    NucleusLogger.DATASTORE.debug("Request " + method + " for " + className + " failed with " + e + " so retrying in " + delay + "ms");
+                }
+            }
 
-                int code = http.getResponseCode();
-                if (code == 404)
+            opMetrics.recordRetry();
+            span.setAttribute("http.request.resend_count", attempt);
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                throw new NucleusDataStoreException("Interrupted waiting to retry request " + method + " for " + className, ie);
+            }
+            attempt++;
+        }
+    }
+
+    /**
+     * Run the requests of a batch concurrently on the request executor, at most maxConcurrent at a time, propagating the deadline
+     * of this thread to them. Waits for all requests to complete. Once the deadline has expired no more requests are sent, and each
+     * request not sent fails with a DeadlineExceededException.
+     * @param requests The requests, each throwing an exception (naming its failed object) if it fails
+     * @param maxConcurrent Maximum number of requests in flight at once
+     * @return Exceptions of the requests that failed, empty if all succeeded
+     */
+    protected List<Throwable> executeConcurrently(List<Runnable> requests, int maxConcurrent)
+    {
+        // Each request has the time remaining until the deadline when it starts, not the time remaining when the batch started
+        final Deadline deadline = Deadline.getCurrent();
+
+        List<Throwable> failures = new ArrayList<>();
+        for (int start = 0; start < requests.size(); start += maxConcurrent)
+        {
+            if (deadline != null && deadline.isExpired())
+            {
+                for (int i = start; i < requests.size(); i++)
                 {
-                    return Collections.EMPTY_LIST;
+                    failures.add(new DeadlineExceededException("Deadline expired before " + (requests.size() - start) + " of " + requests.size() + " requests were sent"));
                 }
+                break;
+            }
 
-                /* String msg = */http.getResponseMessage();
-                StringBuilder sb = new StringBuilder();
-                if (http.getContentLength() > 0)
+            List<Future<?>> futures = new ArrayList<>(maxConcurrent);
+            for (Runnable request : requests.subList(start, Math.min(start + maxConcurrent, requests.size())))
+            {
+                futures.add(requestExecutor.submit(() ->
                 {
-                    for (int i = 0; i < http.getContentLength(); i++)
+                    Deadline requestDeadline = Deadline.enter(deadline);
+                    try
+                    {
+                        request.run();
+                    }
+                    finally
                     {
-                        sb.append((char) http.getInputStream().read());
+                        requestDeadline.exit();
                     }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++)
+            {
+                try
+                {
+                    futures.get(i).get();
                 }
-                else
+                catch (ExecutionException e)
                 {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    byte[] buffer = new byte[1024];
-                    int r;
-                    while ((r = http.getInputStream().read(buffer)) != -1)
+                    failures.add(e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    futures.forEach(f -> f.cancel(true));
+                    Thread.currentThread().interrupt();
+                    throw new NucleusDataStoreException("Interrupted waiting for " + requests.size() + " requests", e);
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Perform an attempt of an idempotent read, hedging it with a duplicate request if it has not answered within the hedge delay
+     * of its operation. The first response wins, and the other request completes in the background.
+     * @param op Type of operation that the request is for
+     * @param className Name of the class that the request is for (or null if not for a class)
+     * @param opMetrics Metrics for the operation
+     * @param mconn ManagedConnection for the URL of the request
+     * @param method HTTP verb
+     * @param headers Request headers
+     * @param timeoutMillis Timeout for connecting, and for reading, of each request
+     * @param span Span that the request is made for
+     * @return The response
+     * @throws IOException if all requests fail without a response
+     */
+    protected HttpResponse executeHedged(OperationType op, String className, OperationMetrics opMetrics, ManagedConnection mconn, String method,
+            Map<String, String> headers, int timeoutMillis, Span span)
+    throws IOException
+    {
+        long hedgeDelay = hedgePolicy.getHedgeDelayNanos(opMetrics);
+        if (hedgeDelay < 0)
+        {
+            // Not enough latency history to know when to hedge
+            return executeAttempt(op, className, opMetrics, mconn, method, headers, null, timeoutMillis, span);
+        }
+        hedgePolicy.recordRequest(className);
+
+        Callable<HttpResponse> attempt = () -> executeAttempt(op, className, opMetrics, mconn, method, headers, null, timeoutMillis, span);
+        CompletionService<HttpResponse> completion = new ExecutorCompletionService<>(requestExecutor);
+        completion.submit(attempt);
+        int pending = 1;
+        try
+        {
+            Future<HttpResponse> done = completion.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+            if (done == null && hedgePolicy.tryAcquireHedge(className))
+            {
+                opMetrics.recordHedge();
+                span.setAttribute("dn.hedged", 1);
+                completion.submit(attempt);
+                pending++;
+            }
+            while (true)
+            {
+                if (done == null)
+                {
+                    done = completion.take();
+                }
+                pending--;
+                try
+                {
+                    return done.get();
+                }
+                catch (ExecutionException e)
+                {
+                    if (pending == 0)
                     {
-                        baos.write(buffer, 0, r);
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException)
+                        {
+                            throw (IOException) cause;
+                        }
+                        else if (cause instanceof RuntimeException)
+                        {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new NucleusDataStoreException(cause.getMessage(), cause);
                     }
-                    sb.append(new String(baos.toByteArray()));
                 }
-                http.getInputStream().close();
-                jsonarray = new JSONArray(sb.toString());
+                done = null;
             }
-            catch (IOException e)
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NucleusDataStoreException("Interrupted waiting for response to " + method + " for " + className, e);
+        }
+    }
+
+    /**
+     * Perform a single attempt of a request against the datastore, recording its metrics and JFR event.
+     * The attempt is rejected without a request if the circuit breaker of its endpoint is open or its bulkhead is full.
+     * @param op Type of operation that the request is for
+     * @param className Name of the class that the request is for (or null if not for a class)
+     * @param opMetrics Metrics for the operation
+     * @param mconn ManagedConnection for the URL of the request
+     * @param method HTTP verb
+     * @param headers Request headers
+     * @param body Request body (or null if none)
+     * @param timeoutMillis Timeout for connecting, and for reading
+     * @param span Span that the request is made for
+     * @return The response
+     * @throws IOException if the request fails without a response
+     * @throws NucleusDataStoreException if the request is rejected by the circuit breaker or bulkhead of its endpoint
+     */
+    protected HttpResponse executeAttempt(OperationType op, String className, OperationMetrics opMetrics, ManagedConnection mconn, String method,
+            Map<String, String> headers, byte[] body, int timeoutMillis, Span span)
+    throws IOException
+    {
+        long bytesSent = body != null ? body.length : 0;
+        HttpURLConnection http = (HttpURLConnection) mconn.getConnection();
+
+        EndpointRegistry.Endpoint endpoint = endpoints.getEndpoint(http.getURL(), op.isObjectLevel());
+        Bulkhead bulkhead = endpoint.getBulkhead();
+        if (bulkhead != null && !bulkhead.tryAcquire())
+        {
+            endpoints.recordRejection();
+            throw new NucleusDataStoreException("Request " + method + " " + http.getURL() + " rejected since endpoint " + endpoint.getName() +
+                " has the maximum number of concurrent requests");
+        }
+        CircuitBreaker breaker = endpoint.getCircuitBreaker();
+        if (breaker != null && !breaker.tryAcquirePermission())
+        {
+            if (bulkhead != null)
             {
-                throw new NucleusDataStoreException(e.getMessage(), e);
+                bulkhead.release();
+            }
+            endpoints.recordRejection();
+            throw new NucleusDataStoreException("Request " + method + " " + http.getURL() + " rejected since the circuit breaker for endpoint " + endpoint.getName() +
+                " is open");
+        }
+
+        DatastoreRequestEvent event = new DatastoreRequestEvent();
+        inflightRequests.incrementAndGet();
+        event.begin();
+        long startTime = System.nanoTime();
+        try
+        {
+            for (Map.Entry<String, String> entry : headers.entrySet())
+            {
+                http.setRequestProperty(entry.getKey(), entry.getValue());
+            }
+            http.setRequestMethod(method);
+            http.setReadTimeout(timeoutMillis);
+            http.setConnectTimeout(timeoutMillis);
+            http.setDoInput(true);
+            if (body != null)
+            {
+                http.setDoOutput(true);
+                http.setFixedLengthStreamingMode(body.length);
+                OutputStream os = http.getOutputStream();
+                os.write(body);
+                os.flush();
+                os.close();
+            }
+            else
+            {
+                http.connect();
+            }
+
+            int code = http.getResponseCode();
+            long timeToFirstByte = System.nanoTime() - startTime;
+            byte[] responseBody = null;
+            if (code >= 400)
+            {
+                responseBody = readFully(http.getErrorStream());
+            }
+            else if (!"HEAD".equals(method))
+            {
+                responseBody = readFully(http.getInputStream());
+            }
+            else
+            {
+                responseBody = new byte[0];
+            }
+            opMetrics.recordRequest(System.nanoTime() - startTime, code, bytesSent, responseBody.length);
+            commitRequestEvent(event, op, className, method, http.getURL().toExternalForm(), code, bytesSent, responseBody.length, timeToFirstByte);
+            span.setAttribute("http.method", method);
+            span.setAttribute("http.status_code", code);
+            if (breaker != null)
+            {
+                if (CircuitBreaker.isFailure(code))
+                {
+                    breaker.onFailure();
+                }
+                else
+                {
+                    breaker.onSuccess();
+                }
+            }
+
+            return new HttpResponse(method, http.getURL().toExternalForm(), code, http.getResponseMessage(), http.getHeaderFields(), responseBody);
+        }
+        catch (IOException e)
+        {
+            opMetrics.recordError(System.nanoTime() - startTime, bytesSent);
+            commitRequestEvent(event, op, className, method, http.getURL().toExternalForm(), -1, bytesSent, 0, 0);
+            span.recordError(e);
+            if (breaker != null)
+            {
+                breaker.onFailure();
+            }
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            if (breaker != null)
+            {
+                breaker.onFailure();
+            }
+            throw e;
+        }
+        finally
+        {
+            inflightRequests.decrementAndGet();
+            if (bulkhead != null)
+            {
+                bulkhead.release();
+            }
+        }
+    }
+
+    private static void commitRequestEvent(DatastoreRequestEvent event, OperationType op, String className, String method, String url, int status,
+            long bytesSent, long bytesReceived, long timeToFirstByte)
+    {
+        if (event.shouldCommit())
+        {
+            event.method = method;
+            event.urlTemplate = DatastoreRequestEvent.getURLTemplate(url, op.isObjectLevel());
+            event.className = className;
+            event.operation = op.name();
+            event.status = status;
+            event.bytesSent = bytesSent;
+            event.bytesReceived = bytesReceived;
+            event.timeToFirstByte = timeToFirstByte;
+            event.commit();
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException
+    {
+        if (is == null)
+        {
+            return new byte[0];
+        }
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int r;
+            while ((r = is.read(buffer)) != -1)
+            {
+                baos.write(buffer, 0, r);
+            }
+            return baos.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    protected Map<String, String> getHeaders(String httpVerb, Map<String, String> options)
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Date", CloudStorageUtils.getHTTPDate());
+        String contentType = "";
+        if (options.containsKey("Content-Type"))
+        {
+            contentType = options.get("Content-Type");
+            headers.put("Content-Type", contentType);
+        }
+        String traceParent = tracer.getCurrentSpan().getTraceParent();
+        if (traceParent != null)
+        {
+            headers.put("traceparent", traceParent);
+        }
+        return headers;
+    }
+
+    /**
+     * Convenience method to get all objects of the candidate type from the specified connection.
+     * @param ec ExecutionContext
+     * @param mconn Managed Connection
+     * @param candidateClass Candidate
+     * @param subclasses Whether to include subclasses
+     * @param ignoreCache Whether to ignore the cache
+     * @param options Map of options
+     * @return List of objects of the candidate type
+     */
+    public List getObjectsOfCandidateType(final ExecutionContext ec, ManagedConnection mconn, Class candidateClass, boolean subclasses, boolean ignoreCache,
+            Map options)
+    {
+        List results = new ArrayList();
+
+        // TODO Support subclasses
+        try
+        {
+            ClassLoaderResolver clr = ec.getClassLoaderResolver();
+            final AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(candidateClass, clr);
+            final Table table = storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable();
+
+            if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_NATIVE.debug("GET " + candidateClass.getName());
+            }
+            HttpResponse response = execute(OperationType.QUERY, cmd.getFullClassName(), mconn, "GET", getHeaders("GET", options), null);
+
+            if (ec.getStatistics() != null)
+            {
+                // Add to statistics
+                ec.getStatistics().incrementNumReads();
+            }
+
+            if (response.getCode() == 404)
+            {
+                return Collections.EMPTY_LIST;
+            }
+            handleHTTPErrorCode(response);
+
+            JSONArray jsonarray;
+            try
+            {
+                JsonParseEvent parseEvent = new JsonParseEvent();
+                parseEvent.begin();
+                jsonarray = new JSONArray(response.getBodyAsString());
+                parseEvent.commit(cmd.getFullClassName(), response.getBody().length);
             }
             catch (JSONException e)
             {
                 throw new NucleusDataStoreException(e.getMessage(), e);
             }
 
+            FieldHydrationEvent hydrationEvent = new FieldHydrationEvent();
+            hydrationEvent.begin();
             for (int i = 0; i < jsonarray.length(); i++)
             {
                 final JSONObject json = jsonarray.getJSONObject(i);
@@ -798,40 +1782,7 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
                     id = IdentityUtils.getApplicationIdentityForResultSetRow(ec, cmd, null, true, fetchFM);
                 }
 
-                Object version = null;
-                if (cmd.isVersioned())
-                {
-                    // Extract the version for applying to the object
-                    VersionMetaData vermd = cmd.getVersionMetaDataForClass();
-                    String verColName = null;
-                    if (vermd.getMemberName() == null)
-                    {
-                        // Surrogate version
-                        verColName = table.getSurrogateColumn(SurrogateColumnType.VERSION).getName();
-                    }
-                    else
-                    {
-                        verColName = table.getMemberColumnMappingForMember(cmd.getMetaDataForMember(vermd.getMemberName())).getColumn(0).getName();
-                    }
-
-                    long versionLong = -1;
-                    try
-                    {
-                        versionLong = json.getLong(verColName);
-                        if (vermd.getStrategy() == VersionStrategy.VERSION_NUMBER)
-                        {
-                            version = versionLong;
-                        }
-                        else if (vermd.getStrategy() == VersionStrategy.DATE_TIME)
-                        {
-                            version = new Timestamp(versionLong);
-                        }
-                    }
-                    catch (JSONException e)
-                    {
-                        // ignore
-                    }
-                }
+                Object version = getVersion(cmd, table, json);
 
                 Object obj = ec.findObject(id, new FieldValues()
                 {
@@ -862,6 +1813,7 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
 
                 results.add(obj);
             }
+            hydrationEvent.commit(cmd.getFullClassName(), results.size(), cmd.getAllMemberPositions().length);
         }
         catch (JSONException je)
         {
@@ -871,6 +1823,52 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         return results;
     }
 
+    /**
+     * Accessor for the version of an object from its JSON document.
+     * @param cmd Metadata for the class of the object
+     * @param table Table of the class
+     * @param json The document
+     * @return The version, or null if the class is not versioned (or the document has no version)
+     */
+    protected Object getVersion(AbstractClassMetaData cmd, Table table, JSONObject json)
+    {
+        if (!cmd.isVersioned())
+        {
+            return null;
+        }
+
+        // Extract the version for applying to the object
+        VersionMetaData vermd = cmd.getVersionMetaDataForClass();
+        String verColName = null;
+        if (vermd.getMemberName() == null)
+        {
+            // Surrogate version
+            verColName = table.getSurrogateColumn(SurrogateColumnType.VERSION).getName();
+        }
+        else
+        {
+            verColName = table.getMemberColumnMappingForMember(cmd.getMetaDataForMember(vermd.getMemberName())).getColumn(0).getName();
+        }
+
+        try
+        {
+            long versionLong = json.getLong(verColName);
+            if (vermd.getStrategy() == VersionStrategy.VERSION_NUMBER)
+            {
+                return versionLong;
+            }
+            else if (vermd.getStrategy() == VersionStrategy.DATE_TIME)
+            {
+                return new Timestamp(versionLong);
+            }
+        }
+        catch (JSONException e)
+        {
+            // ignore
+        }
+        return null;
+    }
+
     protected String getURLPath(DNStateManager sm)
     {
         AbstractClassMetaData cmd = sm.getClassMetaData();
@@ -931,31 +1929,22 @@ public class JsonPersistenceHandler extends AbstractPersistenceHandler
         return url;
     }
 
-    protected void handleHTTPErrorCode(HttpURLConnection http) throws IOException
+    /**
+     * Convenience method to throw an exception if the response is an error (4xx, 5xx) or a redirect (3xx).
+     * @param response The response
+     * @throws NucleusDataStoreException if the response is an error or redirect
+     */
+    protected void handleHTTPErrorCode(HttpResponse response)
     {
-        if (http.getResponseCode() >= 400)
+        if (response.getCode() >= 400)
         {
-            StringBuilder sb = new StringBuilder();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int r;
-            if (http.getErrorStream() != null)
-            {
-                while ((r = http.getErrorStream().read(buffer)) != -1)
-                {
-                    baos.write(buffer, 0, r);
-                }
-                sb.append(new String(baos.toByteArray()));
-                http.getErrorStream().close();
-            }
-
-            throw new NucleusDataStoreException(
-                    "Error on URL: '" + http.getURL().toExternalForm() + "' Request Method: " + http.getRequestMethod() + " HTTP Error code: " + 
-                    http.getResponseCode() + " " + http.getResponseMessage() + " error: " + sb.toString());
+            throw new HttpErrorException(
+                    "Error on URL: '" + response.getURL() + "' Request Method: " + response.getMethod() + " HTTP Error code: " + 
+                    response.getCode() + " " + response.getMessage() + " error: " + response.getBodyAsString(), response.getCode());
         }
-        else if (http.getResponseCode() >= 300)
+        else if (response.getCode() >= 300 && response.getCode() != 304)
         {
-            throw new NucleusDataStoreException("Redirect not supported. HTTP Error code: " + http.getResponseCode() + " " + http.getResponseMessage());
+            throw new NucleusDataStoreException("Redirect not supported. HTTP Error code: " + response.getCode() + " " + response.getMessage());
         }
     }
-}
\ No newline at end of file
+}
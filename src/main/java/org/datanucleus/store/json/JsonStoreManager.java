@@ -53,7 +53,7 @@ public class JsonStoreManager extends AbstractStoreManager
 
     public JsonStoreManager(ClassLoaderResolver clr, PersistenceNucleusContext ctx, Map<String, Object> props)
     {
-        super("json", clr, ctx, props);
+        this("json", clr, ctx, props);
 
         persistenceHandler = new JsonPersistenceHandler(this);
         connectionMgr.disableConnectionCaching();
@@ -61,6 +61,18 @@ public class JsonStoreManager extends AbstractStoreManager
         logConfiguration();
     }
 
+    /**
+     * Constructor for a store manager of a JSON-based datastore, which sets its own persistence handler.
+     * @param key Key of the store manager
+     * @param clr ClassLoader resolver
+     * @param ctx Context
+     * @param props Persistence properties
+     */
+    protected JsonStoreManager(String key, ClassLoaderResolver clr, PersistenceNucleusContext ctx, Map<String, Object> props)
+    {
+        super(key, clr, ctx, props);
+    }
+
     public NucleusConnection getNucleusConnection(ExecutionContext ec)
     {
         throw new UnsupportedOperationException();
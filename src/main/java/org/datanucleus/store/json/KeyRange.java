@@ -0,0 +1,178 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+/**
+ * Range of (String) primary keys that a query needs, derived from its filter, so that a listing of keys can be limited to it.
+ * The range is a superset of the keys that match the filter; the filter is still evaluated on the candidates.
+ */
+public class KeyRange
+{
+    private final String prefix;
+
+    private final String lower;
+
+    private final boolean lowerInclusive;
+
+    private final String upper;
+
+    private final boolean upperInclusive;
+
+    public KeyRange(String prefix, String lower, boolean lowerInclusive, String upper, boolean upperInclusive)
+    {
+        this.prefix = prefix;
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * Accessor for the prefix that all keys in the range start with.
+     * @return The prefix, or null if not restricted by prefix
+     */
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    public String getLower()
+    {
+        return lower;
+    }
+
+    public boolean isLowerInclusive()
+    {
+        return lowerInclusive;
+    }
+
+    public String getUpper()
+    {
+        return upper;
+    }
+
+    public boolean isUpperInclusive()
+    {
+        return upperInclusive;
+    }
+
+    /**
+     * Method to return the intersection of this range with another range.
+     * @param other The other range (or null for all keys)
+     * @return The intersection
+     */
+    public KeyRange intersect(KeyRange other)
+    {
+        if (other == null)
+        {
+            return this;
+        }
+
+        String newPrefix = prefix;
+        if (newPrefix == null || (other.prefix != null && other.prefix.startsWith(newPrefix)))
+        {
+            newPrefix = other.prefix;
+        }
+
+        String newLower = lower;
+        boolean newLowerInclusive = lowerInclusive;
+        if (other.lower != null)
+        {
+            int cmp = newLower == null ? -1 : newLower.compareTo(other.lower);
+            if (cmp < 0 || (cmp == 0 && !other.lowerInclusive))
+            {
+                newLower = other.lower;
+                newLowerInclusive = other.lowerInclusive;
+            }
+        }
+
+        String newUpper = upper;
+        boolean newUpperInclusive = upperInclusive;
+        if (other.upper != null)
+        {
+            int cmp = newUpper == null ? 1 : newUpper.compareTo(other.upper);
+            if (cmp > 0 || (cmp == 0 && !other.upperInclusive))
+            {
+                newUpper = other.upper;
+                newUpperInclusive = other.upperInclusive;
+            }
+        }
+        return new KeyRange(newPrefix, newLower, newLowerInclusive, newUpper, newUpperInclusive);
+    }
+
+    /**
+     * Accessor for the key (exclusive) to start listing after, so that listing starts at the lower bound.
+     * Since listings start after a key, for an inclusive lower bound this is the bound without its last character.
+     * @return The key to start after, or null if listing should start at the beginning (of the prefix)
+     */
+    public String getStartAfter()
+    {
+        if (lower == null || lower.length() == 0)
+        {
+            return null;
+        }
+        String startAfter = lowerInclusive ? lower.substring(0, lower.length() - 1) : lower;
+        if (startAfter.length() == 0 || (prefix != null && startAfter.compareTo(prefix) < 0))
+        {
+            return null;
+        }
+        return startAfter;
+    }
+
+    /**
+     * Whether the key is after the upper bound of the range, so no later key (in listing order) can be in the range.
+     * @param key The key
+     * @return Whether after the range
+     */
+    public boolean isAfter(String key)
+    {
+        if (upper == null)
+        {
+            return false;
+        }
+        int cmp = key.compareTo(upper);
+        return cmp > 0 || (cmp == 0 && !upperInclusive);
+    }
+
+    /**
+     * Whether the key is in the range.
+     * @param key The key
+     * @return Whether in the range
+     */
+    public boolean contains(String key)
+    {
+        if (prefix != null && !key.startsWith(prefix))
+        {
+            return false;
+        }
+        if (lower != null)
+        {
+            int cmp = key.compareTo(lower);
+            if (cmp < 0 || (cmp == 0 && !lowerInclusive))
+            {
+                return false;
+            }
+        }
+        return !isAfter(key);
+    }
+
+    public String toString()
+    {
+        return "KeyRange[prefix=" + prefix + " " + (lowerInclusive ? "[" : "(") + lower + "," + upper + (upperInclusive ? "]" : ")") + "]";
+    }
+}
@@ -0,0 +1,206 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IdentityType;
+
+/**
+ * Client-maintained secondary index of a member of a class stored in cloud storage, enabled by the member extension "index" being "true".
+ * Each entry of the index is an (empty) object with key "_index/{class}/{member}/{value}/{pk}", so entries of a value can be listed by
+ * prefix, and entries of a range of values by a listing limited to a {@link KeyRange}. Values are encoded so that their keys sort in the
+ * order of the values : Strings as the hex of their UTF-8 bytes, integral numbers as 16 hex digits with the sign bit flipped,
+ * doubles as 16 hex digits of their sortable bits, and booleans as 0/1. Only members of these types can be indexed, and only for
+ * classes using application identity with a single PK member. Strings are ordered by code point, which differs from String.compareTo
+ * only for supplementary characters.
+ * The index is built on first use, for objects stored before the member was indexed, after which the (empty) object
+ * "_index/{class}/{member}.built" marks it as built.
+ */
+public final class SecondaryIndex
+{
+    /** Member extension enabling the index of a member. */
+    public static final String EXTENSION_INDEX = "index";
+
+    /** Key prefix of all index entries in the bucket. */
+    public static final String INDEX_PREFIX = "_index/";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private SecondaryIndex()
+    {
+    }
+
+    /**
+     * Whether the member is indexed.
+     * @param cmd Metadata for the class
+     * @param mmd Metadata for the member
+     * @return Whether it has an index
+     */
+    public static boolean isIndexed(AbstractClassMetaData cmd, AbstractMemberMetaData mmd)
+    {
+        return mmd != null && "true".equalsIgnoreCase(mmd.getValueForExtension(EXTENSION_INDEX)) && getValueType(mmd.getType()) != 0 &&
+            cmd.getIdentityType() == IdentityType.APPLICATION && cmd.getPKMemberPositions().length == 1;
+    }
+
+    /**
+     * Accessor for the indexed members of the class.
+     * @param cmd Metadata for the class
+     * @return The indexed members (empty if none)
+     */
+    public static List<AbstractMemberMetaData> getIndexedMembers(AbstractClassMetaData cmd)
+    {
+        List<AbstractMemberMetaData> mmds = new ArrayList<>();
+        for (int position : cmd.getAllMemberPositions())
+        {
+            AbstractMemberMetaData mmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(position);
+            if (isIndexed(cmd, mmd))
+            {
+                mmds.add(mmd);
+            }
+        }
+        return mmds;
+    }
+
+    /**
+     * Accessor for the key prefix of the entries of the index of a member.
+     * @param classPath URL path of the class ("{class}/")
+     * @param memberName Name of the member
+     * @return The prefix "_index/{class}/{member}/"
+     */
+    public static String getIndexPath(String classPath, String memberName)
+    {
+        return INDEX_PREFIX + classPath + memberName + "/";
+    }
+
+    /**
+     * Accessor for the key of the marker that the index of a member has been built.
+     * @param classPath URL path of the class ("{class}/")
+     * @param memberName Name of the member
+     * @return The key "_index/{class}/{member}.built"
+     */
+    public static String getBuiltMarkerPath(String classPath, String memberName)
+    {
+        return INDEX_PREFIX + classPath + memberName + ".built";
+    }
+
+    /**
+     * Encode a value of an indexed member so that the encoded values sort in the order of the values.
+     * The value can be the value of the member, or the value as stored in the JSON document of the object.
+     * @param mmd Metadata for the member
+     * @param value The value
+     * @return The encoded value, or null if the value is null, or not of the type of the member
+     */
+    public static String encode(AbstractMemberMetaData mmd, Object value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        switch (getValueType(mmd.getType()))
+        {
+            case 'S':
+                byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                StringBuilder str = new StringBuilder(bytes.length * 2);
+                for (byte b : bytes)
+                {
+                    str.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+                }
+                return str.toString();
+            case 'L':
+                if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+                {
+                    return toHex(((Number) value).longValue() ^ Long.MIN_VALUE);
+                }
+                // Not integral, so cannot be compared via the index
+                return null;
+            case 'D':
+                if (value instanceof Number)
+                {
+                    long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+                    return toHex(bits < 0 ? ~bits : bits ^ Long.MIN_VALUE);
+                }
+                return null;
+            case 'B':
+                if (value instanceof Boolean)
+                {
+                    return ((Boolean) value).booleanValue() ? "1" : "0";
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Accessor for the range of index entries (relative to the index path) with values in the specified range.
+     * Entries have keys "{value}/{pk}", so the entries of a value sort after the value and before the value followed by "0".
+     * @param lower Encoded lower bound (or null)
+     * @param lowerInclusive Whether the lower bound is inclusive
+     * @param upper Encoded upper bound (or null)
+     * @param upperInclusive Whether the upper bound is inclusive
+     * @return The range of entries
+     */
+    public static KeyRange getEntryRange(String lower, boolean lowerInclusive, String upper, boolean upperInclusive)
+    {
+        if (lower != null && lower.equals(upper) && lowerInclusive && upperInclusive)
+        {
+            return new KeyRange(lower + "/", null, false, null, false);
+        }
+        String entryLower = lower == null ? null : (lowerInclusive ? lower : lower + "0");
+        String entryUpper = upper == null ? null : (upperInclusive ? upper + "0" : upper);
+        return new KeyRange(null, entryLower, false, entryUpper, false);
+    }
+
+    private static char getValueType(Class type)
+    {
+        if (type == String.class || type == char.class || type == Character.class)
+        {
+            return 'S';
+        }
+        else if (type == long.class || type == Long.class || type == int.class || type == Integer.class || type == short.class || type == Short.class ||
+            type == byte.class || type == Byte.class)
+        {
+            return 'L';
+        }
+        else if (type == double.class || type == Double.class)
+        {
+            return 'D';
+        }
+        else if (type == boolean.class || type == Boolean.class)
+        {
+            return 'B';
+        }
+        return 0;
+    }
+
+    private static String toHex(long value)
+    {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--)
+        {
+            chars[i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+}
@@ -17,11 +17,38 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.json.amazons3;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.state.DNStateManager;
 import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.json.CloudStoragePersistenceHandler;
+import org.datanucleus.store.json.CloudStorageUtils;
+import org.datanucleus.store.json.ConnectionFactoryImpl;
+import org.datanucleus.store.json.HttpResponse;
+import org.datanucleus.store.json.metrics.OperationType;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.tracing.Span;
+import org.datanucleus.util.NucleusLogger;
 
 public class AmazonS3PersistenceHandler extends CloudStoragePersistenceHandler
 {
+    /** Maximum number of keys in a multi-object delete request. */
+    private static final int MAX_KEYS_PER_DELETE = 1000;
+
     AmazonS3PersistenceHandler(StoreManager storeMgr)
     {
         super(storeMgr);
@@ -31,4 +58,188 @@ public class AmazonS3PersistenceHandler extends CloudStoragePersistenceHandler
     {
         return "AWS";
     }
+
+    /**
+     * Delete the objects using the multi-object delete API ("POST ?delete"), with up to 1000 keys per request.
+     * Objects that fail to be deleted are reported together, each with the exception for its key. Index entries of the objects
+     * are deleted in the same requests, and entries that fail to be deleted are only logged, since queries ignore entries without an object.
+     * @param sms StateManagers of the objects to delete
+     */
+    public void deleteObjects(DNStateManager... sms)
+    {
+        if (sms.length == 1)
+        {
+            deleteObject(sms[0]);
+            return;
+        }
+
+        Map<String, DNStateManager> smByKey = new HashMap<>();
+        for (DNStateManager sm : sms)
+        {
+            // Check if read-only so update not permitted
+            assertReadOnlyForUpdateOfObject(sm);
+
+            String key = getURLPath(sm);
+            smByKey.put(key.startsWith("/") ? key.substring(1) : key, sm);
+        }
+        if (smByKey.isEmpty())
+        {
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        String className = sms[0].getClassMetaData().getFullClassName();
+        Span span = startSpan("json.deleteBatch", className);
+        span.setAttribute("dn.batch.size", smByKey.size());
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            List<Throwable> failures = new ArrayList<>();
+            List<Throwable> entryFailures = new ArrayList<>();
+            List<String> keys = new ArrayList<>(smByKey.keySet());
+
+            // Index entries of the objects are deleted in the same requests, so read them before the objects are deleted
+            List<String> entries = getStoredIndexEntries(sms);
+            keys.addAll(entries);
+            for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_DELETE)
+            {
+                List<String> batchKeys = keys.subList(start, Math.min(start + MAX_KEYS_PER_DELETE, keys.size()));
+                deleteKeys(ec, className, batchKeys, smByKey, failures, entryFailures);
+            }
+
+            int numDeleted = smByKey.size() - failures.size();
+            if (ec.getStatistics() != null)
+            {
+                for (int i = 0; i < numDeleted; i++)
+                {
+                    ec.getStatistics().incrementNumWrites();
+                    ec.getStatistics().incrementDeleteCount();
+                }
+            }
+            if (NucleusLogger.DATASTORE_PERSIST.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_PERSIST.debug("Deleted " + numDeleted + " of " + smByKey.size() + " objects and " + (entries.size() - entryFailures.size()) +
+                    " of " + entries.size() + " index entries in " + (System.currentTimeMillis() - startTime) + "ms");
+            }
+            for (Throwable entryFailure : entryFailures)
+            {
+                // Entry is left without an object, so is ignored by queries
+                NucleusLogger.DATASTORE_PERSIST.warn(entryFailure.getMessage());
+            }
+            recordManifestKeys(ec, sms, failures, false);
+            if (!failures.isEmpty())
+            {
+                throw new NucleusDataStoreException("Failed to delete " + failures.size() + " of " + smByKey.size() + " objects",
+                    failures.toArray(new Throwable[failures.size()]));
+            }
+        }
+        finally
+        {
+            // Multi-object deletes are not for the URL of each object
+            for (DNStateManager sm : smByKey.values())
+            {
+                invalidateDocument(getURLPath(sm));
+            }
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Send a multi-object delete request for the specified keys, adding an exception for each key that could not be deleted.
+     * @param ec ExecutionContext
+     * @param className Name of the class for metrics
+     * @param keys Keys to delete (at most 1000)
+     * @param smByKey StateManagers keyed by object key
+     * @param failures Exceptions for object keys that failed, each with its object, to add to
+     * @param entryFailures Exceptions for other keys (index entries) that failed, to add to
+     */
+    protected void deleteKeys(ExecutionContext ec, String className, List<String> keys, Map<String, DNStateManager> smByKey, List<Throwable> failures,
+            List<Throwable> entryFailures)
+    {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Delete><Quiet>true</Quiet>");
+        for (String key : keys)
+        {
+            xml.append("<Object><Key>").append(xmlEscape(key)).append("</Key></Object>");
+        }
+        xml.append("</Delete>");
+        byte[] body = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, "?delete");
+        options.put("Content-Type", "application/xml");
+        options.put("Content-MD5", CloudStorageUtils.contentMD5(body));
+        ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+        try
+        {
+            if (NucleusLogger.DATASTORE_NATIVE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE_NATIVE.debug("POST ?delete for " + keys.size() + " keys");
+            }
+            HttpResponse response = execute(OperationType.BULK_DELETE, className, mconn, "POST", getHeaders("POST", options), body);
+            if (response.getCode() == 404)
+            {
+                throw new NucleusObjectNotFoundException("Bucket for objects not found : " + response.getBodyAsString());
+            }
+            handleHTTPErrorCode(response);
+
+            // In quiet mode the result only lists the keys that failed
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(response.getBody()));
+            try
+            {
+                Map<String, String> error = null;
+                while (reader.hasNext())
+                {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT)
+                    {
+                        String name = reader.getLocalName();
+                        if ("Error".equals(name))
+                        {
+                            error = new HashMap<>();
+                        }
+                        else if (error != null)
+                        {
+                            error.put(name, reader.getElementText());
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT && error != null && "Error".equals(reader.getLocalName()))
+                    {
+                        String key = error.get("Key");
+                        String code = error.get("Code");
+                        DNStateManager sm = smByKey.get(key);
+                        if (sm != null)
+                        {
+                            String message = "Error deleting object with key " + key + " : " + code + " " + error.get("Message");
+                            failures.add("NoSuchKey".equals(code) ? new NucleusObjectNotFoundException(message, sm.getObject()) :
+                                new NucleusDataStoreException(message, sm.getObject()));
+                        }
+                        else
+                        {
+                            entryFailures.add(new NucleusDataStoreException("Error deleting index entry with key " + key + " : " + code + " " + error.get("Message")));
+                        }
+                        error = null;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException e)
+        {
+            throw new NucleusDataStoreException(e.getMessage(), e);
+        }
+        finally
+        {
+            mconn.release();
+        }
+    }
+
+    private static String xmlEscape(String str)
+    {
+        return str.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
 }
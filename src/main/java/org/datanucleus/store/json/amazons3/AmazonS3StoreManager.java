@@ -20,17 +20,10 @@ package org.datanucleus.store.json.amazons3;
 import java.util.Map;
 
 import org.datanucleus.ClassLoaderResolver;
-import org.datanucleus.ExecutionContext;
 import org.datanucleus.PersistenceNucleusContext;
-import org.datanucleus.exceptions.NucleusException;
-import org.datanucleus.metadata.QueryLanguage;
-import org.datanucleus.store.AbstractStoreManager;
-import org.datanucleus.store.NucleusConnection;
-import org.datanucleus.store.json.query.JDOQLQuery;
-import org.datanucleus.store.json.query.JPQLQuery;
-import org.datanucleus.store.query.Query;
+import org.datanucleus.store.json.JsonStoreManager;
 
-public class AmazonS3StoreManager extends AbstractStoreManager
+public class AmazonS3StoreManager extends JsonStoreManager
 {
     public AmazonS3StoreManager(ClassLoaderResolver clr, PersistenceNucleusContext ctx, Map<String, Object> props)
     {
@@ -45,60 +38,4 @@ public class AmazonS3StoreManager extends AbstractStoreManager
 
         logConfiguration();
     }
-
-    /* (non-Javadoc)
-     * @see org.datanucleus.store.StoreManager#newQuery(java.lang.String, org.datanucleus.ExecutionContext)
-     */
-    @Override
-    public Query newQuery(String language, ExecutionContext ec)
-    {
-        if (language.equals(QueryLanguage.JDOQL.name()))
-        {
-            return new JDOQLQuery(this, ec);
-        }
-        else if (language.equals(QueryLanguage.JPQL.name()))
-        {
-            return new JPQLQuery(this, ec);
-        }
-        throw new NucleusException("Error creating query for language " + language);
-    }
-
-    /* (non-Javadoc)
-     * @see org.datanucleus.store.StoreManager#newQuery(java.lang.String, org.datanucleus.ExecutionContext, java.lang.String)
-     */
-    @Override
-    public Query newQuery(String language, ExecutionContext ec, String queryString)
-    {
-        if (language.equals(QueryLanguage.JDOQL.name()))
-        {
-            return new JDOQLQuery(this, ec, queryString);
-        }
-        else if (language.equals(QueryLanguage.JPQL.name()))
-        {
-            return new JPQLQuery(this, ec, queryString);
-        }
-        throw new NucleusException("Error creating query for language " + language);
-    }
-
-    /* (non-Javadoc)
-     * @see org.datanucleus.store.StoreManager#newQuery(java.lang.String, org.datanucleus.ExecutionContext, org.datanucleus.store.query.Query)
-     */
-    @Override
-    public Query newQuery(String language, ExecutionContext ec, Query q)
-    {
-        if (language.equals(QueryLanguage.JDOQL.name()))
-        {
-            return new JDOQLQuery(this, ec, (JDOQLQuery) q);
-        }
-        else if (language.equals(QueryLanguage.JPQL.name()))
-        {
-            return new JPQLQuery(this, ec, (JPQLQuery) q);
-        }
-        throw new NucleusException("Error creating query for language " + language);
-    }
-
-    public NucleusConnection getNucleusConnection(ExecutionContext ec)
-    {
-        throw new UnsupportedOperationException();
-    }
 }
\ No newline at end of file
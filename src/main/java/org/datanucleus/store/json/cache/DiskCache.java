@@ -0,0 +1,508 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.util.NucleusLogger;
+import org.datanucleus.util.StringUtils;
+
+/**
+ * Read cache of objects on local disk, so that objects are not downloaded again after a restart. Each object is cached with its ETag,
+ * so that a read can validate it with a conditional request and only download it if it has changed.
+ * <p>
+ * Objects are appended to memory-mapped segment files of a fixed size, as records of
+ * <code>[magic][key length][etag length][data length][crc][key][etag][data]</code>, with a data length of -1 for the removal of a key.
+ * The index is held in memory, and rebuilt on startup by scanning the segments in order, stopping at the first invalid record of each.
+ * When the cache is full the oldest segment is evicted, CLOCK style: its objects that were read since they were written are
+ * given a second chance by appending them again, and the others are dropped.
+ * <p>
+ * The directory is locked, so can only be used by one cache at a time.
+ */
+public class DiskCache
+{
+    /** Directory to cache objects in. The cache is disabled unless this is specified. */
+    public static final String PROPERTY_DIRECTORY = "datanucleus.cloud.storage.diskcache.directory";
+
+    /** Maximum size (MB) of the cache (default 1024). */
+    public static final String PROPERTY_MAX_SIZE = "datanucleus.cloud.storage.diskcache.maxsize";
+
+    private static final int MAGIC = 0x444e4331;
+
+    private static final int HEADER_LENGTH = 20;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final RandomAccessFile lockFile;
+
+    private final FileLock lock;
+
+    /** Segments, oldest first. The last is the one being appended to. */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private long nextSegmentId;
+
+    /**
+     * Constructor, opening the segments in the directory and rebuilding the index from them.
+     * @param directory Directory of the segment files
+     * @param maxSize Maximum size (bytes) of all segments
+     * @throws IOException if the directory cannot be used, or is locked by another cache
+     */
+    public DiskCache(File directory, long maxSize) throws IOException
+    {
+        this.directory = directory;
+        this.segmentSize = (int) Math.max(1024 * 1024, Math.min(64 * 1024 * 1024, maxSize / 16));
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        lockFile = new RandomAccessFile(new File(directory, "lock"), "rw");
+        FileLock dirLock;
+        try
+        {
+            dirLock = lockFile.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // Locked by another cache in this JVM
+            dirLock = null;
+        }
+        lock = dirLock;
+        if (lock == null)
+        {
+            lockFile.close();
+            throw new IOException("Directory " + directory + " is in use by another cache");
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        long[] ids = Arrays.stream(files != null ? files : new File[0])
+            .mapToLong(file -> getSegmentId(file.getName())).filter(id -> id >= 0).sorted().toArray();
+        for (long id : ids)
+        {
+            Segment segment = openSegment(id);
+            scan(segment);
+            segments.addLast(segment);
+            nextSegmentId = id + 1;
+        }
+        if (segments.isEmpty())
+        {
+            segments.addLast(openSegment(nextSegmentId++));
+        }
+        while (segments.size() > maxSegments)
+        {
+            evictOldest();
+        }
+        if (NucleusLogger.DATASTORE.isDebugEnabled())
+        {
+            NucleusLogger.DATASTORE.debug("Opened disk cache in " + directory + " with " + index.size() + " objects in " + segments.size() + " segments");
+        }
+    }
+
+    /**
+     * Create the disk cache specified by the configuration.
+     * @param conf Configuration
+     * @return The cache, or null if not enabled (or it could not be opened)
+     */
+    public static DiskCache getDiskCache(Configuration conf)
+    {
+        String directory = conf.getStringProperty(PROPERTY_DIRECTORY);
+        if (StringUtils.isWhitespace(directory))
+        {
+            return null;
+        }
+        long maxSize = conf.getIntProperty(PROPERTY_MAX_SIZE) > 0 ? conf.getIntProperty(PROPERTY_MAX_SIZE) : 1024;
+        try
+        {
+            return new DiskCache(new File(directory.trim()), maxSize * 1024 * 1024);
+        }
+        catch (IOException e)
+        {
+            NucleusLogger.DATASTORE.warn("Unable to open disk cache in " + directory + " so it is disabled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Accessor for a cached object.
+     * @param key Key of the object
+     * @return The object, or null if not cached
+     */
+    public CachedObject get(String key)
+    {
+        Entry entry = index.get(key);
+        if (entry == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.referenced = true;
+        byte[] data = new byte[entry.dataLength];
+        ByteBuffer buffer = entry.segment.buffer.duplicate();
+        buffer.position(entry.dataOffset);
+        buffer.get(data);
+        hits.incrementAndGet();
+        return new CachedObject(entry.etag, data);
+    }
+
+    /**
+     * Cache an object, replacing any previous version. Objects larger than a segment are not cached.
+     * @param key Key of the object
+     * @param etag ETag of the object
+     * @param data Contents of the object
+     */
+    public synchronized void put(String key, String etag, byte[] data)
+    {
+        Entry entry = append(key, etag, data, true);
+        if (entry != null)
+        {
+            index.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove an object, for example when it no longer exists.
+     * @param key Key of the object
+     */
+    public synchronized void remove(String key)
+    {
+        if (index.remove(key) != null)
+        {
+            append(key, "", null, true);
+        }
+    }
+
+    public int getNumberOfObjects()
+    {
+        return index.size();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Close the cache, flushing the segments to disk and releasing the directory.
+     */
+    public synchronized void close()
+    {
+        for (Segment segment : segments)
+        {
+            segment.close();
+        }
+        try
+        {
+            lock.release();
+            lockFile.close();
+        }
+        catch (IOException e)
+        {
+            NucleusLogger.DATASTORE.warn("Exception closing disk cache in " + directory, e);
+        }
+    }
+
+    /**
+     * Append a record to the current segment, starting a new segment (and evicting the oldest) if it doesn't fit.
+     * @param key Key of the object
+     * @param etag ETag of the object
+     * @param data Contents of the object, or null for a removal
+     * @param evict Whether the oldest segment can be evicted to make space
+     * @return Entry for the record, or null if not appended (or a removal)
+     */
+    private Entry append(String key, String etag, byte[] data, boolean evict)
+    {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] etagBytes = etag.getBytes(StandardCharsets.UTF_8);
+        int dataLength = data != null ? data.length : -1;
+        int length = HEADER_LENGTH + keyBytes.length + etagBytes.length + Math.max(0, dataLength);
+        if (length > segmentSize)
+        {
+            return null;
+        }
+
+        Segment segment = segments.peekLast();
+        if (segment.writePosition + length > segmentSize)
+        {
+            if (!evict)
+            {
+                return null;
+            }
+            try
+            {
+                segment.buffer.force();
+                segment = openSegment(nextSegmentId++);
+            }
+            catch (IOException e)
+            {
+                NucleusLogger.DATASTORE.warn("Unable to create segment of disk cache in " + directory, e);
+                return null;
+            }
+            segments.addLast(segment);
+            if (segments.size() > maxSegments)
+            {
+                evictOldest();
+                if (segment.writePosition + length > segmentSize)
+                {
+                    // Filled by the objects given a second chance
+                    return null;
+                }
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(etagBytes);
+        if (data != null)
+        {
+            crc.update(data);
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(segment.writePosition);
+        buffer.putInt(0);
+        buffer.putInt(keyBytes.length).putInt(etagBytes.length).putInt(dataLength).putInt((int) crc.getValue());
+        buffer.put(keyBytes).put(etagBytes);
+        int dataOffset = buffer.position();
+        if (data != null)
+        {
+            buffer.put(data);
+        }
+        // Magic is written last so that a partly written record is not valid
+        segment.buffer.duplicate().putInt(segment.writePosition, MAGIC);
+        segment.writePosition += length;
+        return data != null ? new Entry(segment, dataOffset, dataLength, etag) : null;
+    }
+
+    /**
+     * Evict the oldest segment, appending its objects that were read since they were written to the current segment.
+     */
+    private void evictOldest()
+    {
+        Segment oldest = segments.pollFirst();
+        for (Iterator<Map.Entry<String, Entry>> iter = index.entrySet().iterator(); iter.hasNext();)
+        {
+            Map.Entry<String, Entry> mapEntry = iter.next();
+            Entry entry = mapEntry.getValue();
+            if (entry.segment != oldest)
+            {
+                continue;
+            }
+            Entry moved = null;
+            if (entry.referenced)
+            {
+                byte[] data = new byte[entry.dataLength];
+                ByteBuffer buffer = oldest.buffer.duplicate();
+                buffer.position(entry.dataOffset);
+                buffer.get(data);
+                moved = append(mapEntry.getKey(), entry.etag, data, false);
+            }
+            if (moved != null)
+            {
+                mapEntry.setValue(moved);
+            }
+            else
+            {
+                iter.remove();
+            }
+        }
+        oldest.close();
+        if (!oldest.file.delete())
+        {
+            NucleusLogger.DATASTORE.warn("Unable to delete segment " + oldest.file + " of disk cache");
+        }
+    }
+
+    /**
+     * Scan the records of a segment into the index, setting its write position to the end of the last valid record.
+     */
+    private void scan(Segment segment)
+    {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int position = 0;
+        while (position + HEADER_LENGTH <= segmentSize && buffer.getInt(position) == MAGIC)
+        {
+            int keyLength = buffer.getInt(position + 4);
+            int etagLength = buffer.getInt(position + 8);
+            int dataLength = buffer.getInt(position + 12);
+            int crcValue = buffer.getInt(position + 16);
+            if (keyLength < 0 || etagLength < 0 || dataLength < -1 ||
+                (long) position + HEADER_LENGTH + keyLength + etagLength + Math.max(0, dataLength) > segmentSize)
+            {
+                break;
+            }
+
+            byte[] keyBytes = new byte[keyLength];
+            byte[] etagBytes = new byte[etagLength];
+            buffer.position(position + HEADER_LENGTH);
+            buffer.get(keyBytes).get(etagBytes);
+            int dataOffset = buffer.position();
+            CRC32 crc = new CRC32();
+            crc.update(keyBytes);
+            crc.update(etagBytes);
+            if (dataLength > 0)
+            {
+                ByteBuffer data = buffer.slice();
+                data.limit(dataLength);
+                crc.update(data);
+            }
+            if ((int) crc.getValue() != crcValue)
+            {
+                break;
+            }
+
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            if (dataLength < 0)
+            {
+                index.remove(key);
+            }
+            else
+            {
+                index.put(key, new Entry(segment, dataOffset, dataLength, new String(etagBytes, StandardCharsets.UTF_8)));
+            }
+            position = dataOffset + Math.max(0, dataLength);
+        }
+        segment.writePosition = position;
+    }
+
+    private Segment openSegment(long id) throws IOException
+    {
+        File file = new File(directory, SEGMENT_PREFIX + String.format("%012d", id) + SEGMENT_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            // The mapping remains valid once the file is closed
+            return new Segment(file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        }
+    }
+
+    private static long getSegmentId(String fileName)
+    {
+        try
+        {
+            return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * A cached object.
+     */
+    public static class CachedObject
+    {
+        private final String etag;
+
+        private final byte[] data;
+
+        CachedObject(String etag, byte[] data)
+        {
+            this.etag = etag;
+            this.data = data;
+        }
+
+        public String getETag()
+        {
+            return etag;
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+    }
+
+    private static class Segment
+    {
+        final File file;
+
+        final MappedByteBuffer buffer;
+
+        int writePosition;
+
+        Segment(File file, MappedByteBuffer buffer)
+        {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        void close()
+        {
+            buffer.force();
+        }
+    }
+
+    private static class Entry
+    {
+        final Segment segment;
+
+        final int dataOffset;
+
+        final int dataLength;
+
+        final String etag;
+
+        /** Whether the object was read since it was written (the CLOCK reference bit). */
+        volatile boolean referenced;
+
+        Entry(Segment segment, int dataOffset, int dataLength, String etag)
+        {
+            this.segment = segment;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the keys of the objects of a class, built from a listing of the class. A key that the filter does not contain
+ * is known not to exist (as of the listing, plus keys added since), while a key that it might contain needs a request to be sure.
+ * The filter is sized for a false positive rate of 1% at the number of keys it was built with, and is safe for concurrent use.
+ */
+public class KeyBloomFilter
+{
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final AtomicLongArray bits;
+
+    private final int numBits;
+
+    private final int numHashes;
+
+    /** Time (millis) at which the listing that the filter was built from was made. */
+    private final long createdAt;
+
+    /**
+     * Constructor for a filter of the specified keys.
+     * @param keys The keys
+     * @param createdAt Time (millis) of the listing of the keys
+     */
+    public KeyBloomFilter(Collection<String> keys, long createdAt)
+    {
+        int expected = Math.max(keys.size(), 64);
+        long m = (long) Math.ceil(-expected * Math.log(FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+        this.numBits = (int) Math.min(Integer.MAX_VALUE - 63, m);
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expected * Math.log(2)));
+        this.bits = new AtomicLongArray((numBits + 63) / 64);
+        this.createdAt = createdAt;
+        for (String key : keys)
+        {
+            add(key);
+        }
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    /**
+     * Add a key, for example of an object inserted since the listing.
+     * @param key The key
+     */
+    public void add(String key)
+    {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++)
+        {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            long mask = 1L << bit;
+            int word = bit >>> 6;
+            long current;
+            do
+            {
+                current = bits.get(word);
+            }
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * Whether the key might be in the filter.
+     * @param key The key
+     * @return false if the key is definitely not in the filter
+     */
+    public boolean mightContain(String key)
+    {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++)
+        {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UTF-8 bytes of the key, with a final mix so that both halves are well distributed.
+     */
+    private static long hash(String key)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8))
+        {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,118 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.Configuration;
+
+/**
+ * Cache of the keys of objects recently found not to exist (404), so that repeated lookups of them fail without a request.
+ * Entries expire after a short TTL, since another client can create the object, and are removed when the object is inserted locally.
+ * The least recently recorded entries are evicted beyond the maximum number of entries.
+ */
+public class NegativeCache
+{
+    /** Time (millis) for which a key that was not found is assumed to still not exist. The cache is disabled unless this is specified. */
+    public static final String PROPERTY_TTL = "datanucleus.json.negativecache.ttl";
+
+    /** Maximum number of keys in the cache (default 10000). */
+    public static final String PROPERTY_MAX_ENTRIES = "datanucleus.json.negativecache.maxentries";
+
+    private final long ttlNanos;
+
+    /** Expiry time (nanos) of each key, in order of recording. */
+    private final Map<String, Long> expiries;
+
+    public NegativeCache(long ttlMillis, int maxEntries)
+    {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.expiries = new LinkedHashMap<String, Long>()
+        {
+            private static final long serialVersionUID = 4370941264518276103L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+            {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Create the negative cache specified by the configuration.
+     * @param conf Configuration
+     * @return The cache, or null if not enabled
+     */
+    public static NegativeCache getNegativeCache(Configuration conf)
+    {
+        int ttl = conf.getIntProperty(PROPERTY_TTL);
+        if (ttl <= 0)
+        {
+            return null;
+        }
+        int maxEntries = conf.getIntProperty(PROPERTY_MAX_ENTRIES);
+        return new NegativeCache(ttl, maxEntries > 0 ? maxEntries : 10000);
+    }
+
+    /**
+     * Whether the key was recently found not to exist.
+     * @param key The key
+     * @return Whether it is known not to exist
+     */
+    public synchronized boolean isAbsent(String key)
+    {
+        Long expiry = expiries.get(key);
+        if (expiry == null)
+        {
+            return false;
+        }
+        if (System.nanoTime() - expiry >= 0)
+        {
+            expiries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record that the key was found not to exist.
+     * @param key The key
+     */
+    public synchronized void recordAbsent(String key)
+    {
+        // Re-inserted so that it is the most recent
+        expiries.remove(key);
+        expiries.put(key, System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * Remove the key, since the object now exists.
+     * @param key The key
+     */
+    public synchronized void invalidate(String key)
+    {
+        expiries.remove(key);
+    }
+
+    public synchronized int size()
+    {
+        return expiries.size();
+    }
+}
@@ -0,0 +1,299 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
+
+import org.datanucleus.Configuration;
+
+/**
+ * Cache of serialized documents in direct (off-heap) memory, keyed by URL, so that a large working set does not add to the GC heap.
+ * Only the index is on the heap.
+ * <p>
+ * Documents are appended to a ring of fixed-size slabs. When the current slab is full the next one is recycled, evicting all of its
+ * documents, so the oldest documents are evicted first. Reads copy a document out of its slab optimistically, and are retried under
+ * a read lock if its slab was recycled meanwhile.
+ * <p>
+ * Like the L2 cache, documents are not validated against the datastore. They are invalidated by writes of this store, and expire
+ * after the TTL if one is specified. The direct memory limit of the JVM (-XX:MaxDirectMemorySize) must allow for the maximum size.
+ */
+public class OffHeapCache
+{
+    /** Maximum size (MB) of the cache. The cache is disabled unless this is specified. */
+    public static final String PROPERTY_MAX_SIZE = "datanucleus.json.offheapcache.maxsize";
+
+    /** Time (millis) after which a cached document expires (default 0, no expiry). */
+    public static final String PROPERTY_TTL = "datanucleus.json.offheapcache.ttl";
+
+    private static final int NUM_STAMPS = 64;
+
+    private final Slab[] slabs;
+
+    private final int slabSize;
+
+    private final long ttlNanos;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+    /** Lock for recycling slabs, validating optimistic reads. */
+    private final StampedLock recycleLock = new StampedLock();
+
+    /** Count of invalidations of each stripe of keys, so that a document read before an invalidation is not cached after it. */
+    private final AtomicLongArray stamps = new AtomicLongArray(NUM_STAMPS);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private int currentSlab;
+
+    /**
+     * Constructor.
+     * @param maxSize Maximum size (bytes) of all slabs
+     * @param ttlMillis Time after which a document expires, or 0 for no expiry
+     */
+    public OffHeapCache(long maxSize, long ttlMillis)
+    {
+        this.slabSize = (int) Math.max(1024 * 1024, Math.min(1024 * 1024 * 1024, maxSize / 16));
+        this.slabs = new Slab[(int) Math.max(2, maxSize / slabSize)];
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        // Slabs other than the first are allocated when first used
+        slabs[0] = new Slab(ByteBuffer.allocateDirect(slabSize));
+    }
+
+    /**
+     * Create the off-heap cache specified by the configuration.
+     * @param conf Configuration
+     * @return The cache, or null if not enabled
+     */
+    public static OffHeapCache getOffHeapCache(Configuration conf)
+    {
+        int maxSize = conf.getIntProperty(PROPERTY_MAX_SIZE);
+        if (maxSize <= 0)
+        {
+            return null;
+        }
+        return new OffHeapCache(maxSize * 1024L * 1024L, Math.max(0, conf.getIntProperty(PROPERTY_TTL)));
+    }
+
+    /**
+     * Accessor for the stamp of a key, to take before reading the document so that it can be cached afterwards.
+     * @param key The key
+     * @return The stamp
+     */
+    public long getStamp(String key)
+    {
+        return stamps.get(getStripe(key));
+    }
+
+    /**
+     * Accessor for a cached document.
+     * @param key The key
+     * @return The document, or null if not cached
+     */
+    public byte[] get(String key)
+    {
+        Entry entry = index.get(key);
+        if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.expiresAt >= 0)
+        {
+            index.remove(key, entry);
+            entry = null;
+        }
+        if (entry == null)
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        byte[] data = new byte[entry.length];
+        long lockStamp = recycleLock.tryOptimisticRead();
+        boolean valid = copy(entry, data);
+        if (!recycleLock.validate(lockStamp))
+        {
+            lockStamp = recycleLock.readLock();
+            try
+            {
+                valid = copy(entry, data);
+            }
+            finally
+            {
+                recycleLock.unlockRead(lockStamp);
+            }
+        }
+        if (!valid)
+        {
+            index.remove(key, entry);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return data;
+    }
+
+    private static boolean copy(Entry entry, byte[] data)
+    {
+        if (entry.slab.generation != entry.slabGeneration)
+        {
+            return false;
+        }
+        ByteBuffer buffer = entry.slab.buffer.duplicate();
+        buffer.position(entry.offset);
+        buffer.get(data);
+        return true;
+    }
+
+    /**
+     * Cache a document, unless the key was invalidated since the stamp was taken. Documents larger than a slab are not cached.
+     * @param key The key
+     * @param data The document
+     * @param stamp Stamp of the key, from before the document was read
+     */
+    public synchronized void put(String key, byte[] data, long stamp)
+    {
+        if (data.length > slabSize || stamps.get(getStripe(key)) != stamp)
+        {
+            return;
+        }
+
+        Slab slab = slabs[currentSlab];
+        if (slab.writePosition + data.length > slabSize)
+        {
+            currentSlab = (currentSlab + 1) % slabs.length;
+            slab = recycle(currentSlab);
+        }
+        ByteBuffer buffer = slab.buffer.duplicate();
+        buffer.position(slab.writePosition);
+        buffer.put(data);
+        Entry entry = new Entry(slab, slab.generation, slab.writePosition, data.length, System.nanoTime() + ttlNanos);
+        slab.writePosition += data.length;
+        index.put(key, entry);
+
+        if (stamps.get(getStripe(key)) != stamp)
+        {
+            // Invalidated while being added
+            index.remove(key, entry);
+        }
+    }
+
+    /**
+     * Invalidate the document of a key, for example when it is written.
+     * @param key The key
+     */
+    public void invalidate(String key)
+    {
+        stamps.incrementAndGet(getStripe(key));
+        index.remove(key);
+    }
+
+    public int getNumberOfDocuments()
+    {
+        return index.size();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Recycle a slab for appending to, evicting its documents.
+     */
+    private Slab recycle(int slabIndex)
+    {
+        Slab slab = slabs[slabIndex];
+        if (slab == null)
+        {
+            slab = new Slab(ByteBuffer.allocateDirect(slabSize));
+            slabs[slabIndex] = slab;
+            return slab;
+        }
+
+        long lockStamp = recycleLock.writeLock();
+        try
+        {
+            slab.generation++;
+            slab.writePosition = 0;
+        }
+        finally
+        {
+            recycleLock.unlockWrite(lockStamp);
+        }
+        for (Iterator<Entry> iter = index.values().iterator(); iter.hasNext();)
+        {
+            if (iter.next().slab == slab)
+            {
+                iter.remove();
+            }
+        }
+        return slab;
+    }
+
+    private static int getStripe(String key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % NUM_STAMPS;
+    }
+
+    private static class Slab
+    {
+        final ByteBuffer buffer;
+
+        /** Number of times the slab was recycled, so that entries for its previous documents are detected. */
+        volatile int generation;
+
+        int writePosition;
+
+        Slab(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Entry
+    {
+        final Slab slab;
+
+        final int slabGeneration;
+
+        final int offset;
+
+        final int length;
+
+        final long expiresAt;
+
+        Entry(Slab slab, int slabGeneration, int offset, int length, long expiresAt)
+        {
+            this.slab = slab;
+            this.slabGeneration = slabGeneration;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.resilience.DeadlineExceededException;
+
+/**
+ * Coalesces concurrent loads of the same key, so that callers arriving while a load is in flight share its result rather than each
+ * making their own request. Nothing is cached once the load completes.
+ * <p>
+ * A load only has callers joined to it until a write of its key completes (see {@link #invalidate(String)}), so a caller never
+ * shares a load that was started before one of its own writes.
+ * @param <T> Type of the result of a load
+ */
+public class SingleFlight<T>
+{
+    private final Map<String, CompletableFuture<T>> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Load the value for the key, joining the load in flight for the key if there is one.
+     * The loader runs on the calling thread, and its exception is thrown to all callers of the load.
+     * @param key The key
+     * @param loader Loader of the value
+     * @return The value
+     * @throws DeadlineExceededException if the deadline of this thread expires while waiting for the load of another thread
+     */
+    public T load(String key, Supplier<T> loader)
+    {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> joined = flights.putIfAbsent(key, flight);
+        if (joined != null)
+        {
+            coalesced.incrementAndGet();
+            return await(key, joined);
+        }
+
+        try
+        {
+            T value = loader.get();
+            flight.complete(value);
+            return value;
+        }
+        catch (RuntimeException | Error e)
+        {
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        finally
+        {
+            flights.remove(key, flight);
+        }
+    }
+
+    private T await(String key, CompletableFuture<T> flight)
+    {
+        Deadline deadline = Deadline.getCurrent();
+        try
+        {
+            return deadline != null ? flight.get(Math.max(1, deadline.getRemainingMillis()), TimeUnit.MILLISECONDS) : flight.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+        catch (TimeoutException e)
+        {
+            throw new DeadlineExceededException("Deadline expired waiting for load of " + key + " by another thread");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new NucleusDataStoreException("Interrupted waiting for load of " + key + " by another thread", e);
+        }
+    }
+
+    /**
+     * Invalidate the load of the key in flight so that no more callers join it, since a write of the key has completed.
+     * @param key The key
+     */
+    public void invalidate(String key)
+    {
+        flights.remove(key);
+    }
+
+    /**
+     * Accessor for the number of loads that joined a load in flight rather than loading.
+     * @return The number
+     */
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+}
@@ -49,9 +49,11 @@ import org.datanucleus.store.StoreManager;
 import org.datanucleus.store.fieldmanager.AbstractFetchFieldManager;
 import org.datanucleus.store.fieldmanager.FieldManager;
 import org.datanucleus.store.json.CloudStorageUtils;
+import org.datanucleus.store.json.JsonPersistenceHandler;
 import org.datanucleus.store.json.orgjson.JSONArray;
 import org.datanucleus.store.json.orgjson.JSONException;
 import org.datanucleus.store.json.orgjson.JSONObject;
+import org.datanucleus.store.json.tracing.Span;
 import org.datanucleus.store.query.QueryUtils;
 import org.datanucleus.store.schema.table.MemberColumnMapping;
 import org.datanucleus.store.schema.table.Table;
@@ -279,6 +281,13 @@ public class FetchFieldManager extends AbstractFetchFieldManager
             }
         }
 
+        Span span = null;
+        if (relationType != RelationType.NONE && storeMgr.getPersistenceHandler() instanceof JsonPersistenceHandler)
+        {
+            // Trace resolution of the related object(s)
+            span = ((JsonPersistenceHandler)storeMgr.getPersistenceHandler()).getTracer().startSpan("json.resolveRelation");
+            span.setAttribute("dn.member", mmd.getFullFieldName());
+        }
         try
         {
             return fetchObjectFieldInternal(mmd, clr, relationType);
@@ -287,6 +296,13 @@ public class FetchFieldManager extends AbstractFetchFieldManager
         {
             throw new NucleusException(e.getMessage(), e);
         }
+        finally
+        {
+            if (span != null)
+            {
+                span.end();
+            }
+        }
     }
 
     protected Object fetchObjectFieldEmbedded(AbstractMemberMetaData mmd, ClassLoaderResolver clr, RelationType relationType)
@@ -17,11 +17,47 @@ Contributors:
 **********************************************************************/
 package org.datanucleus.store.json.googlestorage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.PropertyNames;
+import org.datanucleus.exceptions.NucleusDataStoreException;
+import org.datanucleus.exceptions.NucleusException;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.state.DNStateManager;
 import org.datanucleus.store.StoreManager;
+import org.datanucleus.store.connection.ManagedConnection;
 import org.datanucleus.store.json.CloudStoragePersistenceHandler;
+import org.datanucleus.store.json.ConnectionFactoryImpl;
+import org.datanucleus.store.json.DuplicateKeyException;
+import org.datanucleus.store.json.HttpErrorException;
+import org.datanucleus.store.json.HttpResponse;
+import org.datanucleus.store.json.SecondaryIndex;
+import org.datanucleus.store.json.metrics.OperationType;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.tracing.Span;
+import org.datanucleus.util.NucleusLogger;
 
+/**
+ * Persistence handler for GoogleStorage. Batched inserts, deletes and locates (from flush, and validation of related objects)
+ * are sent as concurrent requests, up to 100 at a time, since the batch endpoint of the JSON API is not available with HMAC
+ * authentication of the XML API.
+ */
 public class GoogleStoragePersistenceHandler extends CloudStoragePersistenceHandler
 {
+    /** Maximum number of requests of a batch in flight at once. */
+    private static final int MAX_BATCH_SIZE = 100;
+
     GoogleStoragePersistenceHandler(StoreManager storeMgr)
     {
         super(storeMgr);
@@ -31,4 +67,288 @@ public class GoogleStoragePersistenceHandler extends CloudStoragePersistenceHand
     {
         return "GOOG1";
     }
+
+    protected String getMetadataHeaderPrefix()
+    {
+        return "x-goog-meta-";
+    }
+
+    /**
+     * The GoogleStorage XML API has no "If-None-Match" on writes, but creates only when the generation of the existing object is 0.
+     * @param options Options of the request
+     */
+    protected void addCreateOnlyOptions(Map<String, String> options)
+    {
+        options.put("x-goog-if-generation-match", "0");
+    }
+
+    /**
+     * The GoogleStorage XML API has no "If-Match" on writes, but replaces only when the generation of the existing object matches.
+     * @param options Options of the request
+     * @param entityTag Generation of the object
+     */
+    protected void addIfMatchOptions(Map<String, String> options, String entityTag)
+    {
+        options.put("x-goog-if-generation-match", entityTag);
+    }
+
+    /**
+     * The generation of an object identifies its content, being changed by every write.
+     * @param response The response
+     * @return The generation, or null if not present
+     */
+    protected String getEntityTag(HttpResponse response)
+    {
+        return response.getHeaderField("x-goog-generation");
+    }
+
+    public void insertObjects(DNStateManager... sms)
+    {
+        if (sms.length == 1)
+        {
+            insertObject(sms[0]);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        Span span = startSpan("json.insertBatch", sms[0].getClassMetaData().getFullClassName());
+        span.setAttribute("dn.batch.size", sms.length);
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
+        try
+        {
+            for (DNStateManager sm : sms)
+            {
+                // Check if read-only so update not permitted
+                assertReadOnlyForUpdateOfObject(sm);
+
+                AbstractClassMetaData cmd = sm.getClassMetaData();
+                if (!storeMgr.managesClass(cmd.getFullClassName()))
+                {
+                    // Make sure schema exists, using this connection
+                    storeMgr.manageClasses(ec.getClassLoaderResolver(), new String[] {cmd.getFullClassName()});
+                }
+            }
+
+            Map<String, String> options = new HashMap<String, String>();
+            options.put(ConnectionFactoryImpl.STORE_JSON_URL, "/");
+            ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+            try
+            {
+                createBucket(mconn, getHeaderForBucket());
+            }
+            finally
+            {
+                mconn.release();
+            }
+
+            // Add the index entries before the objects, so a failure leaves entries without an object rather than an object missing from an index
+            List<String> entries = new ArrayList<>();
+            for (DNStateManager sm : sms)
+            {
+                entries.addAll(getIndexEntries(sm, SecondaryIndex.getIndexedMembers(sm.getClassMetaData())));
+            }
+            writeIndexEntries(ec, sms[0].getClassMetaData().getFullClassName(), entries, "PUT");
+            recordManifestKeys(ec, sms, Collections.emptyList(), true);
+
+            List<Throwable> failures = executeForObjects(ec, OperationType.INSERT, "PUT", sms, null);
+            Set<Object> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Throwable failure : failures)
+            {
+                if (failure instanceof NucleusException && HttpErrorException.isRejected(failure))
+                {
+                    rejected.add(((NucleusException) failure).getFailedObject());
+                }
+            }
+            List<DNStateManager> notInserted = new ArrayList<>();
+            for (DNStateManager sm : sms)
+            {
+                if (!rejected.contains(sm.getObject()))
+                {
+                    // A failed insert may still have created the object (e.g an IO error after it was stored)
+                    recordPresent(sm, getURLPath(sm));
+                }
+                else
+                {
+                    notInserted.add(sm);
+                }
+            }
+            if (!notInserted.isEmpty())
+            {
+                retractManifestKeys(ec, notInserted.toArray(new DNStateManager[notInserted.size()]));
+            }
+            throwFailures("insert", failures, sms.length);
+        }
+        finally
+        {
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    public void deleteObjects(DNStateManager... sms)
+    {
+        if (sms.length == 1)
+        {
+            deleteObject(sms[0]);
+            return;
+        }
+
+        ExecutionContext ec = sms[0].getExecutionContext();
+        Span span = startSpan("json.deleteBatch", sms[0].getClassMetaData().getFullClassName());
+        span.setAttribute("dn.batch.size", sms.length);
+        Deadline deadline = Deadline.enter(ec.getIntProperty(PropertyNames.PROPERTY_DATASTORE_WRITE_TIMEOUT));
+        try
+        {
+            for (DNStateManager sm : sms)
+            {
+                // Check if read-only so update not permitted
+                assertReadOnlyForUpdateOfObject(sm);
+            }
+
+            List<String> entries = getStoredIndexEntries(sms);
+            Collection<DNStateManager> deleted = new ConcurrentLinkedQueue<>();
+            List<Throwable> failures = executeForObjects(ec, OperationType.DELETE, "DELETE", sms, deleted);
+            if (ec.getStatistics() != null)
+            {
+                for (int i = 0; i < sms.length; i++)
+                {
+                    ec.getStatistics().incrementNumWrites();
+                    ec.getStatistics().incrementDeleteCount();
+                }
+            }
+            recordManifestKeys(ec, deleted.toArray(new DNStateManager[deleted.size()]), Collections.emptyList(), false);
+
+            // Remove the index entries of the objects that were deleted, keeping those of objects that are still stored
+            if (deleted.size() < sms.length)
+            {
+                Set<DNStateManager> notDeleted = Collections.newSetFromMap(new IdentityHashMap<>());
+                notDeleted.addAll(Arrays.asList(sms));
+                notDeleted.removeAll(deleted);
+                entries.removeIf(entry -> notDeleted.stream().anyMatch(sm -> isIndexEntryOf(entry, sm)));
+            }
+            try
+            {
+                writeIndexEntries(ec, sms[0].getClassMetaData().getFullClassName(), entries, "DELETE");
+            }
+            catch (NucleusDataStoreException e)
+            {
+                if (failures.isEmpty())
+                {
+                    throw e;
+                }
+                // Report the objects that were not deleted in preference to entries left without an object
+                NucleusLogger.DATASTORE_PERSIST.warn(e.getMessage(), e);
+            }
+            throwFailures("delete", failures, sms.length);
+        }
+        finally
+        {
+            span.end();
+            deadline.exit();
+        }
+    }
+
+    /**
+     * Accessor for whether the key of an index entry is for the specified object.
+     * @param entry Key of the index entry, "{indexPath}{value}/{pk}"
+     * @param sm StateManager of the object
+     * @return Whether it is an entry of the object
+     */
+    private boolean isIndexEntryOf(String entry, DNStateManager sm)
+    {
+        String classIndexPath = SecondaryIndex.INDEX_PREFIX + getURLPath(sm.getClassMetaData());
+        if (!entry.startsWith(classIndexPath))
+        {
+            return false;
+        }
+        // Neither the member name nor the encoded value contain "/", so the PK follows the second "/"
+        int memberEnd = entry.indexOf('/', classIndexPath.length());
+        int valueEnd = memberEnd >= 0 ? entry.indexOf('/', memberEnd + 1) : -1;
+        return valueEnd >= 0 && entry.substring(valueEnd + 1).equals(getPrimaryKeyString(sm));
+    }
+
+    /**
+     * Convenience method to send a request for each of the objects, concurrently. PUT requests send the JSON document of the object.
+     * Connections and headers are obtained on this thread, and only the requests are made on the request executor.
+     * @param ec ExecutionContext
+     * @param op Type of operation
+     * @param method HTTP verb
+     * @param sms StateManagers of the objects
+     * @param succeeded Collection (safe for concurrent use) to add the StateManager of each object whose request succeeded to (or null)
+     * @return Exceptions for the objects that failed, each with the object that it is for
+     */
+    protected List<Throwable> executeForObjects(ExecutionContext ec, OperationType op, String method, DNStateManager[] sms, Collection<DNStateManager> succeeded)
+    {
+        List<ManagedConnection> mconns = new ArrayList<>(sms.length);
+        try
+        {
+            List<Runnable> requests = new ArrayList<>(sms.length);
+            for (DNStateManager sm : sms)
+            {
+                AbstractClassMetaData cmd = sm.getClassMetaData();
+                String urlPath = getURLPath(sm);
+                Object failedObject = sm.getObject();
+                Map<String, String> options = new HashMap<String, String>();
+                options.put(ConnectionFactoryImpl.STORE_JSON_URL, urlPath);
+                String jsonString = null;
+                if ("PUT".equals(method))
+                {
+                    options.put("Content-Type", "application/json");
+                    jsonString = getJSONForObject(sm, storeMgr.getStoreDataForClass(cmd.getFullClassName()).getTable());
+                    addObjectOptions(sm, options);
+                    if (op == OperationType.INSERT && conditionalCreate)
+                    {
+                        addCreateOnlyOptions(options);
+                    }
+                }
+                ManagedConnection mconn = storeMgr.getConnectionManager().getConnection(ec, options);
+                mconns.add(mconn);
+                Map<String, String> headers = getHeaders(method, options);
+                String requestBody = jsonString;
+                requests.add(() ->
+                {
+                    try
+                    {
+                        if (requestBody != null)
+                        {
+                            write(op, cmd, mconn, method, requestBody, headers);
+                        }
+                        else
+                        {
+                            HttpResponse response = execute(op, cmd.getFullClassName(), mconn, method, headers, null);
+                            if (response.getCode() == 404)
+                            {
+                                throw new NucleusObjectNotFoundException("Object with key " + urlPath + " not found", failedObject);
+                            }
+                            handleHTTPErrorCode(response);
+                        }
+                        if (succeeded != null)
+                        {
+                            succeeded.add(sm);
+                        }
+                    }
+                    catch (NucleusObjectNotFoundException e)
+                    {
+                        throw e;
+                    }
+                    catch (DuplicateKeyException e)
+                    {
+                        throw new DuplicateKeyException(e.getMessage(), failedObject);
+                    }
+                    catch (NucleusException e)
+                    {
+                        throw new NucleusDataStoreException(e.getMessage(), e, failedObject);
+                    }
+                });
+            }
+            return executeConcurrently(requests, MAX_BATCH_SIZE);
+        }
+        finally
+        {
+            for (ManagedConnection mconn : mconns)
+            {
+                mconn.release();
+            }
+        }
+    }
 }
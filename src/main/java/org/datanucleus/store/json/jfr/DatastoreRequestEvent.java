@@ -0,0 +1,91 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a round trip to the datastore. The duration of the event spans from the start of the request
+ * until the response body has been read.
+ */
+@Name("org.datanucleus.json.DatastoreRequest")
+@Label("Datastore Request")
+@Category({"DataNucleus", "JSON"})
+@Description("HTTP request made to a JSON datastore")
+@StackTrace(false)
+public class DatastoreRequestEvent extends Event
+{
+    @Label("Method")
+    public String method;
+
+    @Label("URL Template")
+    @Description("URL of the request, with the object identity replaced by {id}")
+    public String urlTemplate;
+
+    @Label("Class")
+    public String className;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Status")
+    @Description("HTTP status code, or -1 if the request failed without a response")
+    public int status;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    public long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    public long bytesReceived;
+
+    @Label("Time To First Byte")
+    @Timespan(Timespan.NANOSECONDS)
+    public long timeToFirstByte;
+
+    /**
+     * Convenience method to form the URL template for a request, replacing the object identity (last path component)
+     * of object-level requests by "{id}".
+     * @param url The URL of the request
+     * @param objectLevel Whether the request is for a single object
+     * @return The URL template
+     */
+    public static String getURLTemplate(String url, boolean objectLevel)
+    {
+        if (!objectLevel || url == null)
+        {
+            return url;
+        }
+        int queryStart = url.indexOf('?');
+        String path = queryStart >= 0 ? url.substring(0, queryStart) : url;
+        int sep = path.lastIndexOf('/');
+        if (sep < 0 || sep == path.length() - 1)
+        {
+            return url;
+        }
+        return path.substring(0, sep + 1) + "{id}" + (queryStart >= 0 ? url.substring(queryStart) : "");
+    }
+}
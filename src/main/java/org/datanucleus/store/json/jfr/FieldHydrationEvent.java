@@ -0,0 +1,63 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for the hydration of the fields of persistable objects from JSON documents retrieved from the datastore.
+ */
+@Name("org.datanucleus.json.FieldHydration")
+@Label("Field Hydration")
+@Category({"DataNucleus", "JSON"})
+@Description("Population of object fields from JSON documents (including resolution of related objects)")
+@StackTrace(false)
+public class FieldHydrationEvent extends Event
+{
+    @Label("Class")
+    public String className;
+
+    @Label("Objects")
+    public int objectCount;
+
+    @Label("Fields")
+    @Description("Number of fields populated per object")
+    public int fieldCount;
+
+    /**
+     * Commit the event if it is enabled and within any threshold.
+     * @param className Name of the class
+     * @param objectCount Number of objects hydrated
+     * @param fieldCount Number of fields populated per object
+     */
+    public void commit(String className, int objectCount, int fieldCount)
+    {
+        if (shouldCommit())
+        {
+            this.className = className;
+            this.objectCount = objectCount;
+            this.fieldCount = fieldCount;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for the serialisation of an object to a JSON document to send to the datastore.
+ */
+@Name("org.datanucleus.json.JsonSerialize")
+@Label("JSON Serialize")
+@Category({"DataNucleus", "JSON"})
+@Description("Serialisation of an object to a JSON document to send to the datastore")
+@StackTrace(false)
+public class JsonSerializeEvent extends Event
+{
+    @Label("Class")
+    public String className;
+
+    @Label("Bytes Serialized")
+    @DataAmount
+    public long bytes;
+
+    /**
+     * Commit the event if it is enabled and within any threshold.
+     * @param className Name of the class
+     * @param bytes Size of the document
+     */
+    public void commit(String className, long bytes)
+    {
+        if (shouldCommit())
+        {
+            this.className = className;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
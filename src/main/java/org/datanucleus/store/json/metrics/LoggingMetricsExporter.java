@@ -0,0 +1,83 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * MetricsExporter that periodically logs all metrics to the DataNucleus.Datastore log category at INFO level.
+ * The interval (in seconds) is set using the persistence property "datanucleus.json.metrics.logInterval" (default 60).
+ */
+public class LoggingMetricsExporter implements MetricsExporter
+{
+    public static final String PROPERTY_LOG_INTERVAL = "datanucleus.json.metrics.loginterval";
+
+    private ScheduledExecutorService scheduler;
+
+    private MetricsRegistry registry;
+
+    public void start(MetricsRegistry registry, Configuration conf)
+    {
+        this.registry = registry;
+        int interval = conf.getIntProperty(PROPERTY_LOG_INTERVAL);
+        if (interval <= 0)
+        {
+            interval = 60;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "DataNucleus-JSON-MetricsLogger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::log, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        log();
+    }
+
+    protected void log()
+    {
+        if (!NucleusLogger.DATASTORE.isInfoEnabled())
+        {
+            return;
+        }
+        for (OperationMetrics metrics : registry.getOperationMetrics())
+        {
+            NucleusLogger.DATASTORE.info(metrics.toString());
+        }
+        for (Map.Entry<String, Long> gauge : registry.getGauges().entrySet())
+        {
+            NucleusLogger.DATASTORE.info("Gauge " + gauge.getKey() + "=" + gauge.getValue());
+        }
+    }
+}
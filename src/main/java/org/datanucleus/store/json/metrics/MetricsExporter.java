@@ -0,0 +1,41 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+import org.datanucleus.Configuration;
+
+/**
+ * SPI for exporting the metrics of a JSON store to a monitoring system.
+ * Implementations are specified by class name using the persistence property "datanucleus.json.metrics.exporter"
+ * (comma-separated for multiple), and must have a default constructor. An exporter can either poll the registry
+ * (e.g on a scrape, or on a timer), or read it when stopped.
+ */
+public interface MetricsExporter
+{
+    /**
+     * Start exporting the metrics of the specified registry.
+     * @param registry The registry
+     * @param conf Configuration of the persistence unit, for any exporter-specific properties
+     */
+    void start(MetricsRegistry registry, Configuration conf);
+
+    /**
+     * Stop exporting, releasing any resources. Called when the store manager is closed.
+     */
+    void stop();
+}
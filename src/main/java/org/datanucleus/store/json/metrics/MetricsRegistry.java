@@ -0,0 +1,224 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Registry of the metrics for a JSON store. Holds the OperationMetrics for each class and operation type,
+ * together with any gauges (pool sizes, cache sizes etc) registered by components of the store.
+ * The metrics can be registered with the platform MBeanServer, and exported using MetricsExporter plugins.
+ * <p>
+ * Looking up the metrics for a class/operation is a single map lookup (after the first request for that class),
+ * so recording can remain enabled in production.
+ */
+public class MetricsRegistry implements MetricsRegistryMBean
+{
+    /** Name under which metrics are recorded for requests that are not for a particular class (e.g bucket creation). */
+    public static final String NO_CLASS = "-";
+
+    private static final OperationType[] OPERATION_TYPES = OperationType.values();
+
+    private final Map<String, OperationMetrics[]> metricsByClass = new ConcurrentHashMap<>();
+
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    private final List<ObjectName> mbeanNames = new CopyOnWriteArrayList<>();
+
+    private String jmxName;
+
+    /**
+     * Accessor for the metrics of the specified class and operation type.
+     * @param className Name of the class (or null when not for a class)
+     * @param op The operation type
+     * @return The metrics
+     */
+    public OperationMetrics getOperationMetrics(String className, OperationType op)
+    {
+        String key = className != null ? className : NO_CLASS;
+        OperationMetrics[] metrics = metricsByClass.get(key);
+        if (metrics == null)
+        {
+            metrics = metricsByClass.computeIfAbsent(key, this::createMetrics);
+        }
+        return metrics[op.ordinal()];
+    }
+
+    private OperationMetrics[] createMetrics(String className)
+    {
+        OperationMetrics[] metrics = new OperationMetrics[OPERATION_TYPES.length];
+        for (int i = 0; i < OPERATION_TYPES.length; i++)
+        {
+            metrics[i] = new OperationMetrics(className, OPERATION_TYPES[i]);
+            if (jmxName != null)
+            {
+                registerMBean(metrics[i], "org.datanucleus.store.json:type=OperationMetrics,name=" + ObjectName.quote(jmxName) +
+                    ",class=" + ObjectName.quote(className) + ",operation=" + OPERATION_TYPES[i].name());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Accessor for all metrics that have recorded at least one request.
+     * @return The metrics
+     */
+    public Collection<OperationMetrics> getOperationMetrics()
+    {
+        List<OperationMetrics> result = new ArrayList<>();
+        for (OperationMetrics[] metrics : metricsByClass.values())
+        {
+            for (OperationMetrics opMetrics : metrics)
+            {
+                if (opMetrics.getCount() > 0)
+                {
+                    result.add(opMetrics);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Register a gauge, replacing any existing gauge with the same name.
+     * @param name Name of the gauge, e.g "requests.inflight"
+     * @param gauge Supplier of the current value
+     */
+    public void registerGauge(String name, LongSupplier gauge)
+    {
+        gauges.put(name, gauge);
+    }
+
+    public void unregisterGauge(String name)
+    {
+        gauges.remove(name);
+    }
+
+    public String[] getClassNames()
+    {
+        return metricsByClass.keySet().toArray(new String[0]);
+    }
+
+    public Map<String, Long> getGauges()
+    {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet())
+        {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Register this registry (and all OperationMetrics, as they are created) with the platform MBeanServer.
+     * @param name Name to identify the store in the ObjectNames
+     */
+    public void registerWithJmx(String name)
+    {
+        this.jmxName = name;
+        registerMBean(this, "org.datanucleus.store.json:type=MetricsRegistry,name=" + ObjectName.quote(name));
+        for (OperationMetrics[] metrics : metricsByClass.values())
+        {
+            for (OperationMetrics opMetrics : metrics)
+            {
+                registerMBean(opMetrics, "org.datanucleus.store.json:type=OperationMetrics,name=" + ObjectName.quote(name) +
+                    ",class=" + ObjectName.quote(opMetrics.getClassName()) + ",operation=" + opMetrics.getOperation());
+            }
+        }
+    }
+
+    private void registerMBean(Object mbean, String objectName)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName oname = new ObjectName(objectName);
+            server.registerMBean(mbean, oname);
+            mbeanNames.add(oname);
+        }
+        catch (JMException e)
+        {
+            NucleusLogger.DATASTORE.warn("Unable to register metrics MBean " + objectName, e);
+        }
+    }
+
+    /**
+     * Start the specified exporter on this registry.
+     * @param exporter The exporter
+     * @param conf Configuration of the persistence unit
+     */
+    public void addExporter(MetricsExporter exporter, Configuration conf)
+    {
+        exporter.start(this, conf);
+        exporters.add(exporter);
+    }
+
+    /**
+     * Stop all exporters and unregister all MBeans.
+     */
+    public void close()
+    {
+        for (MetricsExporter exporter : exporters)
+        {
+            try
+            {
+                exporter.stop();
+            }
+            catch (RuntimeException e)
+            {
+                NucleusLogger.DATASTORE.warn("Exception stopping metrics exporter " + exporter, e);
+            }
+        }
+        exporters.clear();
+
+        if (!mbeanNames.isEmpty())
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName oname : mbeanNames)
+            {
+                try
+                {
+                    server.unregisterMBean(oname);
+                }
+                catch (JMException e)
+                {
+                    // Already unregistered
+                }
+            }
+            mbeanNames.clear();
+        }
+        jmxName = null;
+    }
+}
@@ -0,0 +1,38 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics registry for a store.
+ */
+public interface MetricsRegistryMBean
+{
+    /**
+     * Accessor for the names of the classes that metrics have been recorded for.
+     * @return The class names
+     */
+    String[] getClassNames();
+
+    /**
+     * Accessor for the current values of all registered gauges (pools, caches etc), keyed by gauge name.
+     * @return The gauge values
+     */
+    Map<String, Long> getGauges();
+}
@@ -0,0 +1,216 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for an operation type on a class : latency histogram, bytes sent and received, HTTP status codes,
+ * retries, hedges and errors (requests that failed without a response). Recording does not allocate.
+ */
+public class OperationMetrics implements OperationMetricsMBean
+{
+    private static final int MIN_STATUS = 100;
+
+    private static final int MAX_STATUS = 599;
+
+    private final String className;
+
+    private final OperationType operation;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder requestBytes = new LongAdder();
+
+    private final LongAdder responseBytes = new LongAdder();
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS - MIN_STATUS + 1);
+
+    public OperationMetrics(String className, OperationType operation)
+    {
+        this.className = className;
+        this.operation = operation;
+    }
+
+    /**
+     * Record a completed request.
+     * @param nanos Elapsed time in nanoseconds
+     * @param statusCode HTTP status code of the response
+     * @param bytesSent Number of bytes in the request body
+     * @param bytesReceived Number of bytes in the response body
+     */
+    public void recordRequest(long nanos, int statusCode, long bytesSent, long bytesReceived)
+    {
+        latency.recordNanos(nanos);
+        requestBytes.add(bytesSent);
+        responseBytes.add(bytesReceived);
+        if (statusCode >= MIN_STATUS && statusCode <= MAX_STATUS)
+        {
+            statusCounts.incrementAndGet(statusCode - MIN_STATUS);
+        }
+    }
+
+    /**
+     * Record a request that failed without a response (e.g connection refused, timeout).
+     * @param nanos Elapsed time in nanoseconds
+     * @param bytesSent Number of bytes in the request body
+     */
+    public void recordError(long nanos, long bytesSent)
+    {
+        latency.recordNanos(nanos);
+        requestBytes.add(bytesSent);
+        errors.increment();
+    }
+
+    public void recordRetry()
+    {
+        retries.increment();
+    }
+
+    public void recordHedge()
+    {
+        hedges.increment();
+    }
+
+    public LatencyHistogram getLatencyHistogram()
+    {
+        return latency;
+    }
+
+    public long getStatusCodeCount(int statusCode)
+    {
+        if (statusCode < MIN_STATUS || statusCode > MAX_STATUS)
+        {
+            return 0;
+        }
+        return statusCounts.get(statusCode - MIN_STATUS);
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    public String getOperation()
+    {
+        return operation.name();
+    }
+
+    public OperationType getOperationType()
+    {
+        return operation;
+    }
+
+    public long getCount()
+    {
+        return latency.getCount();
+    }
+
+    public double getMeanMillis()
+    {
+        return latency.getMeanMicros() / 1000.0;
+    }
+
+    public double getP50Millis()
+    {
+        return latency.getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    public double getP90Millis()
+    {
+        return latency.getValueAtPercentile(90.0) / 1000.0;
+    }
+
+    public double getP99Millis()
+    {
+        return latency.getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    public double getP999Millis()
+    {
+        return latency.getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    public double getMaxMillis()
+    {
+        return latency.getMaxMicros() / 1000.0;
+    }
+
+    public long getValueAtPercentile(double percentile, TimeUnit unit)
+    {
+        return latency.getValueAtPercentile(percentile, unit);
+    }
+
+    public long getRequestBytes()
+    {
+        return requestBytes.sum();
+    }
+
+    public long getResponseBytes()
+    {
+        return responseBytes.sum();
+    }
+
+    public long getRetries()
+    {
+        return retries.sum();
+    }
+
+    public long getHedges()
+    {
+        return hedges.sum();
+    }
+
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    public String getStatusCodeCounts()
+    {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < statusCounts.length(); i++)
+        {
+            long count = statusCounts.get(i);
+            if (count > 0)
+            {
+                if (str.length() > 0)
+                {
+                    str.append(",");
+                }
+                str.append(i + MIN_STATUS).append("=").append(count);
+            }
+        }
+        return str.toString();
+    }
+
+    public String toString()
+    {
+        return "OperationMetrics[" + className + " " + operation + " count=" + getCount() + " mean=" + getMeanMillis() + "ms p99=" + getP99Millis() +
+            "ms bytesSent=" + getRequestBytes() + " bytesReceived=" + getResponseBytes() + " retries=" + getRetries() + " hedges=" + getHedges() + " errors=" + getErrors() +
+            " status=[" + getStatusCodeCounts() + "]]";
+    }
+}
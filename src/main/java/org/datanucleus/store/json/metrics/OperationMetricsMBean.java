@@ -0,0 +1,58 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+/**
+ * JMX view of the metrics for an operation type on a class.
+ */
+public interface OperationMetricsMBean
+{
+    String getClassName();
+
+    String getOperation();
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    long getRequestBytes();
+
+    long getResponseBytes();
+
+    long getRetries();
+
+    long getHedges();
+
+    long getErrors();
+
+    /**
+     * Accessor for the counts of responses by HTTP status code, in the form "200=123,404=2".
+     * @return The status code counts
+     */
+    String getStatusCodeCounts();
+}
@@ -0,0 +1,49 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.metrics;
+
+/**
+ * Type of datastore operation that a request is made for.
+ */
+public enum OperationType
+{
+    INSERT(true),
+    UPDATE(true),
+    DELETE(true),
+    BULK_DELETE(false),
+    FETCH(true),
+    LOCATE(true),
+    QUERY(false),
+    CREATE_BUCKET(false);
+
+    private final boolean objectLevel;
+
+    private OperationType(boolean objectLevel)
+    {
+        this.objectLevel = objectLevel;
+    }
+
+    /**
+     * Whether requests for this operation are addressed to a single object (i.e the URL ends with the object identity).
+     * @return Whether object-level
+     */
+    public boolean isObjectLevel()
+    {
+        return objectLevel;
+    }
+}
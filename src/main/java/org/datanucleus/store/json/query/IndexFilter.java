@@ -0,0 +1,188 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.query;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.store.json.KeyRange;
+import org.datanucleus.store.json.SecondaryIndex;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.DyadicExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+
+/**
+ * Part of the filter of a query that can be answered from the secondary index of a member (see {@link SecondaryIndex}), being the
+ * comparisons (==, &lt;, &lt;=, &gt;, &gt;=) of the indexed member with literals/parameters that are combined with AND at the top
+ * level of the filter. The objects found via the index are a superset of the results; the filter is still evaluated on them.
+ */
+class IndexFilter
+{
+    private final String memberName;
+
+    private final KeyRange entryRange;
+
+    private IndexFilter(String memberName, KeyRange entryRange)
+    {
+        this.memberName = memberName;
+        this.entryRange = entryRange;
+    }
+
+    String getMemberName()
+    {
+        return memberName;
+    }
+
+    /**
+     * Accessor for the range of index entries that the filter needs.
+     * @return The range of entries (relative to the index path of the member)
+     */
+    KeyRange getEntryRange()
+    {
+        return entryRange;
+    }
+
+    /**
+     * Accessor for the index filter of the query, preferring an indexed member compared for equality.
+     * @param compilation Compilation of the query
+     * @param cmd Metadata for the candidate class
+     * @param parameters Parameter values of this execution
+     * @return The index filter, or null if the filter does not restrict any indexed member
+     */
+    static IndexFilter getIndexFilter(QueryCompilation compilation, AbstractClassMetaData cmd, Map parameters)
+    {
+        if (compilation == null || compilation.getExprFilter() == null || SecondaryIndex.getIndexedMembers(cmd).isEmpty())
+        {
+            return null;
+        }
+
+        // Range of (encoded) values of each indexed member
+        Map<String, KeyRange> ranges = new LinkedHashMap<>();
+        addValueRanges(compilation.getExprFilter(), compilation.getCandidateAlias(), cmd, parameters, ranges);
+        if (ranges.isEmpty())
+        {
+            return null;
+        }
+        Map.Entry<String, KeyRange> selected = null;
+        for (Map.Entry<String, KeyRange> entry : ranges.entrySet())
+        {
+            KeyRange range = entry.getValue();
+            if (range.getLower() != null && range.getLower().equals(range.getUpper()) && range.isLowerInclusive() && range.isUpperInclusive())
+            {
+                selected = entry;
+                break;
+            }
+            if (selected == null)
+            {
+                selected = entry;
+            }
+        }
+        KeyRange range = selected.getValue();
+        return new IndexFilter(selected.getKey(), SecondaryIndex.getEntryRange(range.getLower(), range.isLowerInclusive(), range.getUpper(), range.isUpperInclusive()));
+    }
+
+    private static void addValueRanges(Expression expr, String alias, AbstractClassMetaData cmd, Map parameters, Map<String, KeyRange> ranges)
+    {
+        if (!(expr instanceof DyadicExpression))
+        {
+            return;
+        }
+        Expression.Operator op = expr.getOperator();
+        if (op == Expression.OP_AND)
+        {
+            addValueRanges(expr.getLeft(), alias, cmd, parameters, ranges);
+            addValueRanges(expr.getRight(), alias, cmd, parameters, ranges);
+            return;
+        }
+
+        boolean flipped = false;
+        AbstractMemberMetaData mmd = getIndexedMember(expr.getLeft(), alias, cmd);
+        Expression valueExpr = expr.getRight();
+        if (mmd == null)
+        {
+            mmd = getIndexedMember(expr.getRight(), alias, cmd);
+            valueExpr = expr.getLeft();
+            flipped = true;
+        }
+        if (mmd == null || !KeyOnlyQueryEvaluator.isValue(valueExpr))
+        {
+            return;
+        }
+        String value = SecondaryIndex.encode(mmd, KeyOnlyQueryEvaluator.getValue(valueExpr, parameters));
+        if (value == null)
+        {
+            // Compared with null, or a value not of the type of the member
+            return;
+        }
+
+        KeyRange range;
+        if (op == Expression.OP_EQ)
+        {
+            range = new KeyRange(null, value, true, value, true);
+        }
+        else if ((op == Expression.OP_LT && !flipped) || (op == Expression.OP_GT && flipped))
+        {
+            range = new KeyRange(null, null, false, value, false);
+        }
+        else if ((op == Expression.OP_LTEQ && !flipped) || (op == Expression.OP_GTEQ && flipped))
+        {
+            range = new KeyRange(null, null, false, value, true);
+        }
+        else if ((op == Expression.OP_GT && !flipped) || (op == Expression.OP_LT && flipped))
+        {
+            range = new KeyRange(null, value, false, null, false);
+        }
+        else if ((op == Expression.OP_GTEQ && !flipped) || (op == Expression.OP_LTEQ && flipped))
+        {
+            range = new KeyRange(null, value, true, null, false);
+        }
+        else
+        {
+            return;
+        }
+        ranges.merge(mmd.getName(), range, KeyRange::intersect);
+    }
+
+    private static AbstractMemberMetaData getIndexedMember(Expression expr, String alias, AbstractClassMetaData cmd)
+    {
+        if (!(expr instanceof PrimaryExpression) || expr.getLeft() != null)
+        {
+            return null;
+        }
+        List<String> tuples = ((PrimaryExpression) expr).getTuples();
+        String name;
+        if (tuples.size() == 1)
+        {
+            name = tuples.get(0);
+        }
+        else if (tuples.size() == 2 && alias.equals(tuples.get(0)))
+        {
+            name = tuples.get(1);
+        }
+        else
+        {
+            return null;
+        }
+        AbstractMemberMetaData mmd = cmd.getMetaDataForMember(name);
+        return SecondaryIndex.isIndexed(cmd, mmd) ? mmd : null;
+    }
+}
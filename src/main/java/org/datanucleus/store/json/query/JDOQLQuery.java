@@ -19,24 +19,12 @@ Contributors :
 ***********************************************************************/
 package org.datanucleus.store.json.query;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import org.datanucleus.ExecutionContext;
-import org.datanucleus.metadata.AbstractClassMetaData;
-import org.datanucleus.metadata.QueryLanguage;
 import org.datanucleus.store.StoreManager;
-import org.datanucleus.store.connection.ManagedConnection;
-import org.datanucleus.store.json.ConnectionFactoryImpl;
-import org.datanucleus.store.json.JsonPersistenceHandler;
 import org.datanucleus.store.query.AbstractJDOQLQuery;
 import org.datanucleus.store.query.inmemory.JDOQLInMemoryEvaluator;
-import org.datanucleus.store.query.inmemory.JavaQueryInMemoryEvaluator;
-import org.datanucleus.util.Localiser;
-import org.datanucleus.util.NucleusLogger;
 
 /**
  * JDOQL query for JSON datastores.
@@ -79,43 +67,7 @@ public class JDOQLQuery extends AbstractJDOQLQuery
 
     protected Object performExecute(Map parameters)
     {
-        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(candidateClass, ec.getClassLoaderResolver());
-        Properties options = new Properties();
-        options.put(ConnectionFactoryImpl.STORE_JSON_URL, ((JsonPersistenceHandler)getStoreManager().getPersistenceHandler()).getURLPathForQuery(cmd));
-        ManagedConnection mconn = getStoreManager().getConnectionManager().getConnection(ec,options);
-        try
-        {
-            long startTime = System.currentTimeMillis();
-            if (NucleusLogger.QUERY.isDebugEnabled())
-            {
-                NucleusLogger.QUERY.debug(Localiser.msg("021046", QueryLanguage.JDOQL.name(), getSingleStringQuery(), null));
-            }
-
-            List candidates = null;
-            if (candidateCollection == null)
-            {
-                candidates = ((JsonPersistenceHandler)getStoreManager().getPersistenceHandler()).getObjectsOfCandidateType(
-                    ec, mconn, candidateClass, subclasses, ignoreCache, options);
-            }
-            else
-            {
-                candidates = new ArrayList(candidateCollection);
-            }
-
-            JavaQueryInMemoryEvaluator resultMapper = new JDOQLInMemoryEvaluator(this, candidates, compilation,
-                parameters, ec.getClassLoaderResolver());
-            Collection results = resultMapper.execute(true, true, true, true, true);
-
-            if (NucleusLogger.QUERY.isDebugEnabled())
-            {
-                NucleusLogger.QUERY.debug(Localiser.msg("021074", QueryLanguage.JDOQL.name(), "" + (System.currentTimeMillis() - startTime)));
-            }
-
-            return results;
-        }
-        finally
-        {
-            mconn.release();
-        }
+        return QueryExecutor.execute(this, compilation, candidateCollection, parameters,
+            candidates -> new JDOQLInMemoryEvaluator(this, candidates, compilation, parameters, ec.getClassLoaderResolver()));
     }
 }
\ No newline at end of file
@@ -17,25 +17,14 @@ Contributors :
 ***********************************************************************/
 package org.datanucleus.store.json.query;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
 import org.datanucleus.ExecutionContext;
 import org.datanucleus.exceptions.NucleusException;
-import org.datanucleus.metadata.AbstractClassMetaData;
-import org.datanucleus.metadata.QueryLanguage;
 import org.datanucleus.store.StoreManager;
-import org.datanucleus.store.connection.ManagedConnection;
-import org.datanucleus.store.json.ConnectionFactoryImpl;
-import org.datanucleus.store.json.JsonPersistenceHandler;
 import org.datanucleus.store.query.AbstractJPQLQuery;
 import org.datanucleus.store.query.inmemory.JPQLInMemoryEvaluator;
-import org.datanucleus.store.query.inmemory.JavaQueryInMemoryEvaluator;
-import org.datanucleus.util.Localiser;
-import org.datanucleus.util.NucleusLogger;
 
 /**
  * JPQL query for JSON datastores.
@@ -78,56 +67,18 @@ public class JPQLQuery extends AbstractJPQLQuery
 
     protected Object performExecute(Map parameters)
     {
-        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(candidateClass, ec.getClassLoaderResolver());
-        Properties options = new Properties();
-        options.put(ConnectionFactoryImpl.STORE_JSON_URL, ((JsonPersistenceHandler)getStoreManager().getPersistenceHandler()).getURLPathForQuery(cmd));
-        ManagedConnection mconn = getStoreManager().getConnectionManager().getConnection(ec, options);
-        try
+        Object results = QueryExecutor.execute(this, compilation, candidateCollection, parameters,
+            candidates -> new JPQLInMemoryEvaluator(this, candidates, compilation, parameters, ec.getClassLoaderResolver()));
+        if (type == QueryType.BULK_DELETE)
         {
-            long startTime = System.currentTimeMillis();
-            if (NucleusLogger.QUERY.isDebugEnabled())
-            {
-                NucleusLogger.QUERY.debug(Localiser.msg("021046", QueryLanguage.JPQL.name(), getSingleStringQuery(), null));
-            }
-
-            List candidates = null;
-            if (candidateCollection == null)
-            {
-                // TODO Cater for "subclasses" flag
-                candidates = ((JsonPersistenceHandler)getStoreManager().getPersistenceHandler()).getObjectsOfCandidateType(
-                    ec, mconn, candidateClass, subclasses, ignoreCache, options);
-            }
-            else
-            {
-                candidates = new ArrayList(candidateCollection);
-            }
-
-            JavaQueryInMemoryEvaluator resultMapper = new JPQLInMemoryEvaluator(this, candidates, compilation, 
-                parameters, ec.getClassLoaderResolver());
-            Collection results = resultMapper.execute(true, true, true, true, true);
-
-            if (NucleusLogger.QUERY.isDebugEnabled())
-            {
-                NucleusLogger.QUERY.debug(Localiser.msg("021074", QueryLanguage.JPQL.name(), "" + (System.currentTimeMillis() - startTime)));
-            }
-
-            if (type == QueryType.BULK_DELETE)
-            {
-                ec.deleteObjects(results.toArray());
-                return Long.valueOf(results.size());
-            }
-            else if (type == QueryType.BULK_UPDATE)
-            {
-                throw new NucleusException("Bulk Update is not yet supported");
-            }
-            else
-            {
-                return results;
-            }
+            Collection deleted = (Collection) results;
+            ec.deleteObjects(deleted.toArray());
+            return Long.valueOf(deleted.size());
         }
-        finally
+        else if (type == QueryType.BULK_UPDATE)
         {
-            mconn.release();
+            throw new NucleusException("Bulk Update is not yet supported");
         }
+        return results;
     }
 }
\ No newline at end of file
@@ -0,0 +1,466 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.metadata.AbstractMemberMetaData;
+import org.datanucleus.metadata.IdentityType;
+import org.datanucleus.store.json.KeyRange;
+import org.datanucleus.store.query.Query;
+import org.datanucleus.store.query.QueryUtils;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.expression.DyadicExpression;
+import org.datanucleus.store.query.expression.Expression;
+import org.datanucleus.store.query.expression.InvokeExpression;
+import org.datanucleus.store.query.expression.Literal;
+import org.datanucleus.store.query.expression.OrderExpression;
+import org.datanucleus.store.query.expression.ParameterExpression;
+import org.datanucleus.store.query.expression.PrimaryExpression;
+import org.datanucleus.store.query.expression.VariableExpression;
+
+/**
+ * Evaluator for queries that only need the identities of the candidates, so can be answered from the keys of a bucket listing
+ * without instantiating, or fetching, any object. This applies to a query with a single PK member (String, long or int) whose
+ * result is the PK member or a count of the candidates, with an optional filter made up of comparisons of the PK member
+ * with literals/parameters (and "startsWith"/"endsWith"), combined with AND/OR, and optional ordering by the PK member.
+ * Also derives the range of (String) PKs that the filter of any query needs, so that the listing can be limited to it.
+ */
+class KeyOnlyQueryEvaluator
+{
+    /** Predicate on the PK of a candidate, as part of the filter. */
+    private interface KeyPredicate
+    {
+        boolean matches(Object pk);
+    }
+
+    private final Query query;
+
+    private final Class pkType;
+
+    private final boolean count;
+
+    private final KeyPredicate filter;
+
+    /** Order of the results by PK : 1 ascending, -1 descending, 0 listing order. */
+    private final int order;
+
+    private KeyOnlyQueryEvaluator(Query query, Class pkType, boolean count, KeyPredicate filter, int order)
+    {
+        this.query = query;
+        this.pkType = pkType;
+        this.count = count;
+        this.filter = filter;
+        this.order = order;
+    }
+
+    /**
+     * Accessor for an evaluator for the query, if the query can be answered from the keys of its candidates.
+     * @param query The query
+     * @param compilation Compilation of the query
+     * @param cmd Metadata for the candidate class
+     * @param parameters Parameter values of this execution
+     * @return The evaluator, or null if the query needs the candidate objects
+     */
+    static KeyOnlyQueryEvaluator getEvaluator(Query query, QueryCompilation compilation, AbstractClassMetaData cmd, Map parameters)
+    {
+        if (compilation == null || query.getType() != Query.QueryType.SELECT || query.getResultClass() != null || compilation.getSubqueryAliases() != null ||
+            compilation.getExprGrouping() != null || compilation.getExprHaving() != null)
+        {
+            return null;
+        }
+        if (cmd.getIdentityType() != IdentityType.APPLICATION || cmd.getPKMemberPositions().length != 1)
+        {
+            return null;
+        }
+        AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(cmd.getPKMemberPositions()[0]);
+        Class pkType = getKeyType(pkMmd.getType());
+        if (pkType == null)
+        {
+            return null;
+        }
+        String alias = compilation.getCandidateAlias();
+        String pkName = pkMmd.getName();
+
+        // Result must be the PK member, or a count of the candidates (or their PK)
+        Expression[] result = compilation.getExprResult();
+        if (result == null || result.length != 1)
+        {
+            return null;
+        }
+        boolean count;
+        if (isPrimaryKey(result[0], alias, pkName))
+        {
+            count = false;
+        }
+        else if (result[0] instanceof InvokeExpression && result[0].getLeft() == null && "count".equalsIgnoreCase(((InvokeExpression) result[0]).getOperation()))
+        {
+            List<Expression> args = ((InvokeExpression) result[0]).getArguments();
+            if (args == null || args.size() != 1 || !(isCandidate(args.get(0), alias) || isPrimaryKey(args.get(0), alias, pkName)))
+            {
+                return null;
+            }
+            count = true;
+        }
+        else
+        {
+            return null;
+        }
+
+        KeyPredicate filter = null;
+        if (compilation.getExprFilter() != null)
+        {
+            filter = getPredicate(compilation.getExprFilter(), alias, pkName, pkType, parameters);
+            if (filter == null)
+            {
+                return null;
+            }
+        }
+
+        int order = 0;
+        Expression[] ordering = compilation.getExprOrdering();
+        if (ordering != null && ordering.length > 0)
+        {
+            if (ordering.length != 1 || !(ordering[0] instanceof OrderExpression) || !isPrimaryKey(ordering[0].getLeft(), alias, pkName))
+            {
+                return null;
+            }
+            order = "descending".equalsIgnoreCase(((OrderExpression) ordering[0]).getSortOrder()) ? -1 : 1;
+        }
+
+        return new KeyOnlyQueryEvaluator(query, pkType, count, filter, order);
+    }
+
+    /**
+     * Evaluate the query over the PKs of the candidates.
+     * @param keys String form of the PK of each candidate
+     * @return The results, being the PK values, or a single count
+     */
+    List execute(List<String> keys)
+    {
+        List<Object> pks = new ArrayList<>(keys.size());
+        for (String key : keys)
+        {
+            Object pk = toKeyValue(key, pkType);
+            if (pk != null && (filter == null || filter.matches(pk)))
+            {
+                pks.add(pk);
+            }
+        }
+
+        if (count)
+        {
+            return Collections.singletonList(Long.valueOf(pks.size()));
+        }
+
+        if (order != 0)
+        {
+            Comparator<Object> comparator = KeyOnlyQueryEvaluator::compare;
+            pks.sort(order > 0 ? comparator : comparator.reversed());
+        }
+        long fromIncl = query.getRangeFromIncl();
+        long toExcl = query.getRangeToExcl();
+        if (fromIncl > 0 || toExcl < pks.size())
+        {
+            int from = (int) Math.min(fromIncl, pks.size());
+            int to = (int) Math.max(from, Math.min(toExcl, pks.size()));
+            pks = new ArrayList<>(pks.subList(from, to));
+        }
+        return pks;
+    }
+
+    /**
+     * Accessor for the range of PKs that the filter of the query needs, from the comparisons of a String PK member with
+     * literals/parameters (and "startsWith") that are combined with AND at the top level of the filter.
+     * @param compilation Compilation of the query
+     * @param cmd Metadata for the candidate class
+     * @param parameters Parameter values of this execution
+     * @return The range, or null if the filter does not restrict the PK
+     */
+    static KeyRange getKeyRange(QueryCompilation compilation, AbstractClassMetaData cmd, Map parameters)
+    {
+        if (compilation == null || compilation.getExprFilter() == null || cmd.getIdentityType() != IdentityType.APPLICATION ||
+            cmd.getPKMemberPositions().length != 1)
+        {
+            return null;
+        }
+        AbstractMemberMetaData pkMmd = cmd.getMetaDataForManagedMemberAtAbsolutePosition(cmd.getPKMemberPositions()[0]);
+        if (pkMmd.getType() != String.class)
+        {
+            return null;
+        }
+        return getKeyRange(compilation.getExprFilter(), compilation.getCandidateAlias(), pkMmd.getName(), parameters);
+    }
+
+    private static KeyRange getKeyRange(Expression expr, String alias, String pkName, Map parameters)
+    {
+        if (expr instanceof DyadicExpression)
+        {
+            Expression.Operator op = expr.getOperator();
+            if (op == Expression.OP_AND)
+            {
+                KeyRange left = getKeyRange(expr.getLeft(), alias, pkName, parameters);
+                KeyRange right = getKeyRange(expr.getRight(), alias, pkName, parameters);
+                return left != null ? left.intersect(right) : right;
+            }
+
+            boolean flipped = false;
+            Expression valueExpr;
+            if (isPrimaryKey(expr.getLeft(), alias, pkName))
+            {
+                valueExpr = expr.getRight();
+            }
+            else if (expr.getRight() != null && isPrimaryKey(expr.getRight(), alias, pkName))
+            {
+                valueExpr = expr.getLeft();
+                flipped = true;
+            }
+            else
+            {
+                return null;
+            }
+            Object value = isValue(valueExpr) ? getValue(valueExpr, parameters) : null;
+            if (!(value instanceof String))
+            {
+                return null;
+            }
+            String key = (String) value;
+            if (op == Expression.OP_EQ)
+            {
+                return new KeyRange(key, key, true, key, true);
+            }
+            else if ((op == Expression.OP_LT && !flipped) || (op == Expression.OP_GT && flipped))
+            {
+                return new KeyRange(null, null, false, key, false);
+            }
+            else if ((op == Expression.OP_LTEQ && !flipped) || (op == Expression.OP_GTEQ && flipped))
+            {
+                return new KeyRange(null, null, false, key, true);
+            }
+            else if ((op == Expression.OP_GT && !flipped) || (op == Expression.OP_LT && flipped))
+            {
+                return new KeyRange(null, key, false, null, false);
+            }
+            else if ((op == Expression.OP_GTEQ && !flipped) || (op == Expression.OP_LTEQ && flipped))
+            {
+                return new KeyRange(null, key, true, null, false);
+            }
+        }
+        else if (expr instanceof InvokeExpression && "startsWith".equals(((InvokeExpression) expr).getOperation()) && isPrimaryKey(expr.getLeft(), alias, pkName))
+        {
+            List<Expression> args = ((InvokeExpression) expr).getArguments();
+            if (args != null && args.size() == 1 && isValue(args.get(0)) && getValue(args.get(0), parameters) instanceof String)
+            {
+                return new KeyRange((String) getValue(args.get(0), parameters), null, false, null, false);
+            }
+        }
+        return null;
+    }
+
+    private static Class getKeyType(Class type)
+    {
+        if (type == String.class)
+        {
+            return String.class;
+        }
+        else if (type == Long.class || type == long.class)
+        {
+            return Long.class;
+        }
+        else if (type == Integer.class || type == int.class)
+        {
+            return Integer.class;
+        }
+        return null;
+    }
+
+    private static Object toKeyValue(Object value, Class pkType)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        if (pkType == String.class)
+        {
+            return value instanceof String ? value : null;
+        }
+        try
+        {
+            if (value instanceof String)
+            {
+                return pkType == Long.class ? (Object) Long.valueOf((String) value) : (Object) Integer.valueOf((String) value);
+            }
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            {
+                long longValue = ((Number) value).longValue();
+                return pkType == Long.class ? (Object) Long.valueOf(longValue) : (Object) Integer.valueOf((int) longValue);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // Not a key of this type
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object pk1, Object pk2)
+    {
+        return ((Comparable) pk1).compareTo(pk2);
+    }
+
+    private static boolean isCandidate(Expression expr, String alias)
+    {
+        if (expr instanceof VariableExpression)
+        {
+            return alias.equals(((VariableExpression) expr).getId());
+        }
+        return expr instanceof PrimaryExpression && ((PrimaryExpression) expr).getTuples().size() == 1 && alias.equals(((PrimaryExpression) expr).getId());
+    }
+
+    private static boolean isPrimaryKey(Expression expr, String alias, String pkName)
+    {
+        if (!(expr instanceof PrimaryExpression) || expr.getLeft() != null)
+        {
+            return false;
+        }
+        List<String> tuples = ((PrimaryExpression) expr).getTuples();
+        if (tuples.size() == 1)
+        {
+            return pkName.equals(tuples.get(0));
+        }
+        return tuples.size() == 2 && alias.equals(tuples.get(0)) && pkName.equals(tuples.get(1));
+    }
+
+    /**
+     * Convert a filter expression into a predicate on the PK, if it only involves the PK.
+     * @return The predicate, or null if the expression is not supported
+     */
+    private static KeyPredicate getPredicate(Expression expr, String alias, String pkName, Class pkType, Map parameters)
+    {
+        if (expr instanceof DyadicExpression)
+        {
+            Expression.Operator op = expr.getOperator();
+            if (op == Expression.OP_AND || op == Expression.OP_OR)
+            {
+                KeyPredicate left = getPredicate(expr.getLeft(), alias, pkName, pkType, parameters);
+                KeyPredicate right = left != null ? getPredicate(expr.getRight(), alias, pkName, pkType, parameters) : null;
+                if (right == null)
+                {
+                    return null;
+                }
+                return op == Expression.OP_AND ? pk -> left.matches(pk) && right.matches(pk) : pk -> left.matches(pk) || right.matches(pk);
+            }
+            if (op == Expression.OP_NOT && expr.getRight() == null)
+            {
+                KeyPredicate negated = getPredicate(expr.getLeft(), alias, pkName, pkType, parameters);
+                return negated != null ? pk -> !negated.matches(pk) : null;
+            }
+
+            boolean flipped = false;
+            Expression valueExpr;
+            if (isPrimaryKey(expr.getLeft(), alias, pkName))
+            {
+                valueExpr = expr.getRight();
+            }
+            else if (isPrimaryKey(expr.getRight(), alias, pkName))
+            {
+                valueExpr = expr.getLeft();
+                flipped = true;
+            }
+            else
+            {
+                return null;
+            }
+            if (!isValue(valueExpr))
+            {
+                return null;
+            }
+            Object rawValue = getValue(valueExpr, parameters);
+            Object value = toKeyValue(rawValue, pkType);
+            if (value == null)
+            {
+                // Compared with null, or a value not of the PK type
+                return null;
+            }
+            if (op == Expression.OP_EQ)
+            {
+                return pk -> pk.equals(value);
+            }
+            else if (op == Expression.OP_NOTEQ)
+            {
+                return pk -> !pk.equals(value);
+            }
+            else if (op == Expression.OP_LT)
+            {
+                return flipped ? pk -> compare(pk, value) > 0 : pk -> compare(pk, value) < 0;
+            }
+            else if (op == Expression.OP_LTEQ)
+            {
+                return flipped ? pk -> compare(pk, value) >= 0 : pk -> compare(pk, value) <= 0;
+            }
+            else if (op == Expression.OP_GT)
+            {
+                return flipped ? pk -> compare(pk, value) < 0 : pk -> compare(pk, value) > 0;
+            }
+            else if (op == Expression.OP_GTEQ)
+            {
+                return flipped ? pk -> compare(pk, value) <= 0 : pk -> compare(pk, value) >= 0;
+            }
+            return null;
+        }
+        else if (expr instanceof InvokeExpression && pkType == String.class && isPrimaryKey(expr.getLeft(), alias, pkName))
+        {
+            InvokeExpression invokeExpr = (InvokeExpression) expr;
+            List<Expression> args = invokeExpr.getArguments();
+            if (args == null || args.size() != 1 || !isValue(args.get(0)) || !(getValue(args.get(0), parameters) instanceof String))
+            {
+                return null;
+            }
+            String value = (String) getValue(args.get(0), parameters);
+            if ("startsWith".equals(invokeExpr.getOperation()))
+            {
+                return pk -> ((String) pk).startsWith(value);
+            }
+            else if ("endsWith".equals(invokeExpr.getOperation()))
+            {
+                return pk -> ((String) pk).endsWith(value);
+            }
+        }
+        return null;
+    }
+
+    static boolean isValue(Expression expr)
+    {
+        return expr instanceof Literal || expr instanceof ParameterExpression;
+    }
+
+    static Object getValue(Expression expr, Map parameters)
+    {
+        if (expr instanceof Literal)
+        {
+            return ((Literal) expr).getLiteral();
+        }
+        return QueryUtils.getValueForParameterExpression(parameters, (ParameterExpression) expr);
+    }
+}
@@ -0,0 +1,152 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.metadata.AbstractClassMetaData;
+import org.datanucleus.store.connection.ManagedConnection;
+import org.datanucleus.store.json.CloudStoragePersistenceHandler;
+import org.datanucleus.store.json.ConnectionFactoryImpl;
+import org.datanucleus.store.json.JsonPersistenceHandler;
+import org.datanucleus.store.json.KeyRange;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.resilience.DeadlineExceededException;
+import org.datanucleus.store.json.tracing.Span;
+import org.datanucleus.store.query.AbstractJavaQuery;
+import org.datanucleus.store.query.QueryTimeoutException;
+import org.datanucleus.store.query.compiler.QueryCompilation;
+import org.datanucleus.store.query.inmemory.JavaQueryInMemoryEvaluator;
+import org.datanucleus.util.Localiser;
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Execution of a (JDOQL/JPQL) query against a JSON datastore, shared by the queries of each language.
+ * Limits the listing of a cloud storage bucket to the key range of the filter, answers the query from the keys of the listing where possible,
+ * or else finds the candidates (via a secondary index if the filter allows) and evaluates the query on them in-memory.
+ * The execution is traced, and limited by the datastore read timeout of the query.
+ */
+final class QueryExecutor
+{
+    private QueryExecutor()
+    {
+    }
+
+    /**
+     * Execute the query.
+     * @param query The query
+     * @param compilation Compilation of the query
+     * @param candidateCollection Candidates specified by the user, or null to use the candidates in the datastore
+     * @param parameters Parameter values of this execution
+     * @param evaluatorFactory Creator of the in-memory evaluator of the query language for the candidates
+     * @return The results
+     * @throws QueryTimeoutException if the datastore read timeout of the query expires
+     */
+    static Object execute(AbstractJavaQuery query, QueryCompilation compilation, Collection candidateCollection, Map parameters,
+            Function<List, JavaQueryInMemoryEvaluator> evaluatorFactory)
+    {
+        ExecutionContext ec = query.getExecutionContext();
+        AbstractClassMetaData cmd = ec.getMetaDataManager().getMetaDataForClass(query.getCandidateClass(), ec.getClassLoaderResolver());
+        JsonPersistenceHandler handler = (JsonPersistenceHandler) query.getStoreManager().getPersistenceHandler();
+        Properties options = new Properties();
+        options.put(ConnectionFactoryImpl.STORE_JSON_URL, handler.getURLPathForQuery(cmd));
+        ManagedConnection mconn = query.getStoreManager().getConnectionManager().getConnection(ec, options);
+        Span span = handler.getTracer().startSpan("json.query");
+        span.setAttribute("dn.class", cmd.getFullClassName());
+        span.setAttribute("dn.query", query.getSingleStringQuery());
+        Deadline deadline = Deadline.enter(query.getDatastoreReadTimeoutMillis());
+        try
+        {
+            long startTime = System.currentTimeMillis();
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug(Localiser.msg("021046", query.getLanguage(), query.getSingleStringQuery(), null));
+            }
+
+            if (candidateCollection == null && handler instanceof CloudStoragePersistenceHandler)
+            {
+                KeyRange keyRange = KeyOnlyQueryEvaluator.getKeyRange(compilation, cmd, parameters);
+                if (keyRange != null)
+                {
+                    // Only list the keys that the filter can match
+                    options.put(CloudStoragePersistenceHandler.OPTION_KEY_RANGE, keyRange);
+                }
+
+                KeyOnlyQueryEvaluator keyEvaluator = KeyOnlyQueryEvaluator.getEvaluator(query, compilation, cmd, parameters);
+                if (keyEvaluator != null)
+                {
+                    // Answer from the keys of the listing, without instantiating any object
+                    List results = keyEvaluator.execute(((CloudStoragePersistenceHandler) handler).getPrimaryKeysOfCandidateType(mconn, cmd, options));
+                    if (NucleusLogger.QUERY.isDebugEnabled())
+                    {
+                        NucleusLogger.QUERY.debug(Localiser.msg("021074", query.getLanguage(), "" + (System.currentTimeMillis() - startTime)) +
+                            " (answered from the keys of the listing)");
+                    }
+                    return results;
+                }
+            }
+
+            List candidates = null;
+            if (candidateCollection == null)
+            {
+                IndexFilter indexFilter = handler instanceof CloudStoragePersistenceHandler ? IndexFilter.getIndexFilter(compilation, cmd, parameters) : null;
+                if (indexFilter != null)
+                {
+                    // Only the objects found via the secondary index of a member in the filter can match
+                    candidates = ((CloudStoragePersistenceHandler) handler).getObjectsOfCandidateTypeForIndex(ec, mconn, cmd, indexFilter.getMemberName(),
+                        indexFilter.getEntryRange(), query.getIgnoreCache());
+                }
+                if (candidates == null)
+                {
+                    // TODO Cater for "subclasses" flag with JPQL
+                    candidates = handler.getObjectsOfCandidateType(ec, mconn, query.getCandidateClass(), query.isSubclasses(), query.getIgnoreCache(), options);
+                }
+            }
+            else
+            {
+                candidates = new ArrayList(candidateCollection);
+            }
+
+            JavaQueryInMemoryEvaluator resultMapper = evaluatorFactory.apply(candidates);
+            Collection results = resultMapper.execute(true, true, true, true, true);
+
+            if (NucleusLogger.QUERY.isDebugEnabled())
+            {
+                NucleusLogger.QUERY.debug(Localiser.msg("021074", query.getLanguage(), "" + (System.currentTimeMillis() - startTime)));
+            }
+
+            return results;
+        }
+        catch (DeadlineExceededException e)
+        {
+            throw new QueryTimeoutException(e.getMessage(), e);
+        }
+        finally
+        {
+            mconn.release();
+            span.end();
+            deadline.exit();
+        }
+    }
+}
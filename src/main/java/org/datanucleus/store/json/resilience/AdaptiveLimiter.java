@@ -0,0 +1,178 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limiter that adapts its limit using AIMD (additive increase, multiplicative decrease), so that the client finds the
+ * sustainable concurrency of a backend without hand-tuning.
+ * <ul>
+ * <li>Each successful request increases the limit by 1/limit (so about 1 per round trip of the whole window), but only when the limit
+ * is being used, so an idle limiter does not grow without bound.</li>
+ * <li>A throttled or dropped request (e.g 503 SlowDown, timeout) halves the limit.</li>
+ * <li>A request whose latency exceeds a multiple of the long-term average latency reduces the limit by 10%, backing off before
+ * the backend starts throttling.</li>
+ * </ul>
+ * Decreases happen at most once per average round trip, since all requests in flight when a backend starts to throttle
+ * observe the same overload.
+ */
+public class AdaptiveLimiter
+{
+    /** Multiple of the long-term average latency above which a request is considered a sign of overload. */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /** Weight of each sample in the long-term average latency. */
+    private static final double LATENCY_ALPHA = 0.01;
+
+    private final String name;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private int inflight;
+
+    private double avgLatencyNanos;
+
+    private long lastDecrease;
+
+    /**
+     * Constructor.
+     * @param name Name of the limiter (e.g the key prefix), for logging
+     * @param initialLimit Initial concurrency limit
+     * @param maxLimit Maximum concurrency limit
+     */
+    public AdaptiveLimiter(String name, int initialLimit, int maxLimit)
+    {
+        this.name = name;
+        this.minLimit = 1;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    /**
+     * Acquire a permit to make a request, waiting while the number of requests in flight is at the limit.
+     * If acquired it must be released by calling one of {@link #onSuccess(long)}, {@link #onThrottle()}, {@link #onDropped()}
+     * or {@link #release()}.
+     * @param timeoutMillis Maximum time to wait
+     * @return Whether a permit was acquired (false if timed out or interrupted)
+     */
+    public synchronized boolean tryAcquire(long timeoutMillis)
+    {
+        long waitUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (inflight >= (int) limit)
+        {
+            long remaining = waitUntil - System.nanoTime();
+            if (remaining <= 0)
+            {
+                return false;
+            }
+            try
+            {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        inflight++;
+        return true;
+    }
+
+    /**
+     * Release a permit for a request that succeeded.
+     * @param latencyNanos Latency of the request
+     */
+    public synchronized void onSuccess(long latencyNanos)
+    {
+        boolean utilised = inflight * 2 >= limit;
+        inflight--;
+        if (avgLatencyNanos == 0)
+        {
+            avgLatencyNanos = latencyNanos;
+        }
+        if (latencyNanos > LATENCY_TOLERANCE * avgLatencyNanos)
+        {
+            decrease(0.9);
+        }
+        else if (utilised)
+        {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+        avgLatencyNanos += LATENCY_ALPHA * (latencyNanos - avgLatencyNanos);
+        notifyAll();
+    }
+
+    /**
+     * Release a permit for a request that the backend throttled.
+     */
+    public synchronized void onThrottle()
+    {
+        inflight--;
+        decrease(0.5);
+        notifyAll();
+    }
+
+    /**
+     * Release a permit for a request that got no response.
+     */
+    public synchronized void onDropped()
+    {
+        onThrottle();
+    }
+
+    /**
+     * Release a permit for a request that was not made, without adjusting the limit.
+     */
+    public synchronized void release()
+    {
+        inflight--;
+        notifyAll();
+    }
+
+    public synchronized int getLimit()
+    {
+        return (int) limit;
+    }
+
+    public synchronized int getInflight()
+    {
+        return inflight;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    private void decrease(double factor)
+    {
+        long now = System.nanoTime();
+        if (lastDecrease != 0 && now - lastDecrease < avgLatencyNanos)
+        {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(minLimit, limit * factor);
+    }
+}
@@ -0,0 +1,77 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulkhead bounding the number of concurrent requests to an endpoint, so that a slow endpoint cannot tie up all threads of the application.
+ * A request that cannot get a permit within the maximum wait is rejected.
+ */
+public class Bulkhead
+{
+    private final int maxConcurrent;
+
+    private final long maxWaitMillis;
+
+    private final Semaphore permits;
+
+    /**
+     * Constructor.
+     * @param maxConcurrent Maximum number of concurrent requests
+     * @param maxWaitMillis Maximum time to wait for a permit
+     */
+    public Bulkhead(int maxConcurrent, long maxWaitMillis)
+    {
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Acquire a permit for a request, waiting up to the maximum wait. If acquired it must be released using {@link #release()}.
+     * @return Whether a permit was acquired (false if interrupted while waiting)
+     */
+    public boolean tryAcquire()
+    {
+        try
+        {
+            return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void release()
+    {
+        permits.release();
+    }
+
+    /**
+     * Accessor for the number of requests currently holding a permit.
+     * @return Number in use
+     */
+    public int getInUse()
+    {
+        return maxConcurrent - permits.availablePermits();
+    }
+}
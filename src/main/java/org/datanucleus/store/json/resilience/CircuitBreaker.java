@@ -0,0 +1,191 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Circuit breaker for the requests to an endpoint. Records the outcome of the last requests in a count-based window and,
+ * when the failure rate reaches a threshold, opens so that requests fail fast for a period instead of waiting on an unhealthy backend.
+ * After that period a single trial request is permitted (half-open); its success closes the breaker, and its failure reopens it.
+ * <p>
+ * A failure is a request that got no response, or a response with status 429 or 5xx. Other responses (including 4xx) are successes
+ * since the backend answered.
+ */
+public class CircuitBreaker
+{
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+
+    private final int failureRateThreshold;
+
+    private final int minimumRequests;
+
+    private final long openDurationMillis;
+
+    /** Outcomes of the last requests (true if failed), as a ring. */
+    private final boolean[] window;
+
+    private int windowPos;
+
+    private int windowCount;
+
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+
+    private long openUntil;
+
+    private boolean trialInProgress;
+
+    /**
+     * Constructor.
+     * @param name Name of the endpoint, for logging
+     * @param failureRateThreshold Failure rate (percent) at which to open
+     * @param windowSize Number of most recent requests to calculate the failure rate over
+     * @param minimumRequests Minimum number of requests in the window before the failure rate is considered
+     * @param openDurationMillis Time to stay open before permitting a trial request
+     */
+    public CircuitBreaker(String name, int failureRateThreshold, int windowSize, int minimumRequests, long openDurationMillis)
+    {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[windowSize];
+        this.minimumRequests = Math.min(minimumRequests, windowSize);
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * Whether a request is permitted. When this returns true the caller must report the outcome using
+     * {@link #onSuccess()} or {@link #onFailure()}.
+     * @return Whether the request can be made
+     */
+    public synchronized boolean tryAcquirePermission()
+    {
+        if (state == State.CLOSED)
+        {
+            return true;
+        }
+        if (state == State.OPEN)
+        {
+            if (System.currentTimeMillis() < openUntil)
+            {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInProgress = false;
+        }
+        if (trialInProgress)
+        {
+            return false;
+        }
+        trialInProgress = true;
+        return true;
+    }
+
+    public synchronized void onSuccess()
+    {
+        if (state == State.HALF_OPEN)
+        {
+            NucleusLogger.DATASTORE.info("Circuit breaker for " + name + " is now closed");
+            state = State.CLOSED;
+            trialInProgress = false;
+            resetWindow();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure()
+    {
+        if (state == State.HALF_OPEN)
+        {
+            open();
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && windowCount >= minimumRequests && windowFailures * 100 >= failureRateThreshold * windowCount)
+        {
+            open();
+        }
+    }
+
+    /**
+     * Whether a response with the specified status counts as a failure of the endpoint.
+     * @param code HTTP status
+     * @return Whether it is a failure
+     */
+    public static boolean isFailure(int code)
+    {
+        return code == 429 || code >= 500;
+    }
+
+    public synchronized State getState()
+    {
+        return state;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    private void open()
+    {
+        NucleusLogger.DATASTORE.warn("Circuit breaker for " + name + " is now open for " + openDurationMillis + "ms after " + windowFailures + " failures in " +
+            windowCount + " requests");
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openDurationMillis;
+        trialInProgress = false;
+        resetWindow();
+    }
+
+    private void record(boolean failed)
+    {
+        if (windowCount == window.length)
+        {
+            if (window[windowPos])
+            {
+                windowFailures--;
+            }
+        }
+        else
+        {
+            windowCount++;
+        }
+        window[windowPos] = failed;
+        if (failed)
+        {
+            windowFailures++;
+        }
+        windowPos = (windowPos + 1) % window.length;
+    }
+
+    private void resetWindow()
+    {
+        windowPos = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+}
@@ -0,0 +1,143 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline by which the current operation of a thread must complete, so that all requests made for an operation (including retries)
+ * share its timeout rather than each waiting for the full request timeout. Deadlines nest; an inner deadline never extends an outer one.
+ * <pre>
+ * Deadline deadline = Deadline.enter(timeoutMillis);
+ * try
+ * {
+ *     ...
+ * }
+ * finally
+ * {
+ *     deadline.exit();
+ * }
+ * </pre>
+ */
+public final class Deadline
+{
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    /** Returned by {@link #enter(Integer)} when the current deadline is unchanged, so {@link #exit()} does nothing. */
+    private static final Deadline UNCHANGED = new Deadline(Long.MAX_VALUE, null);
+
+    private final long expiresAt;
+
+    private final Deadline previous;
+
+    private Deadline(long expiresAt, Deadline previous)
+    {
+        this.expiresAt = expiresAt;
+        this.previous = previous;
+    }
+
+    /**
+     * Enter a deadline for the current thread, expiring after the specified timeout (unless the current deadline expires earlier).
+     * @param timeoutMillis The timeout (null or not positive for no timeout)
+     * @return The deadline, to be exited when the operation completes
+     */
+    public static Deadline enter(Integer timeoutMillis)
+    {
+        if (timeoutMillis == null || timeoutMillis <= 0)
+        {
+            return UNCHANGED;
+        }
+        Deadline current = CURRENT.get();
+        long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if (current != null && current.expiresAt - expiresAt <= 0)
+        {
+            return UNCHANGED;
+        }
+        Deadline deadline = new Deadline(expiresAt, current);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Enter the specified deadline (for example that of the thread submitting a task) for the current thread, unless the current deadline
+     * expires earlier.
+     * @param deadline The deadline (null for no deadline)
+     * @return The deadline, to be exited when the operation completes
+     */
+    public static Deadline enter(Deadline deadline)
+    {
+        if (deadline == null)
+        {
+            return UNCHANGED;
+        }
+        Deadline current = CURRENT.get();
+        if (current != null && current.expiresAt - deadline.expiresAt <= 0)
+        {
+            return UNCHANGED;
+        }
+        Deadline entered = new Deadline(deadline.expiresAt, current);
+        CURRENT.set(entered);
+        return entered;
+    }
+
+    /**
+     * Exit this deadline, restoring the previous deadline of the thread.
+     */
+    public void exit()
+    {
+        if (this == UNCHANGED)
+        {
+            return;
+        }
+        if (previous != null)
+        {
+            CURRENT.set(previous);
+        }
+        else
+        {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Accessor for the deadline of the current thread.
+     * @return The deadline, or null if none
+     */
+    public static Deadline getCurrent()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Accessor for the time remaining until this deadline.
+     * @return Remaining millis (not positive if expired)
+     */
+    public long getRemainingMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime());
+    }
+
+    /**
+     * Accessor for whether this deadline has expired.
+     * @return Whether it has expired
+     */
+    public boolean isExpired()
+    {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+}
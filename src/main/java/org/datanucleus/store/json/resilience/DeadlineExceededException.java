@@ -0,0 +1,38 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import org.datanucleus.exceptions.NucleusDataStoreException;
+
+/**
+ * Exception thrown when the deadline of an operation expires before its requests complete.
+ */
+public class DeadlineExceededException extends NucleusDataStoreException
+{
+    private static final long serialVersionUID = 2806113629468416931L;
+
+    public DeadlineExceededException(String msg)
+    {
+        super(msg);
+    }
+
+    public DeadlineExceededException(String msg, Throwable nested)
+    {
+        super(msg, nested);
+    }
+}
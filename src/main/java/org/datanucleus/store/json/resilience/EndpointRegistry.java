@@ -0,0 +1,176 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.datanucleus.Configuration;
+
+/**
+ * Registry of the endpoints that requests are made to, each with its own circuit breaker and (optional) bulkhead.
+ * An endpoint is the protocol, host and port of the request URL plus its path prefix, being the path excluding the object id
+ * (for object-level requests) and excluding the query string. So for example all requests for a class mapped by the "url" extension
+ * to a particular service share an endpoint.
+ */
+public class EndpointRegistry
+{
+    /** Failure rate (percent) at which a circuit breaker opens (default 50). Set to a negative value to disable circuit breakers. */
+    public static final String PROPERTY_CB_FAILURE_RATE = "datanucleus.json.circuitbreaker.failureratethreshold";
+
+    /** Number of most recent requests that the failure rate is calculated over (default 50). */
+    public static final String PROPERTY_CB_WINDOW_SIZE = "datanucleus.json.circuitbreaker.windowsize";
+
+    /** Minimum number of requests in the window before a circuit breaker can open (default 20). */
+    public static final String PROPERTY_CB_MIN_REQUESTS = "datanucleus.json.circuitbreaker.minimumrequests";
+
+    /** Time (millis) that a circuit breaker stays open before permitting a trial request (default 30000). */
+    public static final String PROPERTY_CB_OPEN_DURATION = "datanucleus.json.circuitbreaker.openduration";
+
+    /** Maximum concurrent requests per endpoint (default 0, meaning no bulkhead). */
+    public static final String PROPERTY_BULKHEAD_MAX_CONCURRENT = "datanucleus.json.bulkhead.maxconcurrent";
+
+    /** Maximum time (millis) that a request waits for a bulkhead permit before being rejected (default 0). */
+    public static final String PROPERTY_BULKHEAD_MAX_WAIT = "datanucleus.json.bulkhead.maxwait";
+
+    private final int failureRateThreshold;
+
+    private final int windowSize;
+
+    private final int minimumRequests;
+
+    private final long openDuration;
+
+    private final int bulkheadMaxConcurrent;
+
+    private final long bulkheadMaxWait;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+    public EndpointRegistry(Configuration conf)
+    {
+        int failureRate = conf.getIntProperty(PROPERTY_CB_FAILURE_RATE);
+        this.failureRateThreshold = failureRate != 0 ? failureRate : 50;
+        this.windowSize = conf.getIntProperty(PROPERTY_CB_WINDOW_SIZE) > 0 ? conf.getIntProperty(PROPERTY_CB_WINDOW_SIZE) : 50;
+        this.minimumRequests = conf.getIntProperty(PROPERTY_CB_MIN_REQUESTS) > 0 ? conf.getIntProperty(PROPERTY_CB_MIN_REQUESTS) : 20;
+        this.openDuration = conf.getIntProperty(PROPERTY_CB_OPEN_DURATION) > 0 ? conf.getIntProperty(PROPERTY_CB_OPEN_DURATION) : 30000;
+        this.bulkheadMaxConcurrent = conf.getIntProperty(PROPERTY_BULKHEAD_MAX_CONCURRENT);
+        this.bulkheadMaxWait = Math.max(0, conf.getIntProperty(PROPERTY_BULKHEAD_MAX_WAIT));
+    }
+
+    /**
+     * Accessor for the endpoint of a request, creating it if not yet known.
+     * @param url URL of the request
+     * @param objectLevel Whether the request is for a single object (so the last path segment is the object id)
+     * @return The endpoint
+     */
+    public Endpoint getEndpoint(URL url, boolean objectLevel)
+    {
+        String path = url.getPath();
+        if (objectLevel)
+        {
+            int sep = path.lastIndexOf('/');
+            path = sep >= 0 ? path.substring(0, sep + 1) : "/";
+        }
+        String key = url.getProtocol() + "://" + url.getAuthority() + path;
+        return endpoints.computeIfAbsent(key, k -> new Endpoint(k,
+            failureRateThreshold > 0 ? new CircuitBreaker(k, failureRateThreshold, windowSize, minimumRequests, openDuration) : null,
+            bulkheadMaxConcurrent > 0 ? new Bulkhead(bulkheadMaxConcurrent, bulkheadMaxWait) : null));
+    }
+
+    /**
+     * Method to record that a request was rejected by a circuit breaker or bulkhead.
+     */
+    public void recordRejection()
+    {
+        rejected.increment();
+    }
+
+    /**
+     * Accessor for the number of requests rejected by circuit breakers and bulkheads.
+     * @return Number of rejected requests
+     */
+    public long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    /**
+     * Accessor for the number of endpoints whose circuit breaker is currently not closed.
+     * @return Number of open (or half-open) circuit breakers
+     */
+    public long getNumberOfOpenCircuitBreakers()
+    {
+        return endpoints.values().stream().filter(e -> e.getCircuitBreaker() != null && e.getCircuitBreaker().getState() != CircuitBreaker.State.CLOSED).count();
+    }
+
+    /**
+     * Accessor for the number of requests currently holding a bulkhead permit, over all endpoints.
+     * @return Number of requests
+     */
+    public long getBulkheadInUse()
+    {
+        return endpoints.values().stream().filter(e -> e.getBulkhead() != null).mapToLong(e -> e.getBulkhead().getInUse()).sum();
+    }
+
+    /**
+     * An endpoint that requests are made to.
+     */
+    public static class Endpoint
+    {
+        private final String name;
+
+        private final CircuitBreaker circuitBreaker;
+
+        private final Bulkhead bulkhead;
+
+        Endpoint(String name, CircuitBreaker circuitBreaker, Bulkhead bulkhead)
+        {
+            this.name = name;
+            this.circuitBreaker = circuitBreaker;
+            this.bulkhead = bulkhead;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Accessor for the circuit breaker of this endpoint.
+         * @return The circuit breaker, or null if disabled
+         */
+        public CircuitBreaker getCircuitBreaker()
+        {
+            return circuitBreaker;
+        }
+
+        /**
+         * Accessor for the bulkhead of this endpoint.
+         * @return The bulkhead, or null if disabled
+         */
+        public Bulkhead getBulkhead()
+        {
+            return bulkhead;
+        }
+    }
+}
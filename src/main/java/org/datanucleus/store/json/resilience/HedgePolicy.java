@@ -0,0 +1,139 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.store.json.metrics.OperationMetrics;
+import org.datanucleus.util.StringUtils;
+
+/**
+ * Policy for hedging requests of idempotent reads (GET, HEAD). When a request has not answered within a percentile of the recent latency
+ * of its operation, a duplicate request is sent and the first response wins. Hedges are limited by a budget per class, so the
+ * additional load is bounded (by default to 5% of the requests of the class).
+ * <p>
+ * The hedge delay of an operation is taken from its latency histogram, refreshed at most once a second, and no hedging is done until
+ * the operation has enough samples.
+ */
+public class HedgePolicy
+{
+    /** Percentile (e.g 95) of latency after which to send a hedge request. Hedging is disabled unless this is specified. */
+    public static final String PROPERTY_PERCENTILE = "datanucleus.json.hedge.percentile";
+
+    /** Number of hedge tokens deposited per request of a class (default 0.05). */
+    public static final String PROPERTY_BUDGET_RATIO = "datanucleus.json.hedge.budgetratio";
+
+    /** Minimum number of samples of an operation before hedging it. */
+    private static final long MIN_SAMPLES = 100;
+
+    private static final long REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long RESERVE_TOKENS = 5;
+
+    private static final long MAX_TOKENS = 50;
+
+    private final double percentile;
+
+    private final double budgetRatio;
+
+    private final Map<String, TokenBudget> budgets = new ConcurrentHashMap<>();
+
+    private final Map<OperationMetrics, HedgeDelay> delays = new ConcurrentHashMap<>();
+
+    public HedgePolicy(double percentile, double budgetRatio)
+    {
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+    }
+
+    /**
+     * Create the hedge policy specified by the configuration.
+     * @param conf Configuration
+     * @return The policy, or null if hedging is not enabled
+     */
+    public static HedgePolicy getHedgePolicy(Configuration conf)
+    {
+        String percentile = conf.getStringProperty(PROPERTY_PERCENTILE);
+        if (StringUtils.isWhitespace(percentile))
+        {
+            return null;
+        }
+        String ratio = conf.getStringProperty(PROPERTY_BUDGET_RATIO);
+        return new HedgePolicy(Double.parseDouble(percentile), StringUtils.isWhitespace(ratio) ? 0.05 : Double.parseDouble(ratio));
+    }
+
+    /**
+     * Whether requests with the specified HTTP verb can be hedged.
+     * @param method HTTP verb
+     * @return Whether the request is an idempotent read
+     */
+    public boolean isHedgeableMethod(String method)
+    {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * Accessor for the delay after which to hedge a request of an operation.
+     * @param opMetrics Metrics of the operation
+     * @return The delay (nanos), or -1 if the operation has too few samples to hedge
+     */
+    public long getHedgeDelayNanos(OperationMetrics opMetrics)
+    {
+        long now = System.nanoTime();
+        HedgeDelay delay = delays.computeIfAbsent(opMetrics, m -> new HedgeDelay());
+        if (now - delay.refreshedAt > REFRESH_INTERVAL_NANOS || delay.refreshedAt == 0)
+        {
+            delay.refreshedAt = now;
+            delay.nanos = opMetrics.getCount() < MIN_SAMPLES ? -1 : Math.max(1, opMetrics.getValueAtPercentile(percentile, TimeUnit.NANOSECONDS));
+        }
+        return delay.nanos;
+    }
+
+    /**
+     * Method to be called for each hedgeable request of a class, depositing into its hedge budget.
+     * @param className Name of the class
+     */
+    public void recordRequest(String className)
+    {
+        getBudget(className).deposit();
+    }
+
+    /**
+     * Withdraw from the hedge budget of a class for a hedge request.
+     * @param className Name of the class
+     * @return Whether the hedge can be sent
+     */
+    public boolean tryAcquireHedge(String className)
+    {
+        return getBudget(className).tryWithdraw();
+    }
+
+    private TokenBudget getBudget(String className)
+    {
+        return budgets.computeIfAbsent(className != null ? className : "-", k -> new TokenBudget(budgetRatio, RESERVE_TOKENS, MAX_TOKENS));
+    }
+
+    private static class HedgeDelay
+    {
+        volatile long refreshedAt;
+        volatile long nanos = -1;
+    }
+}
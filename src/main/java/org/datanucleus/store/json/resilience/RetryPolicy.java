@@ -0,0 +1,171 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.util.StringUtils;
+
+/**
+ * Policy for retrying failed requests of idempotent operations (GET, HEAD, PUT, DELETE).
+ * A request is retried when it fails without a response (e.g socket timeout) or with a status of 408, 429, 500, 502, 503 or 504.
+ * The delay before each retry is a capped exponential backoff with full jitter, unless the response specifies a longer
+ * "Retry-After" (when that is longer than the maximum delay the request is not retried).
+ * <p>
+ * Retries are limited by a budget so that they cannot amplify an overload of the datastore : each request deposits
+ * a fraction of a token (the budget ratio) and each retry withdraws a whole token, with a reserve so that retries are possible
+ * when the request rate is low.
+ */
+public class RetryPolicy
+{
+    /** Maximum number of attempts of a request, including the first (default 3). Set to 1 to disable retries. */
+    public static final String PROPERTY_MAX_ATTEMPTS = "datanucleus.json.retry.maxattempts";
+
+    /** Base delay (millis) of the exponential backoff (default 100). */
+    public static final String PROPERTY_BASE_DELAY = "datanucleus.json.retry.basedelay";
+
+    /** Maximum delay (millis) before a retry (default 20000). */
+    public static final String PROPERTY_MAX_DELAY = "datanucleus.json.retry.maxdelay";
+
+    /** Number of retry tokens deposited per request (default 0.1, so retries are at most 10% of requests plus the reserve). */
+    public static final String PROPERTY_BUDGET_RATIO = "datanucleus.json.retry.budgetratio";
+
+    /** Number of tokens available when no requests have been made. */
+    private static final long RESERVE_TOKENS = 10;
+
+    /** Maximum number of tokens that can be accumulated, limiting a burst of retries after a quiet period. */
+    private static final long MAX_TOKENS = 100;
+
+    private final int maxAttempts;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    private final TokenBudget budget;
+
+    public RetryPolicy(Configuration conf)
+    {
+        this(conf.getIntProperty(PROPERTY_MAX_ATTEMPTS) > 0 ? conf.getIntProperty(PROPERTY_MAX_ATTEMPTS) : 3,
+            conf.getIntProperty(PROPERTY_BASE_DELAY) > 0 ? conf.getIntProperty(PROPERTY_BASE_DELAY) : 100,
+            conf.getIntProperty(PROPERTY_MAX_DELAY) > 0 ? conf.getIntProperty(PROPERTY_MAX_DELAY) : 20000,
+            StringUtils.isWhitespace(conf.getStringProperty(PROPERTY_BUDGET_RATIO)) ? 0.1 : Double.parseDouble(conf.getStringProperty(PROPERTY_BUDGET_RATIO)));
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, double budgetRatio)
+    {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelayMillis;
+        this.maxDelay = maxDelayMillis;
+        this.budget = new TokenBudget(budgetRatio, RESERVE_TOKENS, MAX_TOKENS);
+    }
+
+    /**
+     * Whether requests with the specified HTTP verb can be retried.
+     * @param method HTTP verb
+     * @return Whether the request is idempotent
+     */
+    public boolean isRetryableMethod(String method)
+    {
+        return maxAttempts > 1 && ("GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method));
+    }
+
+    /**
+     * Whether a response with the specified status is a transient failure that can be retried.
+     * @param code HTTP status
+     * @return Whether it can be retried
+     */
+    public boolean isRetryableStatus(int code)
+    {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Method to be called for each request (not each attempt), depositing into the retry budget.
+     */
+    public void recordRequest()
+    {
+        budget.deposit();
+    }
+
+    /**
+     * Accessor for the delay before retrying a failed attempt, withdrawing from the retry budget if a retry is to be made.
+     * @param attempt The attempt that failed (1 for the first)
+     * @param retryAfter Value of the "Retry-After" header of the response (or null)
+     * @return The delay (millis), or -1 if the request is not to be retried
+     */
+    public long getRetryDelay(int attempt, String retryAfter)
+    {
+        if (attempt >= maxAttempts)
+        {
+            return -1;
+        }
+
+        long delay = ThreadLocalRandom.current().nextLong(Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30)) + 1);
+        long retryAfterDelay = parseRetryAfter(retryAfter);
+        if (retryAfterDelay > maxDelay)
+        {
+            return -1;
+        }
+        delay = Math.max(delay, retryAfterDelay);
+
+        return budget.tryWithdraw() ? delay : -1;
+    }
+
+    /**
+     * Accessor for the number of whole retries currently available in the budget.
+     * @return Available retries
+     */
+    public long getAvailableRetries()
+    {
+        return budget.getAvailable();
+    }
+
+    /**
+     * Convert a "Retry-After" header value (delta-seconds, or HTTP-date) to millis.
+     * @param retryAfter The header value
+     * @return The delay (millis), or 0 if not specified or invalid
+     */
+    static long parseRetryAfter(String retryAfter)
+    {
+        if (retryAfter == null || retryAfter.isEmpty())
+        {
+            return 0;
+        }
+        try
+        {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        }
+        catch (NumberFormatException nfe)
+        {
+            try
+            {
+                ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+            }
+            catch (DateTimeParseException dtpe)
+            {
+                return 0;
+            }
+        }
+    }
+}
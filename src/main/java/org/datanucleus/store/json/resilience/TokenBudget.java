@@ -0,0 +1,96 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of tokens limiting additional requests (retries, hedges) to a proportion of the normal requests.
+ * Each normal request deposits a fraction of a token (the ratio) and each additional request withdraws a whole token.
+ * The budget starts with a reserve so that additional requests are possible when the request rate is low, and accumulates
+ * up to a maximum so that a quiet period cannot fund a large burst.
+ */
+public class TokenBudget
+{
+    /** Tokens are held in thousandths, so fractional deposits are exact enough. */
+    private static final long TOKEN_SCALE = 1000;
+
+    private final long deposit;
+
+    private final long maxTokens;
+
+    private final AtomicLong tokens;
+
+    /**
+     * Constructor.
+     * @param ratio Tokens deposited per normal request
+     * @param reserve Initial number of tokens
+     * @param max Maximum number of tokens
+     */
+    public TokenBudget(double ratio, long reserve, long max)
+    {
+        this.deposit = (long) (ratio * TOKEN_SCALE);
+        this.maxTokens = max * TOKEN_SCALE;
+        this.tokens = new AtomicLong(Math.min(reserve, max) * TOKEN_SCALE);
+    }
+
+    /**
+     * Method to be called for each normal request, depositing into the budget.
+     */
+    public void deposit()
+    {
+        long current;
+        do
+        {
+            current = tokens.get();
+            if (current >= maxTokens)
+            {
+                return;
+            }
+        }
+        while (!tokens.compareAndSet(current, Math.min(maxTokens, current + deposit)));
+    }
+
+    /**
+     * Withdraw a token for an additional request if one is available.
+     * @return Whether the additional request can be made
+     */
+    public boolean tryWithdraw()
+    {
+        long current;
+        do
+        {
+            current = tokens.get();
+            if (current < TOKEN_SCALE)
+            {
+                return false;
+            }
+        }
+        while (!tokens.compareAndSet(current, current - TOKEN_SCALE));
+        return true;
+    }
+
+    /**
+     * Accessor for the number of whole tokens currently available.
+     * @return Available tokens
+     */
+    public long getAvailable()
+    {
+        return tokens.get() / TOKEN_SCALE;
+    }
+}
@@ -0,0 +1,121 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.datanucleus.util.NucleusLogger;
+
+/**
+ * Tracer that generates W3C trace context for its spans and logs each span when ended to the DataNucleus.Datastore
+ * log category at DEBUG level. Useful to correlate the requests received by a datastore with the persistence operations
+ * that made them, without a tracing library.
+ */
+public class LoggingTracer implements Tracer
+{
+    private final ThreadLocal<LoggingSpan> currentSpan = new ThreadLocal<>();
+
+    public Span startSpan(String name)
+    {
+        LoggingSpan span = new LoggingSpan(name, currentSpan.get());
+        currentSpan.set(span);
+        return span;
+    }
+
+    public Span getCurrentSpan()
+    {
+        LoggingSpan span = currentSpan.get();
+        return span != null ? span : NoopTracer.NOOP_SPAN;
+    }
+
+    private static String randomHex(int numLongs)
+    {
+        StringBuilder str = new StringBuilder(numLongs * 16);
+        for (int i = 0; i < numLongs; i++)
+        {
+            String hex = Long.toHexString(ThreadLocalRandom.current().nextLong());
+            for (int j = hex.length(); j < 16; j++)
+            {
+                str.append('0');
+            }
+            str.append(hex);
+        }
+        return str.toString();
+    }
+
+    class LoggingSpan implements Span
+    {
+        final String name;
+        final LoggingSpan parent;
+        final String traceId;
+        final String spanId;
+        final long startTime = System.nanoTime();
+        final StringBuilder attributes = new StringBuilder();
+        Throwable error;
+
+        LoggingSpan(String name, LoggingSpan parent)
+        {
+            this.name = name;
+            this.parent = parent;
+            this.traceId = parent != null ? parent.traceId : randomHex(2);
+            this.spanId = randomHex(1);
+        }
+
+        public synchronized Span setAttribute(String key, String value)
+        {
+            attributes.append(' ').append(key).append('=').append(value);
+            return this;
+        }
+
+        public synchronized Span setAttribute(String key, long value)
+        {
+            attributes.append(' ').append(key).append('=').append(value);
+            return this;
+        }
+
+        public void recordError(Throwable error)
+        {
+            this.error = error;
+        }
+
+        public String getTraceParent()
+        {
+            return "00-" + traceId + "-" + spanId + "-01";
+        }
+
+        public void end()
+        {
+            if (currentSpan.get() == this)
+            {
+                if (parent != null)
+                {
+                    currentSpan.set(parent);
+                }
+                else
+                {
+                    currentSpan.remove();
+                }
+            }
+            if (NucleusLogger.DATASTORE.isDebugEnabled())
+            {
+                NucleusLogger.DATASTORE.debug("Span " + name + " trace=" + traceId + " span=" + spanId + " parent=" + (parent != null ? parent.spanId : "-") +
+                    " time=" + ((System.nanoTime() - startTime) / 1000) + "us" + attributes + (error != null ? " error=" + error : ""));
+            }
+        }
+    }
+}
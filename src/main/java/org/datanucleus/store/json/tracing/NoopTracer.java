@@ -0,0 +1,61 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.tracing;
+
+/**
+ * Tracer that does nothing. Used when no tracer is specified, so the cost of tracing is a virtual call per span.
+ */
+public class NoopTracer implements Tracer
+{
+    /** Span that does nothing. Shared since it has no state. */
+    public static final Span NOOP_SPAN = new Span()
+    {
+        public Span setAttribute(String key, String value)
+        {
+            return this;
+        }
+
+        public Span setAttribute(String key, long value)
+        {
+            return this;
+        }
+
+        public void recordError(Throwable error)
+        {
+        }
+
+        public String getTraceParent()
+        {
+            return null;
+        }
+
+        public void end()
+        {
+        }
+    };
+
+    public Span startSpan(String name)
+    {
+        return NOOP_SPAN;
+    }
+
+    public Span getCurrentSpan()
+    {
+        return NOOP_SPAN;
+    }
+}
@@ -0,0 +1,57 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.tracing;
+
+/**
+ * A span of work traced by a Tracer. Must be ended by the code that started it, typically in a finally block.
+ */
+public interface Span
+{
+    /**
+     * Set an attribute on the span.
+     * @param key Attribute name
+     * @param value Attribute value
+     * @return This span
+     */
+    Span setAttribute(String key, String value);
+
+    /**
+     * Set an attribute on the span.
+     * @param key Attribute name
+     * @param value Attribute value
+     * @return This span
+     */
+    Span setAttribute(String key, long value);
+
+    /**
+     * Mark the span as failed with the specified error.
+     * @param error The error
+     */
+    void recordError(Throwable error);
+
+    /**
+     * Accessor for the W3C trace context of this span, for propagation as the "traceparent" header.
+     * @return The traceparent (version-traceid-spanid-flags), or null if not to be propagated
+     */
+    String getTraceParent();
+
+    /**
+     * End the span, restoring its parent as the current span of the thread.
+     */
+    void end();
+}
@@ -0,0 +1,49 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.tracing;
+
+/**
+ * SPI for tracing the persistence operations of a JSON store (flush, fetch, query, relation resolution).
+ * Implementations are specified by class name using the persistence property "datanucleus.json.tracer", and must have
+ * a default constructor; this allows bridging to a tracing library of choice. If not specified then a NoopTracer is used.
+ * <p>
+ * A span is started as a child of the current span of the calling thread, and becomes the current span until ended.
+ * The W3C "traceparent" of the current span is sent with each HTTP request so the datastore can join the trace.
+ */
+public interface Tracer
+{
+    /**
+     * Start a span as a child of the current span of this thread (if any), making it the current span.
+     * @param name Name of the span
+     * @return The span
+     */
+    Span startSpan(String name);
+
+    /**
+     * Accessor for the current span of this thread.
+     * @return The current span (a no-op span if none)
+     */
+    Span getCurrentSpan();
+
+    /**
+     * Release any resources of the tracer. Called when the store manager is closed.
+     */
+    default void close()
+    {
+    }
+}
@@ -0,0 +1,179 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jdo.JDOHelper;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Transaction;
+
+import org.datanucleus.api.jdo.JDOPersistenceManagerFactory;
+import org.datanucleus.store.json.emulator.CloudStorageEmulator;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base for tests of a cloud storage datastore ("amazons3", "googlestorage") against the in-process CloudStorageEmulator.
+ * Each test has its own emulator, and a PMF created with {@link #getProperties()}.
+ */
+public abstract class CloudStorageTestCase
+{
+    protected static final String ACCESS_KEY = "testAccessKey";
+
+    protected static final String SECRET_KEY = "testSecretKey";
+
+    protected static final String BUCKET = "dntest";
+
+    static
+    {
+        // Requests are addressed to the bucket via the Host header, which must be set before HttpURLConnection is first used
+        System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+    }
+
+    protected CloudStorageEmulator emulator;
+
+    protected PersistenceManagerFactory pmf;
+
+    /**
+     * Accessor for the key of the store manager under test.
+     * @return "amazons3" or "googlestorage"
+     */
+    protected abstract String getStoreManagerKey();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        emulator = new CloudStorageEmulator("googlestorage".equals(getStoreManagerKey()) ? "GOOG1" : "AWS", ACCESS_KEY, SECRET_KEY);
+        emulator.start();
+        pmf = createPMF(getProperties());
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (pmf != null)
+        {
+            pmf.close();
+        }
+        emulator.stop();
+    }
+
+    /**
+     * Accessor for the persistence properties of the PMF of a test, in addition to the connection to the emulator.
+     * Override to enable optional features.
+     * @return The properties
+     */
+    protected Map<String, Object> getProperties()
+    {
+        return new HashMap<>();
+    }
+
+    protected PersistenceManagerFactory createPMF(Map<String, Object> props)
+    {
+        Map<String, Object> pmfProps = new HashMap<>();
+        pmfProps.put("javax.jdo.PersistenceManagerFactoryClass", JDOPersistenceManagerFactory.class.getName());
+        pmfProps.put("javax.jdo.option.ConnectionURL", emulator.getConnectionURL(getStoreManagerKey()));
+        pmfProps.put("javax.jdo.option.ConnectionUserName", ACCESS_KEY);
+        pmfProps.put("javax.jdo.option.ConnectionPassword", SECRET_KEY);
+        pmfProps.put("datanucleus.cloud.storage.bucket", BUCKET);
+        // Fetches must go to the datastore rather than the L2 cache
+        pmfProps.put("datanucleus.cache.level2.type", "none");
+        pmfProps.putAll(props);
+        return JDOHelper.getPersistenceManagerFactory(pmfProps);
+    }
+
+    /**
+     * Accessor for the persistence handler of the PMF.
+     * @return The handler
+     */
+    protected CloudStoragePersistenceHandler getPersistenceHandler()
+    {
+        return (CloudStoragePersistenceHandler) ((JDOPersistenceManagerFactory) pmf).getNucleusContext().getStoreManager().getPersistenceHandler();
+    }
+
+    /**
+     * Persist the objects in one (optimistic) transaction, so they are inserted together when it commits.
+     * @param pcs The objects
+     */
+    protected void persist(Object... pcs)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.setOptimistic(true);
+            tx.begin();
+            pm.makePersistentAll(pcs);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Delete the objects in one (optimistic) transaction, so they are deleted together when it commits.
+     * @param cls Class of the objects
+     * @param ids PKs of the objects
+     */
+    protected void deleteAll(Class cls, Object... ids)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.setOptimistic(true);
+            tx.begin();
+            Object[] pcs = new Object[ids.length];
+            for (int i = 0; i < ids.length; i++)
+            {
+                pcs[i] = pm.getObjectById(cls, ids[i]);
+            }
+            pm.deletePersistentAll(pcs);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Accessor for the key of an object in the bucket.
+     * @param cls Class of the object
+     * @param id PK of the object
+     * @return The key
+     */
+    protected static String getKey(Class cls, String id)
+    {
+        return cls.getName() + "/" + id;
+    }
+}
@@ -0,0 +1,1908 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.jdo.JDODataStoreException;
+import javax.jdo.JDOException;
+import javax.jdo.JDOObjectNotFoundException;
+import javax.jdo.JDOOptimisticVerificationException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.PersistenceManagerFactory;
+import javax.jdo.Query;
+import javax.jdo.Transaction;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.datanucleus.Configuration;
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jdo.JDOPersistenceManager;
+import org.datanucleus.exceptions.NucleusObjectNotFoundException;
+import org.datanucleus.state.DNStateManager;
+import org.datanucleus.store.json.cache.DiskCache;
+import org.datanucleus.store.json.cache.NegativeCache;
+import org.datanucleus.store.json.cache.OffHeapCache;
+import org.datanucleus.store.json.metrics.MetricsExporter;
+import org.datanucleus.store.json.metrics.MetricsRegistry;
+import org.datanucleus.store.json.metrics.OperationMetrics;
+import org.datanucleus.store.json.metrics.OperationType;
+import org.datanucleus.store.json.model.Account;
+import org.datanucleus.store.json.model.Memo;
+import org.datanucleus.store.json.model.Person;
+import org.datanucleus.store.json.model.PersonNote;
+import org.datanucleus.store.json.model.Product;
+import org.datanucleus.store.json.resilience.Deadline;
+import org.datanucleus.store.json.resilience.RetryPolicy;
+import org.datanucleus.store.json.resilience.DeadlineExceededException;
+import org.datanucleus.store.json.resilience.EndpointRegistry;
+import org.datanucleus.store.json.resilience.HedgePolicy;
+import org.datanucleus.store.json.tracing.NoopTracer;
+import org.datanucleus.store.json.tracing.Span;
+import org.datanucleus.store.json.tracing.Tracer;
+import org.junit.Test;
+
+/**
+ * Tests of persisting objects via a cloud storage persistence handler : insert, fetch, update, delete and query.
+ */
+public abstract class PersistenceHandlerTestCase extends CloudStorageTestCase
+{
+    @Test
+    public void testInsertAndFetch()
+    {
+        persist(new Person("p1", "Alice", 30));
+        assertNotNull(emulator.getObjectContent(BUCKET, getKey(Person.class, "p1")));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Person person = pm.getObjectById(Person.class, "p1");
+            assertEquals("Alice", person.getName());
+            assertEquals(30, person.getAge());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testUpdate()
+    {
+        persist(new Person("p1", "Alice", 30));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            Person person = pm.getObjectById(Person.class, "p1");
+            person.setName("Alicia");
+            person.setAge(31);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+
+        pm = pmf.getPersistenceManager();
+        try
+        {
+            Person person = pm.getObjectById(Person.class, "p1");
+            assertEquals("Alicia", person.getName());
+            assertEquals(31, person.getAge());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testDelete()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.deletePersistent(pm.getObjectById(Person.class, "p1"));
+            tx.commit();
+
+            // Several objects in one call
+            tx.begin();
+            pm.deletePersistentAll(pm.getObjectById(Person.class, "p2"), pm.getObjectById(Person.class, "p3"));
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+        assertEquals(0, countObjects(Person.class));
+
+        pm = pmf.getPersistenceManager();
+        try
+        {
+            pm.getObjectById(Person.class, "p1");
+            fail("Deleted object was found");
+        }
+        catch (JDOObjectNotFoundException e)
+        {
+            // Expected
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testQuery()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query<Person> q = pm.newQuery(Person.class, "age >= :minAge");
+            q.setOrdering("age descending");
+            List<Person> results = q.setParameters(40).executeList();
+            assertEquals(2, results.size());
+            assertEquals("Carol", results.get(0).getName());
+            assertEquals("Bob", results.get(1).getName());
+
+            // Answered from the keys of the listing
+            Query countQuery = pm.newQuery("SELECT count(this) FROM " + Person.class.getName());
+            assertEquals(3L, countQuery.executeResultUnique());
+            Query idQuery = pm.newQuery("SELECT id FROM " + Person.class.getName() + " WHERE id > 'p1' ORDER BY id");
+            assertEquals(List.of("p2", "p3"), idQuery.executeResultList());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testQueryExcludesClassWithSamePrefix()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40),
+            new PersonNote("n1", "First"), new PersonNote("n2", "Second"), new PersonNote("n3", "Third"));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            List<Person> results = pm.newQuery(Person.class).executeList();
+            assertEquals(2, results.size());
+
+            Query countQuery = pm.newQuery("SELECT count(this) FROM " + Person.class.getName());
+            assertEquals(2L, countQuery.executeResultUnique());
+            Query idQuery = pm.newQuery("SELECT id FROM " + Person.class.getName() + " ORDER BY id");
+            assertEquals(List.of("p1", "p2"), idQuery.executeResultList());
+
+            Query noteCountQuery = pm.newQuery("SELECT count(this) FROM " + PersonNote.class.getName());
+            assertEquals(3L, noteCountQuery.executeResultUnique());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testQueryOfURLWithSeveralSegments()
+    {
+        persist(new Memo("m1", "First"), new Memo("m2", "Second"), new Memo("m3", "Third"));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query idQuery = pm.newQuery("SELECT id FROM " + Memo.class.getName() + " ORDER BY id");
+            assertEquals(List.of("m1", "m2", "m3"), idQuery.executeResultList());
+            List<Memo> results = pm.newQuery(Memo.class, "text == 'Second'").executeList();
+            assertEquals(1, results.size());
+            assertEquals("m2", results.get(0).getId());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testCountWithPrimaryKeyFilter()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50), new Person("p10", "Dave", 60));
+        assertCountWithPrimaryKeyFilter();
+
+        // Same from the listings of key shards
+        pmf.close();
+        emulator.clear();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_KEY_SHARDS, "4"));
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50), new Person("p10", "Dave", 60));
+        assertCountWithPrimaryKeyFilter();
+
+        // Same from the manifest
+        pmf.close();
+        emulator.clear();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MANIFEST, "true"));
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50), new Person("p10", "Dave", 60));
+        assertCountWithPrimaryKeyFilter();
+    }
+
+    private void assertCountWithPrimaryKeyFilter()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            String count = "SELECT count(this) FROM " + Person.class.getName();
+            assertEquals(1L, pm.newQuery(count + " WHERE id == 'p1'").executeResultUnique());
+            assertEquals(2L, pm.newQuery(count + " WHERE id > 'p1' && id < 'p3'").executeResultUnique());
+            assertEquals(2L, pm.newQuery(count + " WHERE id.startsWith('p1')").executeResultUnique());
+            assertEquals(0L, pm.newQuery(count + " WHERE id == :id").setParameters("p4").executeResultUnique());
+            assertEquals(3L, pm.newQuery(count + " WHERE id != 'p2'").executeResultUnique());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testQueryOfKeyShards()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_KEY_SHARDS, "4"));
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50), new Person("p4", "Dave", 60));
+        assertEquals(4, countObjects(Person.class));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query<Person> q = pm.newQuery(Person.class, "age >= :minAge");
+            q.setOrdering("age ascending");
+            List<Person> results = q.setParameters(40).executeList();
+            assertEquals(3, results.size());
+            assertEquals("Bob", results.get(0).getName());
+            assertEquals("Dave", results.get(2).getName());
+
+            Query countQuery = pm.newQuery("SELECT count(this) FROM " + Person.class.getName());
+            assertEquals(4L, countQuery.executeResultUnique());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testKeyShards()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_KEY_SHARDS, "4"));
+        for (int i = 0; i < 16; i++)
+        {
+            persist(new Person("p" + i, "Person " + i, 20 + i));
+        }
+
+        // Keys are "{class}/{shard}/{pk}" with the shard a hash of the pk, spread over several shards
+        List<String> keys = emulator.getKeys(BUCKET, getKey(Person.class, ""));
+        assertEquals(16, keys.size());
+        Set<String> shards = new HashSet<>();
+        for (String key : keys)
+        {
+            String[] segments = key.substring(getKey(Person.class, "").length()).split("/");
+            assertEquals(key, 2, segments.length);
+            CRC32 crc = new CRC32();
+            crc.update(segments[1].getBytes(StandardCharsets.UTF_8));
+            assertEquals(key, Long.toHexString(crc.getValue() % 4), segments[0]);
+            shards.add(segments[0]);
+        }
+        assertTrue("Keys in shards " + shards, shards.size() > 1);
+
+        // Objects are found, updated and deleted at their sharded key
+        assertFound("p7", true);
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            pm.getObjectById(Person.class, "p7").setAge(70);
+        }
+        finally
+        {
+            pm.close();
+        }
+        pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals(70, pm.getObjectById(Person.class, "p7").getAge());
+            pm.deletePersistent(pm.getObjectById(Person.class, "p7"));
+        }
+        finally
+        {
+            pm.close();
+        }
+        assertEquals(15, emulator.getKeys(BUCKET, getKey(Person.class, "")).size());
+        assertFound("p7", false);
+        assertEquals(15, getPersonIds().size());
+    }
+
+    @Test
+    public void testQueryOfTruncatedListing()
+    {
+        persist(new Person("p1", "Alice", 30));
+        persist(new Person("p2", "Bob", 40), new Person("p3", "Carol", 50), new Person("p4", "Dave", 60), new Person("p5", "Eve", 70));
+
+        // Listings return at most 2 keys, so the 5 objects are listed in 3 pages
+        emulator.setMaxKeys(2);
+        OperationMetrics queries = getPersistenceHandler().getMetricsRegistry().getOperationMetrics(Person.class.getName(), OperationType.QUERY);
+        long numQueries = queries.getCount();
+        assertEquals(List.of("p1", "p2", "p3", "p4", "p5"), getPersonIds());
+        assertEquals(numQueries + 3, queries.getCount());
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query<Person> q = pm.newQuery(Person.class, "age > :minAge");
+            q.setOrdering("age descending");
+            List<Person> results = q.setParameters(45).executeList();
+            assertEquals(3, results.size());
+            assertEquals("Eve", results.get(0).getName());
+            assertEquals("Carol", results.get(2).getName());
+
+            Query countQuery = pm.newQuery("SELECT count(this) FROM " + Person.class.getName());
+            assertEquals(5L, countQuery.executeResultUnique());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testQueryOfManifest()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MANIFEST, "true"));
+        persist(new Person("p1", "Alice", 30));
+        persist(new Person("p2", "Bob", 40));
+        persist(new Person("p3", "Carol", 50));
+        deleteAll(Person.class, "p2");
+        assertEquals(List.of("+p1\n", "+p2\n", "+p3\n", "-p2\n"), getManifestSegments(Person.class));
+        assertEquals(List.of("p1", "p3"), getPersonIds());
+
+        // Read from the manifest rather than the listing of the class
+        emulator.removeKeys(BUCKET, getKey(Person.class, "p3"));
+        assertEquals(List.of("p1"), getPersonIds());
+    }
+
+    @Test
+    public void testManifestOfFailedWrites()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MANIFEST, "true"));
+        persist(new Person("p1", "Alice", 30));
+
+        // Key is added before the object is stored, so is left in the manifest when the insert fails
+        emulator.injectFailure("PUT", getKey(Person.class, "p2"), 500, "InternalError");
+        try
+        {
+            persist(new Person("p2", "Bob", 40));
+            fail("Insert of an object that the datastore failed to store succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        emulator.clearFailures();
+        assertEquals(List.of("+p1\n", "+p2\n"), getManifestSegments(Person.class));
+        assertEquals(List.of("p1"), getPersonIds());
+
+        // Rejected so removed from the manifest again
+        emulator.injectFailure("PUT", getKey(Person.class, "p3"), 403, "AccessDenied");
+        try
+        {
+            persist(new Person("p3", "Carol", 50));
+            fail("Insert of an object that the datastore failed to store succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        emulator.clearFailures();
+        assertEquals(List.of("+p1\n", "+p2\n", "+p3\n", "-p3\n"), getManifestSegments(Person.class));
+
+        // Key is removed after the object is deleted, so is kept when the delete fails
+        emulator.injectFailure("DELETE", getKey(Person.class, "p1"), 403, "AccessDenied");
+        try
+        {
+            deleteAll(Person.class, "p1");
+            fail("Delete of an object that the datastore failed to delete succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        emulator.clearFailures();
+        assertEquals(4, getManifestSegments(Person.class).size());
+        assertEquals(List.of("p1"), getPersonIds());
+
+        deleteAll(Person.class, "p1");
+        assertEquals(List.of("+p1\n", "+p2\n", "+p3\n", "-p3\n", "-p1\n"), getManifestSegments(Person.class));
+        assertEquals(Collections.emptyList(), getPersonIds());
+    }
+
+    @Test
+    public void testManifestCompaction()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MANIFEST, "true",
+            CloudStoragePersistenceHandler.PROPERTY_MANIFEST_COMPACTION_SEGMENTS, "2"));
+        persist(new Person("p1", "Alice", 30));
+
+        // First read lists the class and writes the snapshot
+        assertEquals(List.of("p1"), getPersonIds());
+        String snapshotPrefix = CloudStorageManifest.MANIFEST_PREFIX + getKey(Person.class, "snapshot/");
+        assertEquals(1, emulator.getKeys(BUCKET, snapshotPrefix).size());
+
+        persist(new Person("p2", "Bob", 40));
+        persist(new Person("p3", "Carol", 50));
+        deleteAll(Person.class, "p2");
+        assertEquals(4, getManifestSegments(Person.class).size());
+
+        // Segments within the grace period are not compacted
+        assertEquals(List.of("p1", "p3"), getPersonIds());
+        assertEquals(4, getManifestSegments(Person.class).size());
+
+        ageManifest(Person.class, 60 * 60 * 1000);
+        assertEquals(List.of("p1", "p3"), getPersonIds());
+        assertEquals(Collections.emptyList(), getManifestSegments(Person.class));
+        List<String> snapshots = emulator.getKeys(BUCKET, snapshotPrefix);
+        assertEquals(1, snapshots.size());
+        assertEquals("p1\np3\n", emulator.getObjectContent(BUCKET, snapshots.get(0)));
+
+        // Later segments are applied to the snapshot
+        persist(new Person("p4", "Dave", 60));
+        deleteAll(Person.class, "p1");
+        assertEquals(List.of("p3", "p4"), getPersonIds());
+    }
+
+    @Test
+    public void testQueryOfIndex()
+    {
+        persist(new Product("a", "books", 10), new Product("b", "games", 20), new Product("c", "books", 30), new Product("d", "books", 40));
+
+        // Leave the index entry of "a" behind when it is deleted
+        emulator.injectFailure("DELETE", SecondaryIndex.INDEX_PREFIX, 403, "AccessDenied");
+        try
+        {
+            deleteAll(Product.class, "a");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        emulator.clearFailures();
+        assertEquals(3, countObjects(Product.class));
+
+        assertEquals(List.of("c", "d"), getProductIds("books"));
+    }
+
+    @Test
+    public void testQueryOfIndexBuiltForExistingObjects()
+    {
+        persist(new Product("a", "books", 10), new Product("b", "games", 20), new Product("c", "books", 30));
+        // As if stored before the member was indexed
+        emulator.removeKeys(BUCKET, SecondaryIndex.INDEX_PREFIX);
+
+        assertEquals(List.of("a", "c"), getProductIds("books"));
+        String classPath = Product.class.getName() + "/";
+        assertEquals(3, emulator.getKeys(BUCKET, SecondaryIndex.getIndexPath(classPath, "category")).size());
+        assertEquals(1, emulator.getKeys(BUCKET, SecondaryIndex.getBuiltMarkerPath(classPath, "category")).size());
+
+        // Index is built, so another client uses it without listing the class : HEAD of the marker, listing of the index, GET of each object
+        pmf.close();
+        pmf = createPMF(Collections.emptyMap());
+        persist(new Product("d", "books", 40));
+        emulator.resetCounts();
+        assertEquals(List.of("a", "c", "d"), getProductIds("books"));
+        assertEquals(5, emulator.getRequestCount());
+    }
+
+    @Test
+    public void testQueryOfIndexFromDocumentCache()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(OffHeapCache.PROPERTY_MAX_SIZE, "4"));
+        persist(new Product("a", "books", 10), new Product("b", "games", 20), new Product("c", "books", 30));
+        assertEquals(List.of("a", "c"), getProductIds("books"));
+
+        // Objects are loaded from the cached documents, so the only request is the listing of the index
+        emulator.resetCounts();
+        assertEquals(List.of("a", "c"), getProductIds("books"));
+        assertEquals(1, emulator.getRequestCount());
+    }
+
+    @Test
+    public void testFetchMissing()
+    {
+        persist(new Person("p1", "Alice", 30));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            pm.getObjectById(Person.class, "missing");
+            fail("Object that was never persisted was found");
+        }
+        catch (JDOObjectNotFoundException e)
+        {
+            // Expected
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testRejectedInsertNotRecordedPresent()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(NegativeCache.PROPERTY_TTL, "60000"));
+        assertFound("p1", false);
+
+        emulator.injectFailure("PUT", getKey(Person.class, "p1"), 403, "AccessDenied");
+        try
+        {
+            persist(new Person("p1", "Alice", 30));
+            fail("Insert of an object that the datastore failed to store succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        emulator.clearFailures();
+
+        // Rejected so not stored, and still known not to exist
+        emulator.resetCounts();
+        assertFound("p1", false);
+        assertEquals(0, emulator.getRequestCount());
+
+        persist(new Person("p1", "Alice", 30));
+        assertFound("p1", true);
+    }
+
+    @Test
+    public void testFailedInsertRecordedPresent()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(NegativeCache.PROPERTY_TTL, "60000", CloudStoragePersistenceHandler.PROPERTY_BLOOM_FILTER_TTL, "60000",
+            RetryPolicy.PROPERTY_MAX_ATTEMPTS, "1"));
+        persist(new Person("p2", "Bob", 40));
+        // Listing builds the Bloom filter of the keys of the class, so "p1" is known not to exist
+        Query countQuery = pmf.getPersistenceManager().newQuery("SELECT count(this) FROM " + Person.class.getName());
+        assertEquals(1L, countQuery.executeResultUnique());
+        emulator.resetCounts();
+        assertFound("p1", false);
+        assertEquals(0, emulator.getRequestCount());
+
+        emulator.injectFailure("PUT", getKey(Person.class, "p1"), 500, "InternalError");
+        try
+        {
+            persist(new Person("p1", "Alice", 30), new Person("p3", "Carol", 50));
+            fail("Insert of an object that the datastore failed to store succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        emulator.clearFailures();
+
+        // Server error so may have been stored, and is no longer known not to exist
+        emulator.resetCounts();
+        assertFound("p1", false);
+        assertEquals(1, emulator.getRequestCount());
+    }
+
+    @Test
+    public void testFindObjects()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of("datanucleus.enableStatistics", "true"));
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            ExecutionContext ec = ((JDOPersistenceManager) pm).getExecutionContext();
+            Object[] ids = {ec.newObjectId(Person.class, "p1"), ec.newObjectId(Person.class, "p2"), ec.newObjectId(Person.class, "missing")};
+            int reads = ec.getStatistics().getNumberOfDatastoreReads();
+            emulator.resetCounts();
+            Object[] objects = getPersistenceHandler().findObjects(ec, ids);
+            assertEquals(3, emulator.getRequestCount());
+            assertEquals("Alice", ((Person) objects[0]).getName());
+            assertEquals(40, ((Person) objects[1]).getAge());
+            assertNull(objects[2]);
+
+            // Only the objects that were loaded are counted
+            assertEquals(2, ec.getStatistics().getNumberOfDatastoreReads() - reads);
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testFindObjectsInLevel1Cache()
+    {
+        persist(new Person("p1", "Alice", 30));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.setOptimistic(true);
+            tx.begin();
+            Person p1 = pm.getObjectById(Person.class, "p1");
+            assertEquals("Alice", p1.getName());
+            // New in the transaction, so not yet in the datastore
+            Person p3 = pm.makePersistent(new Person("p3", "Carol", 50));
+
+            ExecutionContext ec = ((JDOPersistenceManager) pm).getExecutionContext();
+            Object[] ids = {ec.newObjectId(Person.class, "p1"), ec.newObjectId(Person.class, "p3")};
+            emulator.resetCounts();
+            Object[] objects = getPersistenceHandler().findObjects(ec, ids);
+            assertEquals(0, emulator.getRequestCount());
+            assertSame(p1, objects[0]);
+            assertSame(p3, objects[1]);
+            assertSame(p3, pm.getObjectById(Person.class, "p3"));
+
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+        assertEquals(2, countObjects(Person.class));
+    }
+
+    @Test
+    public void testLocateObjects()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            ExecutionContext ec = ((JDOPersistenceManager) pm).getExecutionContext();
+            String[] keys = {"p1", "p2", "missing"};
+            DNStateManager[] sms = new DNStateManager[keys.length];
+            for (int i = 0; i < keys.length; i++)
+            {
+                sms[i] = ec.findStateManager(ec.findObject(ec.newObjectId(Person.class, keys[i]), false));
+            }
+            emulator.resetCounts();
+            try
+            {
+                getPersistenceHandler().locateObjects(sms);
+                fail("Locate of an object that doesn't exist succeeded");
+            }
+            catch (NucleusObjectNotFoundException e)
+            {
+                // Only the missing object is reported
+                Throwable[] nested = e.getNestedExceptions();
+                assertEquals(1, nested.length);
+                assertTrue(nested[0].getMessage(), nested[0].getMessage().contains(getKey(Person.class, "missing")));
+            }
+            assertEquals(3, emulator.getRequestCount());
+
+            // Objects that exist are located without failing
+            getPersistenceHandler().locateObjects(new DNStateManager[] {sms[0], sms[1]});
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testMultipartUpload()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MULTIPART_THRESHOLD, "1024"));
+        String name = "x".repeat(4000);
+        persist(new Person("p1", name, 30));
+        assertEquals(1, emulator.getNumberOfUploadsInitiated());
+        assertEquals(0, emulator.getNumberOfUploadsInProgress());
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals(name, pm.getObjectById(Person.class, "p1").getName());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testMultipartUploadAbort()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MULTIPART_THRESHOLD, "1024"));
+        // Fail the upload of the parts
+        emulator.injectFailure("PUT", getKey(Person.class, "p1"), 403, "AccessDenied");
+        try
+        {
+            persist(new Person("p1", "x".repeat(4000), 30));
+            fail("Insert of an object whose parts failed to upload succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        assertEquals(1, emulator.getNumberOfUploadsInitiated());
+        assertEquals(0, emulator.getNumberOfUploadsInProgress());
+        assertEquals(0, countObjects(Person.class));
+    }
+
+    @Test
+    public void testMultipartUploadOfPartWithoutETag()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_MULTIPART_THRESHOLD, "1024"));
+        // Part cannot be listed in the completion without its ETag, so the upload fails rather than completing without it
+        emulator.setPartETags(false);
+        try
+        {
+            persist(new Person("p1", "x".repeat(4000), 30));
+            fail("Insert of an object whose parts have no ETag succeeded");
+        }
+        catch (JDOException e)
+        {
+            assertTrue(e.toString(), e.toString().contains("No ETag"));
+        }
+        assertEquals(1, emulator.getNumberOfUploadsInitiated());
+        assertEquals(0, emulator.getNumberOfUploadsInProgress());
+        assertEquals(0, countObjects(Person.class));
+    }
+
+    @Test
+    public void testConditionalCreate()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_CONDITIONAL_CREATE, "true"));
+        persist(new Person("p1", "Alice", 30));
+        try
+        {
+            persist(new Person("p1", "Bob", 40));
+            fail("Insert of an object with the key of an existing object succeeded");
+        }
+        catch (JDOException e)
+        {
+            assertDuplicateKey(e);
+        }
+        assertTrue(emulator.getObjectContent(BUCKET, getKey(Person.class, "p1")).contains("Alice"));
+    }
+
+    @Test
+    public void testConditionalCreateMultipart()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_CONDITIONAL_CREATE, "true",
+            CloudStoragePersistenceHandler.PROPERTY_MULTIPART_THRESHOLD, "1024"));
+        persist(new Person("p1", "Alice", 30));
+        try
+        {
+            persist(new Person("p1", "x".repeat(4000), 40));
+            fail("Multipart upload of an object with the key of an existing object succeeded");
+        }
+        catch (JDOException e)
+        {
+            assertDuplicateKey(e);
+        }
+        assertEquals(1, emulator.getNumberOfUploadsInitiated());
+        assertEquals(0, emulator.getNumberOfUploadsInProgress());
+        assertTrue(emulator.getObjectContent(BUCKET, getKey(Person.class, "p1")).contains("Alice"));
+    }
+
+    @Test
+    public void testConditionalWriteNotRetried()
+    {
+        CloudStoragePersistenceHandler handler = getPersistenceHandler();
+        assertTrue(handler.isConditionalWrite("PUT", Map.of("If-None-Match", "*")));
+        assertTrue(handler.isConditionalWrite("POST", Map.of("x-goog-if-generation-match", "0")));
+        assertFalse(handler.isConditionalWrite("PUT", Map.of("Content-Type", "application/json")));
+        // A GET validating a cached copy is safe to retry
+        assertFalse(handler.isConditionalWrite("GET", Map.of("If-None-Match", "\"etag\"")));
+    }
+
+    @Test
+    public void testConditionalUpdate()
+    {
+        pmf.close();
+        Map<String, Object> props = Map.of(CloudStoragePersistenceHandler.PROPERTY_METADATA_HEADERS, "true");
+        pmf = createPMF(props);
+        persist(new Account("a1", "Alice", 100));
+
+        // Version written is known, so the update is a conditional PUT without a HEAD to check the version
+        emulator.resetCounts();
+        updateBalance(pmf, "a1", 90);
+        assertEquals(2, emulator.getRequestCount());
+
+        PersistenceManagerFactory otherPmf = createPMF(props);
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        tx.setOptimistic(true);
+        try
+        {
+            tx.begin();
+            Account account = pm.getObjectById(Account.class, "a1");
+            assertEquals(90, account.getBalance());
+            updateBalance(otherPmf, "a1", 80);
+
+            account.setBalance(70);
+            emulator.resetCounts();
+            tx.commit();
+            fail("Update of an object updated by another client since it was read succeeded");
+        }
+        catch (JDOOptimisticVerificationException e)
+        {
+            // Precondition of the PUT failed
+            assertEquals(1, emulator.getRequestCount());
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+            otherPmf.close();
+        }
+
+        pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals(80, pm.getObjectById(Account.class, "a1").getBalance());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testPartialUpdateOfMirroredMembers()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_METADATA_HEADERS, "true"));
+        persist(new Account("a1", "Alice", 100));
+        assertTrue(emulator.getObjectMetadata(BUCKET, getKey(Account.class, "a1")).keySet().stream().anyMatch(name -> name.endsWith("-meta-dn-field-owner")));
+
+        // "owner" isn't loaded by the update, so isn't mirrored rather than mirroring a default value
+        updateBalance(pmf, "a1", 90);
+        Map<String, String> metadata = emulator.getObjectMetadata(BUCKET, getKey(Account.class, "a1"));
+        assertTrue(metadata.keySet().stream().anyMatch(name -> name.endsWith("-meta-dn-version")));
+        assertFalse(metadata.keySet().stream().anyMatch(name -> name.endsWith("-meta-dn-field-owner")));
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Account account = pm.getObjectById(Account.class, "a1");
+            assertEquals(90, account.getBalance());
+
+            // Known not to be mirrored, so read from the document without a HEAD first
+            emulator.resetCounts();
+            account.getOwner();
+            assertEquals(1, emulator.getRequestCount());
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    private static void updateBalance(PersistenceManagerFactory pmf, String id, long balance)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        tx.setOptimistic(true);
+        try
+        {
+            tx.begin();
+            pm.getObjectById(Account.class, id).setBalance(balance);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentFetchesShareRequest() throws Exception
+    {
+        pmf.close();
+        pmf = createPMF(Map.of("datanucleus.enableStatistics", "true"));
+        persist(new Person("p1", "Alice", 30));
+
+        // Hollow object in each PM, so that reading its name fetches it, with each fetch taking long enough to overlap
+        int numFetches = 4;
+        List<PersistenceManager> pms = new ArrayList<>();
+        List<Callable<String>> fetches = new ArrayList<>();
+        for (int i = 0; i < numFetches; i++)
+        {
+            PersistenceManager pm = pmf.getPersistenceManager();
+            pms.add(pm);
+            Person person = (Person) pm.getObjectById(pm.newObjectIdInstance(Person.class, "p1"), false);
+            fetches.add(person::getName);
+        }
+        emulator.setLatency(300, 300);
+        emulator.resetCounts();
+        ExecutorService executor = Executors.newFixedThreadPool(numFetches);
+        try
+        {
+            for (Future<String> name : executor.invokeAll(fetches))
+            {
+                assertEquals("Alice", name.get());
+            }
+
+            // One request, and one read counted, for all of the fetches
+            assertEquals(1, emulator.getRequestCount());
+            int reads = 0;
+            for (PersistenceManager pm : pms)
+            {
+                reads += ((JDOPersistenceManager) pm).getExecutionContext().getStatistics().getNumberOfDatastoreReads();
+            }
+            assertEquals(1, reads);
+        }
+        finally
+        {
+            executor.shutdown();
+            pms.forEach(PersistenceManager::close);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareDeadline()
+    {
+        // One request at a time, each taking 200ms, with a deadline of 500ms
+        List<Long> remainingMillis = Collections.synchronizedList(new ArrayList<>());
+        List<Runnable> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            requests.add(() ->
+            {
+                remainingMillis.add(Deadline.getCurrent().getRemainingMillis());
+                try
+                {
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        List<Throwable> failures;
+        Deadline deadline = Deadline.enter(500);
+        try
+        {
+            failures = getPersistenceHandler().executeConcurrently(requests, 1);
+        }
+        finally
+        {
+            deadline.exit();
+        }
+
+        // Each request only has the time remaining when it starts, and those after the deadline are not sent
+        assertEquals(3, remainingMillis.size());
+        for (int i = 0; i < remainingMillis.size(); i++)
+        {
+            assertTrue("Request " + i + " had " + remainingMillis.get(i) + "ms", remainingMillis.get(i) <= 500 - 200 * i);
+        }
+        assertEquals(2, failures.size());
+        for (Throwable failure : failures)
+        {
+            assertTrue(failure.toString(), failure instanceof DeadlineExceededException);
+        }
+    }
+
+    @Test
+    public void testOperationMetrics() throws JMException
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(JsonPersistenceHandler.PROPERTY_METRICS_JMX, "true",
+            JsonPersistenceHandler.PROPERTY_METRICS_EXPORTER, RecordingMetricsExporter.class.getName()));
+        MetricsRegistry registry = getPersistenceHandler().getMetricsRegistry();
+        assertSame(registry, RecordingMetricsExporter.registry);
+
+        persist(new Person("p1", "Alice", 30));
+        assertFound("p1", true);
+        assertFound("p2", false);
+
+        // Each request is recorded for its class and operation, with its latency, bytes and status code
+        OperationMetrics inserts = registry.getOperationMetrics(Person.class.getName(), OperationType.INSERT);
+        assertEquals(1, inserts.getCount());
+        assertEquals(1, inserts.getLatencyHistogram().getCount());
+        assertEquals(1, inserts.getStatusCodeCount(200));
+        assertTrue(inserts.getRequestBytes() > 0);
+        OperationMetrics fetches = registry.getOperationMetrics(Person.class.getName(), OperationType.FETCH);
+        assertEquals(2, fetches.getCount());
+        assertEquals(1, fetches.getStatusCodeCount(200));
+        assertEquals(1, fetches.getStatusCodeCount(404));
+        assertTrue(fetches.getResponseBytes() > 0);
+        assertEquals(1, registry.getOperationMetrics(MetricsRegistry.NO_CLASS, OperationType.CREATE_BUCKET).getCount());
+        assertEquals(Long.valueOf(0), registry.getGauges().get("requests.inflight"));
+
+        // Registered as MBeans until the store is closed, when exporters are stopped
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName fetchesName = new ObjectName("org.datanucleus.store.json:type=OperationMetrics,class=" + ObjectName.quote(Person.class.getName()) +
+            ",operation=FETCH,*");
+        Set<ObjectName> names = server.queryNames(fetchesName, null);
+        assertEquals(1, names.size());
+        assertEquals(2L, server.getAttribute(names.iterator().next(), "Count"));
+        pmf.close();
+        pmf = null;
+        assertTrue(server.queryNames(fetchesName, null).isEmpty());
+        assertNull(RecordingMetricsExporter.registry);
+    }
+
+    @Test
+    public void testJfrEvents() throws IOException
+    {
+        Recording recording = new Recording();
+        for (String name : new String[] {"DatastoreRequest", "JsonParse", "JsonSerialize", "FieldHydration"})
+        {
+            recording.enable("org.datanucleus.json." + name).withoutThreshold();
+        }
+        recording.start();
+        try
+        {
+            persist(new Person("p1", "Alice", 30));
+            PersistenceManager pm = pmf.getPersistenceManager();
+            try
+            {
+                assertEquals("Alice", pm.getObjectById(Person.class, "p1").getName());
+            }
+            finally
+            {
+                pm.close();
+            }
+        }
+        finally
+        {
+            recording.stop();
+        }
+
+        Path file = Files.createTempFile("datanucleus-json", ".jfr");
+        try
+        {
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file))
+            {
+                if (Person.class.getName().equals(event.getString("className")))
+                {
+                    events.add(event);
+                }
+            }
+
+            // A request event for each round trip, with the object identity replaced in its URL
+            RecordedEvent insert = getEvent(events, "DatastoreRequest", "INSERT");
+            assertEquals("PUT", insert.getString("method"));
+            assertEquals(200, insert.getInt("status"));
+            assertTrue(insert.getLong("bytesSent") > 0);
+            assertTrue(insert.getString("urlTemplate"), insert.getString("urlTemplate").endsWith("/" + Person.class.getName() + "/{id}"));
+            RecordedEvent fetch = getEvent(events, "DatastoreRequest", "FETCH");
+            assertEquals("GET", fetch.getString("method"));
+            assertEquals(200, fetch.getInt("status"));
+            assertTrue(fetch.getLong("bytesReceived") > 0);
+
+            assertTrue(getEvent(events, "JsonSerialize", null).getLong("bytes") > 0);
+            assertTrue(getEvent(events, "JsonParse", null).getLong("bytes") > 0);
+            assertEquals(1, getEvent(events, "FieldHydration", null).getInt("objectCount"));
+        }
+        finally
+        {
+            recording.close();
+            Files.delete(file);
+        }
+    }
+
+    private static RecordedEvent getEvent(List<RecordedEvent> events, String name, String operation)
+    {
+        for (RecordedEvent event : events)
+        {
+            if (event.getEventType().getName().equals("org.datanucleus.json." + name) && (operation == null || operation.equals(event.getString("operation"))))
+            {
+                return event;
+            }
+        }
+        fail("No " + name + " event" + (operation != null ? " for " + operation : "") + " in " + events);
+        return null;
+    }
+
+    @Test
+    public void testTracing()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(JsonPersistenceHandler.PROPERTY_TRACER, RecordingTracer.class.getName()));
+        RecordingTracer.spans.clear();
+        persist(new Person("p1", "Alice", 30));
+        RecordingTracer.RecordedSpan insert = RecordingTracer.getSpan("json.insert");
+        assertEquals(Person.class.getName(), insert.attributes.get("dn.class"));
+        assertEquals("PUT", insert.attributes.get("http.method"));
+        assertEquals("200", insert.attributes.get("http.status_code"));
+
+        // Each request has the trace context of the operation that made it
+        RecordingTracer.spans.clear();
+        emulator.resetCounts();
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            assertEquals("Alice", pm.getObjectById(Person.class, "p1").getName());
+        }
+        finally
+        {
+            pm.close();
+        }
+        RecordingTracer.RecordedSpan fetch = RecordingTracer.getSpan("json.fetch");
+        assertEquals(List.of(fetch.getTraceParent()), emulator.getTraceParents());
+
+        RecordingTracer.spans.clear();
+        emulator.resetCounts();
+        assertEquals(List.of("p1"), getPersonIds());
+        RecordingTracer.RecordedSpan query = RecordingTracer.getSpan("json.query");
+        assertNull(query.parent);
+        assertFalse(emulator.getTraceParents().isEmpty());
+        for (String traceParent : emulator.getTraceParents())
+        {
+            // Requests of the query, and of operations within it, are in its trace
+            assertTrue(traceParent, traceParent.startsWith("00-" + query.traceId + "-"));
+        }
+        for (RecordingTracer.RecordedSpan span : RecordingTracer.spans)
+        {
+            assertTrue(span.name, span == query || span.parent != null);
+        }
+    }
+
+    @Test
+    public void testRetryOfTransientFailure()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(RetryPolicy.PROPERTY_BASE_DELAY, "1"));
+        persist(new Person("p1", "Alice", 30));
+
+        emulator.injectFailure("GET", getKey(Person.class, "p1"), 503, "SlowDown", 2);
+        emulator.resetCounts();
+        assertFound("p1", true);
+        assertEquals(3, emulator.getRequestCount());
+        assertEquals(2, getPersistenceHandler().getMetricsRegistry().getOperationMetrics(Person.class.getName(), OperationType.FETCH).getRetries());
+
+        // Not retried after the maximum attempts
+        emulator.injectFailure("GET", getKey(Person.class, "p1"), 503, "SlowDown", 3);
+        emulator.resetCounts();
+        try
+        {
+            assertFound("p1", true);
+            fail("Fetch that failed on every attempt succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        assertEquals(3, emulator.getRequestCount());
+    }
+
+    @Test
+    public void testRetryAfterBeyondMaxDelay()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(RetryPolicy.PROPERTY_BASE_DELAY, "1", RetryPolicy.PROPERTY_MAX_DELAY, "500"));
+        persist(new Person("p1", "Alice", 30));
+
+        // Told to retry after longer than the maximum delay, so fails without retrying
+        emulator.setRetryAfterSeconds(2);
+        emulator.setThrottleRate(1.0);
+        emulator.resetCounts();
+        try
+        {
+            assertFound("p1", true);
+            fail("Fetch of a throttled object succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        assertEquals(1, emulator.getRequestCount());
+    }
+
+    @Test
+    public void testRetryBudgetExhausted()
+    {
+        pmf.close();
+        // No deposits, so only the reserve of 10 retries
+        pmf = createPMF(Map.of(RetryPolicy.PROPERTY_BASE_DELAY, "1", RetryPolicy.PROPERTY_BUDGET_RATIO, "0"));
+        persist(new Person("p1", "Alice", 30));
+        assertEquals(Long.valueOf(10), getPersistenceHandler().getMetricsRegistry().getGauges().get("retry.budget"));
+
+        emulator.injectFailure("GET", getKey(Person.class, "p1"), 503, "SlowDown");
+        for (int i = 0; i < 5; i++)
+        {
+            emulator.resetCounts();
+            try
+            {
+                assertFound("p1", true);
+                fail("Fetch that failed on every attempt succeeded");
+            }
+            catch (JDOException e)
+            {
+                // Expected
+            }
+            assertEquals(3, emulator.getRequestCount());
+        }
+        assertEquals(Long.valueOf(0), getPersistenceHandler().getMetricsRegistry().getGauges().get("retry.budget"));
+
+        // Budget spent, so failures are no longer retried
+        emulator.resetCounts();
+        try
+        {
+            assertFound("p1", true);
+            fail("Fetch that failed on every attempt succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Expected
+        }
+        assertEquals(1, emulator.getRequestCount());
+    }
+
+    @Test
+    public void testCircuitBreaker() throws InterruptedException
+    {
+        pmf.close();
+        // Opens when the last 4 requests to an endpoint all failed
+        pmf = createPMF(Map.of(RetryPolicy.PROPERTY_MAX_ATTEMPTS, "1", EndpointRegistry.PROPERTY_CB_FAILURE_RATE, "100",
+            EndpointRegistry.PROPERTY_CB_WINDOW_SIZE, "4", EndpointRegistry.PROPERTY_CB_MIN_REQUESTS, "4", EndpointRegistry.PROPERTY_CB_OPEN_DURATION, "300"));
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40));
+        MetricsRegistry registry = getPersistenceHandler().getMetricsRegistry();
+
+        emulator.injectFailure("GET", getKey(Person.class, "p1"), 500, "InternalError");
+        for (int i = 0; i < 4; i++)
+        {
+            assertFetchFails("p1");
+        }
+        assertEquals(Long.valueOf(1), registry.getGauges().get("circuitBreaker.open"));
+
+        // Open, so requests to the endpoint are rejected without being sent
+        emulator.resetCounts();
+        assertFetchFails("p2");
+        assertEquals(0, emulator.getRequestCount());
+        assertEquals(Long.valueOf(1), registry.getGauges().get("requests.rejected"));
+
+        // Half-open after the open duration, and a trial request that fails opens it again
+        Thread.sleep(350);
+        assertFetchFails("p1");
+        assertEquals(1, emulator.getRequestCount());
+        assertFetchFails("p2");
+        assertEquals(1, emulator.getRequestCount());
+
+        // A trial request that succeeds closes it
+        emulator.clearFailures();
+        Thread.sleep(350);
+        assertFound("p2", true);
+        assertEquals(Long.valueOf(0), registry.getGauges().get("circuitBreaker.open"));
+        assertFound("p1", true);
+    }
+
+    @Test
+    public void testBulkhead() throws Exception
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(EndpointRegistry.PROPERTY_BULKHEAD_MAX_CONCURRENT, "1"));
+        persist(new Person("p1", "Alice", 30));
+        persist(new Person("p2", "Bob", 40));
+
+        // Only one request to the endpoint at a time, so a concurrent fetch of another object is rejected rather than waiting
+        emulator.setLatency(300, 300);
+        List<Callable<Boolean>> fetches = new ArrayList<>();
+        for (String id : new String[] {"p1", "p2"})
+        {
+            fetches.add(() ->
+            {
+                try
+                {
+                    assertFound(id, true);
+                    return true;
+                }
+                catch (JDOException e)
+                {
+                    return false;
+                }
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(fetches.size());
+        try
+        {
+            int succeeded = 0;
+            for (Future<Boolean> fetch : executor.invokeAll(fetches))
+            {
+                succeeded += fetch.get() ? 1 : 0;
+            }
+            assertEquals(1, succeeded);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals(Long.valueOf(1), getPersistenceHandler().getMetricsRegistry().getGauges().get("requests.rejected"));
+        assertEquals(Long.valueOf(0), getPersistenceHandler().getMetricsRegistry().getGauges().get("bulkhead.inUse"));
+
+        // One at a time they are all sent
+        emulator.setLatency(0, 0);
+        assertFound("p1", true);
+        assertFound("p2", true);
+    }
+
+    @Test
+    public void testHedgedFetch()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(HedgePolicy.PROPERTY_PERCENTILE, "50"));
+        persist(new Person("p1", "Alice", 30));
+
+        // Latency history of fetches of the class, with a median of 500ms
+        OperationMetrics fetches = getPersistenceHandler().getMetricsRegistry().getOperationMetrics(Person.class.getName(), OperationType.FETCH);
+        for (int i = 0; i < 100; i++)
+        {
+            fetches.recordRequest(TimeUnit.MILLISECONDS.toNanos(500), 200, 0, 0);
+        }
+
+        // First request is slow, so a hedge is sent after the median latency and its response is used
+        emulator.injectDelay("GET", getKey(Person.class, "p1"), 3000, 1);
+        emulator.resetCounts();
+        long startTime = System.currentTimeMillis();
+        assertFound("p1", true);
+        long elapsed = System.currentTimeMillis() - startTime;
+        assertTrue("Fetch took " + elapsed + "ms", elapsed < 2000);
+        assertEquals(1, fetches.getHedges());
+
+        // Not hedged when the response is within the hedge delay
+        emulator.clearFailures();
+        assertFound("p1", true);
+        assertEquals(1, fetches.getHedges());
+    }
+
+    @Test
+    public void testAdaptiveConcurrencyLimitOnThrottle() throws InterruptedException
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(CloudStoragePersistenceHandler.PROPERTY_ADAPTIVE_CONCURRENCY, "true",
+            CloudStoragePersistenceHandler.PROPERTY_ADAPTIVE_CONCURRENCY_INITIAL, "8", RetryPolicy.PROPERTY_MAX_ATTEMPTS, "1"));
+        persist(new Person("p1", "Alice", 30));
+        long limit = getConcurrencyLimit(Person.class);
+        assertTrue("Limit is " + limit, limit > 1);
+
+        // Each throttled response halves the limit of the key prefix
+        for (int i = 0; i < 2; i++)
+        {
+            // Wait longer than the average latency, since the limit is reduced at most once per latency interval
+            Thread.sleep(500);
+            emulator.injectFailure("GET", getKey(Person.class, "p1"), 503, "SlowDown", 1);
+            try
+            {
+                assertFound("p1", true);
+                fail("Fetch of a throttled object succeeded");
+            }
+            catch (JDOException e)
+            {
+                // Expected
+            }
+            long newLimit = getConcurrencyLimit(Person.class);
+            assertTrue("Limit went from " + limit + " to " + newLimit, newLimit >= 1 && newLimit <= Math.max(1, limit / 2));
+            limit = newLimit;
+        }
+        assertTrue("Limit is " + limit, limit <= 2);
+
+        // Requests are still made within the reduced limit
+        assertFound("p1", true);
+    }
+
+    /**
+     * Accessor for the adaptive concurrency limit of the key prefix of a class.
+     * @param cls The class
+     * @return The limit
+     */
+    protected long getConcurrencyLimit(Class cls)
+    {
+        String suffix = getKey(cls, "");
+        for (Map.Entry<String, Long> gauge : getPersistenceHandler().getMetricsRegistry().getGauges().entrySet())
+        {
+            if (gauge.getKey().startsWith("concurrencyLimit.") && gauge.getKey().endsWith(suffix))
+            {
+                return gauge.getValue();
+            }
+        }
+        fail("No concurrency limit for " + suffix);
+        return 0;
+    }
+
+    @Test
+    public void testDiskCache() throws IOException
+    {
+        Path directory = Files.createTempDirectory("datanucleus-json");
+        try
+        {
+            pmf.close();
+            pmf = createPMF(Map.of(DiskCache.PROPERTY_DIRECTORY, directory.toString()));
+            persist(new Person("p1", "Alice", 30));
+            MetricsRegistry metrics = getPersistenceHandler().getMetricsRegistry();
+            OperationMetrics fetches = metrics.getOperationMetrics(Person.class.getName(), OperationType.FETCH);
+            assertEquals("Alice", getPersonName(pmf, "p1"));
+            assertEquals(Long.valueOf(1), metrics.getGauges().get("diskCache.objects"));
+
+            // Unchanged, so validated with "If-None-Match" and read from the cache
+            long hits = metrics.getGauges().get("diskCache.hits");
+            assertEquals("Alice", getPersonName(pmf, "p1"));
+            assertEquals(Long.valueOf(hits + 1), metrics.getGauges().get("diskCache.hits"));
+            assertEquals(1, fetches.getStatusCodeCount(304));
+
+            // Updated, so the cached version is stale and the object is downloaded and cached again
+            setPersonName(pmf, "p1", "Alicia");
+            long notModified = fetches.getStatusCodeCount(304);
+            assertEquals("Alicia", getPersonName(pmf, "p1"));
+            assertEquals(notModified, fetches.getStatusCodeCount(304));
+            assertEquals("Alicia", getPersonName(pmf, "p1"));
+            assertEquals(notModified + 1, fetches.getStatusCodeCount(304));
+
+            // Same when updated by another writer
+            PersistenceManagerFactory otherPmf = createPMF(Map.of());
+            try
+            {
+                setPersonName(otherPmf, "p1", "Alison");
+            }
+            finally
+            {
+                otherPmf.close();
+            }
+            assertEquals("Alison", getPersonName(pmf, "p1"));
+            assertEquals(notModified + 1, fetches.getStatusCodeCount(304));
+            assertEquals(Long.valueOf(1), metrics.getGauges().get("diskCache.objects"));
+        }
+        finally
+        {
+            pmf.close();
+            pmf = null;
+            try (Stream<Path> files = Files.walk(directory))
+            {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOffHeapCache()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of(OffHeapCache.PROPERTY_MAX_SIZE, "4"));
+        persist(new Person("p1", "Alice", 30));
+        MetricsRegistry metrics = getPersistenceHandler().getMetricsRegistry();
+        assertEquals("Alice", getPersonName(pmf, "p1"));
+        assertEquals(Long.valueOf(1), metrics.getGauges().get("offHeapCache.documents"));
+
+        // Read from the cached document without a request
+        long hits = metrics.getGauges().get("offHeapCache.hits");
+        emulator.resetCounts();
+        assertEquals("Alice", getPersonName(pmf, "p1"));
+        assertEquals(0, emulator.getRequestCount());
+        assertEquals(Long.valueOf(hits + 1), metrics.getGauges().get("offHeapCache.hits"));
+
+        // Updated, so the cached document is invalidated and the object is fetched and cached again
+        setPersonName(pmf, "p1", "Alicia");
+        long misses = metrics.getGauges().get("offHeapCache.misses");
+        emulator.resetCounts();
+        assertEquals("Alicia", getPersonName(pmf, "p1"));
+        assertEquals(1, emulator.getRequestCount());
+        assertEquals(Long.valueOf(misses + 1), metrics.getGauges().get("offHeapCache.misses"));
+        emulator.resetCounts();
+        assertEquals("Alicia", getPersonName(pmf, "p1"));
+        assertEquals(0, emulator.getRequestCount());
+
+        // Deleted, so no longer cached
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            pm.deletePersistent(pm.getObjectById(Person.class, "p1"));
+        }
+        finally
+        {
+            pm.close();
+        }
+        assertFound("p1", false);
+    }
+
+    /**
+     * Accessor for the name of a person, fetched in a new PM.
+     * @param factory The PMF
+     * @param id PK of the person
+     * @return The name
+     */
+    protected String getPersonName(PersistenceManagerFactory factory, String id)
+    {
+        PersistenceManager pm = factory.getPersistenceManager();
+        try
+        {
+            return pm.getObjectById(Person.class, id).getName();
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    /**
+     * Update the name of a person in a transaction.
+     * @param factory The PMF
+     * @param id PK of the person
+     * @param name The new name
+     */
+    protected void setPersonName(PersistenceManagerFactory factory, String id, String name)
+    {
+        PersistenceManager pm = factory.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        try
+        {
+            tx.begin();
+            pm.getObjectById(Person.class, id).setName(name);
+            tx.commit();
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+
+    /**
+     * Assert whether the person with a PK is found.
+     * @param id PK of the person
+     * @param found Whether it should be found
+     */
+    protected void assertFound(String id, boolean found)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            pm.getObjectById(Person.class, id);
+            assertTrue("Person " + id + " was found", found);
+        }
+        catch (JDOObjectNotFoundException e)
+        {
+            assertFalse("Person " + id + " was not found", found);
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    /**
+     * Assert that fetching the person with a PK fails.
+     * @param id PK of the person
+     */
+    protected void assertFetchFails(String id)
+    {
+        try
+        {
+            assertFound(id, true);
+            fail("Fetch of person " + id + " succeeded");
+        }
+        catch (JDODataStoreException e)
+        {
+            // Expected
+        }
+    }
+
+    /**
+     * Assert that an exception was caused by a DuplicateKeyException, from the 412 response to a conditional create.
+     * @param e The exception
+     */
+    protected void assertDuplicateKey(JDOException e)
+    {
+        List<Throwable> causes = new ArrayList<>();
+        causes.add(e);
+        while (!causes.isEmpty())
+        {
+            Throwable cause = causes.remove(0);
+            if (cause instanceof DuplicateKeyException)
+            {
+                return;
+            }
+            if (cause instanceof JDOException && ((JDOException) cause).getNestedExceptions() != null)
+            {
+                Collections.addAll(causes, ((JDOException) cause).getNestedExceptions());
+            }
+            else if (cause.getCause() != null)
+            {
+                causes.add(cause.getCause());
+            }
+        }
+        fail("Exception was not caused by a DuplicateKeyException : " + e);
+    }
+
+    /**
+     * Accessor for the PKs of the products of a category (in PK order), checking that each was loaded with its category.
+     * @param category The category
+     * @return The PKs
+     */
+    protected List<String> getProductIds(String category)
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query<Product> q = pm.newQuery(Product.class, "category == :category");
+            q.setOrdering("id ascending");
+            List<String> ids = new ArrayList<>();
+            for (Product product : q.setParameters(category).executeList())
+            {
+                assertEquals(category, product.getCategory());
+                ids.add(product.getId());
+            }
+            return ids;
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    protected List<String> getPersonIds()
+    {
+        PersistenceManager pm = pmf.getPersistenceManager();
+        try
+        {
+            Query<Person> q = pm.newQuery(Person.class);
+            q.setOrdering("id ascending");
+            List<String> ids = new ArrayList<>();
+            for (Person person : q.executeList())
+            {
+                ids.add(person.getId());
+            }
+            return ids;
+        }
+        finally
+        {
+            pm.close();
+        }
+    }
+
+    /**
+     * Accessor for the content of the log segments of the manifest of a class, in order.
+     * @param cls The class
+     * @return Content of each segment
+     */
+    protected List<String> getManifestSegments(Class cls)
+    {
+        List<String> segments = new ArrayList<>();
+        for (String key : emulator.getKeys(BUCKET, CloudStorageManifest.MANIFEST_PREFIX + getKey(cls, "log/")))
+        {
+            segments.add(emulator.getObjectContent(BUCKET, key));
+        }
+        return segments;
+    }
+
+    /**
+     * Make the manifest of a class older, by moving back the time that its segments and snapshots are named after.
+     * @param cls The class
+     * @param millis Time to move back by
+     */
+    protected void ageManifest(Class cls, long millis)
+    {
+        String prefix = CloudStorageManifest.MANIFEST_PREFIX + getKey(cls, "");
+        for (String key : emulator.getKeys(BUCKET, prefix))
+        {
+            int nameStart = key.indexOf('/', prefix.length()) + 1;
+            long time = Long.parseLong(key.substring(nameStart, nameStart + 15));
+            emulator.renameKey(BUCKET, key, key.substring(0, nameStart) + String.format("%015d", time - millis) + key.substring(nameStart + 15));
+        }
+    }
+
+    /**
+     * Accessor for the number of objects of a class in the bucket.
+     * @param cls The class
+     * @return The number of objects
+     */
+    protected int countObjects(Class cls)
+    {
+        return emulator.getKeys(BUCKET, cls.getName() + "/").size();
+    }
+
+    /**
+     * Exporter that records the registry it is exporting.
+     */
+    public static class RecordingMetricsExporter implements MetricsExporter
+    {
+        static volatile MetricsRegistry registry;
+
+        public void start(MetricsRegistry registry, Configuration conf)
+        {
+            RecordingMetricsExporter.registry = registry;
+        }
+
+        public void stop()
+        {
+            registry = null;
+        }
+    }
+
+    /**
+     * Tracer that records the spans ended, with their attributes.
+     */
+    public static class RecordingTracer implements Tracer
+    {
+        static final List<RecordedSpan> spans = new CopyOnWriteArrayList<>();
+
+        private final ThreadLocal<RecordedSpan> currentSpan = new ThreadLocal<>();
+
+        private final AtomicLong nextId = new AtomicLong(1);
+
+        static RecordedSpan getSpan(String name)
+        {
+            for (RecordedSpan span : spans)
+            {
+                if (span.name.equals(name))
+                {
+                    return span;
+                }
+            }
+            fail("No span " + name + " in " + spans);
+            return null;
+        }
+
+        public Span startSpan(String name)
+        {
+            RecordedSpan parent = currentSpan.get();
+            RecordedSpan span = new RecordedSpan(name, parent, parent != null ? parent.traceId : String.format("%032x", nextId.getAndIncrement()),
+                String.format("%016x", nextId.getAndIncrement()));
+            currentSpan.set(span);
+            return span;
+        }
+
+        public Span getCurrentSpan()
+        {
+            RecordedSpan span = currentSpan.get();
+            return span != null ? span : NoopTracer.NOOP_SPAN;
+        }
+
+        class RecordedSpan implements Span
+        {
+            final String name;
+            final RecordedSpan parent;
+            final String traceId;
+            final String spanId;
+            final Map<String, String> attributes = new ConcurrentHashMap<>();
+
+            RecordedSpan(String name, RecordedSpan parent, String traceId, String spanId)
+            {
+                this.name = name;
+                this.parent = parent;
+                this.traceId = traceId;
+                this.spanId = spanId;
+            }
+
+            public Span setAttribute(String key, String value)
+            {
+                attributes.put(key, value);
+                return this;
+            }
+
+            public Span setAttribute(String key, long value)
+            {
+                attributes.put(key, String.valueOf(value));
+                return this;
+            }
+
+            public void recordError(Throwable error)
+            {
+                attributes.put("error", error.toString());
+            }
+
+            public String getTraceParent()
+            {
+                return "00-" + traceId + "-" + spanId + "-01";
+            }
+
+            public void end()
+            {
+                if (currentSpan.get() == this)
+                {
+                    currentSpan.set(parent);
+                }
+                spans.add(this);
+            }
+
+            public String toString()
+            {
+                return name + attributes;
+            }
+        }
+    }
+}
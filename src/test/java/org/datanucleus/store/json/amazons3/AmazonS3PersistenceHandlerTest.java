@@ -0,0 +1,138 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.amazons3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.jdo.JDOException;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Transaction;
+
+import org.datanucleus.ExecutionContext;
+import org.datanucleus.api.jdo.JDOPersistenceManager;
+import org.datanucleus.store.json.PersistenceHandlerTestCase;
+import org.datanucleus.store.json.SecondaryIndex;
+import org.datanucleus.store.json.model.Person;
+import org.datanucleus.store.json.model.Product;
+import org.junit.Test;
+
+/**
+ * Tests of the "amazons3" datastore against the emulator.
+ */
+public class AmazonS3PersistenceHandlerTest extends PersistenceHandlerTestCase
+{
+    protected String getStoreManagerKey()
+    {
+        return "amazons3";
+    }
+
+    @Test
+    public void testMultiObjectDelete()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50));
+        deleteAll(Person.class, "p1", "p2", "p3");
+        assertEquals(0, countObjects(Person.class));
+    }
+
+    @Test
+    public void testMultiObjectDeletePartialFailure()
+    {
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50));
+        emulator.injectFailure("DELETE", getKey(Person.class, "p2"), 403, "AccessDenied");
+
+        try
+        {
+            deleteAll(Person.class, "p1", "p2", "p3");
+            fail("Delete of an object that the datastore failed to delete succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Only the key that failed is reported, with the error code from the response
+            assertTrue(e.getMessage(), e.getMessage().contains("Failed to delete 1 of 3 objects"));
+            Throwable[] nested = e.getNestedExceptions();
+            assertEquals(1, nested.length);
+            assertTrue(nested[0].getMessage(), nested[0].getMessage().contains(getKey(Person.class, "p2") + " : AccessDenied"));
+        }
+        assertEquals(List.of(getKey(Person.class, "p2")), emulator.getKeys(BUCKET, Person.class.getName() + "/"));
+    }
+
+    @Test
+    public void testMultiObjectDeleteOfIndexEntries()
+    {
+        persist(new Product("a", "books", 10), new Product("b", "books", 20), new Product("c", "games", 30));
+
+        String indexPrefix = SecondaryIndex.INDEX_PREFIX + getKey(Product.class, "category/");
+        String entry = emulator.getKeys(BUCKET, indexPrefix).stream().filter(key -> key.endsWith("/a")).findFirst().get();
+
+        // Entries are deleted in the same request as the objects, and one that fails is not reported as an object that failed
+        emulator.injectFailure("DELETE", entry, 403, "AccessDenied");
+        deleteAll(Product.class, "a", "b");
+        emulator.clearFailures();
+        assertEquals(List.of(getKey(Product.class, "c")), emulator.getKeys(BUCKET, Product.class.getName() + "/"));
+        assertEquals(2, emulator.getKeys(BUCKET, indexPrefix).size());
+        assertEquals(List.of(), getProductIds("books"));
+    }
+
+    @Test
+    public void testMultiObjectDeleteStatistics()
+    {
+        pmf.close();
+        pmf = createPMF(Map.of("datanucleus.enableStatistics", "true"));
+        persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50));
+        emulator.injectFailure("DELETE", getKey(Person.class, "p2"), 403, "AccessDenied");
+
+        PersistenceManager pm = pmf.getPersistenceManager();
+        Transaction tx = pm.currentTransaction();
+        ExecutionContext ec = ((JDOPersistenceManager) pm).getExecutionContext();
+        try
+        {
+            tx.setOptimistic(true);
+            tx.begin();
+            Object[] pcs = {pm.getObjectById(Person.class, "p1"), pm.getObjectById(Person.class, "p2"), pm.getObjectById(Person.class, "p3")};
+            int writes = ec.getStatistics().getNumberOfDatastoreWrites();
+            int deletes = ec.getStatistics().getNumberOfObjectDeletes();
+            pm.deletePersistentAll(pcs);
+            try
+            {
+                pm.flush();
+                fail("Delete of an object that the datastore failed to delete succeeded");
+            }
+            catch (JDOException e)
+            {
+                // Expected
+            }
+
+            // One request for the three objects, but only the objects that were deleted are counted
+            assertEquals(2, ec.getStatistics().getNumberOfDatastoreWrites() - writes);
+            assertEquals(2, ec.getStatistics().getNumberOfObjectDeletes() - deletes);
+        }
+        finally
+        {
+            if (tx.isActive())
+            {
+                tx.rollback();
+            }
+            pm.close();
+        }
+    }
+}
@@ -0,0 +1,1468 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.emulator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * In-process emulator for the subset of the AmazonS3 / GoogleStorage XML APIs used by CloudStoragePersistenceHandler.
+ * Supports bucket PUT, object PUT/GET/DELETE/HEAD, multi-object delete (POST ?delete), multipart upload and prefix listing (with truncation),
+ * verifies the request signatures,
+ * and can inject latency, throttling (503 SlowDown), failures of requests for particular keys and truncated listings. This allows the "amazons3" and "googlestorage"
+ * datastores to be exercised (and their throughput measured) without a live account.
+ * <p>
+ * Requests can be addressed either virtual-host style (<i>Host: {bucket}.localhost</i>, as sent by the persistence handler)
+ * or path style (<i>/{bucket}/{key}</i>). Typical usage
+ * <pre>
+ * CloudStorageEmulator emulator = new CloudStorageEmulator("AWS", "myKey", "mySecret");
+ * emulator.setLatency(5, 20);
+ * emulator.setThrottleRate(0.01);
+ * emulator.start();
+ * // datanucleus.ConnectionURL=amazons3:http://localhost:{emulator.getPort()}/
+ * </pre>
+ */
+public class CloudStorageEmulator
+{
+    private static final String HMAC_SHA1_ALGORITHM = "HmacSHA1";
+
+    /** Realm name expected in the Authorization header ("AWS" or "GOOG1"). */
+    protected final String realm;
+
+    protected final String accessKey;
+
+    protected final String secretKey;
+
+    /** Prefix of headers included in the signature and used for user metadata ("x-amz-" or "x-goog-"). */
+    protected final String headerPrefix;
+
+    /** Objects keyed by bucket name, and then by key. */
+    protected final Map<String, NavigableMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+
+    /** Multipart uploads in progress, keyed by upload id. */
+    protected final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextUploadId = new AtomicLong();
+
+    protected HttpServer server;
+
+    protected ExecutorService executor;
+
+    protected int port;
+
+    protected boolean verifySignatures = true;
+
+    protected long minLatencyMillis = 0;
+
+    protected long maxLatencyMillis = 0;
+
+    protected double throttleRate = 0.0;
+
+    protected int retryAfterSeconds = -1;
+
+    protected int maxKeys = 1000;
+
+    protected boolean partETags = true;
+
+    protected final AtomicLong requestCount = new AtomicLong();
+
+    protected final AtomicLong throttledCount = new AtomicLong();
+
+    protected final AtomicLong rejectedCount = new AtomicLong();
+
+    /** W3C trace context ("traceparent" header) of the requests received that had one. */
+    protected final List<String> traceParents = new CopyOnWriteArrayList<>();
+
+    /** Failures to inject into requests for particular keys. */
+    protected final List<InjectedFailure> failures = new CopyOnWriteArrayList<>();
+
+    /** Delays to inject into requests for particular keys. */
+    protected final List<InjectedDelay> delays = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor for an emulator listening on any free port.
+     * @param realm Realm name expected in the Authorization header ("AWS" or "GOOG1")
+     * @param accessKey Access key that requests must be signed with
+     * @param secretKey Secret key that requests must be signed with
+     */
+    public CloudStorageEmulator(String realm, String accessKey, String secretKey)
+    {
+        this(realm, accessKey, secretKey, 0);
+    }
+
+    /**
+     * Constructor.
+     * @param realm Realm name expected in the Authorization header ("AWS" or "GOOG1")
+     * @param accessKey Access key that requests must be signed with
+     * @param secretKey Secret key that requests must be signed with
+     * @param port The port to listen on (0 means any free port)
+     */
+    public CloudStorageEmulator(String realm, String accessKey, String secretKey, int port)
+    {
+        this.realm = realm;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.port = port;
+        this.headerPrefix = "GOOG1".equals(realm) ? "x-goog-" : "x-amz-";
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if (server != null)
+        {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new EmulatorHandler());
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    public synchronized void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Accessor for the connection URL to use for this emulator.
+     * @param storeManagerKey Key of the store manager ("amazons3", "googlestorage")
+     * @return The connection URL
+     */
+    public String getConnectionURL(String storeManagerKey)
+    {
+        return storeManagerKey + ":http://localhost:" + port + "/";
+    }
+
+    public void setVerifySignatures(boolean verify)
+    {
+        this.verifySignatures = verify;
+    }
+
+    /**
+     * Set the latency to inject into every request, chosen uniformly between the min and max.
+     * @param minMillis Minimum latency (ms)
+     * @param maxMillis Maximum latency (ms)
+     */
+    public void setLatency(long minMillis, long maxMillis)
+    {
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = Math.max(minMillis, maxMillis);
+    }
+
+    /**
+     * Set the proportion of requests (0.0 - 1.0) that are rejected with "503 SlowDown".
+     * @param rate Throttle rate
+     */
+    public void setThrottleRate(double rate)
+    {
+        this.throttleRate = rate;
+    }
+
+    /**
+     * Set the value of the "Retry-After" header sent with throttled responses (negative means none is sent).
+     * @param seconds Retry-After seconds
+     */
+    public void setRetryAfterSeconds(int seconds)
+    {
+        this.retryAfterSeconds = seconds;
+    }
+
+    /**
+     * Set the maximum number of keys returned in a listing page, so truncated listings can be forced.
+     * @param maxKeys Max keys per listing page
+     */
+    public void setMaxKeys(int maxKeys)
+    {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Set whether the responses to part uploads have an ETag header, so a response whose header is lost (e.g by a proxy) can be emulated.
+     * @param partETags Whether part uploads return an ETag
+     */
+    public void setPartETags(boolean partETags)
+    {
+        this.partETags = partETags;
+    }
+
+    /**
+     * Fail every request with the specified method for a key with the specified prefix, with the specified status and error code.
+     * A key with such a prefix in a multi-object delete is reported as an error for that key, when the method is "DELETE".
+     * @param method HTTP method of the requests
+     * @param keyPrefix Prefix of the keys
+     * @param status HTTP status of the response
+     * @param errorCode Error code in the response
+     */
+    public void injectFailure(String method, String keyPrefix, int status, String errorCode)
+    {
+        failures.add(new InjectedFailure(method, keyPrefix, status, errorCode, -1));
+    }
+
+    /**
+     * Fail the next requests with the specified method for a key with the specified prefix, so that a transient failure can be emulated.
+     * @param method HTTP method of the requests
+     * @param keyPrefix Prefix of the keys
+     * @param status HTTP status of the response
+     * @param errorCode Error code in the response
+     * @param times Number of requests to fail
+     */
+    public void injectFailure(String method, String keyPrefix, int status, String errorCode, int times)
+    {
+        failures.add(new InjectedFailure(method, keyPrefix, status, errorCode, times));
+    }
+
+    /**
+     * Delay the next requests with the specified method for a key with the specified prefix, in addition to any latency,
+     * so that a slow response can be emulated.
+     * @param method HTTP method of the requests
+     * @param keyPrefix Prefix of the keys
+     * @param millis Delay (millis)
+     * @param times Number of requests to delay
+     */
+    public void injectDelay(String method, String keyPrefix, long millis, int times)
+    {
+        delays.add(new InjectedDelay(method, keyPrefix, millis, times));
+    }
+
+    /**
+     * Remove all injected failures and delays.
+     */
+    public void clearFailures()
+    {
+        failures.clear();
+        delays.clear();
+    }
+
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    public long getThrottledCount()
+    {
+        return throttledCount.get();
+    }
+
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Accessor for the "traceparent" headers of the requests received (since the counts were reset), in order.
+     * @return The trace contexts
+     */
+    public List<String> getTraceParents()
+    {
+        return new ArrayList<>(traceParents);
+    }
+
+    public void resetCounts()
+    {
+        requestCount.set(0);
+        throttledCount.set(0);
+        rejectedCount.set(0);
+        traceParents.clear();
+    }
+
+    /**
+     * Remove all buckets and objects.
+     */
+    public void clear()
+    {
+        buckets.clear();
+        uploads.clear();
+    }
+
+    /**
+     * Accessor for the number of multipart uploads that are neither completed nor aborted.
+     * @return Number of uploads in progress
+     */
+    public int getNumberOfUploadsInProgress()
+    {
+        return uploads.size();
+    }
+
+    /**
+     * Accessor for the number of multipart uploads that have been initiated.
+     * @return Number of uploads initiated
+     */
+    public long getNumberOfUploadsInitiated()
+    {
+        return nextUploadId.get();
+    }
+
+    /**
+     * Accessor for the number of objects in the specified bucket.
+     * @param bucket The bucket
+     * @return Number of objects
+     */
+    public int getNumberOfObjects(String bucket)
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        return objects != null ? objects.size() : 0;
+    }
+
+    /**
+     * Accessor for the keys of the objects in the specified bucket with the specified prefix.
+     * @param bucket The bucket
+     * @param prefix Prefix of the keys
+     * @return The keys, in order
+     */
+    public List<String> getKeys(String bucket, String prefix)
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        List<String> keys = new ArrayList<>();
+        if (objects != null)
+        {
+            for (String key : objects.tailMap(prefix, true).keySet())
+            {
+                if (!key.startsWith(prefix))
+                {
+                    break;
+                }
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Remove the objects with keys starting with a prefix, without a request.
+     * @param bucket The bucket
+     * @param prefix Prefix of the keys
+     */
+    public void removeKeys(String bucket, String prefix)
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        if (objects != null)
+        {
+            getKeys(bucket, prefix).forEach(objects::remove);
+        }
+    }
+
+    /**
+     * Rename an object, without a request.
+     * @param bucket The bucket
+     * @param key Key of the object
+     * @param newKey New key of the object
+     */
+    public void renameKey(String bucket, String key, String newKey)
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        StoredObject obj = objects != null ? objects.remove(key) : null;
+        if (obj != null)
+        {
+            objects.put(newKey, obj);
+        }
+    }
+
+    /**
+     * Accessor for the content of an object, as stored.
+     * @param bucket The bucket
+     * @param key Key of the object
+     * @return The content, or null if not present
+     */
+    public String getObjectContent(String bucket, String key)
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        StoredObject obj = objects != null ? objects.get(key) : null;
+        return obj != null ? new String(obj.data, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Accessor for the metadata headers of an object, as stored.
+     * @param bucket The bucket
+     * @param key Key of the object
+     * @return The metadata headers keyed by (lowercase) name, or null if not present
+     */
+    public Map<String, String> getObjectMetadata(String bucket, String key)
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        StoredObject obj = objects != null ? objects.get(key) : null;
+        return obj != null ? obj.metadata : null;
+    }
+
+    /**
+     * Multipart upload in progress, with its parts keyed by part number.
+     */
+    protected static class MultipartUpload
+    {
+        final String bucket;
+        final String key;
+        final String contentType;
+        final Map<String, String> metadata;
+        final String ifNoneMatch;
+        final String generationMatch;
+        final Map<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+
+        MultipartUpload(String bucket, String key, String contentType, Map<String, String> metadata, String ifNoneMatch, String generationMatch)
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.contentType = contentType;
+            this.metadata = metadata;
+            this.ifNoneMatch = ifNoneMatch;
+            this.generationMatch = generationMatch;
+        }
+    }
+
+    /**
+     * Failure to inject into requests with a method for keys with a prefix.
+     */
+    protected static class InjectedFailure
+    {
+        final String method;
+        final String keyPrefix;
+        final int status;
+        final String errorCode;
+        /** Number of requests still to fail, or -1 for all. */
+        final AtomicInteger remaining;
+
+        InjectedFailure(String method, String keyPrefix, int status, String errorCode, int times)
+        {
+            this.method = method;
+            this.keyPrefix = keyPrefix;
+            this.status = status;
+            this.errorCode = errorCode;
+            this.remaining = new AtomicInteger(times);
+        }
+
+        boolean consume()
+        {
+            return remaining.getAndUpdate(n -> n > 0 ? n - 1 : n) != 0;
+        }
+    }
+
+    protected static class InjectedDelay
+    {
+        final String method;
+        final String keyPrefix;
+        final long millis;
+        /** Number of requests still to delay. */
+        final AtomicInteger remaining;
+
+        InjectedDelay(String method, String keyPrefix, long millis, int times)
+        {
+            this.method = method;
+            this.keyPrefix = keyPrefix;
+            this.millis = millis;
+            this.remaining = new AtomicInteger(times);
+        }
+    }
+
+    /**
+     * Accessor for the failure to inject into a request.
+     * @param method HTTP method of the request
+     * @param key Key of the request
+     * @return The failure, or null if the request should not fail
+     */
+    protected InjectedFailure getInjectedFailure(String method, String key)
+    {
+        if (key == null || key.isEmpty())
+        {
+            return null;
+        }
+        for (InjectedFailure failure : failures)
+        {
+            if (failure.method.equals(method) && key.startsWith(failure.keyPrefix) && failure.consume())
+            {
+                return failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Representation of a stored object.
+     */
+    protected static class StoredObject
+    {
+        private static final AtomicLong NEXT_GENERATION = new AtomicLong();
+
+        final byte[] data;
+        final String contentType;
+        final String etag;
+        final long generation;
+        final long lastModified;
+        final Map<String, String> metadata;
+
+        StoredObject(byte[] data, String contentType, Map<String, String> metadata)
+        {
+            this.data = data;
+            this.contentType = contentType;
+            this.etag = "\"" + toHex(md5(data)) + "\"";
+            this.generation = NEXT_GENERATION.incrementAndGet();
+            this.lastModified = System.currentTimeMillis();
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Request being processed, with the bucket/key resolved from the Host header or path.
+     */
+    protected static class EmulatorRequest
+    {
+        HttpExchange exchange;
+        String method;
+        String bucket;
+        String key;
+        Map<String, String> params;
+        byte[] body;
+
+        String getHeader(String name)
+        {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+    }
+
+    protected class EmulatorHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            try
+            {
+                requestCount.incrementAndGet();
+                String traceParent = exchange.getRequestHeaders().getFirst("traceparent");
+                if (traceParent != null)
+                {
+                    traceParents.add(traceParent);
+                }
+                injectLatency();
+
+                EmulatorRequest req = parseRequest(exchange);
+                injectDelay(req);
+                if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate)
+                {
+                    throttledCount.incrementAndGet();
+                    Map<String, String> headers = new HashMap<>();
+                    if (retryAfterSeconds >= 0)
+                    {
+                        headers.put("Retry-After", "" + retryAfterSeconds);
+                    }
+                    sendError(req, 503, "SlowDown", "Please reduce your request rate.", headers);
+                    return;
+                }
+
+                if (verifySignatures)
+                {
+                    String error = checkSignature(req);
+                    if (error != null)
+                    {
+                        rejectedCount.incrementAndGet();
+                        sendError(req, 403, "SignatureDoesNotMatch", error, null);
+                        return;
+                    }
+                }
+
+                InjectedFailure failure = getInjectedFailure(req.method, req.key);
+                if (failure != null)
+                {
+                    sendError(req, failure.status, failure.errorCode, "Injected failure", null);
+                    return;
+                }
+
+                String contentMD5 = req.getHeader("Content-MD5");
+                if (contentMD5 != null && contentMD5.length() > 0 && !contentMD5.equals(Base64.getEncoder().encodeToString(md5(req.body))))
+                {
+                    sendError(req, 400, "BadDigest", "The Content-MD5 you specified did not match what we received.", null);
+                    return;
+                }
+
+                process(req);
+            }
+            catch (RuntimeException e)
+            {
+                byte[] msg = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>InternalError</Code><Message>" + xmlEscape(String.valueOf(e)) +
+                    "</Message></Error>").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/xml");
+                exchange.sendResponseHeaders(500, msg.length);
+                exchange.getResponseBody().write(msg);
+            }
+            finally
+            {
+                exchange.close();
+            }
+        }
+    }
+
+    protected void injectDelay(EmulatorRequest req)
+    {
+        if (req.key == null)
+        {
+            return;
+        }
+        for (InjectedDelay delay : delays)
+        {
+            if (delay.method.equals(req.method) && req.key.startsWith(delay.keyPrefix) && delay.remaining.getAndUpdate(n -> n > 0 ? n - 1 : n) > 0)
+            {
+                try
+                {
+                    Thread.sleep(delay.millis);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+        }
+    }
+
+    protected void injectLatency()
+    {
+        if (maxLatencyMillis <= 0)
+        {
+            return;
+        }
+        long latency = minLatencyMillis;
+        if (maxLatencyMillis > minLatencyMillis)
+        {
+            latency += ThreadLocalRandom.current().nextLong(maxLatencyMillis - minLatencyMillis + 1);
+        }
+        try
+        {
+            Thread.sleep(latency);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected EmulatorRequest parseRequest(HttpExchange exchange) throws IOException
+    {
+        EmulatorRequest req = new EmulatorRequest();
+        req.exchange = exchange;
+        req.method = exchange.getRequestMethod();
+        req.params = parseQuery(exchange.getRequestURI().getRawQuery());
+        req.body = readFully(exchange.getRequestBody());
+
+        String path = decode(exchange.getRequestURI().getRawPath());
+        String bucket = getBucketFromHost(req.getHeader("Host"));
+        if (bucket != null)
+        {
+            // Virtual-host style "{bucket}.host/{key}"
+            req.bucket = bucket;
+            req.key = path.startsWith("/") ? path.substring(1) : path;
+        }
+        else
+        {
+            // Path style "/{bucket}/{key}"
+            String remainder = path.startsWith("/") ? path.substring(1) : path;
+            int sep = remainder.indexOf('/');
+            req.bucket = sep < 0 ? remainder : remainder.substring(0, sep);
+            req.key = sep < 0 ? "" : remainder.substring(sep + 1);
+        }
+        return req;
+    }
+
+    /**
+     * Extract the bucket from a Host header of the form "{bucket}.{host}[:port]", or return null if the host has no bucket prefix.
+     * @param host The Host header
+     * @return The bucket (or null)
+     */
+    protected String getBucketFromHost(String host)
+    {
+        if (host == null)
+        {
+            return null;
+        }
+        int colon = host.lastIndexOf(':');
+        String hostName = colon > 0 ? host.substring(0, colon) : host;
+        int dot = hostName.indexOf('.');
+        if (dot <= 0 || Character.isDigit(hostName.charAt(hostName.length() - 1)))
+        {
+            // "localhost" or an IP address
+            return null;
+        }
+        return hostName.substring(0, dot);
+    }
+
+    /**
+     * Verify the Authorization header of the request, returning an error message if it is invalid.
+     * @param req The request
+     * @return The error message, or null if the signature is valid
+     */
+    protected String checkSignature(EmulatorRequest req)
+    {
+        String auth = req.getHeader("Authorization");
+        if (auth == null)
+        {
+            return "No Authorization header";
+        }
+        String expectedStart = realm + " " + accessKey + ":";
+        if (!auth.startsWith(expectedStart))
+        {
+            return "Unknown realm or access key in Authorization header \"" + auth + "\"";
+        }
+        String stringToSign = getStringToSign(req);
+        String expected = hmac(secretKey, stringToSign);
+        if (!expected.equals(auth.substring(expectedStart.length())))
+        {
+            return "The request signature we calculated does not match the signature you provided. StringToSign=" + stringToSign.replace("\n", "\\n");
+        }
+        return null;
+    }
+
+    protected String getStringToSign(EmulatorRequest req)
+    {
+        StringBuilder str = new StringBuilder();
+        str.append(req.method).append("\n");
+        str.append(nullToEmpty(req.getHeader("Content-MD5"))).append("\n");
+        str.append(nullToEmpty(req.getHeader("Content-Type"))).append("\n");
+        str.append(nullToEmpty(req.getHeader("Date"))).append("\n");
+
+        // Canonicalised provider headers, sorted by name
+        Map<String, String> providerHeaders = new TreeMap<>();
+        Headers headers = req.exchange.getRequestHeaders();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet())
+        {
+            String name = entry.getKey().toLowerCase(Locale.ENGLISH);
+            if (name.startsWith(headerPrefix))
+            {
+                providerHeaders.put(name, String.join(",", entry.getValue()).trim());
+            }
+        }
+        for (Map.Entry<String, String> entry : providerHeaders.entrySet())
+        {
+            str.append(entry.getKey()).append(":").append(entry.getValue()).append("\n");
+        }
+
+        str.append("/").append(req.bucket).append("/").append(req.key);
+        String subresources = getSubresources(req.params);
+        if (subresources.length() > 0)
+        {
+            str.append("?").append(subresources);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Accessor for the sub-resources of the request that are included in the signature.
+     * @param params Query parameters
+     * @return The sub-resource string (without leading "?")
+     */
+    protected String getSubresources(Map<String, String> params)
+    {
+        StringBuilder str = new StringBuilder();
+        for (String name : new String[] {"delete", "partNumber", "uploadId", "uploads"})
+        {
+            if (params.containsKey(name))
+            {
+                if (str.length() > 0)
+                {
+                    str.append("&");
+                }
+                str.append(name);
+                String value = params.get(name);
+                if (value != null && value.length() > 0)
+                {
+                    str.append("=").append(value);
+                }
+            }
+        }
+        return str.toString();
+    }
+
+    protected void process(EmulatorRequest req) throws IOException
+    {
+        if (req.bucket.length() == 0)
+        {
+            sendError(req, 400, "InvalidBucketName", "No bucket specified", null);
+            return;
+        }
+
+        if (req.key.length() == 0)
+        {
+            if ("PUT".equals(req.method))
+            {
+                createBucket(req);
+            }
+            else if ("GET".equals(req.method))
+            {
+                listObjects(req);
+            }
+            else if ("POST".equals(req.method) && req.params.containsKey("delete"))
+            {
+                deleteObjects(req);
+            }
+            else
+            {
+                sendError(req, 405, "MethodNotAllowed", "Method " + req.method + " not allowed on bucket", null);
+            }
+            return;
+        }
+
+        if (req.params.containsKey("uploads") || req.params.containsKey("uploadId"))
+        {
+            processMultipartUpload(req);
+        }
+        else if ("PUT".equals(req.method))
+        {
+            putObject(req);
+        }
+        else if ("GET".equals(req.method) || "HEAD".equals(req.method))
+        {
+            getObject(req);
+        }
+        else if ("DELETE".equals(req.method))
+        {
+            deleteObject(req);
+        }
+        else
+        {
+            sendError(req, 405, "MethodNotAllowed", "Method " + req.method + " not allowed on object", null);
+        }
+    }
+
+    protected void createBucket(EmulatorRequest req) throws IOException
+    {
+        if (buckets.putIfAbsent(req.bucket, new ConcurrentSkipListMap<String, StoredObject>()) != null)
+        {
+            sendError(req, 409, "BucketAlreadyOwnedByYou", "Your previous request to create the named bucket succeeded and you already own it.", null);
+            return;
+        }
+        send(req, 200, null, null, null);
+    }
+
+    protected void putObject(EmulatorRequest req) throws IOException
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if (objects == null)
+        {
+            sendError(req, 404, "NoSuchBucket", "The specified bucket does not exist", null);
+            return;
+        }
+        StoredObject obj = new StoredObject(req.body, req.getHeader("Content-Type"), getMetadata(req));
+        synchronized (objects)
+        {
+            if (!isPreconditionMet(req.getHeader("If-None-Match"), req.getHeader("If-Match"), req.getHeader("x-goog-if-generation-match"),
+                objects.get(req.key)))
+            {
+                sendError(req, 412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold", null);
+                return;
+            }
+            objects.put(req.key, obj);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        addObjectHeaders(headers, obj);
+        send(req, 200, null, null, headers);
+    }
+
+    /**
+     * Whether the preconditions of a write hold for the existing object : "If-None-Match: *" (AmazonS3) or "x-goog-if-generation-match: 0"
+     * (GoogleStorage) only create the object, "If-Match" (AmazonS3) requires its ETag and "x-goog-if-generation-match" (GoogleStorage)
+     * its generation.
+     * @param ifNoneMatch Value of "If-None-Match", or null
+     * @param ifMatch Value of "If-Match", or null
+     * @param generationMatch Value of "x-goog-if-generation-match", or null
+     * @param existing The existing object, or null
+     * @return Whether the write can be made
+     */
+    protected boolean isPreconditionMet(String ifNoneMatch, String ifMatch, String generationMatch, StoredObject existing)
+    {
+        if ("*".equals(ifNoneMatch) || "0".equals(generationMatch))
+        {
+            return existing == null;
+        }
+        if (ifMatch != null && (existing == null || !ifMatch.equals(existing.etag)))
+        {
+            return false;
+        }
+        return generationMatch == null || (existing != null && generationMatch.equals(Long.toString(existing.generation)));
+    }
+
+    /**
+     * Add the headers identifying the version of a stored object to a response : its ETag, and its generation for GoogleStorage.
+     */
+    protected void addObjectHeaders(Map<String, String> headers, StoredObject obj)
+    {
+        headers.put("ETag", obj.etag);
+        if ("x-goog-".equals(headerPrefix))
+        {
+            headers.put("x-goog-generation", Long.toString(obj.generation));
+        }
+    }
+
+    protected Map<String, String> getMetadata(EmulatorRequest req)
+    {
+        Map<String, String> metadata = new HashMap<>();
+        String metaPrefix = headerPrefix + "meta-";
+        for (Map.Entry<String, List<String>> entry : req.exchange.getRequestHeaders().entrySet())
+        {
+            String name = entry.getKey().toLowerCase(Locale.ENGLISH);
+            if (name.startsWith(metaPrefix))
+            {
+                metadata.put(name, entry.getValue().get(0));
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Process a request of a multipart upload : initiate ("POST ?uploads"), upload part ("PUT ?partNumber&amp;uploadId"),
+     * complete ("POST ?uploadId") or abort ("DELETE ?uploadId"). Like the real services all parts but the last must be at least 5MB.
+     * @param req The request
+     * @throws IOException if an error occurs sending the response
+     */
+    protected void processMultipartUpload(EmulatorRequest req) throws IOException
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if (objects == null)
+        {
+            sendError(req, 404, "NoSuchBucket", "The specified bucket does not exist", null);
+            return;
+        }
+
+        if ("POST".equals(req.method) && req.params.containsKey("uploads"))
+        {
+            String uploadId = Long.toHexString(System.nanoTime()) + "-" + nextUploadId.incrementAndGet();
+            uploads.put(uploadId, new MultipartUpload(req.bucket, req.key, req.getHeader("Content-Type"), getMetadata(req), req.getHeader("If-None-Match"),
+                req.getHeader("x-goog-if-generation-match")));
+            String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><InitiateMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Bucket>" +
+                xmlEscape(req.bucket) + "</Bucket><Key>" + xmlEscape(req.key) + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>";
+            send(req, 200, "application/xml; charset=UTF-8", xml.getBytes(StandardCharsets.UTF_8), null);
+            return;
+        }
+
+        MultipartUpload upload = uploads.get(req.params.get("uploadId"));
+        if (upload == null || !upload.bucket.equals(req.bucket) || !upload.key.equals(req.key))
+        {
+            sendError(req, 404, "NoSuchUpload", "The specified upload does not exist.", null);
+            return;
+        }
+
+        if ("PUT".equals(req.method))
+        {
+            int partNumber;
+            try
+            {
+                partNumber = Integer.parseInt(req.params.get("partNumber"));
+            }
+            catch (NumberFormatException e)
+            {
+                partNumber = 0;
+            }
+            if (partNumber < 1 || partNumber > 10000)
+            {
+                sendError(req, 400, "InvalidArgument", "Part number must be an integer between 1 and 10000, inclusive", null);
+                return;
+            }
+            upload.parts.put(partNumber, req.body);
+            Map<String, String> headers = new HashMap<>();
+            if (partETags)
+            {
+                headers.put("ETag", "\"" + toHex(md5(req.body)) + "\"");
+            }
+            send(req, 200, null, null, headers);
+        }
+        else if ("DELETE".equals(req.method))
+        {
+            uploads.remove(req.params.get("uploadId"));
+            send(req, 204, null, null, null);
+        }
+        else if ("POST".equals(req.method))
+        {
+            completeMultipartUpload(req, upload, objects);
+        }
+        else
+        {
+            sendError(req, 405, "MethodNotAllowed", "Method " + req.method + " not allowed on upload", null);
+        }
+    }
+
+    protected void completeMultipartUpload(EmulatorRequest req, MultipartUpload upload, NavigableMap<String, StoredObject> objects) throws IOException
+    {
+        NodeList parts;
+        try
+        {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(req.body));
+            parts = doc.getElementsByTagName("Part");
+        }
+        catch (Exception e)
+        {
+            sendError(req, 400, "MalformedXML", "The XML you provided was not well-formed or did not validate against our published schema", null);
+            return;
+        }
+        if (parts.getLength() == 0)
+        {
+            sendError(req, 400, "MalformedXML", "The request must contain at least one part", null);
+            return;
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int lastPartNumber = 0;
+        for (int i = 0; i < parts.getLength(); i++)
+        {
+            Element part = (Element) parts.item(i);
+            int partNumber = Integer.parseInt(part.getElementsByTagName("PartNumber").item(0).getTextContent().trim());
+            String etag = part.getElementsByTagName("ETag").item(0).getTextContent().trim();
+            byte[] partData = upload.parts.get(partNumber);
+            if (partData == null || !etag.equals("\"" + toHex(md5(partData)) + "\""))
+            {
+                sendError(req, 400, "InvalidPart", "One or more of the specified parts could not be found or the ETag did not match.", null);
+                return;
+            }
+            if (partNumber <= lastPartNumber)
+            {
+                sendError(req, 400, "InvalidPartOrder", "The list of parts was not in ascending order.", null);
+                return;
+            }
+            if (i < parts.getLength() - 1 && partData.length < 5 * 1024 * 1024)
+            {
+                sendError(req, 400, "EntityTooSmall", "Your proposed upload is smaller than the minimum allowed object size.", null);
+                return;
+            }
+            data.write(partData);
+            lastPartNumber = partNumber;
+        }
+
+        StoredObject obj = new StoredObject(data.toByteArray(), upload.contentType, upload.metadata);
+        synchronized (objects)
+        {
+            StoredObject existing = objects.get(upload.key);
+            if (!isPreconditionMet(upload.ifNoneMatch, null, upload.generationMatch, existing) ||
+                !isPreconditionMet(req.getHeader("If-None-Match"), req.getHeader("If-Match"), req.getHeader("x-goog-if-generation-match"), existing))
+            {
+                sendError(req, 412, "PreconditionFailed", "At least one of the pre-conditions you specified did not hold", null);
+                return;
+            }
+            objects.put(upload.key, obj);
+        }
+        uploads.remove(req.params.get("uploadId"));
+
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><CompleteMultipartUploadResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Bucket>" +
+            xmlEscape(upload.bucket) + "</Bucket><Key>" + xmlEscape(upload.key) + "</Key><ETag>" + xmlEscape(obj.etag) + "</ETag></CompleteMultipartUploadResult>";
+        send(req, 200, "application/xml; charset=UTF-8", xml.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    protected void getObject(EmulatorRequest req) throws IOException
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        StoredObject obj = objects != null ? objects.get(req.key) : null;
+        if (obj == null)
+        {
+            sendError(req, 404, "NoSuchKey", "The specified key does not exist.", null);
+            return;
+        }
+
+        Map<String, String> headers = new HashMap<>(obj.metadata);
+        addObjectHeaders(headers, obj);
+        headers.put("Last-Modified", formatHttpDate(obj.lastModified));
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && ifNoneMatch.equals(obj.etag))
+        {
+            send(req, 304, null, null, headers);
+            return;
+        }
+        send(req, 200, obj.contentType != null ? obj.contentType : "application/octet-stream", obj.data, headers);
+    }
+
+    protected void deleteObject(EmulatorRequest req) throws IOException
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if (objects == null)
+        {
+            sendError(req, 404, "NoSuchBucket", "The specified bucket does not exist", null);
+            return;
+        }
+
+        // Like the real services, deleting a non-existent key is not an error
+        objects.remove(req.key);
+        send(req, 204, null, null, null);
+    }
+
+    /**
+     * Delete multiple objects ("POST ?delete"), with up to 1000 keys. The request must have a Content-MD5 header, and in
+     * "Quiet" mode only the keys that failed are reported.
+     * @param req The request
+     * @throws IOException if an error occurs sending the response
+     */
+    protected void deleteObjects(EmulatorRequest req) throws IOException
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if (objects == null)
+        {
+            sendError(req, 404, "NoSuchBucket", "The specified bucket does not exist", null);
+            return;
+        }
+        if (req.getHeader("Content-MD5") == null)
+        {
+            sendError(req, 400, "InvalidRequest", "Missing required header for this request: Content-MD5", null);
+            return;
+        }
+
+        NodeList keys;
+        boolean quiet;
+        try
+        {
+            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(req.body));
+            keys = doc.getElementsByTagName("Key");
+            NodeList quietList = doc.getElementsByTagName("Quiet");
+            quiet = quietList.getLength() > 0 && "true".equalsIgnoreCase(quietList.item(0).getTextContent().trim());
+        }
+        catch (Exception e)
+        {
+            sendError(req, 400, "MalformedXML", "The XML you provided was not well-formed or did not validate against our published schema", null);
+            return;
+        }
+        if (keys.getLength() == 0 || keys.getLength() > 1000)
+        {
+            sendError(req, 400, "MalformedXML", "The request must contain between 1 and 1000 keys", null);
+            return;
+        }
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<DeleteResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+        for (int i = 0; i < keys.getLength(); i++)
+        {
+            String key = ((Element) keys.item(i)).getTextContent();
+            InjectedFailure failure = getInjectedFailure("DELETE", key);
+            if (failure != null)
+            {
+                xml.append("<Error><Key>").append(xmlEscape(key)).append("</Key><Code>").append(failure.errorCode)
+                    .append("</Code><Message>Injected failure</Message></Error>");
+                continue;
+            }
+            // Like the real services, deleting a non-existent key is not an error
+            objects.remove(key);
+            if (!quiet)
+            {
+                xml.append("<Deleted><Key>").append(xmlEscape(key)).append("</Key></Deleted>");
+            }
+        }
+        xml.append("</DeleteResult>");
+
+        send(req, 200, "application/xml; charset=UTF-8", xml.toString().getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * List the objects in a bucket, supporting "prefix", "max-keys" and both the V1 ("marker") and V2 ("list-type=2",
+     * "start-after", "continuation-token") forms of paging.
+     * @param req The request
+     * @throws IOException if an error occurs sending the response
+     */
+    protected void listObjects(EmulatorRequest req) throws IOException
+    {
+        NavigableMap<String, StoredObject> objects = buckets.get(req.bucket);
+        if (objects == null)
+        {
+            sendError(req, 404, "NoSuchBucket", "The specified bucket does not exist", null);
+            return;
+        }
+
+        boolean v2 = "2".equals(req.params.get("list-type"));
+        String prefix = nullToEmpty(req.params.get("prefix"));
+        String after = v2 ? req.params.get("continuation-token") : req.params.get("marker");
+        if (after == null && v2)
+        {
+            after = req.params.get("start-after");
+        }
+        int pageSize = maxKeys;
+        if (req.params.containsKey("max-keys"))
+        {
+            pageSize = Math.min(pageSize, Integer.parseInt(req.params.get("max-keys")));
+        }
+
+        NavigableMap<String, StoredObject> candidates = objects;
+        if (after != null && after.length() > 0)
+        {
+            candidates = candidates.tailMap(after, false);
+        }
+        if (prefix.length() > 0 && (after == null || after.compareTo(prefix) < 0))
+        {
+            candidates = candidates.tailMap(prefix, true);
+        }
+
+        StringBuilder contents = new StringBuilder();
+        int count = 0;
+        boolean truncated = false;
+        String lastKey = null;
+        Iterator<Map.Entry<String, StoredObject>> iter = candidates.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            Map.Entry<String, StoredObject> entry = iter.next();
+            String key = entry.getKey();
+            if (!key.startsWith(prefix))
+            {
+                break;
+            }
+            if (count == pageSize)
+            {
+                truncated = true;
+                break;
+            }
+            StoredObject obj = entry.getValue();
+            contents.append("<Contents><Key>").append(xmlEscape(key)).append("</Key>");
+            contents.append("<LastModified>").append(formatIsoDate(obj.lastModified)).append("</LastModified>");
+            contents.append("<ETag>").append(xmlEscape(obj.etag)).append("</ETag>");
+            contents.append("<Size>").append(obj.data.length).append("</Size>");
+            contents.append("<StorageClass>STANDARD</StorageClass></Contents>");
+            lastKey = key;
+            count++;
+        }
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        xml.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+        xml.append("<Name>").append(xmlEscape(req.bucket)).append("</Name>");
+        xml.append("<Prefix>").append(xmlEscape(prefix)).append("</Prefix>");
+        if (v2)
+        {
+            xml.append("<KeyCount>").append(count).append("</KeyCount>");
+            if (truncated)
+            {
+                xml.append("<NextContinuationToken>").append(xmlEscape(lastKey)).append("</NextContinuationToken>");
+            }
+        }
+        else
+        {
+            xml.append("<Marker>").append(xmlEscape(nullToEmpty(after))).append("</Marker>");
+            if (truncated)
+            {
+                xml.append("<NextMarker>").append(xmlEscape(lastKey)).append("</NextMarker>");
+            }
+        }
+        xml.append("<MaxKeys>").append(pageSize).append("</MaxKeys>");
+        xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        xml.append(contents);
+        xml.append("</ListBucketResult>");
+
+        send(req, 200, "application/xml; charset=UTF-8", xml.toString().getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    protected void sendError(EmulatorRequest req, int code, String errorCode, String message, Map<String, String> headers) throws IOException
+    {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + errorCode + "</Code><Message>" + xmlEscape(message) + "</Message></Error>";
+        send(req, code, "application/xml", xml.getBytes(StandardCharsets.UTF_8), headers);
+    }
+
+    protected void send(EmulatorRequest req, int code, String contentType, byte[] body, Map<String, String> headers) throws IOException
+    {
+        HttpExchange exchange = req.exchange;
+        Headers respHeaders = exchange.getResponseHeaders();
+        respHeaders.set("Date", formatHttpDate(System.currentTimeMillis()));
+        if (contentType != null)
+        {
+            respHeaders.set("Content-Type", contentType);
+        }
+        if (headers != null)
+        {
+            for (Map.Entry<String, String> entry : headers.entrySet())
+            {
+                respHeaders.set(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (body == null || code == 204 || code == 304)
+        {
+            exchange.sendResponseHeaders(code, -1);
+        }
+        else if ("HEAD".equals(req.method))
+        {
+            respHeaders.set("Content-Length", "" + body.length);
+            exchange.sendResponseHeaders(code, -1);
+        }
+        else
+        {
+            exchange.sendResponseHeaders(code, body.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(body);
+            os.flush();
+        }
+    }
+
+    protected static Map<String, String> parseQuery(String rawQuery)
+    {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.length() == 0)
+        {
+            return params;
+        }
+        for (String param : rawQuery.split("&"))
+        {
+            int eq = param.indexOf('=');
+            if (eq < 0)
+            {
+                params.put(decode(param), "");
+            }
+            else
+            {
+                params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+            }
+        }
+        return params;
+    }
+
+    protected static String decode(String str)
+    {
+        try
+        {
+            return URLDecoder.decode(str.replace("+", "%2B"), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static byte[] readFully(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int r;
+        while ((r = is.read(buffer)) != -1)
+        {
+            baos.write(buffer, 0, r);
+        }
+        return baos.toByteArray();
+    }
+
+    protected static String hmac(String key, String data)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance(HMAC_SHA1_ALGORITHM);
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), HMAC_SHA1_ALGORITHM));
+            return Base64.getEncoder().encodeToString(mac.doFinal(data.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static byte[] md5(byte[] data)
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5").digest(data);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static String toHex(byte[] bytes)
+    {
+        StringBuilder str = new StringBuilder();
+        for (byte b : bytes)
+        {
+            str.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return str.toString();
+    }
+
+    protected static String xmlEscape(String str)
+    {
+        return str.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    protected static String nullToEmpty(String str)
+    {
+        return str == null ? "" : str;
+    }
+
+    protected static String formatHttpDate(long millis)
+    {
+        SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.ENGLISH);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.format(new Date(millis));
+    }
+
+    protected static String formatIsoDate(long millis)
+    {
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return fmt.format(new Date(millis));
+    }
+
+    /**
+     * Run the emulator standalone. Arguments are "{realm} {accessKey} {secretKey} [port]".
+     * @param args Arguments
+     * @throws IOException if the server cannot be started
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 3)
+        {
+            System.err.println("Usage: CloudStorageEmulator {AWS|GOOG1} {accessKey} {secretKey} [port]");
+            return;
+        }
+        CloudStorageEmulator emulator = new CloudStorageEmulator(args[0], args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        emulator.start();
+        System.out.println("CloudStorageEmulator listening on port " + emulator.getPort());
+    }
+}
@@ -0,0 +1,105 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.googlestorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jdo.JDOException;
+
+import org.datanucleus.store.json.PersistenceHandlerTestCase;
+import org.datanucleus.store.json.SecondaryIndex;
+import org.datanucleus.store.json.model.Person;
+import org.datanucleus.store.json.model.Product;
+import org.junit.Test;
+
+/**
+ * Tests of the "googlestorage" datastore against the emulator.
+ */
+public class GoogleStoragePersistenceHandlerTest extends PersistenceHandlerTestCase
+{
+    protected String getStoreManagerKey()
+    {
+        return "googlestorage";
+    }
+
+    @Test
+    public void testCreateOnlyOptions()
+    {
+        // Conditional creates use the generation precondition rather than "If-None-Match"
+        Map<String, String> options = new HashMap<>();
+        ((GoogleStoragePersistenceHandler) getPersistenceHandler()).addCreateOnlyOptions(options);
+        assertEquals(Map.of("x-goog-if-generation-match", "0"), options);
+    }
+
+    @Test
+    public void testBatchInsertPartialFailure()
+    {
+        emulator.injectFailure("PUT", getKey(Person.class, "p2"), 403, "AccessDenied");
+
+        try
+        {
+            persist(new Person("p1", "Alice", 30), new Person("p2", "Bob", 40), new Person("p3", "Carol", 50));
+            fail("Insert of an object that the datastore failed to store succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Only the object that failed is reported
+            Throwable[] nested = e.getNestedExceptions();
+            assertEquals(1, nested.length);
+            assertTrue(nested[0].getMessage(), nested[0].getMessage().contains(getKey(Person.class, "p2")));
+        }
+        assertEquals(List.of(getKey(Person.class, "p1"), getKey(Person.class, "p3")), emulator.getKeys(BUCKET, Person.class.getName() + "/"));
+    }
+
+    @Test
+    public void testBatchDeletePartialFailure()
+    {
+        persist(new Product("a", "books", 10), new Product("b", "games", 20), new Product("c", "books", 30));
+        String indexPrefix = SecondaryIndex.INDEX_PREFIX + Product.class.getName() + "/";
+        assertEquals(6, emulator.getKeys(BUCKET, indexPrefix).size());
+        emulator.injectFailure("DELETE", getKey(Product.class, "b"), 403, "AccessDenied");
+
+        try
+        {
+            deleteAll(Product.class, "a", "b", "c");
+            fail("Delete of an object that the datastore failed to delete succeeded");
+        }
+        catch (JDOException e)
+        {
+            // Only the object that failed is reported
+            Throwable[] nested = e.getNestedExceptions();
+            assertEquals(1, nested.length);
+            assertTrue(nested[0].getMessage(), nested[0].getMessage().contains(getKey(Product.class, "b")));
+        }
+        assertEquals(List.of(getKey(Product.class, "b")), emulator.getKeys(BUCKET, Product.class.getName() + "/"));
+
+        // The index entries of the deleted objects are removed, and those of the object that is still stored are kept
+        List<String> entries = emulator.getKeys(BUCKET, indexPrefix);
+        assertEquals(entries.toString(), 2, entries.size());
+        for (String entry : entries)
+        {
+            assertTrue(entry, entry.endsWith("/b"));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.model;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+import javax.jdo.annotations.Version;
+import javax.jdo.annotations.VersionStrategy;
+
+/**
+ * Versioned class with a member mirrored into a metadata header, that is not in the default fetch group.
+ */
+@PersistenceCapable(detachable="true")
+@Version(strategy=VersionStrategy.VERSION_NUMBER, extensions={@Extension(vendorName="datanucleus", key="field-name", value="version")})
+public class Account
+{
+    @PrimaryKey
+    String id;
+
+    @Persistent(defaultFetchGroup="false")
+    @Extension(vendorName="datanucleus", key="metadata-header", value="true")
+    String owner;
+
+    long balance;
+
+    long version;
+
+    public Account(String id, String owner, long balance)
+    {
+        this.id = id;
+        this.owner = owner;
+        this.balance = balance;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getOwner()
+    {
+        return owner;
+    }
+
+    public long getBalance()
+    {
+        return balance;
+    }
+
+    public void setBalance(long balance)
+    {
+        this.balance = balance;
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+}
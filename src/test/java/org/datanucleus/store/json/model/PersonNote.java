@@ -0,0 +1,49 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.model;
+
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * Class whose name starts with the name of another class (Person), so its keys share their key prefix.
+ */
+@PersistenceCapable(detachable="true")
+public class PersonNote
+{
+    @PrimaryKey
+    String id;
+
+    String text;
+
+    public PersonNote(String id, String text)
+    {
+        this.id = id;
+        this.text = text;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getText()
+    {
+        return text;
+    }
+}
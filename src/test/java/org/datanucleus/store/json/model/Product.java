@@ -0,0 +1,65 @@
+/**********************************************************************
+Copyright (c) 2026 DataNucleus and others. All rights reserved.
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+Contributors:
+    ...
+**********************************************************************/
+package org.datanucleus.store.json.model;
+
+import javax.jdo.annotations.Extension;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.PrimaryKey;
+
+/**
+ * Class with members that have a secondary index.
+ */
+@PersistenceCapable(detachable="true")
+public class Product
+{
+    @PrimaryKey
+    String id;
+
+    @Extension(vendorName="datanucleus", key="index", value="true")
+    String category;
+
+    @Extension(vendorName="datanucleus", key="index", value="true")
+    long price;
+
+    public Product(String id, String category, long price)
+    {
+        this.id = id;
+        this.category = category;
+        this.price = price;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getCategory()
+    {
+        return category;
+    }
+
+    public void setCategory(String category)
+    {
+        this.category = category;
+    }
+
+    public long getPrice()
+    {
+        return price;
+    }
+}